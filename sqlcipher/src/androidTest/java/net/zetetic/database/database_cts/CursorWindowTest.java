@@ -24,17 +24,23 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import android.database.CharArrayBuffer;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
+import android.util.Log;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
 
 import net.zetetic.database.CursorWindow;
 import net.zetetic.database.MatrixCursor;
+import net.zetetic.database.RowBuffer;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Random;
@@ -42,6 +48,7 @@ import java.util.Random;
 @RunWith(AndroidJUnit4.class)
 public class CursorWindowTest {
 
+    private static final String TAG = "CursorWindowTest";
     private static final String TEST_STRING = "Test String";
 
     @Before
@@ -282,6 +289,278 @@ public class CursorWindowTest {
         assertTrue(cursorWindow.isBlob(0, 4));
     }
 
+    @Test
+    public void testReadRows() {
+        CursorWindow window = new CursorWindow("rows");
+        assertTrue(window.setNumColumns(4));
+        byte[] blob = new byte[2000];
+        for (int row = 0; row < 50; row++) {
+            assertTrue(window.allocRow());
+            assertTrue(window.putLong(row, row, 0));
+            assertTrue(window.putDouble(row * 0.5, row, 1));
+            assertTrue(window.putString("s" + row, row, 2));
+            if (row % 2 == 0) {
+                assertTrue(window.putNull(row, 3));
+            } else {
+                blob[0] = (byte) row;
+                assertTrue(window.putBlob(blob, row, 3));
+            }
+        }
+
+        RowBuffer rowBuffer = new RowBuffer();
+        assertTrue(window.readRow(7, rowBuffer));
+        assertEquals(1, rowBuffer.getRowCount());
+        assertEquals(4, rowBuffer.getColumnCount());
+        assertEquals(7, rowBuffer.getLong(0, 0));
+        assertEquals(3.5, rowBuffer.getDouble(0, 1), 0);
+        assertEquals("s7", rowBuffer.getString(0, 2));
+        assertEquals(Cursor.FIELD_TYPE_BLOB, rowBuffer.getType(0, 3));
+        assertEquals(blob.length, rowBuffer.getLength(0, 3));
+        assertEquals(7, rowBuffer.getData()[rowBuffer.getOffset(0, 3)]);
+
+        // The blobs of 40 rows do not fit in the initial buffer, which grows to hold them
+        assertEquals(40, window.readRows(10, 40, rowBuffer));
+        assertEquals(40, rowBuffer.getRowCount());
+        for (int i = 0; i < 40; i++) {
+            int row = 10 + i;
+            assertEquals(row, rowBuffer.getInt(i, 0));
+            assertEquals(row * 0.5, rowBuffer.getDouble(i, 1), 0);
+            assertEquals("s" + row, rowBuffer.getString(i, 2));
+            assertEquals(row % 2 == 0, rowBuffer.isNull(i, 3));
+            if (row % 2 != 0) {
+                assertEquals(row, rowBuffer.getData()[rowBuffer.getOffset(i, 3)]);
+            }
+        }
+        try {
+            rowBuffer.getLong(1, 3);
+            fail("BLOB data should not be returned as long");
+        } catch (SQLiteException e) {
+            // expected
+        }
+
+        // Reading past the last row stops there
+        assertEquals(5, window.readRows(45, 10, rowBuffer));
+        assertFalse(window.readRow(50, rowBuffer));
+        window.close();
+    }
+
+    @Test
+    public void testGetBufferAndUtf8() {
+        CursorWindow window = new CursorWindow("bytes");
+        assertTrue(window.setNumColumns(4));
+        assertTrue(window.allocRow());
+        String json = "{\"name\":\"caf\u00e9\"}";
+        byte[] utf8 = json.getBytes(StandardCharsets.UTF_8);
+        byte[] blob = new byte[] { 1, 2, 3, 0, 4 };
+        assertTrue(window.putString(json, 0, 0));
+        assertTrue(window.putBlob(blob, 0, 1));
+        assertTrue(window.putNull(0, 2));
+        assertTrue(window.putLong(7, 0, 3));
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        buffer.put((byte) 9);
+        assertEquals(utf8.length, window.getBuffer(0, 0, buffer));
+        assertEquals(1 + utf8.length, buffer.position());
+        buffer.flip();
+        assertEquals(9, buffer.get());
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        assertTrue(Arrays.equals(utf8, bytes));
+        buffer = ByteBuffer.allocate(64);
+        assertEquals(blob.length, window.getBuffer(0, 1, buffer));
+        assertTrue(Arrays.equals(blob, Arrays.copyOf(buffer.array(), blob.length)));
+        assertEquals(-1, window.getBuffer(0, 2, buffer));
+        assertEquals(blob.length, buffer.position());
+
+        // The buffer is left alone when the value does not fit
+        buffer = ByteBuffer.allocateDirect(4);
+        assertEquals(utf8.length, window.getBuffer(0, 0, buffer));
+        assertEquals(0, buffer.position());
+
+        byte[] target = new byte[64];
+        assertEquals(utf8.length, window.getUtf8(0, 0, target, 2));
+        assertTrue(Arrays.equals(utf8, Arrays.copyOfRange(target, 2, 2 + utf8.length)));
+        assertEquals(blob.length, window.getUtf8(0, 1, target, 0));
+        assertTrue(Arrays.equals(blob, Arrays.copyOf(target, blob.length)));
+        assertEquals(-1, window.getUtf8(0, 2, target, 0));
+
+        // Nothing is copied when the value does not fit
+        byte[] small = new byte[4];
+        assertEquals(utf8.length, window.getUtf8(0, 0, small, 0));
+        assertTrue(Arrays.equals(new byte[4], small));
+
+        try {
+            window.getUtf8(0, 3, target, 0);
+            fail("INTEGER data should not be returned as bytes");
+        } catch (SQLiteException e) {
+            // expected
+        }
+        window.close();
+    }
+
+    @Test
+    public void testBufferPool() {
+        CursorWindow.trimBufferPool();
+        CursorWindow.BufferPoolStats before = CursorWindow.getBufferPoolStats();
+        assertEquals(0, before.pooledBytes);
+
+        for (int i = 0; i < 10; i++) {
+            CursorWindow window = new CursorWindow("pool");
+            assertTrue(window.setNumColumns(1));
+            assertTrue(window.allocRow());
+            assertTrue(window.putLong(i, 0, 0));
+            assertEquals(i, window.getLong(0, 0));
+            window.close();
+        }
+        CursorWindow.BufferPoolStats after = CursorWindow.getBufferPoolStats();
+        // Only the first window needs a new buffer, the others reuse it
+        assertTrue(after.hitCount - before.hitCount >= 9);
+        assertTrue(after.recycledCount - before.recycledCount >= 10);
+        assertTrue(after.pooledBytes > 0);
+
+        assertTrue(CursorWindow.trimBufferPool() > 0);
+        assertEquals(0, CursorWindow.getBufferPoolStats().pooledBytes);
+
+        CursorWindow.setBufferPoolLimit(0);
+        try {
+            new CursorWindow("pool").close();
+            assertEquals(0, CursorWindow.getBufferPoolStats().pooledBytes);
+        } finally {
+            CursorWindow.setBufferPoolLimit(4 * 1024 * 1024);
+        }
+    }
+
+    @Test
+    public void testColumnarWindow() {
+        CursorWindow window = new CursorWindow("", CursorWindow.DEFAULT_CURSOR_WINDOW_SIZE, true);
+        assertTrue(window.isColumnar());
+        assertTrue(window.setNumColumns(3));
+        int rows = 250;
+        for (int i = 0; i < rows; i++) {
+            assertTrue(window.allocRow());
+            assertTrue(window.putLong(i, i, 0));
+            assertTrue(window.putDouble(i * 0.5, i, 1));
+            if (i % 2 == 0) {
+                assertTrue(window.putString(Integer.toString(i), i, 2));
+            }
+        }
+        assertEquals(rows, window.getNumRows());
+        assertEquals(Cursor.FIELD_TYPE_INTEGER, window.getType(150, 0));
+        assertEquals(Cursor.FIELD_TYPE_FLOAT, window.getType(150, 1));
+        assertEquals(Cursor.FIELD_TYPE_STRING, window.getType(150, 2));
+        assertTrue(window.isNull(151, 2));
+        assertEquals(42L, window.getLong(42, 0));
+        assertEquals(21.0, window.getDouble(42, 1), 0.0);
+        assertEquals("42", window.getString(42, 2));
+
+        long[] longs = new long[rows + 2];
+        assertEquals(rows - 10, window.getLongs(10, 0, longs, 2, rows));
+        for (int i = 10; i < rows; i++) {
+            assertEquals(i, longs[i - 8]);
+        }
+        double[] doubles = new double[rows];
+        assertEquals(rows, window.getDoubles(0, 1, doubles, 0, rows));
+        for (int i = 0; i < rows; i++) {
+            assertEquals(i * 0.5, doubles[i], 0.0);
+        }
+        // Strings are parsed and NULLs read as zero
+        assertEquals(4, window.getLongs(100, 2, longs, 0, 4));
+        assertEquals(100L, longs[0]);
+        assertEquals(0L, longs[1]);
+        assertEquals(0, window.getLongs(rows, 0, longs, 0, 1));
+
+        try {
+            window.getLongs(0, 0, longs, longs.length, 1);
+            fail("getLongs() should throw ArrayIndexOutOfBoundsException here.");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // expected
+        }
+        assertTrue(window.putBlob(new byte[] {1, 2}, 5, 2));
+        try {
+            window.getDoubles(0, 2, doubles, 0, rows);
+            fail("getDoubles() should throw SQLiteException here.");
+        } catch (SQLiteException e) {
+            // expected
+        }
+        window.close();
+    }
+
+    @Test
+    public void testRowLookupAcrossManyChunks() {
+        // Rows are found through the chunk directory, which must stay in step with the
+        // chunks as the window grows, is cleared and is filled again.
+        CursorWindow window = new CursorWindow("", CursorWindow.DEFAULT_CURSOR_WINDOW_SIZE);
+        assertTrue(window.setNumColumns(1));
+        fillAndCheckRows(window, 50000);
+
+        window.clear();
+        assertTrue(window.setNumColumns(1));
+        assertEquals(0, window.getNumRows());
+        fillAndCheckRows(window, 250);
+        window.close();
+    }
+
+    private static void fillAndCheckRows(CursorWindow window, int rows) {
+        for (int row = 0; row < rows; row++) {
+            assertTrue(window.allocRow());
+            assertTrue(window.putLong(row * 3L, row, 0));
+        }
+        assertEquals(rows, window.getNumRows());
+
+        // Read every row once, in an order that jumps between chunks.
+        Random random = new Random(rows);
+        int[] order = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            order[i] = i;
+        }
+        for (int i = rows - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        for (int row : order) {
+            assertEquals(row * 3L, window.getLong(row, 0));
+        }
+    }
+
+    @LargeTest
+    @Test
+    public void testRowLookupCostBenchmark() {
+        // Micro-benchmark: rows are found through the chunk directory, so reading rows
+        // near the end of a window should cost the same however many rows it holds.
+        // Timings are only logged since they are too noisy to assert on.
+        CursorWindow window = new CursorWindow("", CursorWindow.DEFAULT_CURSOR_WINDOW_SIZE);
+        assertTrue(window.setNumColumns(1));
+        int[] sizes = new int[] {1000, 10000, 50000};
+        int rows = 0;
+        for (int size : sizes) {
+            for (; rows < size; rows++) {
+                assertTrue(window.allocRow());
+                assertTrue(window.putLong(rows, rows, 0));
+            }
+            Log.i(TAG, String.format("getLong near the end of %d rows: %d ns",
+                rows, timeReadsNearEnd(window, rows)));
+        }
+        window.close();
+    }
+
+    private static long timeReadsNearEnd(CursorWindow window, int rows) {
+        final int reads = 20000;
+        long sum = 0;
+        // Warm up before measuring
+        for (int i = 0; i < reads; i++) {
+            sum += window.getLong(rows - 1 - (i % 50), 0);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            sum += window.getLong(rows - 1 - (i % 50), 0);
+        }
+        long elapsed = System.nanoTime() - start;
+        assertTrue(sum > 0);
+        return elapsed / reads;
+    }
+
     @Test
     public void testCopyStringToBuffer() {
         int DEFAULT_ARRAY_LENGTH = 60;
@@ -32,7 +32,8 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.CharArrayBuffer;
 import android.database.Cursor;
-import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabaseLockedException;
 import android.database.sqlite.SQLiteException;
 import android.os.Parcel;
 
@@ -44,8 +45,13 @@ import android.util.Pair;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
+import net.zetetic.database.sqlcipher.ColumnBatch;
+import net.zetetic.database.sqlcipher.SQLiteAsyncDatabase;
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
+import net.zetetic.database.sqlcipher.SQLiteDebug;
+import net.zetetic.database.sqlcipher.SQLiteDebug.DbStats;
 import net.zetetic.database.sqlcipher.SQLiteStatement;
+import net.zetetic.database.DatabaseUtils;
 import net.zetetic.database.DefaultDatabaseErrorHandler;
 import junit.framework.Assert;
 
@@ -58,8 +64,15 @@ import org.junit.runner.RunWith;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 @RunWith(AndroidJUnit4.class)
 public class DatabaseGeneralTest {
@@ -960,6 +973,637 @@ public class DatabaseGeneralTest {
         }
     }
 
+    @Test
+    public void testStatementCacheResizeAndStats() {
+        mDatabase.execSQL("CREATE TABLE test (i int, j int);");
+        mDatabase.execSQL("insert into test values(1,1);");
+        mDatabase.setMaxSqlCacheSize(2);
+
+        DbStats before = getMainDbStats();
+        for (int i = 0; i < 3; i++) {
+            queryOnce("SELECT j FROM test WHERE i = " + i);
+        }
+        queryOnce("SELECT j FROM test WHERE i = 2");
+        DbStats after = getMainDbStats();
+        assertTrue(after.cacheSize <= 2);
+        assertTrue(after.cacheEvictions > before.cacheEvictions);
+        assertTrue(after.cacheHits > before.cacheHits);
+        assertTrue(after.cacheMisses >= before.cacheMisses + 3);
+        assertTrue(after.cacheBytes > 0);
+
+        // Every statement is larger than a one byte budget, so none stays cached
+        mDatabase.setMaxSqlCacheBytes(1);
+        assertEquals(0, getMainDbStats().cacheSize);
+        queryOnce("SELECT j FROM test WHERE i = 2");
+        DbStats limited = getMainDbStats();
+        assertEquals(0, limited.cacheSize);
+        assertEquals(0, limited.cacheBytes);
+
+        mDatabase.setMaxSqlCacheBytes(0);
+        queryOnce("SELECT j FROM test WHERE i = 2");
+        assertEquals(1, getMainDbStats().cacheSize);
+    }
+
+    @Test
+    public void testCachedPragmasReturnCurrentValues() {
+        mDatabase.setVersion(3);
+        assertEquals(3, mDatabase.getVersion());
+        int hits = getMainDbStats().cacheHits;
+
+        mDatabase.setVersion(4);
+        assertEquals(4, mDatabase.getVersion());
+        assertTrue(getMainDbStats().cacheHits > hits);
+    }
+
+    @Test
+    public void testCachedQueryColumnsFollowSchemaChanges() {
+        mDatabase.execSQL("CREATE TABLE test (a int, b int);");
+        Cursor cursor = mDatabase.rawQuery("SELECT * FROM test", null);
+        assertEquals(Arrays.asList("a", "b"), Arrays.asList(cursor.getColumnNames()));
+        cursor.close();
+
+        mDatabase.execSQL("ALTER TABLE test RENAME COLUMN b TO c;");
+        cursor = mDatabase.rawQuery("SELECT * FROM test", null);
+        assertEquals(Arrays.asList("a", "c"), Arrays.asList(cursor.getColumnNames()));
+        assertEquals(1, cursor.getColumnIndex("c"));
+        assertEquals(-1, cursor.getColumnIndex("b"));
+        cursor.close();
+    }
+
+    @Test
+    public void testReadOnlyStatementsOfOtherKindsAreCached() {
+        String sql = "WITH t(x) AS (SELECT 1) SELECT x FROM t";
+        queryOnce(sql);
+        int hits = getMainDbStats().cacheHits;
+        queryOnce(sql);
+        assertTrue(getMainDbStats().cacheHits > hits);
+
+        // Savepoints are read-only statements too, but they return no rows
+        int size = getMainDbStats().cacheSize;
+        mDatabase.execSQL("SAVEPOINT sp");
+        mDatabase.execSQL("RELEASE sp");
+        assertEquals(size, getMainDbStats().cacheSize);
+    }
+
+    @Test
+    public void testWarmUpStatements() {
+        mDatabase.execSQL("CREATE TABLE test (i int, j int);");
+        String sql = "SELECT j FROM test WHERE i = ?";
+        DbStats before = getMainDbStats();
+        mDatabase.setWarmUpStatements(Arrays.asList(sql, "SELECT * FROM missing"), null);
+
+        DbStats warm = getMainDbStats();
+        assertEquals(1, warm.warmUpStatements);
+        assertTrue(warm.warmUpMillis >= 0);
+        assertEquals(before.cacheSize + 1, warm.cacheSize);
+
+        // The query finds the statement in the cache instead of adding it
+        Cursor cursor = mDatabase.rawQuery(sql, new String[] {"1"});
+        cursor.close();
+        assertEquals(warm.cacheSize, getMainDbStats().cacheSize);
+    }
+
+    @Test
+    public void testReadConnectionPoolingWithoutWal() throws Exception {
+        mDatabase.execSQL("CREATE TABLE test (i int);");
+        mDatabase.execSQL("INSERT INTO test VALUES (1);");
+        mDatabase.setReadConnectionPoolingEnabled(true);
+        mDatabase.setConnectionPoolSize(1, 2);
+
+        // The blocked query holds one connection, so the other query runs on another
+        queryWhileAnotherQueryRuns();
+        assertEquals(1, countNonPrimaryConnections());
+    }
+
+    @LargeTest
+    @Test
+    public void testConnectionPoolContention() throws Exception {
+        mDatabase.execSQL("CREATE TABLE test (i int);");
+        mDatabase.execSQL("INSERT INTO test VALUES (1);");
+        assertTrue(mDatabase.enableWriteAheadLogging());
+
+        // Micro-benchmark: queries of up to 32 threads take the idle connections of the pool
+        // without its lock.  Throughput is only logged since it is too noisy to assert on.
+        for (int threadCount = 1; threadCount <= 32; threadCount *= 2) {
+            Log.i(TAG, String.format(Locale.US, "%d threads: %.0f queries/s",
+                    threadCount, measureQueriesPerSecond(mDatabase, threadCount)));
+        }
+    }
+
+    private static double measureQueriesPerSecond(final SQLiteDatabase db, int threadCount)
+            throws Exception {
+        final int queriesPerThread = 2000;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int q = 0; q < queriesPerThread; q++) {
+                            assertEquals(1, DatabaseUtils.longForQuery(db,
+                                    "SELECT i FROM test", null));
+                        }
+                    } catch (Throwable ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(60000);
+            assertFalse(thread.isAlive());
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        return threadCount * queriesPerThread * 1e9 / elapsedNanos;
+    }
+
+    @Test
+    public void testQueryPrefersConnectionWithStatementCached() throws Exception {
+        mDatabase.execSQL("CREATE TABLE test (i int);");
+        mDatabase.execSQL("INSERT INTO test VALUES (1);");
+        assertTrue(mDatabase.enableWriteAheadLogging());
+        mDatabase.setConnectionPoolSize(1, 4);
+
+        final CountDownLatch entered = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        mDatabase.addCustomFunction("block", 1, new SQLiteDatabase.CustomFunction() {
+            @Override
+            public void callback(String[] args) {
+                entered.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        Runnable blockingQuery = new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = mDatabase.rawQuery("SELECT block(i) FROM test", null);
+                cursor.getCount();
+                cursor.close();
+            }
+        };
+        Thread first = new Thread(blockingQuery);
+        Thread second = new Thread(blockingQuery);
+        first.start();
+        second.start();
+        try {
+            // Both blocked queries hold a connection, so this one opens a connection of its own
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            queryOnce("SELECT i FROM test WHERE i = 1");
+        } finally {
+            release.countDown();
+            first.join();
+            second.join();
+        }
+        assertTrue(countNonPrimaryConnections() >= 2);
+
+        // A connection released after the one that has the statement cached would be taken
+        // next, but the query goes to the one that has it, so no connection caches it again
+        int cached = countNonPrimaryCachedStatements();
+        queryOnce("SELECT i FROM test WHERE i = 1");
+        assertEquals(cached, countNonPrimaryCachedStatements());
+    }
+
+    @Test
+    public void testIdleConnectionReaperAndShrink() throws Exception {
+        mDatabase.execSQL("CREATE TABLE test (i int);");
+        mDatabase.execSQL("INSERT INTO test VALUES (1);");
+        assertTrue(mDatabase.enableWriteAheadLogging());
+        mDatabase.setConnectionPoolSize(1, 4);
+
+        // The reaper closes the second connection once it has been idle long enough
+        mDatabase.setIdleConnectionTimeout(200);
+        queryWhileAnotherQueryRuns();
+        assertEquals(1, countNonPrimaryConnections());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (countNonPrimaryConnections() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, countNonPrimaryConnections());
+
+        // Shrinking closes it right away
+        mDatabase.setIdleConnectionTimeout(0);
+        queryWhileAnotherQueryRuns();
+        assertEquals(1, countNonPrimaryConnections());
+        assertTrue(mDatabase.shrink() >= 0);
+        assertEquals(0, countNonPrimaryConnections());
+        assertEquals(1, DatabaseUtils.longForQuery(mDatabase, "SELECT i FROM test", null));
+
+        // But not below the minimum pool size
+        mDatabase.setConnectionPoolSize(2, 4);
+        queryWhileAnotherQueryRuns();
+        assertTrue(mDatabase.shrink() >= 0);
+        assertEquals(1, countNonPrimaryConnections());
+    }
+
+    @Test
+    public void testPageCacheBudget() throws Exception {
+        mDatabase.execSQL("CREATE TABLE test (i int);");
+        mDatabase.execSQL("INSERT INTO test VALUES (1);");
+        assertTrue(mDatabase.enableWriteAheadLogging());
+        mDatabase.setConnectionPoolSize(1, 4);
+        mDatabase.setPageCacheBudget(1024 * 1024);
+
+        assertEquals(-1024, DatabaseUtils.longForQuery(mDatabase, "PRAGMA cache_size", null));
+        DbStats stats = getMainDbStats();
+        assertEquals(1024 * 1024, stats.pageCacheLimitBytes);
+        assertTrue(stats.pageCacheBytes > 0);
+
+        // A second connection halves the share of each
+        queryWhileAnotherQueryRuns();
+        assertEquals(512 * 1024, getMainDbStats().pageCacheLimitBytes);
+
+        mDatabase.setPageCacheBudget(0);
+        queryOnce("SELECT i FROM test");
+        assertEquals(0, getMainDbStats().pageCacheLimitBytes);
+    }
+
+    @Test
+    public void testConnectionWaitTimeoutAndStats() throws Exception {
+        mDatabase.execSQL("CREATE TABLE test (i int);");
+        mDatabase.setConnectionWaitTimeout(100);
+
+        final CountDownLatch inTransaction = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mDatabase.beginTransaction();
+                try {
+                    inTransaction.countDown();
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    mDatabase.endTransaction();
+                }
+            }
+        });
+        writer.start();
+        try {
+            assertTrue(inTransaction.await(5, TimeUnit.SECONDS));
+            try {
+                mDatabase.execSQL("INSERT INTO test VALUES (1);");
+                fail("expected the wait for the connection to time out");
+            } catch (SQLiteDatabaseLockedException expected) {
+            }
+        } finally {
+            release.countDown();
+            writer.join();
+        }
+
+        // A wait that timed out is counted, but not recorded as a wait
+        long waits = 0;
+        long timeouts = 0;
+        for (SQLiteDebug.ConnectionWaitStats stats : mDatabase.getConnectionWaitStats()) {
+            waits += stats.getWaitCount();
+            timeouts += stats.timeouts;
+            assertEquals(0, stats.waiting);
+        }
+        assertEquals(0, waits);
+        assertEquals(1, timeouts);
+    }
+
+    @Test
+    public void testConnectionWaitersServedByDeadline() throws Exception {
+        mDatabase.execSQL("CREATE TABLE test (i int);");
+
+        // The only connection is held by this thread until both writers wait for it
+        Thread patient = newWriterWithTimeout(1, 10000);
+        Thread urgent;
+        mDatabase.beginTransaction();
+        try {
+            patient.start();
+            awaitWaitingThreads(1);
+            urgent = newWriterWithTimeout(2, 5000);
+            urgent.start();
+            awaitWaitingThreads(2);
+        } finally {
+            mDatabase.endTransaction();
+        }
+        patient.join();
+        urgent.join();
+
+        // The writer that came last has the earlier deadline, so it wrote first
+        Cursor cursor = mDatabase.rawQuery("SELECT i FROM test ORDER BY rowid", null);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(2, cursor.getInt(0));
+            assertTrue(cursor.moveToNext());
+            assertEquals(1, cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+
+        long waits = 0;
+        for (SQLiteDebug.ConnectionWaitStats stats : mDatabase.getConnectionWaitStats()) {
+            waits += stats.getWaitCount();
+            assertEquals(0, stats.timeouts);
+        }
+        assertEquals(2, waits);
+    }
+
+    private Thread newWriterWithTimeout(final int value, final long timeoutMillis) {
+        return new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mDatabase.setThreadConnectionWaitTimeout(timeoutMillis);
+                mDatabase.execSQL("INSERT INTO test VALUES (?);", new Object[] {value});
+            }
+        });
+    }
+
+    private void awaitWaitingThreads(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        for (;;) {
+            int waiting = 0;
+            for (SQLiteDebug.ConnectionWaitStats stats : mDatabase.getConnectionWaitStats()) {
+                waiting += stats.waiting;
+            }
+            if (waiting >= count) {
+                return;
+            }
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testBulkInsert() {
+        mDatabase.execSQL("CREATE TABLE test (i INTEGER, r REAL, t TEXT, b BLOB);");
+        BitSet nullInts = new BitSet();
+        nullInts.set(1);
+        ColumnBatch batch = new ColumnBatch(3)
+                .addLongColumn(new long[] { 1, 0, Long.MAX_VALUE }, nullInts)
+                .addDoubleColumn(new double[] { 0.5, 1.5, -2.5 })
+                .addStringColumn(new String[] { sString1, null, sString2 })
+                .addBlobColumn(new byte[][] { null, new byte[] { 1, 2 }, new byte[0] });
+        assertEquals(3, mDatabase.bulkInsert("test", new String[] { "i", "r", "t", "b" }, batch));
+
+        Cursor c = mDatabase.rawQuery("SELECT i, r, t, b FROM test ORDER BY rowid", null);
+        try {
+            assertEquals(3, c.getCount());
+            c.moveToNext();
+            assertEquals(1, c.getLong(0));
+            assertEquals(0.5, c.getDouble(1), 0);
+            assertEquals(sString1, c.getString(2));
+            assertTrue(c.isNull(3));
+            c.moveToNext();
+            assertTrue(c.isNull(0));
+            assertEquals(1.5, c.getDouble(1), 0);
+            assertTrue(c.isNull(2));
+            assertTrue(Arrays.equals(new byte[] { 1, 2 }, c.getBlob(3)));
+            c.moveToNext();
+            assertEquals(Long.MAX_VALUE, c.getLong(0));
+            assertEquals(-2.5, c.getDouble(1), 0);
+            assertEquals(sString2, c.getString(2));
+            assertEquals(0, c.getBlob(3).length);
+        } finally {
+            c.close();
+        }
+
+        try {
+            new ColumnBatch(2).addLongColumn(new long[3]);
+            fail("expected a column of the wrong length to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            mDatabase.bulkInsert("test", new String[] {"i"}, null);
+            fail("expected a null batch to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        mDatabase.execSQL("CREATE TABLE test (i INTEGER UNIQUE);");
+        mDatabase.enableGroupCommit(60000, 4);
+        assertTrue(mDatabase.isGroupCommitEnabled());
+
+        // The writes wait for the batch to fill up, long before the window ends.
+        ContentValues values = new ContentValues();
+        values.put("i", 1);
+        Future<Long> first = mDatabase.insertGrouped("test", null, values);
+        values.put("i", 2);
+        Future<Long> second = mDatabase.insertGrouped("test", null, values);
+        values.put("i", 1);
+        Future<Long> duplicate = mDatabase.insertGrouped("test", null, values);
+        assertFalse(first.isDone());
+        assertEquals(0, DatabaseUtils.longForQuery(mDatabase, "SELECT count(*) FROM test", null));
+
+        values.put("i", 3);
+        Future<Integer> update = mDatabase.updateGrouped("test", values, "i = ?",
+                new String[] { "2" });
+        assertEquals(1L, (long) first.get(5, TimeUnit.SECONDS));
+        assertEquals(2L, (long) second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, (int) update.get(5, TimeUnit.SECONDS));
+        try {
+            duplicate.get(5, TimeUnit.SECONDS);
+            fail("expected the duplicate row to be rejected");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof SQLiteConstraintException);
+        }
+        assertEquals(4, DatabaseUtils.longForQuery(mDatabase, "SELECT sum(i) FROM test", null));
+
+        // Writes made in a transaction are not grouped.
+        mDatabase.beginTransaction();
+        try {
+            Future<Integer> delete = mDatabase.deleteGrouped("test", "i = 1", null);
+            assertTrue(delete.isDone());
+            assertEquals(1, (int) delete.get());
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+
+        mDatabase.disableGroupCommit();
+        assertFalse(mDatabase.isGroupCommitEnabled());
+        values.put("i", 4);
+        Future<Long> last = mDatabase.insertGrouped("test", null, values);
+        assertTrue(last.isDone());
+        assertEquals(7, DatabaseUtils.longForQuery(mDatabase, "SELECT sum(i) FROM test", null));
+    }
+
+    @Test
+    public void testGroupCommitStopsWhenWriteEndsTransaction() throws Exception {
+        mDatabase.execSQL("CREATE TABLE test (i INTEGER UNIQUE ON CONFLICT ROLLBACK);");
+        mDatabase.enableGroupCommit(60000, 3);
+
+        ContentValues values = new ContentValues();
+        values.put("i", 1);
+        Future<Long> first = mDatabase.insertGrouped("test", null, values);
+        Future<Long> duplicate = mDatabase.insertGrouped("test", null, values);
+        values.put("i", 2);
+        Future<Long> last = mDatabase.insertGrouped("test", null, values);
+
+        // The duplicate rolls the batch back, so the write after it does not run either
+        try {
+            duplicate.get(5, TimeUnit.SECONDS);
+            fail("expected the duplicate row to be rejected");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof SQLiteConstraintException);
+        }
+        for (Future<Long> write : Arrays.asList(first, last)) {
+            try {
+                write.get(5, TimeUnit.SECONDS);
+                fail("expected the batch to fail");
+            } catch (ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof SQLiteException);
+            }
+        }
+        assertEquals(0, DatabaseUtils.longForQuery(mDatabase, "SELECT count(*) FROM test", null));
+        mDatabase.disableGroupCommit();
+    }
+
+    @Test
+    public void testAsyncDatabase() throws Exception {
+        mDatabase.execSQL("CREATE TABLE test (i INTEGER);");
+        SQLiteAsyncDatabase async = mDatabase.async();
+        assertSame(async, mDatabase.async());
+
+        // The writes run in order, so the update sees both rows.
+        ContentValues values = new ContentValues();
+        values.put("i", 1);
+        Future<Long> first = async.insert("test", null, values);
+        values.put("i", 2);
+        Future<Long> second = async.insert("test", null, values);
+        Future<Void> update = async.execSQL("UPDATE test SET i = i * 10 WHERE i = ?",
+                new Object[] { 2 });
+        assertEquals(1L, (long) first.get(5, TimeUnit.SECONDS));
+        assertEquals(2L, (long) second.get(5, TimeUnit.SECONDS));
+        update.get(5, TimeUnit.SECONDS);
+
+        Cursor c = async.rawQuery("SELECT sum(i) FROM test", null).get(5, TimeUnit.SECONDS);
+        try {
+            assertTrue(c.moveToFirst());
+            assertEquals(21, c.getLong(0));
+        } finally {
+            c.close();
+        }
+
+        final Thread caller = Thread.currentThread();
+        Future<Boolean> onCaller = async.read(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return Thread.currentThread() == caller;
+            }
+        });
+        assertFalse(onCaller.get(5, TimeUnit.SECONDS));
+
+        try {
+            async.execSQL("INSERT INTO missing VALUES (1)", null).get(5, TimeUnit.SECONDS);
+            fail("expected the statement to fail");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof SQLiteException);
+        }
+
+        // A cursor produced by a read that was cancelled while it ran is closed.
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<Cursor> produced = new AtomicReference<Cursor>();
+        Future<Cursor> cancelled = async.read(new Callable<Cursor>() {
+            @Override
+            public Cursor call() throws Exception {
+                running.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                Cursor cursor = mDatabase.rawQuery("SELECT i FROM test", null);
+                produced.set(cursor);
+                return cursor;
+            }
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        assertTrue(cancelled.cancel(false));
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((produced.get() == null || !produced.get().isClosed())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(produced.get().isClosed());
+    }
+
+    // Runs a query while another thread is in the middle of one, so that the pool opens a
+    // second connection.
+    private void queryWhileAnotherQueryRuns() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        mDatabase.addCustomFunction("block", 1, new SQLiteDatabase.CustomFunction() {
+            @Override
+            public void callback(String[] args) {
+                entered.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = mDatabase.rawQuery("SELECT block(i) FROM test", null);
+                cursor.getCount();
+                cursor.close();
+            }
+        });
+        reader.start();
+        try {
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            queryOnce("SELECT i FROM test");
+        } finally {
+            release.countDown();
+            reader.join();
+        }
+    }
+
+    private int countNonPrimaryConnections() {
+        int count = 0;
+        for (DbStats stats : SQLiteDebug.getDatabaseInfo().dbStats) {
+            if (stats.dbName.startsWith(mDatabase.getPath() + " (")) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    private int countNonPrimaryCachedStatements() {
+        int count = 0;
+        for (DbStats stats : SQLiteDebug.getDatabaseInfo().dbStats) {
+            if (stats.dbName.startsWith(mDatabase.getPath() + " (")) {
+                count += stats.cacheSize;
+            }
+        }
+        return count;
+    }
+
+    private void queryOnce(String sql) {
+        Cursor cursor = mDatabase.rawQuery(sql, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private DbStats getMainDbStats() {
+        for (DbStats stats : SQLiteDebug.getDatabaseInfo().dbStats) {
+            if (stats.dbName.equals(mDatabase.getPath())) {
+                return stats;
+            }
+        }
+        throw new AssertionError("no stats for " + mDatabase.getPath());
+    }
+
     @LargeTest
     @Test
     public void testDefaultDatabaseErrorHandler() {
@@ -33,9 +33,11 @@ import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import net.zetetic.database.AbstractCursor;
 import net.zetetic.database.CursorWindow;
+import net.zetetic.database.CursorWindowSizePolicy;
 import net.zetetic.database.sqlcipher.SQLiteCursor;
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
 import net.zetetic.database.sqlcipher.SQLiteDirectCursorDriver;
+import net.zetetic.database.sqlcipher.SQLiteStreamingCursor;
 
 import org.junit.After;
 import org.junit.Before;
@@ -44,6 +46,10 @@ import org.junit.runner.RunWith;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Test {@link AbstractCursor}.
@@ -225,6 +231,30 @@ public class SQLiteCursorTest {
         assertTrue(Arrays.equals(COLUMNS, cursor.getColumnNames()));
     }
 
+    @Test
+    public void testGetColumnIndexIgnoresCase() {
+        SQLiteCursor cursor = (SQLiteCursor) mDatabase.rawQuery(
+                "SELECT _id, number_1 AS Number, number_2 AS number, number_1 AS Total"
+                        + " FROM test", null);
+        // An exact match wins over a match that ignores case
+        assertEquals(1, cursor.getColumnIndex("Number"));
+        assertEquals(2, cursor.getColumnIndex("number"));
+        assertEquals(1, cursor.getColumnIndex("NUMBER"));
+        assertEquals(3, cursor.getColumnIndex("total"));
+        assertEquals(3, cursor.getColumnIndex("test.Total"));
+        assertEquals(-1, cursor.getColumnIndex("missing"));
+        cursor.close();
+
+        // Cursors over the same query share the map but not the column names
+        SQLiteCursor first = getCursor();
+        SQLiteCursor second = getCursor();
+        first.getColumnNames()[0] = "changed";
+        assertEquals(0, second.getColumnIndex("_id"));
+        assertEquals("_id", second.getColumnNames()[0]);
+        first.close();
+        second.close();
+    }
+
     @Test
     public void testSetSelectionArguments() {
         final String SELECTION = "_id > ?";
@@ -238,6 +268,247 @@ public class SQLiteCursorTest {
         assertEquals(TEST_COUNT - TEST_ARG2, cursor.getCount());
     }
 
+    @Test
+    public void testGetLongsAndDoubles() {
+        mDatabase.beginTransaction();
+        try {
+            addValuesIntoTable(TABLE_NAME, TEST_COUNT + 1, 250);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        for (boolean columnar : new boolean[] { false, true }) {
+            SQLiteCursor cursor = (SQLiteCursor) mDatabase.rawQuery(TEST_SQL, null);
+            cursor.setColumnarWindow(columnar);
+            assertEquals(columnar, cursor.isColumnarWindow());
+            int number1 = cursor.getColumnIndexOrThrow("number_1");
+            int number2 = cursor.getColumnIndexOrThrow("number_2");
+
+            long[] longs = new long[300];
+            assertEquals(250, cursor.getLongs(number1, 0, longs, 0, longs.length));
+            for (int i = 0; i < 250; i++) {
+                assertEquals(i + 1, longs[i]);
+            }
+            assertEquals(249, cursor.getPosition());
+            if (columnar) {
+                assertTrue(cursor.getWindow().isColumnar());
+            }
+
+            double[] doubles = new double[10];
+            assertEquals(10, cursor.getDoubles(number1, 120, doubles, 0, doubles.length));
+            for (int i = 0; i < 10; i++) {
+                assertEquals(121.0, doubles[i] - i, 0.0);
+            }
+
+            // NULL values read as zero
+            assertEquals(5, cursor.getLongs(number2, 245, longs, 1, 10));
+            assertEquals(0, longs[1]);
+            assertEquals(0, cursor.getLongs(number1, 250, longs, 0, 10));
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testKeepStatementPositioned() {
+        mDatabase.beginTransaction();
+        try {
+            addValuesIntoTable(TABLE_NAME, TEST_COUNT + 1, 500);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        SQLiteCursor cursor = (SQLiteCursor) mDatabase.rawQuery(TEST_SQL, null);
+        cursor.setKeepStatementPositioned(true);
+        int number1 = cursor.getColumnIndexOrThrow("number_1");
+        assertEquals(500, cursor.getCount());
+        int expected = 1;
+        while (cursor.moveToNext()) {
+            assertEquals(expected++, cursor.getInt(number1));
+            if (expected == 250) {
+                // Using the connection for another statement resets the positioned one
+                mDatabase.execSQL("UPDATE test SET number_2 = 1 WHERE _id = 1");
+            }
+        }
+        assertEquals(501, expected);
+        assertTrue(cursor.moveToPosition(10));
+        assertEquals(11, cursor.getInt(number1));
+        assertTrue(cursor.moveToLast());
+        assertEquals(500, cursor.getInt(number1));
+        cursor.close();
+    }
+
+    @Test
+    public void testKeepStatementPositionedAcrossWindows() {
+        final AtomicInteger steppedRows = new AtomicInteger();
+        mDatabase.addCustomFunction("count_row", 1, new SQLiteDatabase.CustomFunction() {
+            @Override
+            public void callback(String[] args) {
+                steppedRows.incrementAndGet();
+            }
+        });
+        mDatabase.execSQL("CREATE TABLE paged (_id INTEGER PRIMARY KEY, data BLOB)");
+        mDatabase.execSQL("WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n"
+                + " WHERE i < 5000) INSERT INTO paged SELECT i, randomblob(64) FROM n");
+
+        SQLiteCursor cursor = (SQLiteCursor) mDatabase.rawQuery(
+                "SELECT _id, data, count_row(_id) FROM paged WHERE _id > ? ORDER BY _id",
+                new String[] { "0" });
+        cursor.setWindow(new CursorWindow("paged", 16 * 1024));
+        cursor.setLazyCount(true);
+        cursor.setKeepStatementPositioned(true);
+        int expected = 1;
+        while (cursor.moveToNext()) {
+            assertEquals(expected++, cursor.getInt(0));
+        }
+        assertEquals(5001, expected);
+        assertTrue(cursor.getWindow().getStartPosition() > 0);
+        // Each window continued from the row the previous one stopped on
+        assertEquals(5000, steppedRows.get());
+
+        // New arguments are bound even though the statement was left on a later row
+        assertTrue(cursor.moveToPosition(1000));
+        cursor.setSelectionArguments(new String[] { "2500" });
+        assertTrue(cursor.requery());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(2501, cursor.getInt(0));
+        while (cursor.getPosition() < 1000) {
+            assertTrue(cursor.moveToNext());
+        }
+        assertEquals(3501, cursor.getInt(0));
+        cursor.close();
+    }
+
+    @Test
+    public void testStreamingCursor() {
+        // The cursor holds a connection of its own, so the writes of this thread need another
+        assertTrue(mDatabase.enableWriteAheadLogging());
+        mDatabase.execSQL("CREATE TABLE stream (_id INTEGER PRIMARY KEY, data BLOB)");
+        // Enough data to need several windows
+        mDatabase.execSQL("WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n"
+                + " WHERE i < 20000) INSERT INTO stream SELECT i, randomblob(256) FROM n");
+        SQLiteStreamingCursor cursor = mDatabase.rawQueryStreaming(
+                "SELECT _id, data FROM stream ORDER BY _id", null);
+        assertFalse(cursor.isExhausted());
+        int expected = 1;
+        while (cursor.moveToNext()) {
+            assertEquals(expected, cursor.getInt(0));
+            assertEquals(256, cursor.getBlob(1).length);
+            if (expected == 10000) {
+                // The thread writes on the primary connection while the cursor reads
+                mDatabase.execSQL("UPDATE test SET number_2 = 1 WHERE _id = 1");
+                assertFalse(cursor.moveToPosition(1));
+                assertTrue(cursor.moveToPosition(expected - 1));
+            }
+            expected++;
+        }
+        assertEquals(20001, expected);
+        assertTrue(cursor.isExhausted());
+        assertEquals(20000, cursor.getCount());
+        cursor.close();
+
+        mDatabase.beginTransaction();
+        try {
+            mDatabase.rawQueryStreaming("SELECT _id FROM stream", null);
+            fail("expected a streaming cursor to be refused in a transaction");
+        } catch (IllegalStateException ex) {
+            // expected
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @Test
+    public void testLazyCount() throws Exception {
+        mDatabase.execSQL("CREATE TABLE lazy (_id INTEGER PRIMARY KEY, data BLOB)");
+        mDatabase.execSQL("WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n"
+                + " WHERE i < 20000) INSERT INTO lazy SELECT i, randomblob(256) FROM n");
+        final String sql = "SELECT _id, data FROM lazy ORDER BY _id";
+
+        SQLiteCursor cursor = (SQLiteCursor) mDatabase.rawQuery(sql, null);
+        cursor.setLazyCount(true);
+        cursor.setKeepStatementPositioned(true);
+        assertTrue(cursor.moveToFirst());
+        assertFalse(cursor.isCountExact());
+        // The first window is capped, and the query stepped onto the row after it
+        assertEquals(1000, cursor.getWindow().getNumRows());
+        assertEquals(1001, cursor.getCount());
+        int expected = 1;
+        do {
+            assertEquals(expected++, cursor.getInt(0));
+        } while (cursor.moveToNext());
+        assertEquals(20001, expected);
+        assertTrue(cursor.isCountExact());
+        assertEquals(20000, cursor.getCount());
+        cursor.close();
+
+        cursor = (SQLiteCursor) mDatabase.rawQuery(sql, null);
+        cursor.setLazyCount(true);
+        assertEquals(20000, cursor.getExactCount());
+        assertTrue(cursor.moveToLast());
+        assertEquals(20000, cursor.getInt(0));
+        cursor.close();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            cursor = (SQLiteCursor) mDatabase.rawQuery(sql, null);
+            cursor.setLazyCount(true);
+            assertTrue(cursor.moveToFirst());
+            Future<Integer> count = cursor.getCountAsync(executor);
+            assertEquals(20000, count.get().intValue());
+            assertTrue(cursor.isCountExact());
+            assertEquals(20000, cursor.getCount());
+            cursor.close();
+        } finally {
+            executor.shutdown();
+        }
+
+        // A result that fits in one window is counted by the first fill
+        cursor = (SQLiteCursor) mDatabase.rawQuery(TEST_SQL, null);
+        cursor.setLazyCount(true);
+        assertEquals(TEST_COUNT, cursor.getCount());
+        assertTrue(cursor.isCountExact());
+        cursor.close();
+    }
+
+    @Test
+    public void testWindowSizePolicy() {
+        mDatabase.execSQL("CREATE TABLE sized (_id INTEGER PRIMARY KEY, data BLOB)");
+        mDatabase.execSQL("WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n"
+                + " WHERE i < 300) INSERT INTO sized SELECT i, randomblob(100) FROM n");
+        final String sql = "SELECT _id, data FROM sized ORDER BY _id";
+        CursorWindowSizePolicy policy = new CursorWindowSizePolicy(4096, 1.5f, 64 * 1024, true);
+        mDatabase.setCursorWindowSizePolicy(policy);
+        try {
+            assertEquals(4096, policy.getWindowSizeBytes(sql));
+            SQLiteCursor cursor = (SQLiteCursor) mDatabase.rawQuery(sql, null);
+            assertEquals(300, cursor.getCount());
+            assertEquals(4096, cursor.getWindow().getWindowSizeBytes());
+            int usedBytes = cursor.getWindow().getUsedBytes();
+            assertTrue(usedBytes > 4096 && usedBytes <= 64 * 1024);
+            cursor.close();
+
+            // The next execution starts with a window large enough for the whole result
+            int learnedSize = policy.getWindowSizeBytes(sql);
+            assertTrue(learnedSize > usedBytes && learnedSize <= 64 * 1024);
+            cursor = (SQLiteCursor) mDatabase.rawQuery(sql, null);
+            assertEquals(300, cursor.getCount());
+            assertEquals(learnedSize, cursor.getWindow().getWindowSizeBytes());
+            cursor.close();
+
+            // A cursor policy overrides the one of the database
+            cursor = (SQLiteCursor) mDatabase.rawQuery(sql, null);
+            cursor.setWindowSizePolicy(new CursorWindowSizePolicy(8192, 2, 8192, false));
+            assertEquals(300, cursor.getCount());
+            assertEquals(8192, cursor.getWindow().getWindowSizeBytes());
+            assertTrue(cursor.getWindow().getNumRows() < 300);
+            assertTrue(cursor.moveToLast());
+            assertEquals(300, cursor.getInt(0));
+            cursor.close();
+        } finally {
+            mDatabase.setCursorWindowSizePolicy(null);
+        }
+    }
+
     @Test
     public void testOnMove() {
         // Do not test this API. It is callback which:
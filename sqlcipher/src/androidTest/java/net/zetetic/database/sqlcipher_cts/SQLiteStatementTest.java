@@ -21,6 +21,7 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import android.annotation.SuppressLint;
@@ -185,6 +186,109 @@ public class SQLiteStatementTest {
         }
     }
 
+    @Test
+    public void testBindTypedValues() {
+        mDatabase.execSQL("CREATE TABLE typed (i INTEGER, r REAL, t TEXT, b BLOB, n);");
+
+        SQLiteStatement statement = mDatabase.compileStatement(
+                "INSERT INTO typed VALUES (?, ?, ?, ?, ?)");
+        statement.bindLong(1, Long.MAX_VALUE);
+        statement.bindDouble(2, 1.5);
+        statement.bindString(3, STRING1);
+        statement.bindBlob(4, BLOBS[0]);
+        statement.bindNull(5);
+        statement.executeInsert();
+
+        // A value replaces the previous one of another type at the same index
+        statement.bindString(1, STRING2);
+        statement.bindLong(2, 7);
+        statement.bindNull(3);
+        statement.bindDouble(4, 2.5);
+        statement.bindBlob(5, BLOBS[1]);
+        statement.executeInsert();
+
+        // Cleared values are bound as NULL
+        statement.clearBindings();
+        statement.bindAllArgs(true, 3, 4.5f);
+        statement.executeInsert();
+        statement.close();
+
+        Cursor c = mDatabase.rawQuery("SELECT i, r, t, b, n FROM typed ORDER BY rowid", null);
+        assertEquals(3, c.getCount());
+        c.moveToNext();
+        assertEquals(Long.MAX_VALUE, c.getLong(0));
+        assertEquals(1.5, c.getDouble(1), 0);
+        assertEquals(STRING1, c.getString(2));
+        assertArrayEquals(BLOBS[0], c.getBlob(3));
+        assertTrue(c.isNull(4));
+        c.moveToNext();
+        assertEquals(STRING2, c.getString(0));
+        assertEquals(7, c.getLong(1));
+        assertTrue(c.isNull(2));
+        assertEquals(2.5, c.getDouble(3), 0);
+        assertArrayEquals(BLOBS[1], c.getBlob(4));
+        c.moveToNext();
+        assertEquals(1, c.getLong(0));
+        assertEquals(3, c.getLong(1));
+        assertEquals(4.5, c.getDouble(2), 0);
+        assertTrue(c.isNull(3));
+        assertTrue(c.isNull(4));
+        c.close();
+    }
+
+    @Test
+    public void testExecuteBatch() {
+        mDatabase.execSQL("CREATE TABLE batch (i INTEGER, r REAL, t TEXT, b BLOB);");
+
+        SQLiteStatement statement = mDatabase.compileStatement(
+                "INSERT INTO batch VALUES (?, ?, ?, ?)");
+        Object[][] rows = new Object[][] {
+                { 1, 1.5, STRING1, BLOBS[0] },
+                { 2L, 2.5f, STRING2, null },
+                { false, null, 3, new byte[0] },
+        };
+        assertEquals(3, statement.executeBatch(rows));
+
+        Cursor c = mDatabase.rawQuery("SELECT i, r, t, b FROM batch ORDER BY rowid", null);
+        assertEquals(3, c.getCount());
+        c.moveToNext();
+        assertEquals(1, c.getLong(0));
+        assertEquals(1.5, c.getDouble(1), 0);
+        assertEquals(STRING1, c.getString(2));
+        assertArrayEquals(BLOBS[0], c.getBlob(3));
+        c.moveToNext();
+        assertEquals(2, c.getLong(0));
+        assertEquals(2.5, c.getDouble(1), 0);
+        assertEquals(STRING2, c.getString(2));
+        assertNull(c.getBlob(3));
+        c.moveToNext();
+        assertEquals(0, c.getLong(0));
+        assertNull(c.getString(1));
+        assertEquals("3", c.getString(2));
+        assertArrayEquals(new byte[0], c.getBlob(3));
+        c.close();
+
+        // A row of the wrong size fails the whole batch
+        try {
+            statement.executeBatch(new Object[][] { { 4, 4.5, "x", null }, { 5 } });
+            fail("exception expected");
+        } catch (SQLException e) {
+            // expected
+        }
+        assertEquals(3, DatabaseUtils.longForQuery(mDatabase, "SELECT count(*) FROM batch", null));
+
+        // So does a constraint violation part way, since the rows share a transaction
+        mDatabase.execSQL("CREATE UNIQUE INDEX batch_i ON batch (i);");
+        try {
+            statement.executeBatch(new Object[][] { { 10, 0, "", null }, { 10, 0, "", null } });
+            fail("exception expected");
+        } catch (SQLException e) {
+            // expected
+        }
+        assertEquals(3, DatabaseUtils.longForQuery(mDatabase, "SELECT count(*) FROM batch", null));
+        statement.close();
+    }
+
     @Test
     public void testSimpleQueryForLong() {
         mDatabase.execSQL("CREATE TABLE test (num INTEGER NOT NULL, str TEXT NOT NULL);");
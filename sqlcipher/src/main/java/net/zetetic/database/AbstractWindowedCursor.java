@@ -21,6 +21,8 @@ import android.database.CharArrayBuffer;
 import android.database.Cursor;
 import android.database.StaleDataException;
 
+import java.nio.ByteBuffer;
+
 /**
  * A base class for Cursors that store their data in {@link android.database.CursorWindow}s.
  * <p>
@@ -51,6 +53,34 @@ public abstract class AbstractWindowedCursor extends AbstractCursor {
 		return mWindow.getBlob(mPos, columnIndex);
 	}
 
+	/**
+	 * Copies the bytes of the requested column in the current row into a caller-supplied
+	 * buffer, as by {@link CursorWindow#getBuffer}.
+	 *
+	 * @param columnIndex The zero-based index of the target column.
+	 * @param buffer The buffer that receives the bytes at its position.
+	 * @return The length of the value in bytes, or -1 if the column is null.
+	 */
+	public int getBuffer(int columnIndex, ByteBuffer buffer) {
+		checkPosition();
+		return mWindow.getBuffer(mPos, columnIndex, buffer);
+	}
+
+	/**
+	 * Copies the bytes of the requested column in the current row into a caller-supplied
+	 * array, as by {@link CursorWindow#getUtf8}.
+	 *
+	 * @param columnIndex The zero-based index of the target column.
+	 * @param buffer The array that receives the bytes.
+	 * @param offset The index in <code>buffer</code> of the first byte copied.
+	 * @return The length of the value in bytes, or -1 if the column is null. Nothing is
+	 * copied if the value does not fit.
+	 */
+	public int getUtf8(int columnIndex, byte[] buffer, int offset) {
+		checkPosition();
+		return mWindow.getUtf8(mPos, columnIndex, buffer, offset);
+	}
+
 	@Override
 	public String getString(int columnIndex) {
 		checkPosition();
@@ -92,6 +122,97 @@ public abstract class AbstractWindowedCursor extends AbstractCursor {
 		return mWindow.getDouble(mPos, columnIndex);
 	}
 
+	/**
+	 * Decodes all columns of the current row into a reusable row buffer in a single
+	 * native call, as by {@link CursorWindow#readRow}.
+	 *
+	 * @param out The row buffer that receives the row, as its row 0.
+	 */
+	public void readRow(RowBuffer out) {
+		checkPosition();
+		mWindow.readRow(mPos, out);
+	}
+
+	/**
+	 * Decodes a range of rows into a reusable row buffer, as by
+	 * {@link CursorWindow#readRows}. The rows are read from a single window, so fewer
+	 * rows than requested may be returned even though the cursor has more; the cursor is
+	 * left positioned on the last row read.
+	 *
+	 * @param position The zero-based position of the first row to read.
+	 * @param count The maximum number of rows to read.
+	 * @param out The row buffer that receives the rows.
+	 * @return The number of rows read, 0 if the cursor has no row at <code>position</code>.
+	 */
+	public int readRows(int position, int count, RowBuffer out) {
+		if (count <= 0 || !moveToPosition(position)) {
+			out.reset(0, 0);
+			return 0;
+		}
+		checkPosition();
+		int n = mWindow.readRows(mPos, count, out);
+		moveToPosition(position + n - 1);
+		return n;
+	}
+
+	/**
+	 * Copies the values of a column for a range of rows into a <code>long</code> array.
+	 * <p>
+	 * Values are converted as by {@link #getLong(int)} and copied a window at a time,
+	 * one native call per window. The cursor is left positioned on the last row copied.
+	 * </p>
+	 *
+	 * @param columnIndex The zero-based index of the target column.
+	 * @param position The zero-based position of the first row to copy.
+	 * @param values The array that receives the values.
+	 * @param offset The index in <code>values</code> of the first value copied.
+	 * @param count The maximum number of values to copy.
+	 * @return The number of values copied, less than <code>count</code> when the
+	 * cursor runs out of rows.
+	 */
+	public int getLongs(int columnIndex, int position, long[] values, int offset, int count) {
+		int copied = 0;
+		while (copied < count && moveToPosition(position + copied)) {
+			checkPosition();
+			int n = mWindow.getLongs(mPos, columnIndex, values, offset + copied, count - copied);
+			if (n == 0) {
+				break;
+			}
+			copied += n;
+			moveToPosition(position + copied - 1);
+		}
+		return copied;
+	}
+
+	/**
+	 * Copies the values of a column for a range of rows into a <code>double</code> array.
+	 * <p>
+	 * Values are converted as by {@link #getDouble(int)} and copied a window at a time,
+	 * one native call per window. The cursor is left positioned on the last row copied.
+	 * </p>
+	 *
+	 * @param columnIndex The zero-based index of the target column.
+	 * @param position The zero-based position of the first row to copy.
+	 * @param values The array that receives the values.
+	 * @param offset The index in <code>values</code> of the first value copied.
+	 * @param count The maximum number of values to copy.
+	 * @return The number of values copied, less than <code>count</code> when the
+	 * cursor runs out of rows.
+	 */
+	public int getDoubles(int columnIndex, int position, double[] values, int offset, int count) {
+		int copied = 0;
+		while (copied < count && moveToPosition(position + copied)) {
+			checkPosition();
+			int n = mWindow.getDoubles(mPos, columnIndex, values, offset + copied, count - copied);
+			if (n == 0) {
+				break;
+			}
+			copied += n;
+			moveToPosition(position + copied - 1);
+		}
+		return copied;
+	}
+
 	@Override
 	public boolean isNull(int columnIndex) {
 		return mWindow.getType(mPos, columnIndex) == Cursor.FIELD_TYPE_NULL;
@@ -21,6 +21,9 @@ import android.database.CharArrayBuffer;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
 
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
 import net.zetetic.database.sqlcipher.SQLiteClosable;
 
 /**
@@ -41,13 +44,19 @@ public class CursorWindow extends SQLiteClosable {
 
 	private int mStartPos;
 	private final String mName;
+	private final boolean mColumnar;
 
-	private static native long nativeCreate(String name, int cursorWindowSize);
+	private static native long nativeCreate(String name, int cursorWindowSize, boolean columnar);
 	private static native void nativeDispose(long windowPtr);
 
 	private static native void nativeClear(long windowPtr);
 
+	private static native void nativeSetMaxSize(long windowPtr, int maxSizeBytes);
+	private static native void nativeSetMaxRows(long windowPtr, int maxRows);
+	private static native void nativeSetGrowthFactor(long windowPtr, float growthFactor);
+	private static native int nativeGetUsedBytes(long windowPtr);
 	private static native int nativeGetNumRows(long windowPtr);
+	private static native int nativeGetNumColumns(long windowPtr);
 	private static native boolean nativeSetNumColumns(long windowPtr, int columnNum);
 	private static native boolean nativeAllocRow(long windowPtr);
 	private static native void nativeFreeLastRow(long windowPtr);
@@ -55,8 +64,19 @@ public class CursorWindow extends SQLiteClosable {
 	private static native int nativeGetType(long windowPtr, int row, int column);
 	private static native byte[] nativeGetBlob(long windowPtr, int row, int column);
 	private static native String nativeGetString(long windowPtr, int row, int column);
+	private static native int nativeCopyBytesToBuffer(long windowPtr, int row, int column,
+		ByteBuffer buffer, int offset, int length);
+	private static native int nativeCopyBytes(long windowPtr, int row, int column,
+		byte[] buffer, int offset, int length);
 	private static native long nativeGetLong(long windowPtr, int row, int column);
 	private static native double nativeGetDouble(long windowPtr, int row, int column);
+	private static native int nativeCopyLongs(long windowPtr, int row, int column,
+		long[] values, int offset, int count);
+	private static native int nativeCopyDoubles(long windowPtr, int row, int column,
+		double[] values, int offset, int count);
+	private static native int nativeReadRows(long windowPtr, int row, int count, int[] types,
+		long[] longs, double[] doubles, int[] offsets, int[] lengths, byte[] data,
+		int firstField, int[] state);
 
 	private static native boolean nativePutBlob(long windowPtr, byte[] value, int row, int column);
 	private static native boolean nativePutString(long windowPtr, String value, int row, int column);
@@ -66,6 +86,10 @@ public class CursorWindow extends SQLiteClosable {
 
 	private static native String nativeGetName(long windowPtr);
 
+	private static native int nativeTrimBufferPool();
+	private static native void nativeSetBufferPoolLimit(int limitBytes);
+	private static native void nativeGetBufferPoolStats(long[] stats);
+
 	/**
 	 * Creates a new empty cursor with default cursor size (currently 2MB)
 	 */
@@ -89,6 +113,23 @@ public class CursorWindow extends SQLiteClosable {
 	 * but cannot exceed it. Value is a non-negative number of bytes.
 	 */
 	public CursorWindow(String name, int windowSizeBytes) {
+		this(name, windowSizeBytes, false);
+	}
+
+	/**
+	 * Creates a new empty cursor window and gives it a name.
+	 * <p>
+	 * A columnar window stores the values of each column contiguously instead of
+	 * row by row, which lets {@link #getLongs} and {@link #getDoubles} copy a run of
+	 * numeric values without visiting every row. All other accessors behave the same
+	 * for both layouts.
+	 * </p>
+	 *
+	 * @param name The name of the cursor window, or null if none.
+	 * @param windowSizeBytes Size of cursor window in bytes.
+	 * @param columnar True to store the window in the columnar layout.
+	 */
+	public CursorWindow(String name, int windowSizeBytes, boolean columnar) {
         /* In
          https://developer.android.com/reference/android/database/CursorWindow#CursorWindow(java.lang.String,%20long)
          windowSizeBytes is long. However windowSizeBytes is
@@ -100,7 +141,8 @@ public class CursorWindow extends SQLiteClosable {
 		mStartPos = 0;
 		mWindowSizeBytes = windowSizeBytes;
 		mName = name != null && name.length() != 0 ? name : "<unnamed>";
-		mWindowPtr = nativeCreate(mName, windowSizeBytes);
+		mColumnar = columnar;
+		mWindowPtr = nativeCreate(mName, windowSizeBytes, columnar);
 		if (mWindowPtr == 0) {
 			throw new CursorWindowAllocationException("Cursor window allocation of " +
 				(windowSizeBytes / 1024) + " kb failed. ");
@@ -131,6 +173,13 @@ public class CursorWindow extends SQLiteClosable {
 		return mName;
 	}
 
+	/**
+	 * Returns true if this window stores its rows in the columnar layout.
+	 */
+	public boolean isColumnar() {
+		return mColumnar;
+	}
+
 	/**
 	 * Clears out the existing contents of the window, making it safe to reuse
 	 * for new data.
@@ -170,6 +219,58 @@ public class CursorWindow extends SQLiteClosable {
 		mStartPos = pos;
 	}
 
+	/**
+	 * Limits how far this window may grow when rows are added to it.
+	 * <p>
+	 * By default a window grows without bounds to hold the rows put into it. Once it
+	 * reaches the limit, adding a row fails as if the window were out of memory, except
+	 * that a window always grows enough to hold a single row.
+	 * </p>
+	 *
+	 * @param maxSizeBytes The maximum size of the window in bytes, or 0 for no limit.
+	 */
+	public void setMaxWindowSizeBytes(int maxSizeBytes) {
+		nativeSetMaxSize(mWindowPtr, maxSizeBytes);
+	}
+
+	/**
+	 * Limits the number of rows this window holds.
+	 * <p>
+	 * Once the window holds that many rows, adding a row fails as if the window were
+	 * full. By default the number of rows is limited only by the size of the window.
+	 * </p>
+	 *
+	 * @param maxRows The maximum number of rows, or 0 for no limit.
+	 */
+	public void setMaxRows(int maxRows) {
+		nativeSetMaxRows(mWindowPtr, maxRows);
+	}
+
+	/**
+	 * Sets the factor by which this window grows when rows no longer fit in it.
+	 * <p>
+	 * By default a window grows from its initial size straight to 2MB, then doubles.
+	 * With a growth factor the window grows by that factor each time instead, and by
+	 * at least 4KB.
+	 * </p>
+	 *
+	 * @param growthFactor The growth factor, greater than 1, or 0 for the default growth.
+	 */
+	public void setGrowthFactor(float growthFactor) {
+		if (growthFactor != 0 && !(growthFactor > 1)) {
+			throw new IllegalArgumentException("growthFactor must be greater than 1 or 0");
+		}
+		nativeSetGrowthFactor(mWindowPtr, growthFactor);
+	}
+
+	/**
+	 * Gets the number of bytes of this window used by its rows, including the
+	 * bookkeeping of the window itself.
+	 */
+	public int getUsedBytes() {
+		return nativeGetUsedBytes(mWindowPtr);
+	}
+
 	/**
 	 * Gets the number of rows in this window.
 	 *
@@ -256,6 +357,122 @@ public class CursorWindow extends SQLiteClosable {
 		return nativeGetBlob(mWindowPtr, row - mStartPos, column);
 	}
 
+	/**
+	 * Decodes the row at the specified index into a reusable row buffer in a single
+	 * native call, replacing its contents.
+	 *
+	 * @param row The zero-based row index.
+	 * @param out The row buffer that receives the row.
+	 * @return True if the row was read, false if the window does not hold it.
+	 */
+	public boolean readRow(int row, RowBuffer out) {
+		return readRows(row, 1, out) == 1;
+	}
+
+	/**
+	 * Decodes a range of rows into a reusable row buffer, replacing its contents.
+	 * <p>
+	 * All fields of the rows are decoded at once, instead of with a call to
+	 * {@link #getType} and a getter for each field. The row buffer grows as needed, so
+	 * this only takes more than one native call when its byte array is too small.
+	 * </p>
+	 *
+	 * @param row The zero-based index of the first row.
+	 * @param count The maximum number of rows to read.
+	 * @param out The row buffer that receives the rows.
+	 * @return The number of rows read, less than <code>count</code> when the window
+	 * holds fewer rows.
+	 */
+	public int readRows(int row, int count, RowBuffer out) {
+		if (count < 0) {
+			throw new IllegalArgumentException("count must not be negative");
+		}
+		int startRow = row - mStartPos;
+		int numRows = getNumRows();
+		if (startRow < 0 || startRow > numRows) {
+			throw new IllegalStateException("Couldn't read row " + row + " from CursorWindow."
+				+ " Make sure the Cursor is initialized correctly before accessing data from it.");
+		}
+		int total = Math.min(count, numRows - startRow);
+		int numColumns = nativeGetNumColumns(mWindowPtr);
+		out.reset(total, numColumns);
+		int read = 0;
+		while (read < total) {
+			int n = nativeReadRows(mWindowPtr, startRow + read, total - read, out.types(),
+				out.longs(), out.doubles(), out.offsets(), out.lengths(), out.data(),
+				read * numColumns, out.mState);
+			read += n;
+			out.setRowCount(read);
+			if (read < total) {
+				// The bytes of the next row did not fit
+				out.growData(out.mState[1]);
+			}
+		}
+		return read;
+	}
+
+	/**
+	 * Copies the bytes of the field at the specified row and column index into a
+	 * caller-supplied buffer, without creating a String or byte array.
+	 * <p>
+	 * The bytes are the blob value of a {@link Cursor#FIELD_TYPE_BLOB} field, or the UTF-8
+	 * encoding of a {@link Cursor#FIELD_TYPE_STRING} field without its terminating null.
+	 * A {@link SQLiteException} is thrown for an INTEGER or FLOAT field.
+	 * </p><p>
+	 * The bytes are copied at the position of <code>buffer</code>, which advances past
+	 * them, only if they fit in its remaining space; when the returned length is larger
+	 * than that, nothing is copied and the caller may retry with a larger buffer.  A
+	 * direct buffer receives the bytes straight from the window.
+	 * </p>
+	 *
+	 * @param row The zero-based row index.
+	 * @param column The zero-based column index.
+	 * @param buffer The buffer that receives the bytes.
+	 * @return The length of the value in bytes, or -1 if the field is null.
+	 */
+	public int getBuffer(int row, int column, ByteBuffer buffer) {
+		if (buffer.isReadOnly()) {
+			throw new ReadOnlyBufferException();
+		}
+		final int position = buffer.position();
+		final int length;
+		if (buffer.isDirect()) {
+			length = nativeCopyBytesToBuffer(mWindowPtr, row - mStartPos, column, buffer,
+				position, buffer.remaining());
+		} else {
+			length = nativeCopyBytes(mWindowPtr, row - mStartPos, column, buffer.array(),
+				buffer.arrayOffset() + position, buffer.remaining());
+		}
+		if (length >= 0 && length <= buffer.remaining()) {
+			buffer.position(position + length);
+		}
+		return length;
+	}
+
+	/**
+	 * Copies the bytes of the field at the specified row and column index into a
+	 * caller-supplied array, without creating a String or byte array.
+	 * <p>
+	 * The bytes are the same as those of {@link #getBuffer}. They are copied only if they
+	 * fit in <code>buffer</code> from <code>offset</code> on; when the returned length is
+	 * larger than the room left, nothing is copied and the caller may retry with a larger
+	 * array.
+	 * </p>
+	 *
+	 * @param row The zero-based row index.
+	 * @param column The zero-based column index.
+	 * @param buffer The array that receives the bytes.
+	 * @param offset The index in <code>buffer</code> of the first byte copied.
+	 * @return The length of the value in bytes, or -1 if the field is null.
+	 */
+	public int getUtf8(int row, int column, byte[] buffer, int offset) {
+		if (offset < 0 || offset > buffer.length) {
+			throw new ArrayIndexOutOfBoundsException(offset);
+		}
+		return nativeCopyBytes(mWindowPtr, row - mStartPos, column, buffer, offset,
+			buffer.length - offset);
+	}
+
 	/**
 	 * Gets the value of the field at the specified row and column index as a string.
 	 * <p>
@@ -379,6 +596,66 @@ public class CursorWindow extends SQLiteClosable {
 		return nativeGetDouble(mWindowPtr, row - mStartPos, column);
 	}
 
+	/**
+	 * Copies the values of a column, starting at the specified row, into a
+	 * <code>long</code> array with a single native call.
+	 * <p>
+	 * Each value is converted as by {@link #getLong}. Copying stops at the last row
+	 * of the window, so fewer than <code>count</code> values may be copied.
+	 * </p>
+	 *
+	 * @param row The zero-based row index of the first value to copy.
+	 * @param column The zero-based column index.
+	 * @param values The array that receives the values.
+	 * @param offset The index in <code>values</code> of the first value copied.
+	 * @param count The maximum number of values to copy.
+	 * @return The number of values copied, 0 if the row is not in this window.
+	 */
+	public int getLongs(int row, int column, long[] values, int offset, int count) {
+		checkArrayRange(values == null ? -1 : values.length, offset, count);
+		if (!hasRow(row) || count == 0) {
+			return 0;
+		}
+		return nativeCopyLongs(mWindowPtr, row - mStartPos, column, values, offset, count);
+	}
+
+	/**
+	 * Copies the values of a column, starting at the specified row, into a
+	 * <code>double</code> array with a single native call.
+	 * <p>
+	 * Each value is converted as by {@link #getDouble}. Copying stops at the last row
+	 * of the window, so fewer than <code>count</code> values may be copied.
+	 * </p>
+	 *
+	 * @param row The zero-based row index of the first value to copy.
+	 * @param column The zero-based column index.
+	 * @param values The array that receives the values.
+	 * @param offset The index in <code>values</code> of the first value copied.
+	 * @param count The maximum number of values to copy.
+	 * @return The number of values copied, 0 if the row is not in this window.
+	 */
+	public int getDoubles(int row, int column, double[] values, int offset, int count) {
+		checkArrayRange(values == null ? -1 : values.length, offset, count);
+		if (!hasRow(row) || count == 0) {
+			return 0;
+		}
+		return nativeCopyDoubles(mWindowPtr, row - mStartPos, column, values, offset, count);
+	}
+
+	private boolean hasRow(int row) {
+		return row >= mStartPos && row < mStartPos + getNumRows();
+	}
+
+	private static void checkArrayRange(int length, int offset, int count) {
+		if (length < 0) {
+			throw new IllegalArgumentException("values should not be null");
+		}
+		if (offset < 0 || count < 0 || offset > length - count) {
+			throw new ArrayIndexOutOfBoundsException("offset " + offset + ", count " + count
+				+ " out of bounds for length " + length);
+		}
+	}
+
 	/**
 	 * Gets the value of the field at the specified row and column index as a
 	 * <code>short</code>.
@@ -509,4 +786,77 @@ public class CursorWindow extends SQLiteClosable {
 	public int getWindowSizeBytes() {
 		return mWindowSizeBytes;
 	}
+
+	/**
+	 * Frees the native buffers kept for reuse by new cursor windows.
+	 * <p>
+	 * Windows are backed by buffers taken from a bounded pool shared by all windows, and
+	 * give their buffer back to it when closed. This is called by
+	 * {@link net.zetetic.database.sqlcipher.SQLiteGlobal#releaseMemory()}.
+	 * </p>
+	 *
+	 * @return The number of bytes that were freed.
+	 */
+	public static int trimBufferPool() {
+		return nativeTrimBufferPool();
+	}
+
+	/**
+	 * Sets the number of bytes of idle buffers the window buffer pool may keep,
+	 * freeing buffers beyond the new limit. The default limit is 4MB.
+	 *
+	 * @param limitBytes The limit in bytes, or 0 to free every buffer on release.
+	 */
+	public static void setBufferPoolLimit(int limitBytes) {
+		nativeSetBufferPoolLimit(limitBytes);
+	}
+
+	/**
+	 * Gets the statistics of the window buffer pool since the process started.
+	 */
+	public static BufferPoolStats getBufferPoolStats() {
+		long[] stats = new long[6];
+		nativeGetBufferPoolStats(stats);
+		return new BufferPoolStats(stats[0], stats[1], stats[2], stats[3], stats[4], stats[5]);
+	}
+
+	/**
+	 * Statistics of the buffer pool backing cursor windows.
+	 */
+	public static final class BufferPoolStats {
+		/** The number of windows created or grown with a pooled buffer */
+		public final long hitCount;
+
+		/** The number of windows created or grown with a newly allocated buffer */
+		public final long missCount;
+
+		/** The number of released buffers kept for reuse */
+		public final long recycledCount;
+
+		/** The number of released buffers freed because the pool was full */
+		public final long discardedCount;
+
+		/** The number of bytes held in idle buffers */
+		public final long pooledBytes;
+
+		/** The number of bytes the pool may hold */
+		public final long limitBytes;
+
+		BufferPoolStats(long hitCount, long missCount, long recycledCount,
+			long discardedCount, long pooledBytes, long limitBytes) {
+			this.hitCount = hitCount;
+			this.missCount = missCount;
+			this.recycledCount = recycledCount;
+			this.discardedCount = discardedCount;
+			this.pooledBytes = pooledBytes;
+			this.limitBytes = limitBytes;
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + hitCount + ", misses=" + missCount
+				+ ", recycled=" + recycledCount + ", discarded=" + discardedCount
+				+ ", pooledBytes=" + pooledBytes + ", limitBytes=" + limitBytes;
+		}
+	}
 }
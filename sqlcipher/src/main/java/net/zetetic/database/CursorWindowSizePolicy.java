@@ -0,0 +1,153 @@
+package net.zetetic.database;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decides how large the cursor windows of a query start out and how they grow.
+ * <p>
+ * A policy has an initial size, a growth factor and a hard cap. An adaptive policy
+ * also remembers how many bytes the window of each query needed the last time it was
+ * filled, and starts the next window of the same SQL at that size (within the cap),
+ * so that small queries do not allocate more than they use and large queries do not
+ * grow their window step by step on every execution.
+ * </p><p>
+ * A policy may be shared by any number of cursors and threads.
+ * </p>
+ */
+public final class CursorWindowSizePolicy {
+	private static final int MAX_LEARNED_QUERIES = 100;
+
+	// Learned sizes are rounded up to this many bytes, to leave room for rows that vary
+	private static final int LEARNED_SIZE_GRANULARITY = 4096;
+
+	private final int mInitialSizeBytes;
+	private final float mGrowthFactor;
+	private final int mMaxSizeBytes;
+	private final boolean mAdaptive;
+
+	/** The bytes used by the last filled window of each query, least recently used first */
+	private final LinkedHashMap<String, Integer> mLearnedSizes;
+
+	/**
+	 * Creates a window size policy.
+	 *
+	 * @param initialSizeBytes The size of a new window in bytes.
+	 * @param growthFactor The factor by which a window grows when rows no longer fit,
+	 * greater than 1, or 0 for the default growth straight to 2MB, then doubling.
+	 * @param maxSizeBytes The size a window may not grow past unless it holds a single row,
+	 * or 0 for no limit.
+	 * @param adaptive True to start the windows of a query at the size used by its
+	 * previous execution instead of initialSizeBytes.
+	 */
+	public CursorWindowSizePolicy(int initialSizeBytes, float growthFactor, int maxSizeBytes,
+			boolean adaptive) {
+		if (initialSizeBytes <= 0) {
+			throw new IllegalArgumentException("initialSizeBytes must be positive");
+		}
+		if (growthFactor != 0 && !(growthFactor > 1)) {
+			throw new IllegalArgumentException("growthFactor must be greater than 1 or 0");
+		}
+		if (maxSizeBytes < 0 || (maxSizeBytes != 0 && maxSizeBytes < initialSizeBytes)) {
+			throw new IllegalArgumentException(
+					"maxSizeBytes must be 0 or no smaller than initialSizeBytes");
+		}
+		mInitialSizeBytes = initialSizeBytes;
+		mGrowthFactor = growthFactor;
+		mMaxSizeBytes = maxSizeBytes;
+		mAdaptive = adaptive;
+		mLearnedSizes = adaptive
+				? new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+						return size() > MAX_LEARNED_QUERIES;
+					}
+				}
+				: null;
+	}
+
+	public int getInitialSizeBytes() {
+		return mInitialSizeBytes;
+	}
+
+	public float getGrowthFactor() {
+		return mGrowthFactor;
+	}
+
+	public int getMaxSizeBytes() {
+		return mMaxSizeBytes;
+	}
+
+	public boolean isAdaptive() {
+		return mAdaptive;
+	}
+
+	/**
+	 * Creates a window for the given query, sized and limited according to this policy.
+	 *
+	 * @param name The name of the window.
+	 * @param sql The SQL of the query that fills the window.
+	 * @param columnar True to create the window in the columnar layout.
+	 * @return The new window.
+	 */
+	public CursorWindow createWindow(String name, String sql, boolean columnar) {
+		CursorWindow window = new CursorWindow(name, getWindowSizeBytes(sql), columnar);
+		window.setMaxWindowSizeBytes(mMaxSizeBytes);
+		if (mGrowthFactor != 0) {
+			window.setGrowthFactor(mGrowthFactor);
+		}
+		return window;
+	}
+
+	/**
+	 * Gets the size of a new window for the given query.
+	 */
+	public int getWindowSizeBytes(String sql) {
+		if (mAdaptive && sql != null) {
+			Integer learnedSize;
+			synchronized (mLearnedSizes) {
+				learnedSize = mLearnedSizes.get(sql);
+			}
+			if (learnedSize != null) {
+				return mMaxSizeBytes != 0 ? Math.min(learnedSize, mMaxSizeBytes) : learnedSize;
+			}
+		}
+		return mInitialSizeBytes;
+	}
+
+	/**
+	 * Records the bytes used by a window just filled by the given query, for the next
+	 * window of the same SQL. Does nothing unless the policy is adaptive.
+	 *
+	 * @param sql The SQL of the query that filled the window.
+	 * @param window The window.
+	 */
+	public void onWindowFilled(String sql, CursorWindow window) {
+		if (!mAdaptive || sql == null) {
+			return;
+		}
+		int usedBytes = window.getUsedBytes();
+		int learnedSize = (usedBytes / LEARNED_SIZE_GRANULARITY + 1) * LEARNED_SIZE_GRANULARITY;
+		synchronized (mLearnedSizes) {
+			mLearnedSizes.put(sql, learnedSize);
+		}
+	}
+
+	/**
+	 * Forgets the window sizes learned for all queries.
+	 */
+	public void clearLearnedSizes() {
+		if (mAdaptive) {
+			synchronized (mLearnedSizes) {
+				mLearnedSizes.clear();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CursorWindowSizePolicy{initialSizeBytes=" + mInitialSizeBytes
+				+ ", growthFactor=" + mGrowthFactor + ", maxSizeBytes=" + mMaxSizeBytes
+				+ ", adaptive=" + mAdaptive + "}";
+	}
+}
@@ -0,0 +1,256 @@
+package net.zetetic.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A reusable buffer that receives whole rows of a {@link CursorWindow} decoded in a
+ * single native call, see {@link CursorWindow#readRows(int, int, RowBuffer)}.
+ * <p>
+ * The fields of the rows are stored in preallocated arrays laid out row by row: the
+ * type of each field, its value as a long and as a double, and for strings and blobs
+ * the offset and length of its bytes in a shared byte array. Strings are stored in
+ * UTF-8 without a terminator. The arrays only grow, so reading rows of a similar shape
+ * over and over allocates nothing once the buffer has warmed up.
+ * </p><p>
+ * The accessors take the row index within the buffer, from 0 to {@link #getRowCount()}.
+ * This class is not thread-safe.
+ * </p>
+ */
+public final class RowBuffer {
+	private static final int MIN_DATA_SIZE = 1024;
+
+	private int mRowCount;
+	private int mColumnCount;
+	private int[] mTypes;
+	private long[] mLongs;
+	private double[] mDoubles;
+	private int[] mOffsets;
+	private int[] mLengths;
+	private byte[] mData;
+
+	// The bytes of data in use and the bytes needed by a row that did not fit, as
+	// exchanged with the native code
+	final int[] mState = new int[2];
+
+	/**
+	 * Creates a row buffer with room for the given number of rows and columns. The
+	 * buffer grows as needed when it receives more.
+	 *
+	 * @param rowCapacity The number of rows to make room for.
+	 * @param columnCapacity The number of columns to make room for.
+	 */
+	public RowBuffer(int rowCapacity, int columnCapacity) {
+		int fields = Math.max(rowCapacity, 1) * Math.max(columnCapacity, 1);
+		mTypes = new int[fields];
+		mLongs = new long[fields];
+		mDoubles = new double[fields];
+		mOffsets = new int[fields];
+		mLengths = new int[fields];
+		mData = new byte[MIN_DATA_SIZE];
+	}
+
+	/**
+	 * Creates a row buffer with room for a single row of 16 columns.
+	 */
+	public RowBuffer() {
+		this(1, 16);
+	}
+
+	/**
+	 * Forgets the rows of the buffer and makes room for the given number of rows and
+	 * columns, keeping the arrays when they are large enough.
+	 */
+	void reset(int rowCount, int columnCount) {
+		int fields = rowCount * columnCount;
+		if (fields > mTypes.length) {
+			int capacity = Math.max(fields, mTypes.length * 2);
+			mTypes = new int[capacity];
+			mLongs = new long[capacity];
+			mDoubles = new double[capacity];
+			mOffsets = new int[capacity];
+			mLengths = new int[capacity];
+		}
+		mRowCount = 0;
+		mColumnCount = columnCount;
+		mState[0] = 0;
+		mState[1] = 0;
+	}
+
+	/**
+	 * Grows the byte array so that a row needing the given number of bytes fits after
+	 * the bytes already in use.
+	 */
+	void growData(int requiredBytes) {
+		int needed = mState[0] + requiredBytes;
+		if (needed > mData.length) {
+			mData = Arrays.copyOf(mData, Math.max(needed, mData.length * 2));
+		}
+	}
+
+	void setRowCount(int rowCount) {
+		mRowCount = rowCount;
+	}
+
+	int[] types() {
+		return mTypes;
+	}
+
+	long[] longs() {
+		return mLongs;
+	}
+
+	double[] doubles() {
+		return mDoubles;
+	}
+
+	int[] offsets() {
+		return mOffsets;
+	}
+
+	int[] lengths() {
+		return mLengths;
+	}
+
+	byte[] data() {
+		return mData;
+	}
+
+	/**
+	 * Gets the number of rows in the buffer.
+	 */
+	public int getRowCount() {
+		return mRowCount;
+	}
+
+	/**
+	 * Gets the number of columns of the rows in the buffer.
+	 */
+	public int getColumnCount() {
+		return mColumnCount;
+	}
+
+	/**
+	 * Gets the type of a field, one of the <code>Cursor.FIELD_TYPE_*</code> constants.
+	 *
+	 * @param row The zero-based row index within the buffer.
+	 * @param column The zero-based column index.
+	 */
+	public int getType(int row, int column) {
+		return mTypes[field(row, column)];
+	}
+
+	/**
+	 * Returns true if a field is null.
+	 *
+	 * @param row The zero-based row index within the buffer.
+	 * @param column The zero-based column index.
+	 */
+	public boolean isNull(int row, int column) {
+		return mTypes[field(row, column)] == Cursor.FIELD_TYPE_NULL;
+	}
+
+	/**
+	 * Gets the value of a field as a long, converted as by {@link CursorWindow#getLong}.
+	 *
+	 * @param row The zero-based row index within the buffer.
+	 * @param column The zero-based column index.
+	 * @throws SQLiteException if the field is a blob.
+	 */
+	public long getLong(int row, int column) {
+		int field = field(row, column);
+		if (mTypes[field] == Cursor.FIELD_TYPE_BLOB) {
+			throw new SQLiteException("Unable to convert BLOB to long");
+		}
+		return mLongs[field];
+	}
+
+	/**
+	 * Gets the value of a field as an int, converted as by {@link CursorWindow#getInt}.
+	 *
+	 * @param row The zero-based row index within the buffer.
+	 * @param column The zero-based column index.
+	 * @throws SQLiteException if the field is a blob.
+	 */
+	public int getInt(int row, int column) {
+		return (int) getLong(row, column);
+	}
+
+	/**
+	 * Gets the value of a field as a double, converted as by {@link CursorWindow#getDouble}.
+	 *
+	 * @param row The zero-based row index within the buffer.
+	 * @param column The zero-based column index.
+	 * @throws SQLiteException if the field is a blob.
+	 */
+	public double getDouble(int row, int column) {
+		int field = field(row, column);
+		if (mTypes[field] == Cursor.FIELD_TYPE_BLOB) {
+			throw new SQLiteException("Unable to convert BLOB to double");
+		}
+		return mDoubles[field];
+	}
+
+	/**
+	 * Gets the offset in {@link #getData()} of the bytes of a string or blob field.
+	 *
+	 * @param row The zero-based row index within the buffer.
+	 * @param column The zero-based column index.
+	 */
+	public int getOffset(int row, int column) {
+		return mOffsets[field(row, column)];
+	}
+
+	/**
+	 * Gets the length of the bytes of a string or blob field, 0 for any other type.
+	 *
+	 * @param row The zero-based row index within the buffer.
+	 * @param column The zero-based column index.
+	 */
+	public int getLength(int row, int column) {
+		return mLengths[field(row, column)];
+	}
+
+	/**
+	 * Gets the array holding the bytes of the string and blob fields of the buffer.
+	 * The array may be replaced when the buffer grows, so get it again after each read.
+	 */
+	public byte[] getData() {
+		return mData;
+	}
+
+	/**
+	 * Gets the value of a string field as a String. Unlike the other accessors, this
+	 * creates a String, and it decodes blobs as UTF-8 too.
+	 *
+	 * @param row The zero-based row index within the buffer.
+	 * @param column The zero-based column index.
+	 * @return The value of the field, or null if it is null. Numbers are formatted by
+	 * {@link Long#toString(long)} and {@link Double#toString(double)}.
+	 */
+	public String getString(int row, int column) {
+		int field = field(row, column);
+		switch (mTypes[field]) {
+			case Cursor.FIELD_TYPE_NULL:
+				return null;
+			case Cursor.FIELD_TYPE_INTEGER:
+				return Long.toString(mLongs[field]);
+			case Cursor.FIELD_TYPE_FLOAT:
+				return Double.toString(mDoubles[field]);
+			default:
+				return new String(mData, mOffsets[field], mLengths[field],
+						StandardCharsets.UTF_8);
+		}
+	}
+
+	private int field(int row, int column) {
+		if (row < 0 || row >= mRowCount || column < 0 || column >= mColumnCount) {
+			throw new IndexOutOfBoundsException("row " + row + ", column " + column
+					+ " is outside of " + mRowCount + " rows, " + mColumnCount + " columns");
+		}
+		return row * mColumnCount + column;
+	}
+}
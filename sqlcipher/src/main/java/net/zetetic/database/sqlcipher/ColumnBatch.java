@@ -0,0 +1,177 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.zetetic.database.sqlcipher;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * Rows of values to insert with {@link SQLiteDatabase#bulkInsert} or to execute a statement
+ * with {@link SQLiteStatement#executeBatch(ColumnBatch)}, stored by column in primitive
+ * arrays so that the values are bound without being boxed.
+ * <p>
+ * Add one column for each parameter of the statement, in order.  Every column holds one
+ * value per row.  Integer and floating point columns mark their NULL values in a bit set;
+ * text and blob columns hold null elements for them.  Neither the arrays nor the bit sets
+ * are copied, so they must not be changed until the batch has been executed.
+ * </p><p>
+ * This class is not thread-safe.
+ * </p>
+ */
+public final class ColumnBatch {
+    private final int mRowCount;
+    private final ArrayList<Object> mColumns = new ArrayList<Object>();
+    private final ArrayList<BitSet> mNulls = new ArrayList<BitSet>();
+    private byte[] mTypes = new byte[4];
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param rowCount The number of rows, which every column must have.
+     */
+    public ColumnBatch(int rowCount) {
+        if (rowCount < 0) {
+            throw new IllegalArgumentException("rowCount must not be negative.");
+        }
+        mRowCount = rowCount;
+    }
+
+    /**
+     * Adds a column of integers without NULL values.
+     *
+     * @param values The values, one per row.
+     * @return This batch.
+     */
+    public ColumnBatch addLongColumn(long[] values) {
+        return addLongColumn(values, null);
+    }
+
+    /**
+     * Adds a column of integers.
+     *
+     * @param values The values, one per row.
+     * @param nulls The rows whose value is NULL rather than the one in values,
+     * or null if none.
+     * @return This batch.
+     */
+    public ColumnBatch addLongColumn(long[] values, BitSet nulls) {
+        checkLength(values != null ? values.length : -1);
+        return addColumn(Cursor.FIELD_TYPE_INTEGER, values, nulls);
+    }
+
+    /**
+     * Adds a column of floating point numbers without NULL values.
+     *
+     * @param values The values, one per row.
+     * @return This batch.
+     */
+    public ColumnBatch addDoubleColumn(double[] values) {
+        return addDoubleColumn(values, null);
+    }
+
+    /**
+     * Adds a column of floating point numbers.
+     *
+     * @param values The values, one per row.
+     * @param nulls The rows whose value is NULL rather than the one in values,
+     * or null if none.
+     * @return This batch.
+     */
+    public ColumnBatch addDoubleColumn(double[] values, BitSet nulls) {
+        checkLength(values != null ? values.length : -1);
+        return addColumn(Cursor.FIELD_TYPE_FLOAT, values, nulls);
+    }
+
+    /**
+     * Adds a column of text.
+     *
+     * @param values The values, one per row, null for NULL.
+     * @return This batch.
+     */
+    public ColumnBatch addStringColumn(String[] values) {
+        checkLength(values != null ? values.length : -1);
+        return addColumn(Cursor.FIELD_TYPE_STRING, values, null);
+    }
+
+    /**
+     * Adds a column of blobs.
+     *
+     * @param values The values, one per row, null for NULL.
+     * @return This batch.
+     */
+    public ColumnBatch addBlobColumn(byte[][] values) {
+        checkLength(values != null ? values.length : -1);
+        return addColumn(Cursor.FIELD_TYPE_BLOB, values, null);
+    }
+
+    /**
+     * Returns the number of rows.
+     */
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * Returns the number of columns added so far.
+     */
+    public int getColumnCount() {
+        return mColumns.size();
+    }
+
+    // The Cursor.FIELD_TYPE_* of each column.
+    byte[] getTypes() {
+        final byte[] types = new byte[mColumns.size()];
+        System.arraycopy(mTypes, 0, types, 0, types.length);
+        return types;
+    }
+
+    // The value arrays of the columns.
+    Object[] getColumns() {
+        return mColumns.toArray();
+    }
+
+    // The NULL bit sets of the columns as words of 64 rows, null for columns without any.
+    Object[] getNullBits() {
+        final int count = mNulls.size();
+        final Object[] nullBits = new Object[count];
+        for (int i = 0; i < count; i++) {
+            final BitSet nulls = mNulls.get(i);
+            nullBits[i] = nulls != null && !nulls.isEmpty() ? nulls.toLongArray() : null;
+        }
+        return nullBits;
+    }
+
+    private void checkLength(int length) {
+        if (length != mRowCount) {
+            throw new IllegalArgumentException("Expected a column of " + mRowCount
+                    + " values but " + (length < 0 ? "none" : length) + " were provided.");
+        }
+    }
+
+    private ColumnBatch addColumn(int type, Object values, BitSet nulls) {
+        final int index = mColumns.size();
+        if (index == mTypes.length) {
+            byte[] types = new byte[index * 2];
+            System.arraycopy(mTypes, 0, types, 0, index);
+            mTypes = types;
+        }
+        mTypes[index] = (byte) type;
+        mColumns.add(values);
+        mNulls.add(nulls);
+        return this;
+    }
+}
@@ -0,0 +1,103 @@
+package net.zetetic.database.sqlcipher;
+
+import net.zetetic.database.Logger;
+
+/**
+ * An immutable map from the column names of a statement's result set to their indices.
+ * <p>
+ * A map is built once per prepared statement and shared by all cursors over the results
+ * of that statement. Lookups compute a case-folded hash of the requested name in place,
+ * so they do not allocate. A name that matches a column exactly finds the last such
+ * column, like the per-cursor map this replaces; otherwise the first column whose name
+ * matches ignoring case is found, like {@link net.zetetic.database.AbstractCursor}.
+ * </p><p>
+ * This class is thread-safe.
+ * </p>
+ */
+final class ColumnIndexMap {
+    private static final String TAG = "SQLiteCursor";
+
+    static final ColumnIndexMap EMPTY = new ColumnIndexMap(new String[0]);
+
+    private final String[] mNames;
+
+    // Open addressing table of column index + 1, 0 for an empty slot, by folded hash
+    private final int[] mTable;
+    private final int mMask;
+
+    ColumnIndexMap(String[] names) {
+        mNames = names.clone();
+        int size = 4;
+        while (size < names.length * 2) {
+            size <<= 1;
+        }
+        mTable = new int[size];
+        mMask = size - 1;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == null) {
+                continue;
+            }
+            int slot = hash(names[i], 0) & mMask;
+            while (mTable[slot] != 0) {
+                slot = (slot + 1) & mMask;
+            }
+            mTable[slot] = i + 1;
+        }
+    }
+
+    /**
+     * Gets the number of columns.
+     */
+    int getColumnCount() {
+        return mNames.length;
+    }
+
+    /**
+     * Gets a copy of the column names, which the caller may modify.
+     */
+    String[] getColumnNames() {
+        return mNames.length == 0 ? mNames : mNames.clone();
+    }
+
+    /**
+     * Gets the index of the named column, or -1 if there is none.
+     * A name qualified by a table name is looked up without the qualifier.
+     */
+    int getColumnIndex(String columnName) {
+        // Hack according to bug 903852
+        int start = columnName.lastIndexOf('.') + 1;
+        if (start != 0) {
+            Exception e = new Exception();
+            Logger.e(TAG, "requesting column name with table name -- " + columnName, e);
+        }
+        int length = columnName.length() - start;
+
+        int exact = -1;
+        int folded = -1;
+        int slot = hash(columnName, start) & mMask;
+        int entry;
+        while ((entry = mTable[slot]) != 0) {
+            int index = entry - 1;
+            String name = mNames[index];
+            if (name.length() == length) {
+                if (name.regionMatches(false, 0, columnName, start, length)) {
+                    exact = Math.max(exact, index);
+                } else if (name.regionMatches(true, 0, columnName, start, length)
+                        && (folded < 0 || index < folded)) {
+                    folded = index;
+                }
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return exact >= 0 ? exact : folded;
+    }
+
+    private static int hash(String s, int start) {
+        int h = 0;
+        for (int i = start, n = s.length(); i < n; i++) {
+            h = 31 * h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+        }
+        // Spread the high bits, as the table is indexed by the low ones
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,304 @@
+package net.zetetic.database.sqlcipher;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Process;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the operations of a {@link SQLiteDatabase} on background threads and returns
+ * their results as futures, so that the calling thread never blocks on the database.
+ * <p>
+ * Queries run on reader threads, one fewer than the connection pool has connections so
+ * that the primary connection is left to the writer, and reads are otherwise as parallel
+ * as the pool allows however many threads submit them.  A pool of a single connection
+ * gets a single reader.  Writes run one at a time, in the order they were submitted, on
+ * a single writer thread that holds the primary connection while it writes.  A cursor
+ * is returned with its first window already filled, and is closed if the operation that
+ * produced it is cancelled.
+ * </p><p>
+ * To be told of a result rather than wait for it, do the follow-up work in the callable
+ * passed to {@link #read} or {@link #write}, for instance by posting it to a handler.
+ * </p><p>
+ * Each pending operation holds a reference to the database until it has stopped running,
+ * even when it is cancelled, so closing the database waits for them to finish.  The
+ * threads stop when they have been idle for a while, and for good once the database is
+ * closed.
+ * </p><p>
+ * Obtain an instance with {@link SQLiteDatabase#async}.  This class is thread-safe.
+ * </p>
+ */
+public final class SQLiteAsyncDatabase {
+    private static final long KEEP_ALIVE_MILLIS = 10000;
+
+    private final SQLiteDatabase mDatabase;
+    private final ThreadPoolExecutor mReaders;
+    private final ThreadPoolExecutor mWriter;
+
+    SQLiteAsyncDatabase(SQLiteDatabase database) {
+        mDatabase = database;
+        mReaders = newExecutor(getReaderCount(database), "SQLiteAsyncReader");
+        mWriter = newExecutor(1, "SQLiteAsyncWriter");
+    }
+
+    /**
+     * Returns the database that the operations run on.
+     */
+    public SQLiteDatabase getDatabase() {
+        return mDatabase;
+    }
+
+    /**
+     * Runs a read-only operation on a reader thread.
+     *
+     * @param read The operation, which must not modify the database.
+     * @return The future result of the operation.
+     *
+     * @throws IllegalStateException if the database is closed.
+     */
+    public <T> Future<T> read(Callable<T> read) {
+        resizeReadersIfNeeded();
+        return submit(mReaders, read);
+    }
+
+    /**
+     * Runs an operation that may modify the database on the writer thread, after the
+     * writes submitted before it.
+     *
+     * @param write The operation.
+     * @return The future result of the operation.
+     *
+     * @throws IllegalStateException if the database is closed.
+     */
+    public <T> Future<T> write(Callable<T> write) {
+        return submit(mWriter, write);
+    }
+
+    /**
+     * Runs {@link SQLiteDatabase#rawQuery} on a reader thread.
+     *
+     * @return The future cursor, with its first window filled.
+     */
+    public Future<Cursor> rawQuery(final String sql, String[] selectionArgs) {
+        final String[] selectionArgsCopy = selectionArgs != null ? selectionArgs.clone() : null;
+        return read(new Callable<Cursor>() {
+            @Override
+            public Cursor call() {
+                return fill(mDatabase.rawQuery(sql, selectionArgsCopy));
+            }
+        });
+    }
+
+    /**
+     * Runs {@link SQLiteDatabase#query(String, String[], String, String[], String, String,
+     * String)} on a reader thread.
+     *
+     * @return The future cursor, with its first window filled.
+     */
+    public Future<Cursor> query(final String table, String[] columns, final String selection,
+            String[] selectionArgs, final String groupBy, final String having,
+            final String orderBy) {
+        final String[] columnsCopy = columns != null ? columns.clone() : null;
+        final String[] selectionArgsCopy = selectionArgs != null ? selectionArgs.clone() : null;
+        return read(new Callable<Cursor>() {
+            @Override
+            public Cursor call() {
+                return fill(mDatabase.query(table, columnsCopy, selection, selectionArgsCopy,
+                        groupBy, having, orderBy));
+            }
+        });
+    }
+
+    /**
+     * Runs {@link SQLiteDatabase#insertOrThrow} on the writer thread.
+     *
+     * @return The future row ID of the newly inserted row.
+     */
+    public Future<Long> insert(final String table, final String nullColumnHack,
+            ContentValues values) {
+        final ContentValues valuesCopy = values != null ? new ContentValues(values) : null;
+        return write(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return mDatabase.insertOrThrow(table, nullColumnHack, valuesCopy);
+            }
+        });
+    }
+
+    /**
+     * Runs {@link SQLiteDatabase#update(String, ContentValues, String, String[])} on the
+     * writer thread.
+     *
+     * @return The future number of rows affected.
+     */
+    public Future<Integer> update(final String table, ContentValues values,
+            final String whereClause, String[] whereArgs) {
+        final ContentValues valuesCopy = values != null ? new ContentValues(values) : null;
+        final String[] whereArgsCopy = whereArgs != null ? whereArgs.clone() : null;
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mDatabase.update(table, valuesCopy, whereClause, whereArgsCopy);
+            }
+        });
+    }
+
+    /**
+     * Runs {@link SQLiteDatabase#delete(String, String, String[])} on the writer thread.
+     *
+     * @return The future number of rows affected.
+     */
+    public Future<Integer> delete(final String table, final String whereClause,
+            String[] whereArgs) {
+        final String[] whereArgsCopy = whereArgs != null ? whereArgs.clone() : null;
+        return write(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mDatabase.delete(table, whereClause, whereArgsCopy);
+            }
+        });
+    }
+
+    /**
+     * Runs {@link SQLiteDatabase#execSQL} on the writer thread.
+     *
+     * @param bindArgs The arguments to bind, or null if none.
+     * @return A future that completes when the statement has run.
+     */
+    public Future<Void> execSQL(final String sql, Object[] bindArgs) {
+        final Object[] bindArgsCopy = bindArgs != null ? bindArgs.clone() : null;
+        return write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                if (bindArgsCopy != null) {
+                    mDatabase.execSQL(sql, bindArgsCopy);
+                } else {
+                    mDatabase.execSQL(sql);
+                }
+                return null;
+            }
+        });
+    }
+
+    // Called by SQLiteDatabase when it is disposed.
+    void shutdown() {
+        mReaders.shutdown();
+        mWriter.shutdown();
+    }
+
+    private <T> Future<T> submit(ThreadPoolExecutor executor, final Callable<T> operation) {
+        if (operation == null) {
+            throw new IllegalArgumentException("operation must not be null.");
+        }
+
+        // The result as soon as it is produced, which the future no longer hands out once
+        // it has been cancelled.
+        final AtomicReference<Object> produced = new AtomicReference<Object>();
+        final FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final T result = operation.call();
+                produced.set(result);
+                return result;
+            }
+        }) {
+            @Override
+            public void run() {
+                try {
+                    super.run();
+                } finally {
+                    // A task cancelled while it was running may produce its result after
+                    // done() has been called.
+                    if (isCancelled()) {
+                        closeIfCursor(produced.getAndSet(null));
+                    }
+                    mDatabase.releaseReference();
+                }
+            }
+
+            @Override
+            protected void done() {
+                // Called as soon as the task is cancelled, even while it is still running,
+                // so the reference is released by run() instead.
+                if (isCancelled()) {
+                    closeIfCursor(produced.getAndSet(null));
+                }
+            }
+        };
+        mDatabase.acquireReference(); // might throw
+        try {
+            executor.execute(task);
+        } catch (RuntimeException ex) {
+            mDatabase.releaseReference();
+            throw ex;
+        }
+        return task;
+    }
+
+    // The pool grows when write-ahead logging is enabled, and shrinks when it is disabled.
+    private void resizeReadersIfNeeded() {
+        final int readerCount = getReaderCount(mDatabase);
+        synchronized (mReaders) {
+            if (readerCount > mReaders.getMaximumPoolSize()) {
+                mReaders.setMaximumPoolSize(readerCount);
+                mReaders.setCorePoolSize(readerCount);
+            } else if (readerCount < mReaders.getMaximumPoolSize()) {
+                mReaders.setCorePoolSize(readerCount);
+                mReaders.setMaximumPoolSize(readerCount);
+            }
+        }
+    }
+
+    // Leaves the primary connection to the writer unless it is the only one.
+    private static int getReaderCount(SQLiteDatabase database) {
+        final int connectionCount = database.getMaxConnectionPoolSize();
+        return connectionCount > 1 ? connectionCount - 1 : 1;
+    }
+
+    private static void closeIfCursor(Object result) {
+        if (result instanceof Cursor) {
+            ((Cursor)result).close();
+        }
+    }
+
+    private static Cursor fill(Cursor cursor) {
+        try {
+            cursor.getCount();
+        } catch (RuntimeException ex) {
+            cursor.close();
+            throw ex;
+        }
+        return cursor;
+    }
+
+    private static ThreadPoolExecutor newExecutor(int threadCount, final String name) {
+        final ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, name + " #" + mCount.incrementAndGet());
+            }
+        };
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
+                KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
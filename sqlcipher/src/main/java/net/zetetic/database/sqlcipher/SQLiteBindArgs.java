@@ -0,0 +1,197 @@
+package net.zetetic.database.sqlcipher;
+
+import android.database.Cursor;
+
+import net.zetetic.database.DatabaseUtils;
+
+import java.util.Arrays;
+
+/**
+ * The arguments bound to the parameters of a statement, kept by type in parallel
+ * arrays so that integers and floating point numbers are bound without being boxed
+ * and all arguments are bound with a single native call.
+ * <p>
+ * The type of each argument is a {@link Cursor}.FIELD_TYPE_* value.  Integer and
+ * floating point arguments are held in the long and double arrays, text and blob
+ * arguments in the object array, all at the index of the argument.
+ * </p><p>
+ * This class is not thread-safe.
+ * </p>
+ */
+final class SQLiteBindArgs {
+    /**
+     * Arguments of a statement without parameters.
+     */
+    static final SQLiteBindArgs EMPTY = new SQLiteBindArgs(0);
+
+    private int mCount;
+    private byte[] mTypes;
+    private long[] mLongs;
+    private double[] mDoubles;
+    private Object[] mObjects;
+
+    /**
+     * Creates arguments that are all NULL.
+     *
+     * @param count The number of arguments.
+     */
+    SQLiteBindArgs(int count) {
+        mCount = count;
+        mTypes = new byte[count];
+        mLongs = new long[count];
+        mDoubles = new double[count];
+        mObjects = new Object[count];
+    }
+
+    /**
+     * Returns the arguments of an array of objects, which are converted the way
+     * {@link #bind(int, Object)} does.
+     *
+     * @param bindArgs The arguments, or null if none.
+     * @return The arguments.
+     */
+    static SQLiteBindArgs of(Object[] bindArgs) {
+        if (bindArgs == null || bindArgs.length == 0) {
+            return EMPTY;
+        }
+        final SQLiteBindArgs args = new SQLiteBindArgs(bindArgs.length);
+        for (int i = 0; i < bindArgs.length; i++) {
+            args.bind(i, bindArgs[i]);
+        }
+        return args;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    void bindNull(int index) {
+        mTypes[index] = Cursor.FIELD_TYPE_NULL;
+        mObjects[index] = null;
+    }
+
+    void bindLong(int index, long value) {
+        mTypes[index] = Cursor.FIELD_TYPE_INTEGER;
+        mLongs[index] = value;
+        mObjects[index] = null;
+    }
+
+    void bindDouble(int index, double value) {
+        mTypes[index] = Cursor.FIELD_TYPE_FLOAT;
+        mDoubles[index] = value;
+        mObjects[index] = null;
+    }
+
+    void bindString(int index, String value) {
+        mTypes[index] = Cursor.FIELD_TYPE_STRING;
+        mObjects[index] = value;
+    }
+
+    void bindBlob(int index, byte[] value) {
+        mTypes[index] = Cursor.FIELD_TYPE_BLOB;
+        mObjects[index] = value;
+    }
+
+    /**
+     * Binds an object by its type.  Numbers are bound as integers or floating point
+     * numbers, booleans as 0 or 1, and objects other than byte arrays as their string.
+     */
+    void bind(int index, Object value) {
+        switch (DatabaseUtils.getTypeOfObject(value)) {
+            case Cursor.FIELD_TYPE_NULL:
+                bindNull(index);
+                break;
+            case Cursor.FIELD_TYPE_INTEGER:
+                bindLong(index, ((Number)value).longValue());
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                bindDouble(index, ((Number)value).doubleValue());
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                bindBlob(index, (byte[])value);
+                break;
+            case Cursor.FIELD_TYPE_STRING:
+            default:
+                if (value instanceof Boolean) {
+                    // Provide compatibility with legacy applications which may pass
+                    // Boolean values in bind args.
+                    bindLong(index, ((Boolean)value).booleanValue() ? 1 : 0);
+                } else {
+                    bindString(index, value.toString());
+                }
+                break;
+        }
+    }
+
+    /**
+     * Sets all arguments to NULL.
+     */
+    void clear() {
+        Arrays.fill(mTypes, 0, mCount, (byte)Cursor.FIELD_TYPE_NULL);
+        Arrays.fill(mObjects, 0, mCount, null);
+    }
+
+    /**
+     * Replaces these arguments with a copy of other arguments, growing the arrays
+     * when needed.  The contents of blobs are not kept, only their type.
+     */
+    void copyWithoutBlobsFrom(SQLiteBindArgs other) {
+        final int count = other.mCount;
+        if (count > mTypes.length) {
+            mTypes = new byte[count];
+            mLongs = new long[count];
+            mDoubles = new double[count];
+            mObjects = new Object[count];
+        } else {
+            Arrays.fill(mObjects, count, mCount, null);
+        }
+        mCount = count;
+        System.arraycopy(other.mTypes, 0, mTypes, 0, count);
+        System.arraycopy(other.mLongs, 0, mLongs, 0, count);
+        System.arraycopy(other.mDoubles, 0, mDoubles, 0, count);
+        for (int i = 0; i < count; i++) {
+            // Don't hold onto the real byte array longer than necessary.
+            mObjects[i] = mTypes[i] == Cursor.FIELD_TYPE_BLOB ? null : other.mObjects[i];
+        }
+    }
+
+    /**
+     * Appends an argument as it appears in logs.
+     */
+    void describe(StringBuilder msg, int index) {
+        switch (mTypes[index]) {
+            case Cursor.FIELD_TYPE_NULL:
+                msg.append("null");
+                break;
+            case Cursor.FIELD_TYPE_INTEGER:
+                msg.append(mLongs[index]);
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                msg.append(mDoubles[index]);
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                msg.append("<byte[]>");
+                break;
+            default:
+                msg.append("\"").append((String)mObjects[index]).append("\"");
+                break;
+        }
+    }
+
+    // The arrays passed to nativeBindAll, which may be longer than size().
+    byte[] getTypes() {
+        return mTypes;
+    }
+
+    long[] getLongs() {
+        return mLongs;
+    }
+
+    double[] getDoubles() {
+        return mDoubles;
+    }
+
+    Object[] getObjects() {
+        return mObjects;
+    }
+}
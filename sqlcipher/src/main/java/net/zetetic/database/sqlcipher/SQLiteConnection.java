@@ -28,7 +28,6 @@ import android.os.CancellationSignal;
 import android.os.OperationCanceledException;
 import android.os.ParcelFileDescriptor;
 import android.os.SystemClock;
-import android.util.LruCache;
 import android.util.Printer;
 
 import net.zetetic.database.CursorWindow;
@@ -38,8 +37,14 @@ import net.zetetic.database.sqlcipher.SQLiteDebug.DbStats;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Represents a SQLite database connection.
@@ -93,8 +98,21 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     private static final String TAG = "SQLiteConnection";
     private static final boolean DEBUG = false;
 
-    private static final String[] EMPTY_STRING_ARRAY = new String[0];
-    private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
+
+    // Indices of the values that nativePrepareStatement writes about the statement it
+    // prepared, must be kept in sync with the native code.
+    private static final int STATEMENT_INFO_NUM_PARAMETERS = 0;
+    private static final int STATEMENT_INFO_READ_ONLY = 1;
+    private static final int STATEMENT_INFO_COLUMN_COUNT = 2;
+    private static final int STATEMENT_INFO_TYPE = 3;
+    private static final int STATEMENT_INFO_MEMORY_USED = 4;
+    private static final int STATEMENT_INFO_SIZE = 5;
+
+    // The pragmas that do all their work when the statement is stepped, so that a cached
+    // statement keeps returning current values.
+    private static final Set<String> CACHEABLE_PRAGMAS = new HashSet<String>(Arrays.asList(
+            "application_id", "data_version", "freelist_count", "page_count",
+            "schema_version", "user_version", "wal_checkpoint"));
 
     private final CloseGuard mCloseGuard = CloseGuard.get();
 
@@ -106,6 +124,40 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     private final PreparedStatementCache mPreparedStatementCache;
     private PreparedStatement mPreparedStatementPool;
 
+    // A cached query statement left positioned on a row by executeForCursorWindow so
+    // that the cursor identified by mPositionedStatementKey can resume it, and the
+    // row it is on.  Any other use of the connection resets the statement first.
+    private PreparedStatement mPositionedStatement;
+
+    // Receives the description of each statement prepared by the connection.
+    private final int[] mStatementInfo = new int[STATEMENT_INFO_SIZE];
+
+    // The schema generation of the pool when the cached statements were last checked.
+    private int mSchemaGeneration;
+
+    // True if the statement cache has not been warmed up with the current warm-up statements.
+    private volatile boolean mWarmUpPending;
+
+    // When the connection was last returned to the pool, set before it is made available.
+    private long mIdleSinceMillis;
+
+    // The generation of the pool configuration this connection was last configured with.
+    private volatile int mPoolGeneration;
+
+    // True while the connection is acquired through the lock-free path of the pool.
+    private final AtomicBoolean mFastAcquired = new AtomicBoolean();
+
+    // The size in bytes the pool limited the page cache to, or 0 if it has the default size,
+    // and the cache_size of the connection before the pool first limited it.
+    private volatile long mPageCacheLimitBytes;
+    private long mDefaultCacheSize;
+
+    // The number of statements prepared by the last warm-up and how long it took.
+    private volatile int mWarmUpCount;
+    private volatile long mWarmUpMillis;
+    private Object mPositionedStatementKey;
+    private int mPositionedStatementRow;
+
     // The recent operations log.
     private final OperationLog mRecentOperations = new OperationLog();
 
@@ -128,10 +180,11 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     private static native void nativeRegisterCustomFunction(long connectionPtr,
             SQLiteCustomFunction function);
     private static native void nativeRegisterLocalizedCollators(long connectionPtr, String locale);
-    private static native long nativePrepareStatement(long connectionPtr, String sql);
+    private static native long nativePrepareStatement(long connectionPtr, String sql,
+            int[] outInfo);
     private static native void nativeFinalizeStatement(long connectionPtr, long statementPtr);
-    private static native int nativeGetParameterCount(long connectionPtr, long statementPtr);
-    private static native boolean nativeIsReadOnly(long connectionPtr, long statementPtr);
+    private static native int nativeGetStatementMemoryUsed(long connectionPtr, long statementPtr);
+    private static native int nativeGetReprepareCount(long connectionPtr, long statementPtr);
     private static native int nativeGetColumnCount(long connectionPtr, long statementPtr);
     private static native String nativeGetColumnName(long connectionPtr, long statementPtr,
             int index);
@@ -145,6 +198,8 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             int index, String value);
     private static native void nativeBindBlob(long connectionPtr, long statementPtr,
             int index, byte[] value);
+    private static native void nativeBindAll(long connectionPtr, long statementPtr,
+            long[] longs, double[] doubles, Object[] objects, byte[] types);
     private static native void nativeResetStatementAndClearBindings(
             long connectionPtr, long statementPtr);
     private static native void nativeExecute(long connectionPtr, long statementPtr);
@@ -154,12 +209,20 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             long connectionPtr, long statementPtr);
     private static native void nativeExecuteRaw(long connectionPtr, long statementPtr);
     private static native int nativeExecuteForChangedRowCount(long connectionPtr, long statementPtr);
+    private static native int nativeExecuteBatch(long connectionPtr, long statementPtr,
+            int rowCount, byte[] types, long[] longs, double[] doubles, Object[] objects);
+    private static native int nativeExecuteColumnBatch(long connectionPtr, long statementPtr,
+            int rowCount, byte[] types, Object[] columns, Object[] nullBits);
     private static native long nativeExecuteForLastInsertedRowId(
             long connectionPtr, long statementPtr);
     private static native long nativeExecuteForCursorWindow(
       long connectionPtr, long statementPtr, long winPtr,
-      int startPos, int requiredPos, boolean countAllRows);
+      int startPos, int requiredPos, boolean countAllRows,
+      int stepPos, boolean keepPositioned);
     private static native int nativeGetDbLookaside(long connectionPtr);
+    private static native int nativeGetDbCacheUsed(long connectionPtr);
+    private static native int nativeReleaseMemory(long connectionPtr);
+    private static native boolean nativeIsAutoCommit(long connectionPtr);
     private static native void nativeCancel(long connectionPtr);
     private static native void nativeResetCancel(long connectionPtr, boolean cancelable);
 
@@ -174,8 +237,10 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         mConnectionId = connectionId;
         mIsPrimaryConnection = primaryConnection;
         mIsReadOnlyConnection = (configuration.openFlags & SQLiteDatabase.OPEN_READONLY) != 0;
+        mSchemaGeneration = pool != null ? pool.getSchemaGeneration() : 0;
+        mWarmUpPending = !mConfiguration.warmUpStatements.isEmpty();
         mPreparedStatementCache = new PreparedStatementCache(
-                mConfiguration.maxSqlCacheSize);
+                mConfiguration.maxSqlCacheSize, mConfiguration.maxSqlCacheBytes);
         mCloseGuard.open("close");
     }
 
@@ -237,7 +302,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             mConfiguration.databaseHook.postKey(this);
         }
         if(mConfiguration.password != null && mConfiguration.password.length > 0) {
-            executeForLong("SELECT COUNT(*) FROM sqlite_schema;", null, null);
+            executeForLong("SELECT COUNT(*) FROM sqlite_schema;", SQLiteBindArgs.EMPTY, null);
         }
         setPageSize();
         setForeignKeyModeFromConfiguration();
@@ -278,9 +343,9 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     private void setPageSize() {
         if (!mConfiguration.isInMemoryDb() && !mIsReadOnlyConnection && !SQLiteDatabase.hasCodec()) {
             final long newValue = SQLiteGlobal.getDefaultPageSize();
-            long value = executeForLong("PRAGMA page_size", null, null);
+            long value = executeForLong("PRAGMA page_size", SQLiteBindArgs.EMPTY, null);
             if (value != newValue) {
-                execute("PRAGMA page_size=" + newValue, null, null);
+                execute("PRAGMA page_size=" + newValue, SQLiteBindArgs.EMPTY, null);
             }
         }
     }
@@ -288,9 +353,9 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     private void setAutoCheckpointInterval() {
         if (!mConfiguration.isInMemoryDb() && !mIsReadOnlyConnection) {
             final long newValue = SQLiteGlobal.getWALAutoCheckpoint();
-            long value = executeForLong("PRAGMA wal_autocheckpoint", null, null);
+            long value = executeForLong("PRAGMA wal_autocheckpoint", SQLiteBindArgs.EMPTY, null);
             if (value != newValue) {
-                executeForLong("PRAGMA wal_autocheckpoint=" + newValue, null, null);
+                executeForLong("PRAGMA wal_autocheckpoint=" + newValue, SQLiteBindArgs.EMPTY, null);
             }
         }
     }
@@ -298,9 +363,9 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     private void setJournalSizeLimit() {
         if (!mConfiguration.isInMemoryDb() && !mIsReadOnlyConnection) {
             final long newValue = SQLiteGlobal.getJournalSizeLimit();
-            long value = executeForLong("PRAGMA journal_size_limit", null, null);
+            long value = executeForLong("PRAGMA journal_size_limit", SQLiteBindArgs.EMPTY, null);
             if (value != newValue) {
-                executeForLong("PRAGMA journal_size_limit=" + newValue, null, null);
+                executeForLong("PRAGMA journal_size_limit=" + newValue, SQLiteBindArgs.EMPTY, null);
             }
         }
     }
@@ -308,9 +373,9 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     private void setForeignKeyModeFromConfiguration() {
         if (!mIsReadOnlyConnection) {
             final long newValue = mConfiguration.foreignKeyConstraintsEnabled ? 1 : 0;
-            long value = executeForLong("PRAGMA foreign_keys", null, null);
+            long value = executeForLong("PRAGMA foreign_keys", SQLiteBindArgs.EMPTY, null);
             if (value != newValue) {
-                execute("PRAGMA foreign_keys=" + newValue, null, null);
+                execute("PRAGMA foreign_keys=" + newValue, SQLiteBindArgs.EMPTY, null);
             }
         }
     }
@@ -328,10 +393,10 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     }
 
     private void setSyncMode(String newValue) {
-        String value = executeForString("PRAGMA synchronous", null, null);
+        String value = executeForString("PRAGMA synchronous", SQLiteBindArgs.EMPTY, null);
         if (!canonicalizeSyncMode(value).equalsIgnoreCase(
                 canonicalizeSyncMode(newValue))) {
-            execute("PRAGMA synchronous=" + newValue, null, null);
+            execute("PRAGMA synchronous=" + newValue, SQLiteBindArgs.EMPTY, null);
         }
     }
 
@@ -347,10 +412,11 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     }
 
     private void setJournalMode(String newValue) {
-        String value = executeForString("PRAGMA journal_mode", null, null);
+        String value = executeForString("PRAGMA journal_mode", SQLiteBindArgs.EMPTY, null);
         if (!value.equalsIgnoreCase(newValue)) {
             try {
-                String result = executeForString("PRAGMA journal_mode=" + newValue, null, null);
+                String result = executeForString("PRAGMA journal_mode=" + newValue,
+                        SQLiteBindArgs.EMPTY, null);
                 if (result.equalsIgnoreCase(newValue)) {
                     return;
                 }
@@ -398,26 +464,27 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
 
         try {
             // Ensure the android metadata table exists.
-            execute("CREATE TABLE IF NOT EXISTS android_metadata (locale TEXT)", null, null);
+            execute("CREATE TABLE IF NOT EXISTS android_metadata (locale TEXT)",
+                    SQLiteBindArgs.EMPTY, null);
 
             // Check whether the locale was actually changed.
             final String oldLocale = executeForString("SELECT locale FROM android_metadata "
-                    + "UNION SELECT NULL ORDER BY locale DESC LIMIT 1", null, null);
+                    + "UNION SELECT NULL ORDER BY locale DESC LIMIT 1", SQLiteBindArgs.EMPTY, null);
             if (oldLocale != null && oldLocale.equals(newLocale)) {
                 return;
             }
 
             // Go ahead and update the indexes using the new locale.
-            execute("BEGIN", null, null);
+            execute("BEGIN", SQLiteBindArgs.EMPTY, null);
             boolean success = false;
             try {
-                execute("DELETE FROM android_metadata", null, null);
+                execute("DELETE FROM android_metadata", SQLiteBindArgs.EMPTY, null);
                 execute("INSERT INTO android_metadata (locale) VALUES(?)",
                         new Object[] { newLocale }, null);
-                execute("REINDEX LOCALIZED", null, null);
+                execute("REINDEX LOCALIZED", SQLiteBindArgs.EMPTY, null);
                 success = true;
             } finally {
-                execute(success ? "COMMIT" : "ROLLBACK", null, null);
+                execute(success ? "COMMIT" : "ROLLBACK", SQLiteBindArgs.EMPTY, null);
             }
         } catch (RuntimeException ex) {
             throw new SQLiteException("Failed to change locale for db '" + mConfiguration.label
@@ -450,13 +517,15 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         boolean walModeChanged = ((configuration.openFlags ^ mConfiguration.openFlags)
                 & SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING) != 0;
         boolean localeChanged = !configuration.locale.equals(mConfiguration.locale);
+        boolean warmUpChanged = !configuration.warmUpStatements.equals(
+                mConfiguration.warmUpStatements);
 
         // Update configuration parameters.
         mConfiguration.updateParametersFrom(configuration);
 
         // Update prepared statement cache size.
-        // sqlite.org: android.util.LruCache.resize() requires API level 21.
-        // mPreparedStatementCache.resize(configuration.maxSqlCacheSize);
+        mPreparedStatementCache.resize(configuration.maxSqlCacheSize,
+                configuration.maxSqlCacheBytes);
 
         // Update foreign key mode.
         if (foreignKeyModeChanged) {
@@ -472,6 +541,107 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         if (localeChanged) {
             setLocaleFromConfiguration();
         }
+
+        // The pool warms up the statement cache again when it next can.
+        if (warmUpChanged) {
+            mWarmUpPending = !mConfiguration.warmUpStatements.isEmpty();
+        }
+    }
+
+    // Called by SQLiteConnectionPool only.
+    long getIdleSinceMillis() {
+        return mIdleSinceMillis;
+    }
+
+    // Called by SQLiteConnectionPool only.
+    void setIdleSinceMillis(long uptimeMillis) {
+        mIdleSinceMillis = uptimeMillis;
+    }
+
+    // Called by SQLiteConnectionPool only.
+    int getPoolGeneration() {
+        return mPoolGeneration;
+    }
+
+    // Called by SQLiteConnectionPool only.
+    void setPoolGeneration(int generation) {
+        mPoolGeneration = generation;
+    }
+
+    // Called by SQLiteConnectionPool only.
+    // Returns false if the connection already was in the requested state.
+    boolean setFastAcquired(boolean acquired) {
+        return mFastAcquired.compareAndSet(!acquired, acquired);
+    }
+
+    // Called by SQLiteConnectionPool only.
+    boolean isFastAcquired() {
+        return mFastAcquired.get();
+    }
+
+    // Called by SQLiteConnectionPool only.
+    // Returns true if the statement cache should be warmed up.
+    boolean isWarmUpPending() {
+        return mWarmUpPending;
+    }
+
+    // Called by SQLiteConnectionPool only.
+    // Prepares the warm-up statements of the configuration so that they are in the cache
+    // before they are first used.  Statements that cannot be prepared are skipped.
+    void warmUp() {
+        mWarmUpPending = false;
+        final ArrayList<String> statements = mConfiguration.warmUpStatements;
+        final long startTime = SystemClock.uptimeMillis();
+        int count = 0;
+        for (int i = 0; i < statements.size(); i++) {
+            final String sql = statements.get(i);
+            try {
+                releasePreparedStatement(acquirePreparedStatement(sql));
+                count += 1;
+            } catch (RuntimeException ex) {
+                Logger.w(TAG, "Could not warm up statement cache with: "
+                        + trimSqlForDisplay(sql), ex);
+            }
+        }
+        mWarmUpCount = count;
+        mWarmUpMillis = SystemClock.uptimeMillis() - startTime;
+    }
+
+    // Called by SQLiteConnectionPool only.
+    // Limits the page cache to the given number of bytes, or restores its default size if 0.
+    // Like reconfigure, clears the read-only restriction of the previous session.
+    void setPageCacheLimit(long bytes) {
+        if (bytes == mPageCacheLimitBytes) {
+            return;
+        }
+        mOnlyAllowReadOnlyOperations = false;
+        if (mPageCacheLimitBytes == 0) {
+            mDefaultCacheSize = executeForLong("PRAGMA cache_size", SQLiteBindArgs.EMPTY, null);
+        }
+        // A negative cache_size is a size in KiB rather than in pages.
+        final long cacheSize = bytes > 0 ? -Math.max(1, bytes / 1024) : mDefaultCacheSize;
+        execute("PRAGMA cache_size=" + cacheSize, SQLiteBindArgs.EMPTY, null);
+        mPageCacheLimitBytes = bytes;
+    }
+
+    // Called by SQLiteConnectionPool only.
+    long getPageCacheLimit() {
+        return mPageCacheLimitBytes;
+    }
+
+    // Called by SQLiteConnectionPool only.
+    // Releases the page cache memory that the connection does not need and returns the number
+    // of bytes released.  SQLite serializes this with the use of the connection, so unlike
+    // other methods it may be called while the connection is owned by another thread.
+    int releaseMemoryUnsafe() {
+        return nativeReleaseMemory(mConnectionPtr);
+    }
+
+    // Called by SQLiteSession only.
+    // Returns true if no transaction is open on the connection, which is the case in the
+    // middle of a session transaction when SQLite rolled it back because of an error.
+    boolean isAutoCommit() {
+        return nativeIsAutoCommit(mConnectionPtr);
     }
 
     // Called by SQLiteConnectionPool only.
@@ -481,12 +651,6 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         mOnlyAllowReadOnlyOperations = readOnly;
     }
 
-    // Called by SQLiteConnectionPool only.
-    // Returns true if the prepared statement cache contains the specified SQL.
-    boolean isPreparedStatementInCache(String sql) {
-        return mPreparedStatementCache.get(sql) != null;
-    }
-
     /**
      * Gets the unique id of this connection.
      * @return The connection id.
@@ -537,20 +701,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             final PreparedStatement statement = acquirePreparedStatement(sql);
             try {
                 if (outStatementInfo != null) {
-                    outStatementInfo.numParameters = statement.mNumParameters;
-                    outStatementInfo.readOnly = statement.mReadOnly;
-
-                    final int columnCount = nativeGetColumnCount(
-                            mConnectionPtr, statement.mStatementPtr);
-                    if (columnCount == 0) {
-                        outStatementInfo.columnNames = EMPTY_STRING_ARRAY;
-                    } else {
-                        outStatementInfo.columnNames = new String[columnCount];
-                        for (int i = 0; i < columnCount; i++) {
-                            outStatementInfo.columnNames[i] = nativeGetColumnName(
-                                    mConnectionPtr, statement.mStatementPtr, i);
-                        }
-                    }
+                    getStatementInfo(statement, outStatementInfo);
                 }
             } finally {
                 releasePreparedStatement(statement);
@@ -563,6 +714,157 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         }
     }
 
+    private void getStatementInfo(PreparedStatement statement,
+            SQLiteStatementInfo outStatementInfo) {
+        outStatementInfo.numParameters = statement.mNumParameters;
+        outStatementInfo.readOnly = statement.mReadOnly;
+
+        // The columns of a cached statement are fetched once, unless a schema change
+        // made SQLite prepare it again, possibly with other columns.
+        final int reprepareCount = nativeGetReprepareCount(
+                mConnectionPtr, statement.mStatementPtr);
+        if (statement.mReprepareCount != reprepareCount) {
+            statement.mColumnCount = nativeGetColumnCount(
+                    mConnectionPtr, statement.mStatementPtr);
+            statement.mColumnIndexMap = null;
+            statement.mReprepareCount = reprepareCount;
+        }
+        ColumnIndexMap columns = statement.mColumnIndexMap;
+        if (columns == null) {
+            final int columnCount = statement.mColumnCount;
+            if (columnCount == 0) {
+                columns = ColumnIndexMap.EMPTY;
+            } else {
+                String[] columnNames = new String[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    columnNames[i] = nativeGetColumnName(
+                            mConnectionPtr, statement.mStatementPtr, i);
+                }
+                columns = new ColumnIndexMap(columnNames);
+            }
+            statement.mColumnIndexMap = columns;
+        }
+        outStatementInfo.columnNames = columns.getColumnNames();
+        outStatementInfo.columnIndexMap = columns;
+    }
+
+    /**
+     * Prepares and binds a query for a streaming cursor.
+     * <p>
+     * The statement stays in use by the caller, and keeps its position between calls
+     * to {@link #executeStreamingForCursorWindow}, until it is passed to
+     * {@link #releaseStreamingStatement}.  The caller must hold on to this connection
+     * in the meantime.
+     * </p>
+     *
+     * @param sql The SQL statement to prepare.
+     * @param bindArgs The arguments to bind, or null if none.
+     * @param outStatementInfo The {@link SQLiteStatementInfo} object to populate
+     * with information about the statement.
+     * @return The prepared statement.
+     *
+     * @throws SQLiteException if an error occurs, such as a syntax error
+     * or invalid number of bind arguments.
+     */
+    PreparedStatement acquireStreamingStatement(String sql, Object[] bindArgs,
+            SQLiteStatementInfo outStatementInfo) {
+        if (sql == null) {
+            throw new IllegalArgumentException("sql must not be null.");
+        }
+
+        final SQLiteBindArgs args = SQLiteBindArgs.of(bindArgs);
+        final int cookie = mRecentOperations.beginOperation("acquireStreamingStatement",
+                sql, args);
+        try {
+            final PreparedStatement statement = acquirePreparedStatement(sql);
+            try {
+                throwIfStatementForbidden(statement);
+                bindArguments(statement, args);
+                applyBlockGuardPolicy(statement);
+                getStatementInfo(statement, outStatementInfo);
+                return statement;
+            } catch (RuntimeException ex) {
+                releasePreparedStatement(statement);
+                throw ex;
+            }
+        } catch (RuntimeException ex) {
+            mRecentOperations.failOperation(cookie, ex);
+            throw ex;
+        } finally {
+            mRecentOperations.endOperation(cookie);
+        }
+    }
+
+    /**
+     * Fills the specified {@link CursorWindow} with the next rows of a statement
+     * acquired by {@link #acquireStreamingStatement}, stepping it no further than
+     * needed to fill the window.
+     *
+     * @param statement The streaming statement.
+     * @param window The cursor window to clear and fill.
+     * @param startPos The position of the first row to put in the window.
+     * @param stepPos The row the statement is positioned on, as returned by the previous
+     * call, or -1 if the statement was not stepped yet.
+     * @param cancellationSignal A signal to cancel the operation in progress, or null if none.
+     * @return The row the statement is positioned on, which is the first row that did not
+     * fit in the window, or -1 if all rows were read and the statement was reset.
+     *
+     * @throws SQLiteException if an error occurs.
+     * @throws OperationCanceledException if the operation was canceled.
+     */
+    int executeStreamingForCursorWindow(PreparedStatement statement, CursorWindow window,
+            int startPos, int stepPos, CancellationSignal cancellationSignal) {
+        if (window == null) {
+            throw new IllegalArgumentException("window must not be null.");
+        }
+
+        window.acquireReference();
+        try {
+            int actualPos = -1;
+            int countedRows = -1;
+            int filledRows = -1;
+            final int cookie = mRecentOperations.beginOperation(
+                    "executeStreamingForCursorWindow", statement.mSql, null);
+            try {
+                attachCancellationSignal(cancellationSignal);
+                try {
+                    final long result = nativeExecuteForCursorWindow(
+                            mConnectionPtr, statement.mStatementPtr, window.mWindowPtr,
+                            startPos, startPos, false, stepPos, true);
+                    actualPos = (int)(result >> 32);
+                    countedRows = (int)result;
+                    filledRows = window.getNumRows();
+                    window.setStartPosition(actualPos);
+                    return countedRows > actualPos + filledRows ? countedRows - 1 : -1;
+                } finally {
+                    detachCancellationSignal(cancellationSignal);
+                }
+            } catch (RuntimeException ex) {
+                mRecentOperations.failOperation(cookie, ex);
+                throw ex;
+            } finally {
+                if (mRecentOperations.endOperationDeferLog(cookie)) {
+                    mRecentOperations.logOperation(cookie, "window='" + window
+                            + "', startPos=" + startPos
+                            + ", actualPos=" + actualPos
+                            + ", filledRows=" + filledRows
+                            + ", countedRows=" + countedRows);
+                }
+            }
+        } finally {
+            window.releaseReference();
+        }
+    }
+
+    /**
+     * Releases a statement acquired by {@link #acquireStreamingStatement}.
+     *
+     * @param statement The streaming statement.
+     */
+    void releaseStreamingStatement(PreparedStatement statement) {
+        releasePreparedStatement(statement);
+    }
+
     /**
      * Executes a statement that does not return a result.
      *
@@ -576,6 +878,12 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
      */
     public void execute(String sql, Object[] bindArgs,
             CancellationSignal cancellationSignal) {
+        execute(sql, SQLiteBindArgs.of(bindArgs), cancellationSignal);
+    }
+
+    // Called by SQLiteSession with the arguments of a SQLiteStatement or SQLiteQuery.
+    void execute(String sql, SQLiteBindArgs bindArgs,
+            CancellationSignal cancellationSignal) {
         if (sql == null) {
             throw new IllegalArgumentException("sql must not be null.");
         }
@@ -619,6 +927,12 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
      */
     public long executeForLong(String sql, Object[] bindArgs,
             CancellationSignal cancellationSignal) {
+        return executeForLong(sql, SQLiteBindArgs.of(bindArgs), cancellationSignal);
+    }
+
+    // Called by SQLiteSession with the arguments of a SQLiteStatement or SQLiteQuery.
+    long executeForLong(String sql, SQLiteBindArgs bindArgs,
+            CancellationSignal cancellationSignal) {
         if (sql == null) {
             throw new IllegalArgumentException("sql must not be null.");
         }
@@ -662,6 +976,12 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
      */
     public String executeForString(String sql, Object[] bindArgs,
             CancellationSignal cancellationSignal) {
+        return executeForString(sql, SQLiteBindArgs.of(bindArgs), cancellationSignal);
+    }
+
+    // Called by SQLiteSession with the arguments of a SQLiteStatement or SQLiteQuery.
+    String executeForString(String sql, SQLiteBindArgs bindArgs,
+            CancellationSignal cancellationSignal) {
         if (sql == null) {
             throw new IllegalArgumentException("sql must not be null.");
         }
@@ -707,6 +1027,12 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
      */
     public ParcelFileDescriptor executeForBlobFileDescriptor(String sql, Object[] bindArgs,
             CancellationSignal cancellationSignal) {
+        return executeForBlobFileDescriptor(sql, SQLiteBindArgs.of(bindArgs), cancellationSignal);
+    }
+
+    // Called by SQLiteSession with the arguments of a SQLiteStatement or SQLiteQuery.
+    ParcelFileDescriptor executeForBlobFileDescriptor(String sql, SQLiteBindArgs bindArgs,
+            CancellationSignal cancellationSignal) {
         if (sql == null) {
             throw new IllegalArgumentException("sql must not be null.");
         }
@@ -753,6 +1079,12 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
      */
     public void executeRaw(String sql, Object[] bindArgs,
                                          CancellationSignal cancellationSignal) {
+        executeRaw(sql, SQLiteBindArgs.of(bindArgs), cancellationSignal);
+    }
+
+    // Called by SQLiteSession with the arguments of a SQLiteStatement or SQLiteQuery.
+    void executeRaw(String sql, SQLiteBindArgs bindArgs,
+            CancellationSignal cancellationSignal) {
         if (sql == null) {
             throw new IllegalArgumentException("sql must not be null.");
         }
@@ -800,6 +1132,12 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
      */
     public int executeForChangedRowCount(String sql, Object[] bindArgs,
             CancellationSignal cancellationSignal) {
+        return executeForChangedRowCount(sql, SQLiteBindArgs.of(bindArgs), cancellationSignal);
+    }
+
+    // Called by SQLiteSession with the arguments of a SQLiteStatement or SQLiteQuery.
+    int executeForChangedRowCount(String sql, SQLiteBindArgs bindArgs,
+            CancellationSignal cancellationSignal) {
         if (sql == null) {
             throw new IllegalArgumentException("sql must not be null.");
         }
@@ -834,6 +1172,190 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         }
     }
 
+    /**
+     * Executes a statement once for each row of arguments, and returns the total count
+     * of the number of rows that were changed.  Use for bulk INSERT, UPDATE or DELETE
+     * SQL statements.
+     * <p>
+     * The arguments are sorted by type into primitive arrays up front, so that a single
+     * native call binds, steps and resets the statement for all rows.
+     * </p>
+     *
+     * @param sql The SQL statement to execute.
+     * @param rows The arguments to bind, one array per execution.  Each array must hold
+     * as many arguments as the statement has parameters.
+     * @param cancellationSignal A signal to cancel the operation in progress, or null if none.
+     * @return The total number of rows that were changed.
+     *
+     * @throws SQLiteException if an error occurs, such as a syntax error
+     * or invalid number of bind arguments.
+     * @throws OperationCanceledException if the operation was canceled.
+     */
+    public int executeBatch(String sql, Object[][] rows,
+            CancellationSignal cancellationSignal) {
+        if (sql == null) {
+            throw new IllegalArgumentException("sql must not be null.");
+        }
+        if (rows == null) {
+            throw new IllegalArgumentException("rows must not be null.");
+        }
+
+        int changedRows = 0;
+        final int cookie = mRecentOperations.beginOperation("executeBatch", sql, null);
+        try {
+            final PreparedStatement statement = acquirePreparedStatement(sql);
+            try {
+                throwIfStatementForbidden(statement);
+                final int count = statement.mNumParameters;
+                final byte[] types = new byte[rows.length * count];
+                int longCount = 0;
+                int doubleCount = 0;
+                int objectCount = 0;
+                for (int row = 0; row < rows.length; row++) {
+                    final Object[] args = rows[row];
+                    if (args == null ? count != 0 : args.length != count) {
+                        throw new SQLiteBindOrColumnIndexOutOfRangeException(
+                                "Expected " + count + " bind arguments but "
+                                + (args != null ? args.length : 0) + " were provided in row "
+                                + row + ".");
+                    }
+                    for (int i = 0; i < count; i++) {
+                        final int type = getBindType(args[i]);
+                        types[row * count + i] = (byte) type;
+                        if (type == Cursor.FIELD_TYPE_INTEGER) {
+                            longCount += 1;
+                        } else if (type == Cursor.FIELD_TYPE_FLOAT) {
+                            doubleCount += 1;
+                        } else if (type != Cursor.FIELD_TYPE_NULL) {
+                            objectCount += 1;
+                        }
+                    }
+                }
+                final long[] longs = new long[longCount];
+                final double[] doubles = new double[doubleCount];
+                final Object[] objects = new Object[objectCount];
+                longCount = 0;
+                doubleCount = 0;
+                objectCount = 0;
+                for (int row = 0; row < rows.length; row++) {
+                    for (int i = 0; i < count; i++) {
+                        final Object arg = rows[row][i];
+                        switch (types[row * count + i]) {
+                            case Cursor.FIELD_TYPE_NULL:
+                                break;
+                            case Cursor.FIELD_TYPE_INTEGER:
+                                longs[longCount++] = arg instanceof Boolean
+                                        ? (((Boolean)arg).booleanValue() ? 1 : 0)
+                                        : ((Number)arg).longValue();
+                                break;
+                            case Cursor.FIELD_TYPE_FLOAT:
+                                doubles[doubleCount++] = ((Number)arg).doubleValue();
+                                break;
+                            case Cursor.FIELD_TYPE_BLOB:
+                                objects[objectCount++] = arg;
+                                break;
+                            default:
+                                objects[objectCount++] = arg.toString();
+                                break;
+                        }
+                    }
+                }
+
+                applyBlockGuardPolicy(statement);
+                attachCancellationSignal(cancellationSignal);
+                try {
+                    changedRows = nativeExecuteBatch(mConnectionPtr, statement.mStatementPtr,
+                            rows.length, types, longs, doubles, objects);
+                    return changedRows;
+                } finally {
+                    detachCancellationSignal(cancellationSignal);
+                }
+            } finally {
+                releasePreparedStatement(statement);
+            }
+        } catch (RuntimeException ex) {
+            mRecentOperations.failOperation(cookie, ex);
+            throw ex;
+        } finally {
+            if (mRecentOperations.endOperationDeferLog(cookie)) {
+                mRecentOperations.logOperation(cookie, "rows=" + rows.length
+                        + ", changedRows=" + changedRows);
+            }
+        }
+    }
+
+    /**
+     * Executes a statement once for each row of a batch of values stored by column, and
+     * returns the total count of the number of rows that were changed.  Use for bulk INSERT,
+     * UPDATE or DELETE SQL statements.
+     * <p>
+     * A single native call binds the values straight from the primitive arrays of the batch,
+     * then steps and resets the statement for each row.
+     * </p>
+     *
+     * @param sql The SQL statement to execute.
+     * @param batch The values to bind, with one column per parameter of the statement.
+     * @param cancellationSignal A signal to cancel the operation in progress, or null if none.
+     * @return The total number of rows that were changed.
+     *
+     * @throws SQLiteException if an error occurs, such as a syntax error
+     * or invalid number of bind arguments.
+     * @throws OperationCanceledException if the operation was canceled.
+     */
+    public int executeBatch(String sql, ColumnBatch batch,
+            CancellationSignal cancellationSignal) {
+        if (sql == null) {
+            throw new IllegalArgumentException("sql must not be null.");
+        }
+        if (batch == null) {
+            throw new IllegalArgumentException("batch must not be null.");
+        }
+
+        int changedRows = 0;
+        final int cookie = mRecentOperations.beginOperation("executeBatch", sql, null);
+        try {
+            final PreparedStatement statement = acquirePreparedStatement(sql);
+            try {
+                throwIfStatementForbidden(statement);
+                if (batch.getColumnCount() != statement.mNumParameters) {
+                    throw new SQLiteBindOrColumnIndexOutOfRangeException(
+                            "Expected " + statement.mNumParameters + " bind arguments but "
+                            + batch.getColumnCount() + " columns were provided.");
+                }
+                applyBlockGuardPolicy(statement);
+                attachCancellationSignal(cancellationSignal);
+                try {
+                    changedRows = nativeExecuteColumnBatch(mConnectionPtr,
+                            statement.mStatementPtr, batch.getRowCount(), batch.getTypes(),
+                            batch.getColumns(), batch.getNullBits());
+                    return changedRows;
+                } finally {
+                    detachCancellationSignal(cancellationSignal);
+                }
+            } finally {
+                releasePreparedStatement(statement);
+            }
+        } catch (RuntimeException ex) {
+            mRecentOperations.failOperation(cookie, ex);
+            throw ex;
+        } finally {
+            if (mRecentOperations.endOperationDeferLog(cookie)) {
+                mRecentOperations.logOperation(cookie, "rows=" + batch.getRowCount()
+                        + ", changedRows=" + changedRows);
+            }
+        }
+    }
+
+    // Returns the Cursor.FIELD_TYPE_* a bind argument is bound as, like bindArguments.
+    private static int getBindType(Object arg) {
+        if (arg instanceof Boolean) {
+            // Provide compatibility with legacy applications which may pass
+            // Boolean values in bind args.
+            return Cursor.FIELD_TYPE_INTEGER;
+        }
+        return DatabaseUtils.getTypeOfObject(arg);
+    }
+
     /**
      * Executes a statement that returns the row id of the last row inserted
      * by the statement.  Use for INSERT SQL statements.
@@ -849,6 +1371,12 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
      */
     public long executeForLastInsertedRowId(String sql, Object[] bindArgs,
             CancellationSignal cancellationSignal) {
+        return executeForLastInsertedRowId(sql, SQLiteBindArgs.of(bindArgs), cancellationSignal);
+    }
+
+    // Called by SQLiteSession with the arguments of a SQLiteStatement or SQLiteQuery.
+    long executeForLastInsertedRowId(String sql, SQLiteBindArgs bindArgs,
+            CancellationSignal cancellationSignal) {
         if (sql == null) {
             throw new IllegalArgumentException("sql must not be null.");
         }
@@ -904,6 +1432,43 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     public int executeForCursorWindow(String sql, Object[] bindArgs,
             CursorWindow window, int startPos, int requiredPos, boolean countAllRows,
             CancellationSignal cancellationSignal) {
+        return executeForCursorWindow(sql, bindArgs, window, startPos, requiredPos,
+                countAllRows, null, cancellationSignal);
+    }
+
+    /**
+     * Executes a statement and populates the specified {@link CursorWindow}
+     * with a range of results, like
+     * {@link #executeForCursorWindow(String, Object[], CursorWindow, int, int, boolean,
+     * CancellationSignal)}.
+     * <p>
+     * When <code>resumeKey</code> is not null and the window fills up before the end of
+     * the results, the statement is left positioned on the first row that did not fit
+     * instead of being reset.  A later call with the same key and SQL, and a start
+     * position at or past that row, continues stepping from there rather than from the
+     * first row.  The bind arguments of such a call are ignored, so the caller must use
+     * a new key whenever they change.  A call that cannot resume, like any other use of
+     * the connection, resets the statement and binds its arguments again.
+     * </p><p>
+     * An active statement keeps a read transaction open on the connection until it is
+     * reset, which holds back WAL checkpoints and, outside of WAL mode, blocks writers
+     * in other processes.
+     * </p>
+     *
+     * @param resumeKey Identifies the caller allowed to resume the statement, typically
+     * the query of a cursor, or null to always reset the statement.
+     */
+    public int executeForCursorWindow(String sql, Object[] bindArgs,
+            CursorWindow window, int startPos, int requiredPos, boolean countAllRows,
+            Object resumeKey, CancellationSignal cancellationSignal) {
+        return executeForCursorWindow(sql, SQLiteBindArgs.of(bindArgs), window, startPos,
+                requiredPos, countAllRows, resumeKey, cancellationSignal);
+    }
+
+    // Called by SQLiteSession with the arguments of a SQLiteStatement or SQLiteQuery.
+    int executeForCursorWindow(String sql, SQLiteBindArgs bindArgs,
+            CursorWindow window, int startPos, int requiredPos, boolean countAllRows,
+            Object resumeKey, CancellationSignal cancellationSignal) {
         if (sql == null) {
             throw new IllegalArgumentException("sql must not be null.");
         }
@@ -919,26 +1484,58 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             final int cookie = mRecentOperations.beginOperation("executeForCursorWindow",
                     sql, bindArgs);
             try {
-                final PreparedStatement statement = acquirePreparedStatement(sql);
+                final PreparedStatement statement;
+                int stepPos = -1;
+                if (resumeKey != null && mPositionedStatement != null
+                        && mPositionedStatementKey == resumeKey
+                        && mPositionedStatement.mSql.equals(sql)
+                        && mPositionedStatementRow <= startPos) {
+                    statement = mPositionedStatement;
+                    stepPos = mPositionedStatementRow;
+                    mPositionedStatement = null;
+                    mPositionedStatementKey = null;
+                    statement.mInUse = true;
+                } else {
+                    // Resets the positioned statement, if any, and clears its bindings.
+                    statement = acquirePreparedStatement(sql);
+                }
+                int positionedRow = -1;
                 try {
                     throwIfStatementForbidden(statement);
-                    bindArguments(statement, bindArgs);
+                    if (stepPos < 0) {
+                        // A resumed statement still has the arguments of its resume key.
+                        bindArguments(statement, bindArgs);
+                    }
                     applyBlockGuardPolicy(statement);
                     attachCancellationSignal(cancellationSignal);
                     try {
+                        final boolean keepPositioned = resumeKey != null && statement.mInCache;
                         final long result = nativeExecuteForCursorWindow(
                                 mConnectionPtr, statement.mStatementPtr, window.mWindowPtr,
-                                startPos, requiredPos, countAllRows);
+                                startPos, requiredPos, countAllRows, stepPos, keepPositioned);
                         actualPos = (int)(result >> 32);
                         countedRows = (int)result;
                         filledRows = window.getNumRows();
                         window.setStartPosition(actualPos);
+                        // The statement steps one row past the window only when it was
+                        // left positioned on that row.
+                        if (keepPositioned && !countAllRows
+                                && countedRows > actualPos + filledRows) {
+                            positionedRow = countedRows - 1;
+                        }
                         return countedRows;
                     } finally {
                         detachCancellationSignal(cancellationSignal);
                     }
                 } finally {
-                    releasePreparedStatement(statement);
+                    if (positionedRow >= 0) {
+                        statement.mInUse = false;
+                        mPositionedStatement = statement;
+                        mPositionedStatementKey = resumeKey;
+                        mPositionedStatementRow = positionedRow;
+                    } else {
+                        releasePreparedStatement(statement);
+                    }
                 }
             } catch (RuntimeException ex) {
                 mRecentOperations.failOperation(cookie, ex);
@@ -958,6 +1555,9 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     }
 
     private PreparedStatement acquirePreparedStatement(String sql) {
+        resetPositionedStatement();
+        checkSchemaGeneration();
+
         PreparedStatement statement = mPreparedStatementCache.get(sql);
         boolean skipCache = false;
         if (statement != null) {
@@ -970,15 +1570,19 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             skipCache = true;
         }
 
-        final long statementPtr = nativePrepareStatement(mConnectionPtr, sql);
+        // The statement is described along with preparing it, to save a native call for
+        // each property and the classification of the SQL in Java.
+        final int[] info = mStatementInfo;
+        final long statementPtr = nativePrepareStatement(mConnectionPtr, sql, info);
         try {
-            final int numParameters = nativeGetParameterCount(mConnectionPtr, statementPtr);
-            final int type = DatabaseUtils.getSqlStatementType(sql);
-            final boolean readOnly = nativeIsReadOnly(mConnectionPtr, statementPtr);
-            statement = obtainPreparedStatement(sql, statementPtr, numParameters, type, readOnly);
-            if (!skipCache && isCacheable(type)) {
-                mPreparedStatementCache.put(sql, statement);
-                statement.mInCache = true;
+            final int type = info[STATEMENT_INFO_TYPE];
+            statement = obtainPreparedStatement(sql, statementPtr,
+                    info[STATEMENT_INFO_NUM_PARAMETERS], type,
+                    info[STATEMENT_INFO_READ_ONLY] != 0);
+            statement.mColumnCount = info[STATEMENT_INFO_COLUMN_COUNT];
+            statement.mMemoryUsed = info[STATEMENT_INFO_MEMORY_USED];
+            if (!skipCache && isCacheable(type, sql)) {
+                statement.mInCache = mPreparedStatementCache.put(sql, statement);
             }
         } catch (RuntimeException ex) {
             // Finalize the statement if an exception occurred and we did not add
@@ -994,6 +1598,9 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
 
     private void releasePreparedStatement(PreparedStatement statement) {
         statement.mInUse = false;
+        if (statement.mType == DatabaseUtils.STATEMENT_DDL && mPool != null) {
+            mPool.onSchemaChanged();
+        }
         if (statement.mInCache) {
             try {
                 nativeResetStatementAndClearBindings(mConnectionPtr, statement.mStatementPtr);
@@ -1009,12 +1616,47 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
                 }
 
                 mPreparedStatementCache.remove(statement.mSql);
+                return;
             }
+            // Executing the statement may have grown it, so weigh it again.
+            mPreparedStatementCache.updateMemoryUsed(statement,
+                    nativeGetStatementMemoryUsed(mConnectionPtr, statement.mStatementPtr));
         } else {
             finalizePreparedStatement(statement);
         }
     }
 
+    // SQLite prepares a cached statement again by itself when it finds that the schema
+    // changed, but only once the statement is stepped, so the columns it reports before
+    // then are stale. Forget the columns of the cached statements when a connection of
+    // the pool changed the schema, so that they are fetched again.
+    private void checkSchemaGeneration() {
+        if (mPool != null) {
+            final int schemaGeneration = mPool.getSchemaGeneration();
+            if (schemaGeneration != mSchemaGeneration) {
+                mSchemaGeneration = schemaGeneration;
+                mPreparedStatementCache.forgetColumns();
+            }
+        }
+    }
+
+    private void resetPositionedStatement() {
+        if (mPositionedStatement != null) {
+            final PreparedStatement statement = mPositionedStatement;
+            mPositionedStatement = null;
+            mPositionedStatementKey = null;
+            releasePreparedStatement(statement);
+        }
+    }
+
+    // Called by the pool on an available connection when the query that left a statement
+    // positioned no longer needs it.
+    void resetPositionedStatement(Object resumeKey) {
+        if (mPositionedStatement != null && mPositionedStatementKey == resumeKey) {
+            resetPositionedStatement();
+        }
+    }
+
     private void finalizePreparedStatement(PreparedStatement statement) {
         nativeFinalizeStatement(mConnectionPtr, statement.mStatementPtr);
         recyclePreparedStatement(statement);
@@ -1060,8 +1702,8 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         nativeCancel(mConnectionPtr);
     }
 
-    private void bindArguments(PreparedStatement statement, Object[] bindArgs) {
-        final int count = bindArgs != null ? bindArgs.length : 0;
+    private void bindArguments(PreparedStatement statement, SQLiteBindArgs bindArgs) {
+        final int count = bindArgs != null ? bindArgs.size() : 0;
         if (count != statement.mNumParameters) {
             throw new SQLiteBindOrColumnIndexOutOfRangeException(
                     "Expected " + statement.mNumParameters + " bind arguments but "
@@ -1071,37 +1713,8 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             return;
         }
 
-        final long statementPtr = statement.mStatementPtr;
-        for (int i = 0; i < count; i++) {
-            final Object arg = bindArgs[i];
-            switch (DatabaseUtils.getTypeOfObject(arg)) {
-                case Cursor.FIELD_TYPE_NULL:
-                    nativeBindNull(mConnectionPtr, statementPtr, i + 1);
-                    break;
-                case Cursor.FIELD_TYPE_INTEGER:
-                    nativeBindLong(mConnectionPtr, statementPtr, i + 1,
-                            ((Number)arg).longValue());
-                    break;
-                case Cursor.FIELD_TYPE_FLOAT:
-                    nativeBindDouble(mConnectionPtr, statementPtr, i + 1,
-                            ((Number)arg).doubleValue());
-                    break;
-                case Cursor.FIELD_TYPE_BLOB:
-                    nativeBindBlob(mConnectionPtr, statementPtr, i + 1, (byte[])arg);
-                    break;
-                case Cursor.FIELD_TYPE_STRING:
-                default:
-                    if (arg instanceof Boolean) {
-                        // Provide compatibility with legacy applications which may pass
-                        // Boolean values in bind args.
-                        nativeBindLong(mConnectionPtr, statementPtr, i + 1,
-                                ((Boolean)arg).booleanValue() ? 1 : 0);
-                    } else {
-                        nativeBindString(mConnectionPtr, statementPtr, i + 1, arg.toString());
-                    }
-                    break;
-            }
-        }
+        nativeBindAll(mConnectionPtr, statement.mStatementPtr, bindArgs.getLongs(),
+                bindArgs.getDoubles(), bindArgs.getObjects(), bindArgs.getTypes());
     }
 
     private void throwIfStatementForbidden(PreparedStatement statement) {
@@ -1111,12 +1724,53 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         }
     }
 
-    private static boolean isCacheable(int statementType) {
-        if (statementType == DatabaseUtils.STATEMENT_UPDATE
-                || statementType == DatabaseUtils.STATEMENT_SELECT) {
-            return true;
+    /**
+     * Decides whether a statement may be kept in the prepared statement cache.
+     * <p>
+     * Queries, updates and transaction control statements are cached. A pragma is cached
+     * only if it is in {@link #CACHEABLE_PRAGMAS}, as most pragmas compute their results
+     * or take effect while the statement is prepared, and the SQLCipher pragmas carry
+     * keys that must not linger in memory. DDL, ATTACH and DETACH change what other
+     * statements refer to and are rarely repeated, so they are never cached.
+     * </p><p>
+     * The type comes from nativePrepareStatement, which also classifies EXPLAIN and the
+     * read-only WITH ... SELECT and VALUES statements as queries.  SAVEPOINT, RELEASE and
+     * other statements it does not recognize are of no type and are not cached.
+     * </p>
+     */
+    private static boolean isCacheable(int statementType, String sql) {
+        switch (statementType) {
+            case DatabaseUtils.STATEMENT_SELECT:
+            case DatabaseUtils.STATEMENT_UPDATE:
+            case DatabaseUtils.STATEMENT_BEGIN:
+            case DatabaseUtils.STATEMENT_COMMIT:
+            case DatabaseUtils.STATEMENT_ABORT:
+                return true;
+            case DatabaseUtils.STATEMENT_PRAGMA:
+                return CACHEABLE_PRAGMAS.contains(getPragmaName(sql));
+            default:
+                return false;
+        }
+    }
+
+    // Gets the lower case name of the pragma of a PRAGMA statement, without its schema.
+    private static String getPragmaName(String sql) {
+        final int length = sql.length();
+        int start = sql.toUpperCase(Locale.ROOT).indexOf("PRAGMA") + 6;
+        while (start < length && Character.isWhitespace(sql.charAt(start))) {
+            start++;
+        }
+        int end = start;
+        while (end < length) {
+            final char c = sql.charAt(end);
+            if (c == '.') {
+                start = end + 1;
+            } else if (!Character.isLetterOrDigit(c) && c != '_') {
+                break;
+            }
+            end++;
         }
-        return false;
+        return sql.substring(start, end).toLowerCase(Locale.ROOT);
     }
 
     private void applyBlockGuardPolicy(PreparedStatement statement) {
@@ -1153,6 +1807,8 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         }
         printer.println("  isPrimaryConnection: " + mIsPrimaryConnection);
         printer.println("  onlyAllowReadOnlyOperations: " + mOnlyAllowReadOnlyOperations);
+        printer.println("  warmUp: statements=" + mWarmUpCount + ", millis=" + mWarmUpMillis
+                + (mWarmUpPending ? ", pending" : ""));
 
         mRecentOperations.dump(printer, verbose);
 
@@ -1190,12 +1846,14 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         long pageCount = 0;
         long pageSize = 0;
         try {
-            pageCount = executeForLong("PRAGMA page_count;", null, null);
-            pageSize = executeForLong("PRAGMA page_size;", null, null);
+            pageCount = executeForLong("PRAGMA page_count;", SQLiteBindArgs.EMPTY, null);
+            pageSize = executeForLong("PRAGMA page_size;", SQLiteBindArgs.EMPTY, null);
         } catch (SQLiteException ex) {
             // Ignore.
         }
-        dbStatsList.add(getMainDbStatsUnsafe(lookaside, pageCount, pageSize));
+        DbStats mainStats = getMainDbStatsUnsafe(lookaside, pageCount, pageSize);
+        mainStats.pageCacheBytes = nativeGetDbCacheUsed(mConnectionPtr);
+        dbStatsList.add(mainStats);
 
         // Get information about attached databases.
         // We ignore the first row in the database list because it corresponds to
@@ -1209,8 +1867,10 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
                 pageCount = 0;
                 pageSize = 0;
                 try {
-                    pageCount = executeForLong("PRAGMA " + name + ".page_count;", null, null);
-                    pageSize = executeForLong("PRAGMA " + name + ".page_size;", null, null);
+                    pageCount = executeForLong("PRAGMA " + name + ".page_count;",
+                            SQLiteBindArgs.EMPTY, null);
+                    pageSize = executeForLong("PRAGMA " + name + ".page_size;",
+                            SQLiteBindArgs.EMPTY, null);
                 } catch (SQLiteException ex) {
                     // Ignore.
                 }
@@ -1244,10 +1904,11 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         if (!mIsPrimaryConnection) {
             label += " (" + mConnectionId + ")";
         }
-        return new DbStats(label, pageCount, pageSize, lookaside,
-                mPreparedStatementCache.hitCount(),
-                mPreparedStatementCache.missCount(),
-                mPreparedStatementCache.size());
+        DbStats stats = mPreparedStatementCache.getStats(label, pageCount, pageSize, lookaside);
+        stats.warmUpStatements = mWarmUpCount;
+        stats.warmUpMillis = mWarmUpMillis;
+        stats.pageCacheLimitBytes = mPageCacheLimitBytes;
+        return stats;
     }
 
     @Override
@@ -1270,6 +1931,9 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         statement.mNumParameters = numParameters;
         statement.mType = type;
         statement.mReadOnly = readOnly;
+        statement.mColumnIndexMap = null;
+        statement.mMemoryUsed = 0;
+        statement.mReprepareCount = 0;
         return statement;
     }
 
@@ -1297,7 +1961,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
      * resource disposal because all native statement objects must be freed before
      * the native database object can be closed.  So no finalizers here.
      */
-    private static final class PreparedStatement {
+    static final class PreparedStatement {
         // Next item in pool.
         public PreparedStatement mPoolNext;
 
@@ -1325,25 +1989,204 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         // possible for SQLite calls to be re-entrant.  Consequently we need to prevent
         // in use statements from being finalized until they are no longer in use.
         public boolean mInUse;
+
+        // The column names of the result set and their indices, fetched on first use.
+        public ColumnIndexMap mColumnIndexMap;
+
+        // The bytes of native memory used by the statement when it was last weighed
+        // by the cache.
+        public int mMemoryUsed;
+
+        // The number of result columns, as of mReprepareCount.
+        public int mColumnCount;
+
+        // The number of times SQLite had prepared the statement again when its columns
+        // were last counted, or -1 to count them again.
+        public int mReprepareCount;
     }
 
-    private final class PreparedStatementCache
-            extends LruCache<String, PreparedStatement> {
-        public PreparedStatementCache(int size) {
-            super(size);
+    /**
+     * A least recently used cache of prepared statements, limited both by the number of
+     * statements and by the native memory they use, as reported by SQLite.
+     * The statistics may be read from any thread; all other methods must be called by
+     * the thread that owns the connection.
+     */
+    private final class PreparedStatementCache {
+        private final LinkedHashMap<String, PreparedStatement> mMap =
+                new LinkedHashMap<String, PreparedStatement>(0, 0.75f, true);
+        private int mMaxSize;
+        private int mMaxBytes;
+        private int mBytes;
+        private int mHitCount;
+        private int mMissCount;
+        private int mEvictionCount;
+
+        /**
+         * @param maxSize The maximum number of statements, or 0 to cache none.
+         * @param maxBytes The maximum bytes of native memory used by the statements,
+         * or 0 for no limit.
+         */
+        public PreparedStatementCache(int maxSize, int maxBytes) {
+            mMaxSize = maxSize;
+            mMaxBytes = maxBytes;
+        }
+
+        public PreparedStatement get(String sql) {
+            synchronized (this) {
+                PreparedStatement statement = mMap.get(sql);
+                if (statement != null) {
+                    mHitCount += 1;
+                } else {
+                    mMissCount += 1;
+                }
+                return statement;
+            }
         }
 
-        @Override
-        protected void entryRemoved(boolean evicted, String key,
-                PreparedStatement oldValue, PreparedStatement newValue) {
+        /**
+         * Adds a statement weighed by its {@code mMemoryUsed}, evicting the least recently
+         * used statements as needed to make room for it.
+         *
+         * @return True if the statement was added, false if it alone exceeds the limits.
+         */
+        public boolean put(String sql, PreparedStatement statement) {
+            PreparedStatement previous;
+            synchronized (this) {
+                if (mMaxSize == 0 || (mMaxBytes != 0 && statement.mMemoryUsed > mMaxBytes)) {
+                    return false;
+                }
+                previous = mMap.put(sql, statement);
+                mBytes += statement.mMemoryUsed;
+                if (previous != null) {
+                    mBytes -= previous.mMemoryUsed;
+                }
+            }
+            if (previous != null) {
+                entryRemoved(previous);
+            }
+            if (mPool != null && !mIsPrimaryConnection) {
+                mPool.onStatementCached(SQLiteConnection.this, sql);
+            }
+            trimToSize(statement);
+            return true;
+        }
+
+        public void remove(String sql) {
+            PreparedStatement previous;
+            synchronized (this) {
+                previous = mMap.remove(sql);
+                if (previous != null) {
+                    mBytes -= previous.mMemoryUsed;
+                }
+            }
+            if (previous != null) {
+                entryRemoved(previous);
+            }
+        }
+
+        /**
+         * Records the current native memory used by a cached statement, evicting other
+         * statements if it grew past the limit.
+         */
+        public void updateMemoryUsed(PreparedStatement statement, int memoryUsed) {
+            synchronized (this) {
+                if (mMap.get(statement.mSql) != statement) {
+                    return;
+                }
+                mBytes += memoryUsed - statement.mMemoryUsed;
+                statement.mMemoryUsed = memoryUsed;
+            }
+            trimToSize(statement);
+        }
+
+        public void resize(int maxSize, int maxBytes) {
+            synchronized (this) {
+                mMaxSize = maxSize;
+                mMaxBytes = maxBytes;
+            }
+            trimToSize(null);
+        }
+
+        public void evictAll() {
+            final ArrayList<PreparedStatement> statements;
+            synchronized (this) {
+                statements = new ArrayList<PreparedStatement>(mMap.values());
+                mMap.clear();
+                mBytes = 0;
+            }
+            for (PreparedStatement statement : statements) {
+                entryRemoved(statement);
+            }
+        }
+
+        // Evicts the least recently used statements until the cache is within its limits,
+        // keeping the given statement, if any, unless it alone exceeds them.
+        private void trimToSize(PreparedStatement keep) {
+            for (;;) {
+                PreparedStatement eldest = null;
+                synchronized (this) {
+                    if (mMap.size() <= mMaxSize && (mMaxBytes == 0 || mBytes <= mMaxBytes)) {
+                        return;
+                    }
+                    for (PreparedStatement statement : mMap.values()) {
+                        if (statement != keep) {
+                            eldest = statement;
+                            break;
+                        }
+                    }
+                    if (eldest == null) {
+                        if (keep == null || mMap.get(keep.mSql) != keep) {
+                            return;
+                        }
+                        // Releasing the statement finalizes it once it is no longer in use.
+                        eldest = keep;
+                    }
+                    mMap.remove(eldest.mSql);
+                    mBytes -= eldest.mMemoryUsed;
+                    mEvictionCount += 1;
+                }
+                entryRemoved(eldest);
+            }
+        }
+
+        private void entryRemoved(PreparedStatement oldValue) {
             oldValue.mInCache = false;
+            if (mPool != null && !mIsPrimaryConnection) {
+                mPool.onStatementUncached(SQLiteConnection.this, oldValue.mSql);
+            }
+            if (oldValue == mPositionedStatement) {
+                mPositionedStatement = null;
+                mPositionedStatementKey = null;
+            }
             if (!oldValue.mInUse) {
                 finalizePreparedStatement(oldValue);
             }
         }
 
+        public synchronized void forgetColumns() {
+            for (PreparedStatement statement : mMap.values()) {
+                statement.mColumnIndexMap = null;
+                statement.mReprepareCount = -1;
+            }
+        }
+
+        public synchronized DbStats getStats(String label, long pageCount, long pageSize,
+                int lookaside) {
+            return new DbStats(label, pageCount, pageSize, lookaside,
+                    mHitCount, mMissCount, mMap.size(), mEvictionCount, mBytes);
+        }
+
+        private synchronized Map<String, PreparedStatement> snapshot() {
+            return new LinkedHashMap<String, PreparedStatement>(mMap);
+        }
+
         public void dump(Printer printer) {
-            printer.println("  Prepared statement cache:");
+            synchronized (this) {
+                printer.println("  Prepared statement cache: size=" + mMap.size()
+                        + ", maxSize=" + mMaxSize + ", bytes=" + mBytes
+                        + ", maxBytes=" + mMaxBytes + ", hits=" + mHitCount
+                        + ", misses=" + mMissCount + ", evictions=" + mEvictionCount);
+            }
             Map<String, PreparedStatement> cache = snapshot();
             if (!cache.isEmpty()) {
                 int i = 0;
@@ -1356,6 +2199,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
                                 + ", numParameters=" + statement.mNumParameters
                                 + ", type=" + statement.mType
                                 + ", readOnly=" + statement.mReadOnly
+                                + ", memoryUsed=" + statement.mMemoryUsed
                                 + ", sql=\"" + trimSqlForDisplay(sql) + "\"");
                     }
                     i += 1;
@@ -1375,7 +2219,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         private int mIndex;
         private int mGeneration;
 
-        public int beginOperation(String kind, String sql, Object[] bindArgs) {
+        public int beginOperation(String kind, String sql, SQLiteBindArgs bindArgs) {
             synchronized (mOperations) {
                 final int index = (mIndex + 1) % MAX_RECENT_OPERATIONS;
                 Operation operation = mOperations[index];
@@ -1385,30 +2229,13 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
                 } else {
                     operation.mFinished = false;
                     operation.mException = null;
-                    if (operation.mBindArgs != null) {
-                        operation.mBindArgs.clear();
-                    }
                 }
                 operation.mStartWallTime = System.currentTimeMillis();
                 operation.mStartTime = SystemClock.uptimeMillis();
                 operation.mKind = kind;
                 operation.mSql = sql;
-                if (bindArgs != null) {
-                    if (operation.mBindArgs == null) {
-                        operation.mBindArgs = new ArrayList<Object>();
-                    } else {
-                        operation.mBindArgs.clear();
-                    }
-                    for (int i = 0; i < bindArgs.length; i++) {
-                        final Object arg = bindArgs[i];
-                        if (arg != null && arg instanceof byte[]) {
-                            // Don't hold onto the real byte array longer than necessary.
-                            operation.mBindArgs.add(EMPTY_BYTE_ARRAY);
-                        } else {
-                            operation.mBindArgs.add(arg);
-                        }
-                    }
-                }
+                operation.mBindArgs.copyWithoutBlobsFrom(
+                        bindArgs != null ? bindArgs : SQLiteBindArgs.EMPTY);
                 operation.mCookie = newOperationCookieLocked(index);
                 mIndex = index;
                 return operation.mCookie;
@@ -1530,7 +2357,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         public long mEndTime; // in SystemClock.uptimeMillis();
         public String mKind;
         public String mSql;
-        public ArrayList<Object> mBindArgs;
+        public final SQLiteBindArgs mBindArgs = new SQLiteBindArgs(0);
         public boolean mFinished;
         public Exception mException;
         public int mCookie;
@@ -1547,23 +2374,14 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             if (mSql != null) {
                 msg.append(", sql=\"").append(trimSqlForDisplay(mSql)).append("\"");
             }
-            if (verbose && mBindArgs != null && mBindArgs.size() != 0) {
+            if (verbose && mBindArgs.size() != 0) {
                 msg.append(", bindArgs=[");
                 final int count = mBindArgs.size();
                 for (int i = 0; i < count; i++) {
-                    final Object arg = mBindArgs.get(i);
                     if (i != 0) {
                         msg.append(", ");
                     }
-                    if (arg == null) {
-                        msg.append("null");
-                    } else if (arg instanceof byte[]) {
-                        msg.append("<byte[]>");
-                    } else if (arg instanceof String) {
-                        msg.append("\"").append((String)arg).append("\"");
-                    } else {
-                        msg.append(arg);
-                    }
+                    mBindArgs.describe(msg, i);
                 }
                 msg.append("]");
             }
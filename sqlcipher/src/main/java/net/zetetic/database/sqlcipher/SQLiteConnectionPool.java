@@ -22,18 +22,30 @@ package net.zetetic.database.sqlcipher;
 
 
 import net.zetetic.database.Logger;
+import net.zetetic.database.sqlcipher.SQLiteDebug.ConnectionWaitStats;
 import net.zetetic.database.sqlcipher.SQLiteDebug.DbStats;
+import android.database.sqlite.SQLiteDatabaseLockedException;
 import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.OperationCanceledException;
+import android.os.Process;
 import android.os.SystemClock;
 import android.util.Printer;
 
 import java.io.Closeable;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.LockSupport;
 
 /**
@@ -83,11 +95,20 @@ public final class SQLiteConnectionPool implements Closeable {
 
     private final Object mLock = new Object();
     private final AtomicBoolean mConnectionLeaked = new AtomicBoolean();
+    private final AtomicInteger mSchemaGeneration = new AtomicInteger();
     private final SQLiteDatabaseConfiguration mConfiguration;
     private int mMaxConnectionPoolSize;
-    private boolean mIsOpen;
+    private volatile boolean mIsOpen;
     private int mNextConnectionId;
 
+    // The waits of threads for a connection, indexed by priority.
+    private final ConnectionWaitHistogram[] mWaitHistograms = new ConnectionWaitHistogram[] {
+            new ConnectionWaitHistogram(), new ConnectionWaitHistogram() };
+
+    // The number of open connections, and the share of the page cache budget of each.
+    private int mOpenConnectionCount;
+    private long mPageCacheLimitBytes;
+
     private ConnectionWaiter mConnectionWaiterPool;
     private ConnectionWaiter mConnectionWaiterQueue;
 
@@ -96,6 +117,17 @@ public final class SQLiteConnectionPool implements Closeable {
             new ArrayList<SQLiteConnection>();
     private SQLiteConnection mAvailablePrimaryConnection;
 
+    // The non-primary connections that have each SQL statement in their prepared statement
+    // cache, whether they are available or not.  The connections keep it up to date as they
+    // add statements to and remove them from their caches, without holding mLock, and the
+    // fast path reads it without any lock.  It refers to the connections weakly, like
+    // mAcquiredConnections, so that it does not keep a leaked connection from being
+    // finalized; the lookups drop the references that have been cleared.  It is only a
+    // hint: a connection missing from it merely loses its affinity for the statement.
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<WeakReference<SQLiteConnection>>>
+            mCachedStatementIndex = new ConcurrentHashMap<String,
+                    CopyOnWriteArrayList<WeakReference<SQLiteConnection>>>();
+
     // Describes what should happen to an acquired connection when it is returned to the pool.
     enum AcquiredConnectionStatus {
         // The connection should be returned to the pool as usual.
@@ -116,6 +148,59 @@ public final class SQLiteConnectionPool implements Closeable {
     private final WeakHashMap<SQLiteConnection, AcquiredConnectionStatus> mAcquiredConnections =
             new WeakHashMap<SQLiteConnection, AcquiredConnectionStatus>();
 
+    // The lock-free fast path.  While no thread waits for a connection, released non-primary
+    // connections are kept in mIdleConnections rather than mAvailableNonPrimaryConnections,
+    // and threads take them from there and give them back without entering mLock.
+    // Connections acquired this way are not put in mAcquiredConnections; each carries its
+    // own fast acquired flag instead, so that acquiring and releasing one touches no state
+    // shared with the other threads besides mIdleConnections.  Code that holds mLock finds
+    // them through mNonPrimaryConnections.  Instead of being marked for reconfiguration or
+    // discarding, they carry the generation of the configuration they were last configured
+    // with, and are handled under mLock when it is older than mGeneration.  Code that holds
+    // mLock moves the idle connections back to mAvailableNonPrimaryConnections before it
+    // looks at them.
+    private final ConcurrentLinkedDeque<SQLiteConnection> mIdleConnections =
+            new ConcurrentLinkedDeque<SQLiteConnection>();
+    private volatile int mGeneration;
+    // Connections configured before this generation must be discarded.
+    private volatile int mDiscardGeneration;
+    // True while mConnectionWaiterQueue is not empty, so that the fast path lets waiters go first.
+    private volatile boolean mHasWaiters;
+
+    // Weak references to all open non-primary connections, added when they are opened and
+    // removed when they are closed, so that a leaked connection can still be finalized.
+    // INVARIANT: Guarded by mLock.
+    private final WeakHashMap<SQLiteConnection, Boolean> mNonPrimaryConnections =
+            new WeakHashMap<SQLiteConnection, Boolean>();
+
+    // Closes the connections that have been idle for longer than the idle connection timeout.
+    // It runs on sIdleConnectionHandler while the pool has more connections open than its
+    // minimum size, and reschedules itself for when the next idle connection expires.
+    private final Runnable mIdleConnectionReaper = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mLock) {
+                mIdleConnectionReaperScheduled = false;
+                if (mIsOpen) {
+                    closeIdleConnectionsLocked();
+                    publishIdleConnectionsLocked();
+                    scheduleIdleConnectionReaperLocked();
+                }
+            }
+        }
+    };
+    private boolean mIdleConnectionReaperScheduled;
+
+    // The connections to warm up without a warm-up executor.  Warming up prepares statements,
+    // so it is left to the thread that made the connection need it, once it dropped mLock.
+    // INVARIANT: Guarded by mLock.
+    private final ArrayList<SQLiteConnection> mPendingWarmUps = new ArrayList<SQLiteConnection>();
+    // True while mPendingWarmUps is not empty, so that the fast path skips mLock otherwise.
+    private volatile boolean mHasPendingWarmUps;
+
+    // The handler shared by the idle connection reapers of all pools, created when first needed.
+    private static Handler sIdleConnectionHandler;
+
     /**
      * Connection flag: Read-only.
      * <p>
@@ -178,6 +263,7 @@ public final class SQLiteConnectionPool implements Closeable {
         // Create the pool.
         SQLiteConnectionPool pool = new SQLiteConnectionPool(configuration);
         pool.open(); // might throw
+        pool.runPendingWarmUps(null);
         return pool;
     }
 
@@ -227,8 +313,15 @@ public final class SQLiteConnectionPool implements Closeable {
                 mIsOpen = false;
 
                 closeAvailableConnectionsAndLogExceptionsLocked();
+                mPendingWarmUps.clear();
+                mHasPendingWarmUps = false;
+                if (mIdleConnectionReaperScheduled) {
+                    getIdleConnectionHandler().removeCallbacks(mIdleConnectionReaper);
+                    mIdleConnectionReaperScheduled = false;
+                }
 
-                final int pendingCount = mAcquiredConnections.size();
+                final int pendingCount = mAcquiredConnections.size()
+                        + countFastAcquiredConnectionsLocked();
                 if (pendingCount != 0) {
                     Logger.i(TAG, "The connection pool for " + mConfiguration.label
                             + " has been closed but there are still "
@@ -262,12 +355,16 @@ public final class SQLiteConnectionPool implements Closeable {
         synchronized (mLock) {
             throwIfClosedLocked();
 
+            // Connections configured until now are stale, so that the fast path hands them
+            // over to mLock from now on.
+            mGeneration += 1;
+
             boolean walModeChanged = ((configuration.openFlags ^ mConfiguration.openFlags)
                     & SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING) != 0;
             if (walModeChanged) {
                 // WAL mode can only be changed if there are no acquired connections
                 // because we need to close all but the primary connection first.
-                if (!mAcquiredConnections.isEmpty()) {
+                if (hasAcquiredConnectionsLocked()) {
                     throw new IllegalStateException("Write Ahead Logging (WAL) mode cannot "
                             + "be enabled or disabled while there are transactions in "
                             + "progress.  Finish all transactions and release all active "
@@ -286,7 +383,7 @@ public final class SQLiteConnectionPool implements Closeable {
                 // Foreign key constraints can only be changed if there are no transactions
                 // in progress.  To make this clear, we throw an exception if there are
                 // any acquired connections.
-                if (!mAcquiredConnections.isEmpty()) {
+                if (hasAcquiredConnectionsLocked()) {
                     throw new IllegalStateException("Foreign Key Constraints cannot "
                             + "be enabled or disabled while there are transactions in "
                             + "progress.  Finish all transactions and release all active "
@@ -332,8 +429,11 @@ public final class SQLiteConnectionPool implements Closeable {
                 reconfigureAllConnectionsLocked();
             }
 
+            updatePageCacheBudgetLocked();
             wakeConnectionWaitersLocked();
+            scheduleIdleConnectionReaperLocked();
         }
+        runPendingWarmUps(null);
     }
 
     /**
@@ -356,7 +456,79 @@ public final class SQLiteConnectionPool implements Closeable {
      */
     public SQLiteConnection acquireConnection(String sql, int connectionFlags,
             CancellationSignal cancellationSignal) {
-        return waitForConnection(sql, connectionFlags, cancellationSignal);
+        return acquireConnection(sql, connectionFlags, -1, cancellationSignal);
+    }
+
+    /**
+     * Acquires a connection from the pool, waiting at most the given time for one if all
+     * of them are in use.
+     * <p>
+     * Waiters of the same priority are served in the order of their deadlines, so a
+     * caller with a short timeout goes ahead of those that can afford to wait longer.
+     * </p>
+     *
+     * @param sql If not null, try to find a connection that already has
+     * the specified SQL statement in its prepared statement cache.
+     * @param connectionFlags The connection request flags.
+     * @param timeoutMillis The longest time to wait in milliseconds, 0 to wait as long as
+     * it takes, or negative to use the connection wait timeout of the configuration.
+     * @param cancellationSignal A signal to cancel the operation in progress, or null if none.
+     * @return The connection that was acquired, never null.
+     *
+     * @throws IllegalStateException if the pool has been closed.
+     * @throws SQLiteException if a database error occurs.
+     * @throws SQLiteDatabaseLockedException if no connection was granted in time.
+     * @throws OperationCanceledException if the operation was canceled.
+     */
+    public SQLiteConnection acquireConnection(String sql, int connectionFlags,
+            long timeoutMillis, CancellationSignal cancellationSignal) {
+        SQLiteConnection connection = null;
+        if ((connectionFlags & CONNECTION_FLAG_PRIMARY_CONNECTION_AFFINITY) == 0) {
+            connection = tryAcquireIdleConnection(sql, connectionFlags, cancellationSignal);
+        }
+        if (connection == null) {
+            connection = waitForConnection(sql, connectionFlags, timeoutMillis,
+                    cancellationSignal);
+        }
+        if (mHasPendingWarmUps) {
+            runPendingWarmUps(connection);
+        }
+        return connection;
+    }
+
+    // Takes an idle non-primary connection without entering mLock, unless threads are waiting
+    // for a connection: one that has the statement in its cache if there is a choice, and
+    // otherwise the most recently released one.  Returns null if there is none, in which
+    // case the caller takes the slow path.
+    private SQLiteConnection tryAcquireIdleConnection(String sql, int connectionFlags,
+            CancellationSignal cancellationSignal) {
+        if (mHasWaiters || !mIsOpen) {
+            return null;
+        }
+        SQLiteConnection connection = null;
+        if (sql != null && mIdleConnections.peekFirst() != mIdleConnections.peekLast()) {
+            // If we have a choice, then prefer a connection that has the
+            // prepared statement in its cache.
+            connection = pollIdleConnectionWithStatement(sql);
+        }
+        if (connection == null) {
+            connection = mIdleConnections.pollLast();
+        }
+        if (connection == null) {
+            return null;
+        }
+        connection.setFastAcquired(true);
+
+        // Check the generation after marking the connection, so that either a concurrent
+        // reconfiguration sees the connection as acquired, or we see it has happened.
+        if (connection.getPoolGeneration() != mGeneration || !mIsOpen
+                || (cancellationSignal != null && cancellationSignal.isCanceled())) {
+            releaseConnection(connection);
+            return null;
+        }
+        final boolean readOnly = (connectionFlags & CONNECTION_FLAG_READ_ONLY) != 0;
+        connection.setOnlyAllowReadOnlyOperations(readOnly);
+        return connection;
     }
 
     /**
@@ -372,33 +544,154 @@ public final class SQLiteConnectionPool implements Closeable {
      * from this pool or if it has already been released.
      */
     public void releaseConnection(SQLiteConnection connection) {
-        synchronized (mLock) {
-            AcquiredConnectionStatus status = mAcquiredConnections.remove(connection);
-            if (status == null) {
-                throw new IllegalStateException("Cannot perform this operation "
-                        + "because the specified connection was not acquired "
-                        + "from this pool or has already been released.");
+        if (connection.setFastAcquired(false)) {
+            releaseFastAcquiredConnection(connection);
+        } else {
+            synchronized (mLock) {
+                AcquiredConnectionStatus status = mAcquiredConnections.remove(connection);
+                if (status == null) {
+                    throw new IllegalStateException("Cannot perform this operation "
+                            + "because the specified connection was not acquired "
+                            + "from this pool or has already been released.");
+                }
+                returnConnectionLocked(connection, status);
             }
+        }
+        if (mHasPendingWarmUps) {
+            runPendingWarmUps(null);
+        }
+    }
 
-            if (!mIsOpen) {
-                closeConnectionAndLogExceptionsLocked(connection);
-            } else if (connection.isPrimaryConnection()) {
-                if (recycleConnectionLocked(connection, status)) {
-                    assert mAvailablePrimaryConnection == null;
-                    mAvailablePrimaryConnection = connection;
+    // Gives a connection acquired by the fast path back to the idle connections without
+    // entering mLock, unless it needs to be reconfigured, warmed up or closed, or threads
+    // are waiting for a connection.
+    private void releaseFastAcquiredConnection(SQLiteConnection connection) {
+        final int generation = connection.getPoolGeneration();
+        if (mIsOpen && !mHasWaiters && generation == mGeneration
+                && !connection.isWarmUpPending()) {
+            connection.setIdleSinceMillis(SystemClock.uptimeMillis());
+            mIdleConnections.offerLast(connection);
+
+            // Check again after publishing the connection, so that a thread that started
+            // waiting or closed the pool in the meantime does not miss it.
+            if (!mHasWaiters && mIsOpen) {
+                return;
+            }
+            synchronized (mLock) {
+                if (!mIsOpen) {
+                    closeAvailableNonPrimaryConnectionsAndLogExceptionsLocked();
+                } else {
+                    drainIdleConnectionsLocked();
+                    wakeConnectionWaitersLocked();
                 }
-                wakeConnectionWaitersLocked();
-            } else if (mAvailableNonPrimaryConnections.size() >= mMaxConnectionPoolSize - 1) {
+            }
+            return;
+        }
+
+        synchronized (mLock) {
+            final AcquiredConnectionStatus status;
+            if (generation < mDiscardGeneration) {
+                status = AcquiredConnectionStatus.DISCARD;
+            } else if (generation != mGeneration) {
+                status = AcquiredConnectionStatus.RECONFIGURE;
+            } else {
+                status = AcquiredConnectionStatus.NORMAL;
+            }
+            returnConnectionLocked(connection, status);
+        }
+    }
+
+    // Can't throw.
+    private void returnConnectionLocked(SQLiteConnection connection,
+            AcquiredConnectionStatus status) {
+        if (!mIsOpen) {
+            closeConnectionAndLogExceptionsLocked(connection);
+        } else if (connection.isPrimaryConnection()) {
+            if (recycleConnectionLocked(connection, status)) {
+                assert mAvailablePrimaryConnection == null;
+                mAvailablePrimaryConnection = connection;
+                warmUpConnectionLocked(connection, mConfiguration.warmUpExecutor);
+            }
+            wakeConnectionWaitersLocked();
+        } else {
+            drainIdleConnectionsLocked();
+            if (mAvailableNonPrimaryConnections.size() >= mMaxConnectionPoolSize - 1) {
                 closeConnectionAndLogExceptionsLocked(connection);
             } else {
                 if (recycleConnectionLocked(connection, status)) {
+                    connection.setIdleSinceMillis(SystemClock.uptimeMillis());
                     mAvailableNonPrimaryConnections.add(connection);
+                    warmUpConnectionLocked(connection, mConfiguration.warmUpExecutor);
                 }
+                closeIdleConnectionsLocked();
                 wakeConnectionWaitersLocked();
             }
+            scheduleIdleConnectionReaperLocked();
+            publishIdleConnectionsLocked();
         }
     }
 
+    // Can't throw.
+    // Moves the idle connections of the fast path back to mAvailableNonPrimaryConnections,
+    // oldest first.  A connection that was released after the pool was reconfigured is
+    // brought up to date first.
+    private void drainIdleConnectionsLocked() {
+        SQLiteConnection connection;
+        while ((connection = mIdleConnections.pollFirst()) != null) {
+            final int generation = connection.getPoolGeneration();
+            if (mIsOpen && generation != mGeneration && !recycleConnectionLocked(connection,
+                    generation < mDiscardGeneration ? AcquiredConnectionStatus.DISCARD
+                            : AcquiredConnectionStatus.RECONFIGURE)) {
+                continue;
+            }
+            mAvailableNonPrimaryConnections.add(connection);
+        }
+    }
+
+    // Can't throw.
+    // Hands the available non-primary connections over to the fast path if nobody waits.
+    private void publishIdleConnectionsLocked() {
+        if (mIsOpen && mConnectionWaiterQueue == null) {
+            final int count = mAvailableNonPrimaryConnections.size();
+            for (int i = 0; i < count; i++) {
+                mIdleConnections.offerLast(mAvailableNonPrimaryConnections.get(i));
+            }
+            mAvailableNonPrimaryConnections.clear();
+        }
+    }
+
+    // Returns true if the connection has been acquired, by either path.
+    private boolean isAcquiredLocked(SQLiteConnection connection) {
+        return connection.isFastAcquired() || mAcquiredConnections.containsKey(connection);
+    }
+
+    // Returns true if any connection has been acquired, by either path.
+    private boolean hasAcquiredConnectionsLocked() {
+        return !mAcquiredConnections.isEmpty() || countFastAcquiredConnectionsLocked() != 0;
+    }
+
+    // Returns the connections acquired by the fast path.
+    private ArrayList<SQLiteConnection> getFastAcquiredConnectionsLocked() {
+        final ArrayList<SQLiteConnection> connections = new ArrayList<SQLiteConnection>();
+        for (SQLiteConnection connection : mNonPrimaryConnections.keySet()) {
+            if (connection.isFastAcquired()) {
+                connections.add(connection);
+            }
+        }
+        return connections;
+    }
+
+    // Returns the number of connections acquired by the fast path.
+    private int countFastAcquiredConnectionsLocked() {
+        int count = 0;
+        for (SQLiteConnection connection : mNonPrimaryConnections.keySet()) {
+            if (connection.isFastAcquired()) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
     // Can't throw.
     private boolean recycleConnectionLocked(SQLiteConnection connection,
             AcquiredConnectionStatus status) {
@@ -415,6 +708,8 @@ public final class SQLiteConnectionPool implements Closeable {
             closeConnectionAndLogExceptionsLocked(connection);
             return false;
         }
+        applyPageCacheLimitLocked(connection);
+        connection.setPoolGeneration(mGeneration);
         return true;
     }
 
@@ -431,7 +726,7 @@ public final class SQLiteConnectionPool implements Closeable {
      */
     public boolean shouldYieldConnection(SQLiteConnection connection, int connectionFlags) {
         synchronized (mLock) {
-            if (!mAcquiredConnections.containsKey(connection)) {
+            if (!isAcquiredLocked(connection)) {
                 throw new IllegalStateException("Cannot perform this operation "
                         + "because the specified connection was not acquired "
                         + "from this pool or has already been released.");
@@ -446,6 +741,44 @@ public final class SQLiteConnectionPool implements Closeable {
         }
     }
 
+    /**
+     * Reduces the memory held by the pool, for instance when the application is asked to
+     * trim its memory.  Closes the non-primary connections that are not in use until only
+     * the minimum pool size remains open, whether or not they have been idle for long, and
+     * asks SQLite to release the page cache memory that each of the remaining available
+     * connections does not need.  Connections in use are left alone.
+     *
+     * @return The number of bytes of page cache released by the connections that remain open.
+     */
+    public int shrink() {
+        synchronized (mLock) {
+            if (!mIsOpen) {
+                return 0;
+            }
+
+            drainIdleConnectionsLocked();
+            int openCount = mAcquiredConnections.size() + countFastAcquiredConnectionsLocked()
+                    + mAvailableNonPrimaryConnections.size()
+                    + (mAvailablePrimaryConnection != null ? 1 : 0);
+            // Released connections are added at the end, so the oldest come first.
+            while (openCount > mConfiguration.minConnectionPoolSize
+                    && !mAvailableNonPrimaryConnections.isEmpty()) {
+                closeConnectionAndLogExceptionsLocked(mAvailableNonPrimaryConnections.remove(0));
+                openCount -= 1;
+            }
+
+            int released = 0;
+            if (mAvailablePrimaryConnection != null) {
+                released += mAvailablePrimaryConnection.releaseMemoryUnsafe();
+            }
+            for (SQLiteConnection connection : mAvailableNonPrimaryConnections) {
+                released += connection.releaseMemoryUnsafe();
+            }
+            publishIdleConnectionsLocked();
+            return released;
+        }
+    }
+
     /**
      * Collects statistics about database connection memory usage.
      *
@@ -453,6 +786,7 @@ public final class SQLiteConnectionPool implements Closeable {
      */
     public void collectDbStats(ArrayList<DbStats> dbStatsList) {
         synchronized (mLock) {
+            drainIdleConnectionsLocked();
             if (mAvailablePrimaryConnection != null) {
                 mAvailablePrimaryConnection.collectDbStats(dbStatsList);
             }
@@ -464,6 +798,30 @@ public final class SQLiteConnectionPool implements Closeable {
             for (SQLiteConnection connection : mAcquiredConnections.keySet()) {
                 connection.collectDbStatsUnsafe(dbStatsList);
             }
+
+            for (SQLiteConnection connection : getFastAcquiredConnectionsLocked()) {
+                connection.collectDbStatsUnsafe(dbStatsList);
+            }
+        }
+    }
+
+    /**
+     * Collects the histograms of the times threads waited for a connection, one for
+     * the requests of each priority.
+     *
+     * @param statsList The list to populate.
+     */
+    public void collectConnectionWaitStats(ArrayList<ConnectionWaitStats> statsList) {
+        synchronized (mLock) {
+            final int[] waiting = new int[mWaitHistograms.length];
+            for (ConnectionWaiter waiter = mConnectionWaiterQueue; waiter != null;
+                    waiter = waiter.mNext) {
+                waiting[waiter.mPriority] += 1;
+            }
+            for (int priority = 0; priority < mWaitHistograms.length; priority++) {
+                statsList.add(mWaitHistograms[priority].getStats(mConfiguration.path,
+                        priority == getPriority(CONNECTION_FLAG_INTERACTIVE), waiting[priority]));
+            }
         }
     }
 
@@ -471,8 +829,128 @@ public final class SQLiteConnectionPool implements Closeable {
     private SQLiteConnection openConnectionLocked(SQLiteDatabaseConfiguration configuration,
             boolean primaryConnection) {
         final int connectionId = mNextConnectionId++;
-        return SQLiteConnection.open(this, configuration,
+        final SQLiteConnection connection = SQLiteConnection.open(this, configuration,
                 connectionId, primaryConnection); // might throw
+        mOpenConnectionCount += 1;
+        if (!primaryConnection) {
+            mNonPrimaryConnections.put(connection, Boolean.TRUE);
+        }
+        updatePageCacheBudgetLocked();
+        applyPageCacheLimitLocked(connection);
+        connection.setPoolGeneration(mGeneration);
+        warmUpConnectionLocked(connection, configuration.warmUpExecutor);
+        return connection;
+    }
+
+    // Can't throw.
+    // Warms up the statement cache of a connection if it needs it, once it is available.
+    // The warm-up executor does it if there is one, and otherwise the calling thread once it
+    // has dropped mLock, by way of runPendingWarmUps.
+    private void warmUpConnectionLocked(final SQLiteConnection connection, Executor executor) {
+        if (!connection.isWarmUpPending()) {
+            return;
+        }
+        if (executor == null) {
+            if (!mPendingWarmUps.contains(connection)) {
+                mPendingWarmUps.add(connection);
+                mHasPendingWarmUps = true;
+            }
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    warmUpAvailableConnection(connection);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            Logger.w(TAG, "Could not schedule statement cache warm-up for " + connection, ex);
+        }
+    }
+
+    // Warms up the connections left by warmUpConnectionLocked.  Must be called without mLock.
+    // The connection the calling thread just acquired, if any, is warmed up in place.
+    private void runPendingWarmUps(SQLiteConnection acquiredConnection) {
+        for (;;) {
+            final SQLiteConnection connection;
+            synchronized (mLock) {
+                final int count = mPendingWarmUps.size();
+                if (count == 0) {
+                    mHasPendingWarmUps = false;
+                    return;
+                }
+                connection = mPendingWarmUps.remove(count - 1);
+            }
+            if (connection == acquiredConnection) {
+                if (connection.isWarmUpPending()) {
+                    connection.warmUp();
+                }
+            } else {
+                warmUpAvailableConnection(connection);
+            }
+        }
+    }
+
+    // Takes the connection while it is available to warm it up.  A connection that is in
+    // use is scheduled again when it is released.
+    private void warmUpAvailableConnection(SQLiteConnection connection) {
+        synchronized (mLock) {
+            if (!mIsOpen || !connection.isWarmUpPending()) {
+                return;
+            }
+            drainIdleConnectionsLocked();
+            if (connection == mAvailablePrimaryConnection) {
+                mAvailablePrimaryConnection = null;
+            } else if (!mAvailableNonPrimaryConnections.remove(connection)) {
+                return;
+            }
+            mAcquiredConnections.put(connection, AcquiredConnectionStatus.NORMAL);
+        }
+        try {
+            connection.warmUp();
+        } finally {
+            releaseConnection(connection);
+        }
+    }
+
+    // Called by SQLiteConnection after it executes a statement that may change the schema.
+    // The connections compare the generation to the one they last saw to know when to
+    // refresh what they know about their cached statements.
+    void onSchemaChanged() {
+        mSchemaGeneration.incrementAndGet();
+    }
+
+    int getSchemaGeneration() {
+        return mSchemaGeneration.get();
+    }
+
+    /**
+     * Returns the maximum number of connections the pool may open, including the
+     * primary connection.
+     */
+    int getMaxConnectionPoolSize() {
+        synchronized (mLock) {
+            return mMaxConnectionPoolSize;
+        }
+    }
+
+    // Called by SQLiteQuery when the statement it left positioned is no longer needed.
+    // A connection in use resets it by itself when it next runs a statement.
+    void resetPositionedStatement(Object resumeKey) {
+        synchronized (mLock) {
+            if (!mIsOpen) {
+                return;
+            }
+            drainIdleConnectionsLocked();
+            if (mAvailablePrimaryConnection != null) {
+                mAvailablePrimaryConnection.resetPositionedStatement(resumeKey);
+            }
+            for (int i = 0; i < mAvailableNonPrimaryConnections.size(); i++) {
+                mAvailableNonPrimaryConnections.get(i).resetPositionedStatement(resumeKey);
+            }
+            publishIdleConnectionsLocked();
+        }
     }
 
     void onConnectionLeaked() {
@@ -516,15 +994,17 @@ public final class SQLiteConnectionPool implements Closeable {
 
     // Can't throw.
     private void closeAvailableNonPrimaryConnectionsAndLogExceptionsLocked() {
-        final int count = mAvailableNonPrimaryConnections.size();
-        for (int i = 0; i < count; i++) {
-            closeConnectionAndLogExceptionsLocked(mAvailableNonPrimaryConnections.get(i));
+        drainIdleConnectionsLocked();
+        // Remove each connection before closing it, so that the available connections are
+        // all open when closing one updates the page cache budget.
+        for (int i = mAvailableNonPrimaryConnections.size() - 1; i >= 0; i--) {
+            closeConnectionAndLogExceptionsLocked(mAvailableNonPrimaryConnections.remove(i));
         }
-        mAvailableNonPrimaryConnections.clear();
     }
 
     // Can't throw.
     private void closeExcessConnectionsAndLogExceptionsLocked() {
+        drainIdleConnectionsLocked();
         int availableCount = mAvailableNonPrimaryConnections.size();
         while (availableCount-- > mMaxConnectionPoolSize - 1) {
             SQLiteConnection connection =
@@ -535,6 +1015,9 @@ public final class SQLiteConnectionPool implements Closeable {
 
     // Can't throw.
     private void closeConnectionAndLogExceptionsLocked(SQLiteConnection connection) {
+        mOpenConnectionCount -= 1;
+        mNonPrimaryConnections.remove(connection);
+        updatePageCacheBudgetLocked();
         try {
             connection.close(); // might throw
         } catch (RuntimeException ex) {
@@ -543,16 +1026,59 @@ public final class SQLiteConnectionPool implements Closeable {
         }
     }
 
+    // Can't throw.
+    // Divides the page cache budget between the open connections.  The available connections
+    // get their new share right away.  Connections acquired under mLock pick it up when they
+    // are released, as releasing applies the limit to every connection it recycles, and the
+    // connections that are idle or in use on the fast path are sent through mLock by the new
+    // generation.
+    private void updatePageCacheBudgetLocked() {
+        final long budget = mConfiguration.pageCacheBudgetBytes;
+        final long limit = budget > 0 ? budget / Math.max(1, mOpenConnectionCount) : 0;
+        if (limit == mPageCacheLimitBytes) {
+            return;
+        }
+        mPageCacheLimitBytes = limit;
+        mGeneration += 1;
+        if (!mIsOpen) {
+            return;
+        }
+        // The available connections are otherwise up to date, so they stay in the new
+        // generation.
+        if (mAvailablePrimaryConnection != null) {
+            applyPageCacheLimitLocked(mAvailablePrimaryConnection);
+            mAvailablePrimaryConnection.setPoolGeneration(mGeneration);
+        }
+        final int count = mAvailableNonPrimaryConnections.size();
+        for (int i = 0; i < count; i++) {
+            final SQLiteConnection connection = mAvailableNonPrimaryConnections.get(i);
+            applyPageCacheLimitLocked(connection);
+            connection.setPoolGeneration(mGeneration);
+        }
+    }
+
+    // Can't throw.
+    private void applyPageCacheLimitLocked(SQLiteConnection connection) {
+        try {
+            connection.setPageCacheLimit(mPageCacheLimitBytes); // might throw
+        } catch (RuntimeException ex) {
+            Logger.w(TAG, "Failed to limit the page cache of " + connection, ex);
+        }
+    }
+
     // Can't throw.
     private void discardAcquiredConnectionsLocked() {
+        mDiscardGeneration = mGeneration;
         markAcquiredConnectionsLocked(AcquiredConnectionStatus.DISCARD);
     }
 
     // Can't throw.
     private void reconfigureAllConnectionsLocked() {
+        drainIdleConnectionsLocked();
         if (mAvailablePrimaryConnection != null) {
             try {
                 mAvailablePrimaryConnection.reconfigure(mConfiguration); // might throw
+                mAvailablePrimaryConnection.setPoolGeneration(mGeneration);
             } catch (RuntimeException ex) {
                 Logger.e(TAG, "Failed to reconfigure available primary connection, closing it: "
                         + mAvailablePrimaryConnection, ex);
@@ -566,6 +1092,7 @@ public final class SQLiteConnectionPool implements Closeable {
             final SQLiteConnection connection = mAvailableNonPrimaryConnections.get(i);
             try {
                 connection.reconfigure(mConfiguration); // might throw
+                connection.setPoolGeneration(mGeneration);
             } catch (RuntimeException ex) {
                 Logger.e(TAG, "Failed to reconfigure available non-primary connection, closing it: "
                         + connection, ex);
@@ -575,6 +1102,14 @@ public final class SQLiteConnectionPool implements Closeable {
             }
         }
 
+        if (mAvailablePrimaryConnection != null) {
+            warmUpConnectionLocked(mAvailablePrimaryConnection, mConfiguration.warmUpExecutor);
+        }
+        for (int i = 0; i < mAvailableNonPrimaryConnections.size(); i++) {
+            warmUpConnectionLocked(mAvailableNonPrimaryConnections.get(i),
+                    mConfiguration.warmUpExecutor);
+        }
+
         markAcquiredConnectionsLocked(AcquiredConnectionStatus.RECONFIGURE);
     }
 
@@ -600,7 +1135,7 @@ public final class SQLiteConnectionPool implements Closeable {
 
     // Might throw.
     private SQLiteConnection waitForConnection(String sql, int connectionFlags,
-            CancellationSignal cancellationSignal) {
+            long timeoutMillis, CancellationSignal cancellationSignal) {
         final boolean wantPrimaryConnection =
                 (connectionFlags & CONNECTION_FLAG_PRIMARY_CONNECTION_AFFINITY) != 0;
 
@@ -621,6 +1156,7 @@ public final class SQLiteConnectionPool implements Closeable {
             // non-primary connection for initial read operations on the database. If the pool of non-primary
             // connections has not been initialized yet, and the primary connection is available, use the primary.
             // If the primary connection is required, always use that.
+            drainIdleConnectionsLocked();
             if ((mAvailablePrimaryConnection != null && mAvailableNonPrimaryConnections.isEmpty()) || wantPrimaryConnection) {
                 connection = tryAcquirePrimaryConnectionLocked(connectionFlags);
                 if (connection != null) {
@@ -639,15 +1175,20 @@ public final class SQLiteConnectionPool implements Closeable {
                 }
             }
 
-            // No connections available.  Enqueue a waiter in priority order.
+            // No connections available.  Enqueue a waiter in priority order, and within
+            // a priority in deadline order.
             final int priority = getPriority(connectionFlags);
             final long startTime = SystemClock.uptimeMillis();
-            waiter = obtainConnectionWaiterLocked(Thread.currentThread(), startTime,
+            final long timeout = timeoutMillis >= 0 ? timeoutMillis
+                    : mConfiguration.connectionWaitTimeoutMillis;
+            final long deadline = timeout > 0 ? startTime + timeout : Long.MAX_VALUE;
+            waiter = obtainConnectionWaiterLocked(Thread.currentThread(), startTime, deadline,
                     priority, wantPrimaryConnection, sql, connectionFlags);
             ConnectionWaiter predecessor = null;
             ConnectionWaiter successor = mConnectionWaiterQueue;
             while (successor != null) {
-                if (priority > successor.mPriority) {
+                if (priority > successor.mPriority || (priority == successor.mPriority
+                        && deadline < successor.mDeadline)) {
                     waiter.mNext = successor;
                     break;
                 }
@@ -660,6 +1201,13 @@ public final class SQLiteConnectionPool implements Closeable {
                 mConnectionWaiterQueue = waiter;
             }
 
+            // Turn the fast path away, then pick up whatever it released in the meantime.
+            mHasWaiters = true;
+            if (!mIdleConnections.isEmpty()) {
+                drainIdleConnectionsLocked();
+                wakeConnectionWaitersLocked();
+            }
+
             nonce = waiter.mNonce;
         }
 
@@ -677,10 +1225,9 @@ public final class SQLiteConnectionPool implements Closeable {
             });
         }
         try {
-            // Park the thread until a connection is assigned or the pool is closed.
-            // Rethrow an exception from the wait, if we got one.
-            long busyTimeoutMillis = CONNECTION_POOL_BUSY_MILLIS;
-            long nextBusyTimeoutTime = waiter.mStartTime + busyTimeoutMillis;
+            // Park the thread until a connection is assigned, the pool is closed or the
+            // deadline passes.  Rethrow an exception from the wait, if we got one.
+            long nextBusyTimeoutTime = waiter.mStartTime + CONNECTION_POOL_BUSY_MILLIS;
             for (;;) {
                 // Detect and recover from connection leaks.
                 if (mConnectionLeaked.compareAndSet(true, false)) {
@@ -690,7 +1237,11 @@ public final class SQLiteConnectionPool implements Closeable {
                 }
 
                 // Wait to be unparked (may already have happened), a timeout, or interruption.
-                LockSupport.parkNanos(this, busyTimeoutMillis * 1000000L);
+                final long parkMillis = Math.min(nextBusyTimeoutTime, waiter.mDeadline)
+                        - SystemClock.uptimeMillis();
+                if (parkMillis > 0) {
+                    LockSupport.parkNanos(this, parkMillis * 1000000L);
+                }
 
                 // Clear the interrupted flag, just in case.
                 Thread.interrupted();
@@ -701,21 +1252,28 @@ public final class SQLiteConnectionPool implements Closeable {
 
                     final SQLiteConnection connection = waiter.mAssignedConnection;
                     final RuntimeException ex = waiter.mException;
-                    if (connection != null || ex != null) {
+                    final long now = SystemClock.uptimeMillis();
+                    if (connection != null) {
+                        // Only granted waits are recorded, timeouts are counted apart.
+                        mWaitHistograms[waiter.mPriority].record(now - waiter.mStartTime);
+                        recycleConnectionWaiterLocked(waiter);
+                        return connection;
+                    }
+                    if (ex != null) {
                         recycleConnectionWaiterLocked(waiter);
-                        if (connection != null) {
-                            return connection;
-                        }
                         throw ex; // rethrow!
                     }
 
-                    final long now = SystemClock.uptimeMillis();
-                    if (now < nextBusyTimeoutTime) {
-                        busyTimeoutMillis = now - nextBusyTimeoutTime;
-                    } else {
+                    if (now >= waiter.mDeadline) {
+                        // Give up.  The exception is picked up on the next iteration.
+                        mWaitHistograms[waiter.mPriority].mTimeouts += 1;
+                        removeConnectionWaiterLocked(waiter, new SQLiteDatabaseLockedException(
+                                "The connection pool for database '" + mConfiguration.label
+                                + "' could not grant a connection within "
+                                + (now - waiter.mStartTime) + " ms."));
+                    } else if (now >= nextBusyTimeoutTime) {
                         logConnectionPoolBusyLocked(now - waiter.mStartTime, connectionFlags);
-                        busyTimeoutMillis = CONNECTION_POOL_BUSY_MILLIS;
-                        nextBusyTimeoutTime = now + busyTimeoutMillis;
+                        nextBusyTimeoutTime = now + CONNECTION_POOL_BUSY_MILLIS;
                     }
                 }
             }
@@ -729,6 +1287,11 @@ public final class SQLiteConnectionPool implements Closeable {
 
     // Can't throw.
     private void cancelConnectionWaiterLocked(ConnectionWaiter waiter) {
+        removeConnectionWaiterLocked(waiter, new OperationCanceledException());
+    }
+
+    // Can't throw.
+    private void removeConnectionWaiterLocked(ConnectionWaiter waiter, RuntimeException ex) {
         if (waiter.mAssignedConnection != null || waiter.mException != null) {
             // Waiter is done waiting but has not woken up yet.
             return;
@@ -749,7 +1312,7 @@ public final class SQLiteConnectionPool implements Closeable {
         }
 
         // Send the waiter an exception and unpark it.
-        waiter.mException = new OperationCanceledException();
+        waiter.mException = ex;
         LockSupport.unpark(waiter.mThread);
 
         // Check whether removing this waiter will enable other waiters to make progress.
@@ -780,6 +1343,16 @@ public final class SQLiteConnectionPool implements Closeable {
                 }
             }
         }
+        for (SQLiteConnection connection : getFastAcquiredConnectionsLocked()) {
+            String description = connection.describeCurrentOperationUnsafe();
+            if (description != null) {
+                requests.add(description);
+                activeConnections += 1;
+            } else {
+                idleConnections += 1;
+            }
+        }
+        drainIdleConnectionsLocked();
         int availableConnections = mAvailableNonPrimaryConnections.size();
         if (mAvailablePrimaryConnection != null) {
             availableConnections += 1;
@@ -859,6 +1432,7 @@ public final class SQLiteConnectionPool implements Closeable {
             }
             waiter = successor;
         }
+        mHasWaiters = mConnectionWaiterQueue != null;
     }
 
     // Might throw.
@@ -890,18 +1464,16 @@ public final class SQLiteConnectionPool implements Closeable {
     private SQLiteConnection tryAcquireNonPrimaryConnectionLocked(
             String sql, int connectionFlags) {
         // Try to acquire the next connection in the queue.
+        drainIdleConnectionsLocked();
         SQLiteConnection connection;
         final int availableCount = mAvailableNonPrimaryConnections.size();
         if (availableCount > 1 && sql != null) {
             // If we have a choice, then prefer a connection that has the
             // prepared statement in its cache.
-            for (int i = 0; i < availableCount; i++) {
-                connection = mAvailableNonPrimaryConnections.get(i);
-                if (connection.isPreparedStatementInCache(sql)) {
-                    mAvailableNonPrimaryConnections.remove(i);
-                    finishAcquireConnectionLocked(connection, connectionFlags); // might throw
-                    return connection;
-                }
+            connection = takeAvailableConnectionWithStatementLocked(sql);
+            if (connection != null) {
+                finishAcquireConnectionLocked(connection, connectionFlags); // might throw
+                return connection;
             }
         }
         if (availableCount > 0) {
@@ -912,7 +1484,7 @@ public final class SQLiteConnectionPool implements Closeable {
         }
 
         // Expand the pool if needed.
-        int openConnections = mAcquiredConnections.size();
+        int openConnections = mAcquiredConnections.size() + countFastAcquiredConnectionsLocked();
         if (mAvailablePrimaryConnection != null) {
             openConnections += 1;
         }
@@ -922,12 +1494,112 @@ public final class SQLiteConnectionPool implements Closeable {
         connection = openConnectionLocked(mConfiguration,
                 false /*primaryConnection*/); // might throw
         finishAcquireConnectionLocked(connection, connectionFlags); // might throw
+
+        // The pool may now be above its minimum size, so make sure the reaper runs even if
+        // the connection only ever goes back to the idle connections of the fast path.
+        scheduleIdleConnectionReaperLocked();
         return connection;
     }
 
+    // Removes from mAvailableNonPrimaryConnections a connection that has the specified SQL
+    // statement in its cache, or returns null if none is available.  The idle connections
+    // must have been drained, so that a connection of the index that is open and not
+    // acquired is one of the available ones; closed connections leave the index when they
+    // evict their statements.
+    private SQLiteConnection takeAvailableConnectionWithStatementLocked(String sql) {
+        final CopyOnWriteArrayList<WeakReference<SQLiteConnection>> connections =
+                mCachedStatementIndex.get(sql);
+        if (connections == null) {
+            return null;
+        }
+        // The most recently cached candidate wins.
+        SQLiteConnection found = null;
+        for (WeakReference<SQLiteConnection> reference : connections) {
+            final SQLiteConnection connection = reference.get();
+            if (connection == null) {
+                connections.remove(reference);
+            } else if (!isAcquiredLocked(connection)
+                    && mAvailableNonPrimaryConnections.contains(connection)) {
+                found = connection;
+            }
+        }
+        if (found != null) {
+            mAvailableNonPrimaryConnections.remove(found);
+        }
+        return found;
+    }
+
+    // Returns an idle connection of the fast path that has the specified SQL statement in
+    // its cache, or null if none does.  Only the most recently cached candidate that is not
+    // acquired is tried, so that the lookup costs one pass over the idle connections.  The
+    // index lists are copied on write, so this takes no lock.
+    private SQLiteConnection pollIdleConnectionWithStatement(String sql) {
+        final CopyOnWriteArrayList<WeakReference<SQLiteConnection>> connections =
+                mCachedStatementIndex.get(sql);
+        if (connections == null) {
+            return null;
+        }
+        SQLiteConnection candidate = null;
+        for (WeakReference<SQLiteConnection> reference : connections) {
+            final SQLiteConnection connection = reference.get();
+            if (connection == null) {
+                connections.remove(reference);
+            } else if (!connection.isFastAcquired()) {
+                candidate = connection;
+            }
+        }
+        return candidate != null && mIdleConnections.removeLastOccurrence(candidate)
+                ? candidate : null;
+    }
+
+    // Called by SQLiteConnection when a non-primary connection adds a statement to its
+    // prepared statement cache.
+    void onStatementCached(SQLiteConnection connection, String sql) {
+        final WeakReference<SQLiteConnection> reference =
+                new WeakReference<SQLiteConnection>(connection);
+        while (true) {
+            CopyOnWriteArrayList<WeakReference<SQLiteConnection>> connections =
+                    mCachedStatementIndex.get(sql);
+            if (connections == null) {
+                connections = new CopyOnWriteArrayList<WeakReference<SQLiteConnection>>();
+                final CopyOnWriteArrayList<WeakReference<SQLiteConnection>> existing =
+                        mCachedStatementIndex.putIfAbsent(sql, connections);
+                if (existing != null) {
+                    connections = existing;
+                }
+            }
+            connections.add(reference);
+            // Try again if onStatementUncached dropped the list as empty in the meantime.
+            if (mCachedStatementIndex.get(sql) == connections) {
+                return;
+            }
+            connections.remove(reference);
+        }
+    }
+
+    // Called by SQLiteConnection when a non-primary connection removes a statement from its
+    // prepared statement cache.
+    void onStatementUncached(SQLiteConnection connection, String sql) {
+        final CopyOnWriteArrayList<WeakReference<SQLiteConnection>> connections =
+                mCachedStatementIndex.get(sql);
+        if (connections == null) {
+            return;
+        }
+        for (WeakReference<SQLiteConnection> reference : connections) {
+            final SQLiteConnection cached = reference.get();
+            if (cached == connection || cached == null) {
+                connections.remove(reference);
+            }
+        }
+        if (connections.isEmpty()) {
+            mCachedStatementIndex.remove(sql, connections);
+        }
+    }
+
     // Might throw.
     private void finishAcquireConnectionLocked(SQLiteConnection connection, int connectionFlags) {
         try {
+            applyPageCacheLimitLocked(connection);
             final boolean readOnly = (connectionFlags & CONNECTION_FLAG_READ_ONLY) != 0;
             connection.setOnlyAllowReadOnlyOperations(readOnly);
 
@@ -969,17 +1641,84 @@ public final class SQLiteConnectionPool implements Closeable {
     }
 
     private void setMaxConnectionPoolSizeLocked() {
-        if ((mConfiguration.openFlags & SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING) != 0) {
-            mMaxConnectionPoolSize = SQLiteGlobal.getWALConnectionPoolSize();
+        final boolean walEnabled =
+                (mConfiguration.openFlags & SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING) != 0;
+        if (walEnabled || (mConfiguration.readConnectionPoolingEnabled
+                && !mConfiguration.isInMemoryDb())) {
+            // Without WAL, the non-primary connections only ever serve read-only operations,
+            // as writes always prefer the primary connection.  Their SHARED locks still keep
+            // a writer from committing until they finish, so a writer may fail with
+            // SQLITE_BUSY once the busy timeout expires; see setReadConnectionPoolingEnabled.
+            mMaxConnectionPoolSize = mConfiguration.maxConnectionPoolSize > 0
+                    ? mConfiguration.maxConnectionPoolSize
+                    : SQLiteGlobal.getWALConnectionPoolSize();
         } else {
-            // TODO: We don't actually need to restrict the connection pool size to 1
-            // for non-WAL databases.  There might be reasons to use connection pooling
-            // with other journal modes.  For now, enabling connection pooling and
-            // using WAL are the same thing in the API.
             mMaxConnectionPoolSize = 1;
         }
     }
 
+    // Can't throw.
+    // Closes the available non-primary connections that have not been used for longer than
+    // the idle connection timeout, as long as more than the minimum remain open.
+    private void closeIdleConnectionsLocked() {
+        final long timeout = mConfiguration.idleConnectionTimeoutMillis;
+        if (timeout <= 0) {
+            return;
+        }
+        final long now = SystemClock.uptimeMillis();
+        drainIdleConnectionsLocked();
+        int openCount = mAcquiredConnections.size() + countFastAcquiredConnectionsLocked()
+                + mAvailableNonPrimaryConnections.size()
+                + (mAvailablePrimaryConnection != null ? 1 : 0);
+        // Released connections are added at the end, so the oldest come first.
+        while (openCount > mConfiguration.minConnectionPoolSize
+                && !mAvailableNonPrimaryConnections.isEmpty()) {
+            final SQLiteConnection connection = mAvailableNonPrimaryConnections.get(0);
+            if (now - connection.getIdleSinceMillis() < timeout) {
+                break;
+            }
+            mAvailableNonPrimaryConnections.remove(0);
+            closeConnectionAndLogExceptionsLocked(connection);
+            openCount -= 1;
+        }
+    }
+
+    // Can't throw.
+    private void scheduleIdleConnectionReaperLocked() {
+        final long timeout = mConfiguration.idleConnectionTimeoutMillis;
+        if (mIdleConnectionReaperScheduled || timeout <= 0) {
+            return;
+        }
+        final int openCount = mAcquiredConnections.size() + countFastAcquiredConnectionsLocked()
+                + mAvailableNonPrimaryConnections.size() + mIdleConnections.size()
+                + (mAvailablePrimaryConnection != null ? 1 : 0);
+        if (openCount <= mConfiguration.minConnectionPoolSize) {
+            return;
+        }
+
+        // Wake up when the connection that has been idle the longest expires, or after a full
+        // timeout if all of them are in use.
+        SQLiteConnection oldest = mAvailableNonPrimaryConnections.isEmpty()
+                ? mIdleConnections.peekFirst() : mAvailableNonPrimaryConnections.get(0);
+        long delay = timeout;
+        if (oldest != null) {
+            delay = Math.max(0, oldest.getIdleSinceMillis() + timeout
+                    - SystemClock.uptimeMillis());
+        }
+        getIdleConnectionHandler().postDelayed(mIdleConnectionReaper, delay);
+        mIdleConnectionReaperScheduled = true;
+    }
+
+    private static synchronized Handler getIdleConnectionHandler() {
+        if (sIdleConnectionHandler == null) {
+            HandlerThread thread = new HandlerThread("SQLiteIdleConnections",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sIdleConnectionHandler = new Handler(thread.getLooper());
+        }
+        return sIdleConnectionHandler;
+    }
+
     private void throwIfClosedLocked() {
         if (!mIsOpen) {
             throw new IllegalStateException("Cannot perform this operation "
@@ -988,7 +1727,8 @@ public final class SQLiteConnectionPool implements Closeable {
     }
 
     private ConnectionWaiter obtainConnectionWaiterLocked(Thread thread, long startTime,
-            int priority, boolean wantPrimaryConnection, String sql, int connectionFlags) {
+            long deadline, int priority, boolean wantPrimaryConnection, String sql,
+            int connectionFlags) {
         ConnectionWaiter waiter = mConnectionWaiterPool;
         if (waiter != null) {
             mConnectionWaiterPool = waiter.mNext;
@@ -998,6 +1738,7 @@ public final class SQLiteConnectionPool implements Closeable {
         }
         waiter.mThread = thread;
         waiter.mStartTime = startTime;
+        waiter.mDeadline = deadline;
         waiter.mPriority = priority;
         waiter.mWantPrimaryConnection = wantPrimaryConnection;
         waiter.mSql = sql;
@@ -1017,7 +1758,7 @@ public final class SQLiteConnectionPool implements Closeable {
 
     public void enableLocalizedCollators() {
       synchronized (mLock) {
-	if( !mAcquiredConnections.isEmpty() || mAvailablePrimaryConnection==null ) {
+	if( hasAcquiredConnectionsLocked() || mAvailablePrimaryConnection==null ) {
 	  throw new IllegalStateException(
 	      "Cannot enable localized collators while database is in use"
 	  );
@@ -1038,6 +1779,7 @@ public final class SQLiteConnectionPool implements Closeable {
             printer.println("Connection pool for " + mConfiguration.path + ":");
             printer.println("  Open: " + mIsOpen);
             printer.println("  Max connections: " + mMaxConnectionPoolSize);
+            printer.println("  Page cache limit per connection: " + mPageCacheLimitBytes);
 
             printer.println("  Available primary connection:");
             if (mAvailablePrimaryConnection != null) {
@@ -1047,6 +1789,7 @@ public final class SQLiteConnectionPool implements Closeable {
             }
 
             printer.println("  Available non-primary connections:");
+            drainIdleConnectionsLocked();
             if (!mAvailableNonPrimaryConnections.isEmpty()) {
                 final int count = mAvailableNonPrimaryConnections.size();
                 for (int i = 0; i < count; i++) {
@@ -1057,13 +1800,17 @@ public final class SQLiteConnectionPool implements Closeable {
             }
 
             printer.println("  Acquired connections:");
-            if (!mAcquiredConnections.isEmpty()) {
+            if (hasAcquiredConnectionsLocked()) {
                 for (Map.Entry<SQLiteConnection, AcquiredConnectionStatus> entry :
                         mAcquiredConnections.entrySet()) {
                     final SQLiteConnection connection = entry.getKey();
                     connection.dumpUnsafe(indentedPrinter, verbose);
                     indentedPrinter.println("  Status: " + entry.getValue());
                 }
+                for (SQLiteConnection connection : getFastAcquiredConnectionsLocked()) {
+                    connection.dumpUnsafe(indentedPrinter, verbose);
+                    indentedPrinter.println("  Status: " + AcquiredConnectionStatus.NORMAL);
+                }
             } else {
                 indentedPrinter.println("<none>");
             }
@@ -1083,6 +1830,16 @@ public final class SQLiteConnectionPool implements Closeable {
             } else {
                 indentedPrinter.println("<none>");
             }
+
+            printer.println("  Connection waits:");
+            for (int priority = 0; priority < mWaitHistograms.length; priority++) {
+                final ConnectionWaitHistogram histogram = mWaitHistograms[priority];
+                indentedPrinter.println("priority=" + priority
+                        + ": counts=" + Arrays.toString(histogram.mCounts)
+                        + ", totalMillis=" + histogram.mTotalMillis
+                        + ", maxMillis=" + histogram.mMaxMillis
+                        + ", timeouts=" + histogram.mTimeouts);
+            }
         }
     }
 
@@ -1095,6 +1852,7 @@ public final class SQLiteConnectionPool implements Closeable {
         public ConnectionWaiter mNext;
         public Thread mThread;
         public long mStartTime;
+        public long mDeadline;
         public int mPriority;
         public boolean mWantPrimaryConnection;
         public String mSql;
@@ -1103,4 +1861,38 @@ public final class SQLiteConnectionPool implements Closeable {
         public RuntimeException mException;
         public int mNonce;
     }
+
+    private static final class ConnectionWaitHistogram {
+        private static final long[] BUCKET_UPPER_BOUNDS_MILLIS = new long[] {
+                1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000 };
+
+        public final long[] mCounts = new long[BUCKET_UPPER_BOUNDS_MILLIS.length + 1];
+        public long mTotalMillis;
+        public long mMaxMillis;
+        public long mTimeouts;
+
+        public void record(long waitMillis) {
+            int bucket = 0;
+            while (bucket < BUCKET_UPPER_BOUNDS_MILLIS.length
+                    && waitMillis > BUCKET_UPPER_BOUNDS_MILLIS[bucket]) {
+                bucket += 1;
+            }
+            mCounts[bucket] += 1;
+            mTotalMillis += waitMillis;
+            mMaxMillis = Math.max(mMaxMillis, waitMillis);
+        }
+
+        public ConnectionWaitStats getStats(String label, boolean interactive, int waiting) {
+            ConnectionWaitStats stats = new ConnectionWaitStats();
+            stats.dbName = label;
+            stats.interactive = interactive;
+            stats.bucketUpperBoundsMillis = BUCKET_UPPER_BOUNDS_MILLIS.clone();
+            stats.waitCounts = mCounts.clone();
+            stats.totalWaitMillis = mTotalMillis;
+            stats.maxWaitMillis = mMaxMillis;
+            stats.timeouts = mTimeouts;
+            stats.waiting = waiting;
+            return stats;
+        }
+    }
 }
@@ -23,11 +23,16 @@ package net.zetetic.database.sqlcipher;
 
 import net.zetetic.database.AbstractWindowedCursor;
 import net.zetetic.database.CursorWindow;
+import net.zetetic.database.CursorWindowSizePolicy;
 import net.zetetic.database.DatabaseUtils;
 import net.zetetic.database.Logger;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * A Cursor implementation that exposes results from a query on a
@@ -43,6 +48,9 @@ public class SQLiteCursor extends AbstractWindowedCursor {
     private static final int DEFAULT_CURSOR_WINDOW_SIZE = -1;
     public static int PREFERRED_CURSOR_WINDOW_SIZE = DEFAULT_CURSOR_WINDOW_SIZE;
 
+    /** The most rows the first window holds in lazy count mode, as windows grow by default */
+    static final int LAZY_COUNT_FIRST_WINDOW_ROWS = 1000;
+
     /** The name of the table to edit */
     private final String mEditTable;
 
@@ -61,8 +69,29 @@ public class SQLiteCursor extends AbstractWindowedCursor {
     /** The number of rows that can fit in the cursor window, 0 if unknown */
     private int mCursorWindowCapacity;
 
-    /** A mapping of column names to column indices, to speed up lookups */
-    private Map<String, Integer> mColumnNameMap;
+    /** A mapping of column names to column indices, shared with other cursors of the query */
+    private final ColumnIndexMap mColumnIndexMap;
+
+    /** True if the cursor window stores its rows in the columnar layout */
+    private boolean mColumnarWindow;
+
+    /** True to leave the query statement positioned between window fills */
+    private boolean mKeepStatementPositioned;
+
+    /** True to fill windows without counting all rows first */
+    private boolean mLazyCount;
+
+    /** The number of rows known to exist while the count is unknown in lazy count mode */
+    private int mKnownRows;
+
+    /** The background count started by getCountAsync, if any */
+    private FutureTask<Integer> mCountTask;
+
+    /** The window size policy of this cursor, null to use the one of the database */
+    private CursorWindowSizePolicy mWindowSizePolicy;
+
+    /** True once the first window filled since the last requery was reported to the policy */
+    private boolean mWindowSizeReported;
 
     /**
      * Execute a query and provide access to its result set through a Cursor
@@ -100,8 +129,8 @@ public class SQLiteCursor extends AbstractWindowedCursor {
         }
         mDriver = driver;
         mEditTable = editTable;
-        mColumnNameMap = null;
         mQuery = query;
+        mColumnIndexMap = query.getColumnIndexMap();
 
         mColumns = query.getColumnNames();
     }
@@ -127,12 +156,100 @@ public class SQLiteCursor extends AbstractWindowedCursor {
 
     @Override
     public int getCount() {
-        if (mCount == NO_COUNT) {
+        if (mCount == NO_COUNT && mCountTask != null && mCountTask.isDone()) {
+            takeBackgroundCount();
+        }
+        if (mCount == NO_COUNT && (!mLazyCount || mKnownRows == 0)) {
             fillWindow(0);
         }
+        return mCount != NO_COUNT ? mCount : mKnownRows;
+    }
+
+    /**
+     * Lets the cursor fill its first window without stepping through the rest of the
+     * results to count them. The first window then holds at most 1000 rows. Until the
+     * count is known, {@link #getCount()} returns a lower bound: the rows read so far
+     * plus the first one that did not fit, which grows as the cursor moves forward. The
+     * count becomes exact once the cursor reaches the last row, or through
+     * {@link #getExactCount()} or {@link #getCountAsync(Executor)}. Combine with
+     * {@link #setKeepStatementPositioned(boolean)} so that moving forward does not step
+     * through the earlier rows again.
+     *
+     * @param lazyCount True to skip counting all rows on the first fill.
+     */
+    public void setLazyCount(boolean lazyCount) {
+        mLazyCount = lazyCount;
+    }
+
+    /**
+     * Returns true if the cursor counts its rows lazily.
+     */
+    public boolean isLazyCount() {
+        return mLazyCount;
+    }
+
+    /**
+     * Returns true if {@link #getCount()} returns the exact number of rows rather than
+     * a lower bound.
+     */
+    public boolean isCountExact() {
+        if (mCount == NO_COUNT && mCountTask != null && mCountTask.isDone()) {
+            takeBackgroundCount();
+        }
+        return mCount != NO_COUNT;
+    }
+
+    /**
+     * Returns the exact number of rows, counting them now if they have not been
+     * counted yet. Unlike the first fill of a cursor that is not in lazy count mode,
+     * counting copies no rows into the window.
+     *
+     * @return The number of rows in the cursor.
+     */
+    public int getExactCount() {
+        if (!isCountExact()) {
+            mCount = mQuery.countRows();
+        }
         return mCount;
     }
 
+    /**
+     * Counts the rows of the query on the given executor. The count uses a connection
+     * of the executing thread, so it does not hold up this cursor, although it may
+     * wait for a connection when the database is not in write-ahead logging mode.
+     * {@link #getCount()} returns the result once the returned future is done.
+     *
+     * @param executor The executor to count the rows on.
+     * @return A future for the number of rows in the cursor.
+     */
+    public Future<Integer> getCountAsync(Executor executor) {
+        if (mCountTask == null) {
+            final SQLiteQuery query = mQuery;
+            final int count = mCount;
+            FutureTask<Integer> task = new FutureTask<Integer>(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return count != NO_COUNT ? count : query.countRows();
+                }
+            });
+            mCountTask = task;
+            executor.execute(task);
+        }
+        return mCountTask;
+    }
+
+    private void takeBackgroundCount() {
+        try {
+            mCount = mCountTask.get();
+        } catch (ExecutionException ex) {
+            // Keep the lower bound, and let the next count try again
+            Logger.w(TAG, "background count failed", ex.getCause());
+            mCountTask = null;
+        } catch (InterruptedException | CancellationException ex) {
+            mCountTask = null;
+        }
+    }
+
     public static void setCursorWindowSize(int size) {
         CursorWindow.PREFERRED_CURSOR_WINDOW_SIZE = size;
         CURSOR_WINDOW_NEEDS_RECREATED = true;
@@ -143,6 +260,81 @@ public class SQLiteCursor extends AbstractWindowedCursor {
         CURSOR_WINDOW_NEEDS_RECREATED = true;
     }
 
+    /**
+     * Selects the layout of the cursor window used by this cursor. A columnar window
+     * stores each column contiguously, which speeds up {@link #getLongs} and
+     * {@link #getDoubles} over wide numeric result sets. The current window, if any,
+     * is discarded and refilled in the new layout on the next move.
+     *
+     * @param columnar True to fill the cursor window in the columnar layout.
+     */
+    public void setColumnarWindow(boolean columnar) {
+        if (mColumnarWindow != columnar) {
+            mColumnarWindow = columnar;
+            recreateWindow();
+        }
+    }
+
+    /**
+     * Returns true if the cursor window of this cursor uses the columnar layout.
+     */
+    public boolean isColumnarWindow() {
+        return mColumnarWindow;
+    }
+
+    /**
+     * Sets the policy that sizes the cursor window of this cursor, overriding the one of
+     * the database. The current window, if any, is discarded and refilled on the next move.
+     *
+     * @param policy The window size policy, or null to use the one of the database.
+     * @see SQLiteDatabase#setCursorWindowSizePolicy(CursorWindowSizePolicy)
+     */
+    public void setWindowSizePolicy(CursorWindowSizePolicy policy) {
+        if (mWindowSizePolicy != policy) {
+            mWindowSizePolicy = policy;
+            recreateWindow();
+        }
+    }
+
+    /**
+     * Gets the policy that sizes the cursor window of this cursor.
+     *
+     * @return The window size policy, or null if the cursor has none of its own.
+     */
+    public CursorWindowSizePolicy getWindowSizePolicy() {
+        return mWindowSizePolicy;
+    }
+
+    private CursorWindowSizePolicy getEffectiveWindowSizePolicy() {
+        return mWindowSizePolicy != null
+                ? mWindowSizePolicy : getDatabase().getCursorWindowSizePolicy();
+    }
+
+    private void recreateWindow() {
+        if (mWindow != null) {
+            int pos = mPos;
+            awc_closeWindow();
+            mPos = -1;
+            if (pos >= 0) {
+                moveToPosition(pos);
+            }
+        }
+    }
+
+    /**
+     * Lets the cursor keep its query statement positioned after filling a window, so
+     * that filling the next window while paging forward continues from the last row
+     * read instead of stepping through every earlier row again. The statement stays
+     * active, holding a read transaction on its connection, until the next window
+     * fill, until the connection is used for another statement, or until the cursor
+     * is requeried, deactivated or closed.
+     *
+     * @param keepPositioned True to keep the statement positioned between fills.
+     */
+    public void setKeepStatementPositioned(boolean keepPositioned) {
+        mKeepStatementPositioned = keepPositioned;
+    }
+
     private void awc_clearOrCreateWindow(String name) {
         int cursorWindowAllocationSize = CursorWindow.PREFERRED_CURSOR_WINDOW_SIZE;
         if (CURSOR_WINDOW_NEEDS_RECREATED) {
@@ -151,7 +343,12 @@ public class SQLiteCursor extends AbstractWindowedCursor {
         }
         CursorWindow win = getWindow();
         if ( win==null ) {
-            win = new CursorWindow(name, cursorWindowAllocationSize);
+            CursorWindowSizePolicy policy = getEffectiveWindowSizePolicy();
+            if (policy != null) {
+                win = policy.createWindow(name, mQuery.getSql(), mColumnarWindow);
+            } else {
+                win = new CursorWindow(name, cursorWindowAllocationSize, mColumnarWindow);
+            }
             setWindow(win);
         }else{
             win.clear();
@@ -166,7 +363,7 @@ public class SQLiteCursor extends AbstractWindowedCursor {
         awc_clearOrCreateWindow(getDatabase().getPath());
 
         try {
-            if (mCount == NO_COUNT) {
+            if (mCount == NO_COUNT && !mLazyCount) {
                 int startPos = DatabaseUtils.cursorPickFillWindowStartPosition(requiredPos, 0);
                 mCount = mQuery.fillWindow(mWindow, startPos, requiredPos, true);
                 mCursorWindowCapacity = mWindow.getNumRows();
@@ -176,7 +373,29 @@ public class SQLiteCursor extends AbstractWindowedCursor {
             } else {
                 int startPos = DatabaseUtils.cursorPickFillWindowStartPosition(requiredPos,
                         mCursorWindowCapacity);
-                mQuery.fillWindow(mWindow, startPos, requiredPos, false);
+                int positionedRow = mQuery.getPositionedRow();
+                if (mKeepStatementPositioned && positionedRow > startPos
+                        && positionedRow <= requiredPos) {
+                    // Continue from the row the statement was left on rather than from the first
+                    startPos = positionedRow;
+                }
+                // Without a limit the first window would grow to hold every row
+                boolean firstLazyFill = mCount == NO_COUNT && mCursorWindowCapacity == 0;
+                if (firstLazyFill) {
+                    mWindow.setMaxRows(LAZY_COUNT_FIRST_WINDOW_ROWS);
+                }
+                int rows;
+                try {
+                    rows = mQuery.fillWindow(mWindow, startPos, requiredPos, false,
+                            mKeepStatementPositioned);
+                } finally {
+                    if (firstLazyFill) {
+                        mWindow.setMaxRows(0);
+                    }
+                }
+                if (mCount == NO_COUNT) {
+                    onLazyFill(rows);
+                }
             }
         } catch (RuntimeException ex) {
             // Close the cursor window if the query failed and therefore will
@@ -186,37 +405,37 @@ public class SQLiteCursor extends AbstractWindowedCursor {
             awc_closeWindow();
             throw ex;
         }
-    }
 
-    @Override
-    public int getColumnIndex(String columnName) {
-        // Create mColumnNameMap on demand
-        if (mColumnNameMap == null) {
-            String[] columns = mColumns;
-            int columnCount = columns.length;
-            HashMap<String, Integer> map = new HashMap<String, Integer>(columnCount, 1);
-            for (int i = 0; i < columnCount; i++) {
-                map.put(columns[i], i);
+        if (!mWindowSizeReported) {
+            // The first window tells the policy how much room the query needs
+            CursorWindowSizePolicy policy = getEffectiveWindowSizePolicy();
+            if (policy != null) {
+                policy.onWindowFilled(mQuery.getSql(), mWindow);
             }
-            mColumnNameMap = map;
+            mWindowSizeReported = true;
         }
+    }
 
-        // Hack according to bug 903852
-        final int periodIndex = columnName.lastIndexOf('.');
-        if (periodIndex != -1) {
-            Exception e = new Exception();
-            Logger.e(TAG, "requesting column name with table name -- " + columnName, e);
-            columnName = columnName.substring(periodIndex + 1);
+    private void onLazyFill(int rows) {
+        if (mCursorWindowCapacity == 0) {
+            mCursorWindowCapacity = mWindow.getNumRows();
         }
-
-        Integer i = mColumnNameMap.get(columnName);
-        if (i != null) {
-            return i.intValue();
+        if (rows > mWindow.getStartPosition() + mWindow.getNumRows()) {
+            // The window filled up, and the query stepped onto the first row that did not fit
+            mKnownRows = Math.max(mKnownRows, rows);
         } else {
-            return -1;
+            mCount = rows;
+            if (Logger.isLoggable(TAG, Logger.DEBUG)) {
+                Logger.d(TAG, "reached the last row without counting: " + mCount);
+            }
         }
     }
 
+    @Override
+    public int getColumnIndex(String columnName) {
+        return mColumnIndexMap.getColumnIndex(columnName);
+    }
+
     @Override
     public String[] getColumnNames() {
         return mColumns;
@@ -225,6 +444,7 @@ public class SQLiteCursor extends AbstractWindowedCursor {
     @Override
     public void deactivate() {
         super.deactivate();
+        mQuery.releasePositionedStatement();
         mDriver.cursorDeactivated();
     }
 
@@ -232,6 +452,7 @@ public class SQLiteCursor extends AbstractWindowedCursor {
     public void close() {
         super.close();
         synchronized (this) {
+            mQuery.releasePositionedStatement();
             mQuery.close();
             mDriver.cursorClosed();
         }
@@ -253,6 +474,10 @@ public class SQLiteCursor extends AbstractWindowedCursor {
             }
             mPos = -1;
             mCount = NO_COUNT;
+            mKnownRows = 0;
+            mCountTask = null;
+            mWindowSizeReported = false;
+            mQuery.releasePositionedStatement();
 
             mDriver.cursorRequeried(this);
         }
@@ -276,6 +501,7 @@ public class SQLiteCursor extends AbstractWindowedCursor {
      * Changes the selection arguments. The new values take effect after a call to requery().
      */
     public void setSelectionArguments(String[] selectionArgs) {
+        mQuery.releasePositionedStatement();
         mDriver.setBindArguments(selectionArgs);
     }
 
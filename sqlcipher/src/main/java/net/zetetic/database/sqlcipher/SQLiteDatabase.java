@@ -22,10 +22,13 @@ package net.zetetic.database.sqlcipher;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import net.zetetic.database.CursorWindow;
+import net.zetetic.database.CursorWindowSizePolicy;
 import net.zetetic.database.DatabaseErrorHandler;
 import net.zetetic.database.DatabaseUtils;
 import net.zetetic.database.DefaultDatabaseErrorHandler;
 import net.zetetic.database.Logger;
+import net.zetetic.database.sqlcipher.SQLiteDebug.ConnectionWaitStats;
 import net.zetetic.database.sqlcipher.SQLiteDebug.DbStats;
 
 import android.database.SQLException;
@@ -51,6 +54,9 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 /**
  * Exposes methods to manage a SQLite database.
@@ -136,6 +142,20 @@ public final class SQLiteDatabase extends SQLiteClosable implements SupportSQLit
     // INVARIANT: Guarded by mLock.
     private boolean mHasAttachedDbsLocked;
 
+    // Batches the grouped writes into shared transactions, null when group commit
+    // is disabled.
+    // INVARIANT: Guarded by mLock.
+    private SQLiteGroupCommit mGroupCommitLocked;
+
+    // Runs the operations submitted through async() on background threads, null until
+    // first requested.
+    // INVARIANT: Guarded by mLock.
+    private SQLiteAsyncDatabase mAsyncDatabaseLocked;
+
+    // The window size policy of the cursors of this database that have none of their
+    // own, or null to use CursorWindow.PREFERRED_CURSOR_WINDOW_SIZE.
+    private volatile CursorWindowSizePolicy mCursorWindowSizePolicy;
+
     /**
      * When a constraint violation occurs, an immediate ROLLBACK occurs,
      * thus ending the current transaction, and the command aborts with a
@@ -284,6 +304,8 @@ public final class SQLiteDatabase extends SQLiteClosable implements SupportSQLit
 
     private void dispose(boolean finalized) {
         final SQLiteConnectionPool pool;
+        final SQLiteAsyncDatabase asyncDatabase;
+        final SQLiteGroupCommit groupCommit;
         synchronized (mLock) {
             if (mCloseGuardLocked != null) {
                 if (finalized) {
@@ -294,6 +316,10 @@ public final class SQLiteDatabase extends SQLiteClosable implements SupportSQLit
 
             pool = mConnectionPoolLocked;
             mConnectionPoolLocked = null;
+            groupCommit = mGroupCommitLocked;
+            mGroupCommitLocked = null;
+            asyncDatabase = mAsyncDatabaseLocked;
+            mAsyncDatabaseLocked = null;
         }
 
         if (!finalized) {
@@ -305,6 +331,13 @@ public final class SQLiteDatabase extends SQLiteClosable implements SupportSQLit
                 pool.close();
             }
         }
+
+        if (groupCommit != null) {
+            groupCommit.shutdown();
+        }
+        if (asyncDatabase != null) {
+            asyncDatabase.shutdown();
+        }
     }
 
     /**
@@ -370,12 +403,22 @@ public final class SQLiteDatabase extends SQLiteClosable implements SupportSQLit
     }
 
     SQLiteSession createSession() {
-        final SQLiteConnectionPool pool;
+        return new SQLiteSession(getConnectionPool());
+    }
+
+    /**
+     * Gets the connection pool, for a cursor that holds a connection of its own rather
+     * than sharing the one of its thread's session.
+     *
+     * @return The connection pool, never null.
+     *
+     * @throws IllegalStateException if the database is not open.
+     */
+    SQLiteConnectionPool getConnectionPool() {
         synchronized (mLock) {
             throwIfNotOpenLocked();
-            pool = mConnectionPoolLocked;
+            return mConnectionPoolLocked;
         }
-        return new SQLiteSession(pool);
     }
 
     /**
@@ -1081,6 +1124,46 @@ public final class SQLiteDatabase extends SQLiteClosable implements SupportSQLit
         }
     }
 
+    /**
+     * Sets the SQL statements to prepare on each connection to the database before they
+     * are first used, so that queries routed to a newly opened connection do not pay
+     * for preparing them.
+     * <p>
+     * The statements are prepared on the connections already open when they are next
+     * available, and on each connection opened later.  Statements that cannot be prepared
+     * are skipped.  The time each connection spent on this is reported in
+     * {@link SQLiteDebug.DbStats#warmUpMillis}.
+     * </p>
+     *
+     * @param statements The statements to prepare, or an empty list for none.
+     * @param executor The executor to prepare them on, or null to prepare them on the
+     * thread that opens or releases a connection that needs them.
+     */
+    public void setWarmUpStatements(List<String> statements, Executor executor) {
+        if (statements == null) {
+            throw new IllegalArgumentException("statements must not be null.");
+        }
+
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+
+            final ArrayList<String> oldStatements =
+                    new ArrayList<String>(mConfigurationLocked.warmUpStatements);
+            final Executor oldExecutor = mConfigurationLocked.warmUpExecutor;
+            mConfigurationLocked.warmUpStatements.clear();
+            mConfigurationLocked.warmUpStatements.addAll(statements);
+            mConfigurationLocked.warmUpExecutor = executor;
+            try {
+                mConnectionPoolLocked.reconfigure(mConfigurationLocked);
+            } catch (RuntimeException ex) {
+                mConfigurationLocked.warmUpStatements.clear();
+                mConfigurationLocked.warmUpStatements.addAll(oldStatements);
+                mConfigurationLocked.warmUpExecutor = oldExecutor;
+                throw ex;
+            }
+        }
+    }
+
     /**
      * Gets the database version.
      *
@@ -1620,6 +1703,57 @@ public final class SQLiteDatabase extends SQLiteClosable implements SupportSQLit
         }
     }
 
+    /**
+     * Runs the provided SQL and returns a forward-only {@link SQLiteStreamingCursor}
+     * over the result set.
+     *
+     * @param sql the SQL query. The SQL string must not be ; terminated
+     * @param bindArgs You may include ?s in where clause in the query,
+     *     which will be replaced by the values from bindArgs. The
+     *     values will be bound as Objects.
+     * @return A {@link SQLiteStreamingCursor} object, which is positioned before the first entry.
+     * @see #rawQueryStreaming(String, Object[], CancellationSignal)
+     */
+    public SQLiteStreamingCursor rawQueryStreaming(String sql, Object[] bindArgs) {
+        return rawQueryStreaming(sql, bindArgs, null);
+    }
+
+    /**
+     * Runs the provided SQL and returns a forward-only {@link SQLiteStreamingCursor}
+     * over the result set.
+     * <p>
+     * Unlike the cursors returned by {@link #rawQuery}, the streaming cursor never counts
+     * all rows up front and never runs the query again to fill a later window; it keeps
+     * its connection and statement until the last row has been read or it is closed.
+     * </p><p>
+     * The connection is taken from the pool for the cursor alone, so while it is open
+     * other operations may wait for a connection, those of this thread included when the
+     * pool has a single connection.  The cursor fills its own window, and
+     * {@link SQLiteStreamingCursor#setWindow} throws {@link UnsupportedOperationException}.
+     * </p>
+     *
+     * @param sql the SQL query. The SQL string must not be ; terminated
+     * @param bindArgs You may include ?s in where clause in the query,
+     *     which will be replaced by the values from bindArgs. The
+     *     values will be bound as Objects.
+     * @param cancellationSignal A signal to cancel the operation in progress, or null if none.
+     * If the operation is canceled, then {@link OperationCanceledException} will be thrown
+     * when the query is executed.
+     * @return A {@link SQLiteStreamingCursor} object, which is positioned before the first entry.
+     *
+     * @throws IllegalStateException if this thread holds a connection of the database,
+     * such as in a transaction.
+     */
+    public SQLiteStreamingCursor rawQueryStreaming(String sql, Object[] bindArgs,
+            CancellationSignal cancellationSignal) {
+        acquireReference();
+        try {
+            return new SQLiteStreamingCursor(this, sql, bindArgs, cancellationSignal);
+        } finally {
+            releaseReference();
+        }
+    }
+
     /**
      * Convenience method for inserting a row into the database.
      *
@@ -1778,6 +1912,60 @@ public final class SQLiteDatabase extends SQLiteClosable implements SupportSQLit
         }
     }
 
+    /**
+     * Inserts many rows into the database, taking their values from primitive arrays
+     * rather than from {@link ContentValues}, so that no value is boxed.  The rows are
+     * inserted with a single statement execution loop, in one transaction unless one is
+     * already in progress.
+     *
+     * @param table the table to insert the rows into
+     * @param columns the columns to set, in the order of the columns of the batch
+     * @param batch the values of the rows, with one column for each element of columns
+     * @return the number of rows inserted
+     * @throws IllegalArgumentException if the batch is null, or its columns do not match
+     * columns
+     * @throws SQLException if the rows cannot be inserted, in which case none of them is
+     * unless a transaction is in progress
+     */
+    public int bulkInsert(String table, String[] columns, ColumnBatch batch) {
+        if (batch == null) {
+            throw new IllegalArgumentException("batch must not be null.");
+        }
+        if (columns == null || columns.length == 0) {
+            throw new IllegalArgumentException("columns must not be empty.");
+        }
+        if (columns.length != batch.getColumnCount()) {
+            throw new IllegalArgumentException("Expected " + columns.length
+                    + " columns in the batch but it has " + batch.getColumnCount() + ".");
+        }
+
+        acquireReference();
+        try {
+            StringBuilder sql = new StringBuilder();
+            sql.append("INSERT INTO ");
+            sql.append(table);
+            sql.append('(');
+            for (int i = 0; i < columns.length; i++) {
+                sql.append((i > 0) ? "," : "");
+                sql.append(columns[i]);
+            }
+            sql.append(") VALUES (");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append((i > 0) ? ",?" : "?");
+            }
+            sql.append(')');
+
+            SQLiteStatement statement = new SQLiteStatement(this, sql.toString(), null);
+            try {
+                return statement.executeBatch(batch);
+            } finally {
+                statement.close();
+            }
+        } finally {
+            releaseReference();
+        }
+    }
+
     /**
      * Convenience method for deleting rows in the database.
      *
@@ -1823,6 +2011,99 @@ public final class SQLiteDatabase extends SQLiteClosable implements SupportSQLit
         return updateWithOnConflict(table, values, whereClause, whereArgs, CONFLICT_NONE);
     }
 
+    /**
+     * Inserts a row like {@link #insertOrThrow}, in a transaction shared with other
+     * writes when group commit is enabled.
+     *
+     * @param table the table to insert the row into
+     * @param nullColumnHack optional; may be <code>null</code>.
+     *            The name of a nullable column to explicitly insert a NULL into
+     *            when <code>values</code> is empty.
+     * @param values this map contains the initial column values for the
+     *            row. The keys should be the column names and the values the
+     *            column values
+     * @return the future row ID of the newly inserted row, which completes once the
+     *         row is committed, or with the exception that prevented it
+     * @see #enableGroupCommit(long, int)
+     */
+    public Future<Long> insertGrouped(final String table, final String nullColumnHack,
+            ContentValues values) {
+        final ContentValues valuesCopy = values != null ? new ContentValues(values) : null;
+        return submitGroupedWrite(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return insertOrThrow(table, nullColumnHack, valuesCopy);
+            }
+        });
+    }
+
+    /**
+     * Updates rows like {@link #update(String, ContentValues, String, String[])}, in a
+     * transaction shared with other writes when group commit is enabled.
+     *
+     * @param table the table to update in
+     * @param values a map from column names to new column values. null is a
+     *            valid value that will be translated to NULL.
+     * @param whereClause the optional WHERE clause to apply when updating.
+     *            Passing null will update all rows.
+     * @param whereArgs You may include ?s in the where clause, which
+     *            will be replaced by the values from whereArgs. The values
+     *            will be bound as Strings.
+     * @return the future number of rows affected, which completes once the change is
+     *         committed, or with the exception that prevented it
+     * @see #enableGroupCommit(long, int)
+     */
+    public Future<Integer> updateGrouped(final String table, ContentValues values,
+            final String whereClause, String[] whereArgs) {
+        final ContentValues valuesCopy = values != null ? new ContentValues(values) : null;
+        final String[] whereArgsCopy = whereArgs != null ? whereArgs.clone() : null;
+        return submitGroupedWrite(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return update(table, valuesCopy, whereClause, whereArgsCopy);
+            }
+        });
+    }
+
+    /**
+     * Deletes rows like {@link #delete(String, String, String[])}, in a transaction
+     * shared with other writes when group commit is enabled.
+     *
+     * @param table the table to delete from
+     * @param whereClause the optional WHERE clause to apply when deleting.
+     *            Passing null will delete all rows.
+     * @param whereArgs You may include ?s in the where clause, which
+     *            will be replaced by the values from whereArgs. The values
+     *            will be bound as Strings.
+     * @return the future number of rows affected, which completes once the change is
+     *         committed, or with the exception that prevented it
+     * @see #enableGroupCommit(long, int)
+     */
+    public Future<Integer> deleteGrouped(final String table, final String whereClause,
+            String[] whereArgs) {
+        final String[] whereArgsCopy = whereArgs != null ? whereArgs.clone() : null;
+        return submitGroupedWrite(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return delete(table, whereClause, whereArgsCopy);
+            }
+        });
+    }
+
+    // Writes that are made while the thread holds a transaction run on it right away,
+    // since the batch would otherwise wait for the primary connection that it holds.
+    private <T> Future<T> submitGroupedWrite(Callable<T> write) {
+        final SQLiteGroupCommit groupCommit;
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+            groupCommit = mGroupCommitLocked;
+        }
+        if (groupCommit == null || getThreadSession().hasTransaction()) {
+            return SQLiteGroupCommit.runNow(write);
+        }
+        return groupCommit.submit(write);
+    }
+
     /**
      * Convenience method for updating rows in the database.
      *
@@ -2107,13 +2388,36 @@ public final class SQLiteDatabase extends SQLiteClosable implements SupportSQLit
         }
     }
 
+    /**
+     * Sets the policy that sizes the cursor windows of the queries of this database,
+     * for the cursors that have no policy of their own.
+     * <p>
+     * This method is thread-safe.
+     * </p>
+     *
+     * @param policy The window size policy, or null to create windows of
+     * {@link CursorWindow#PREFERRED_CURSOR_WINDOW_SIZE} that grow without limit.
+     * @see SQLiteCursor#setWindowSizePolicy(CursorWindowSizePolicy)
+     */
+    public void setCursorWindowSizePolicy(CursorWindowSizePolicy policy) {
+        mCursorWindowSizePolicy = policy;
+    }
+
+    /**
+     * Gets the policy that sizes the cursor windows of the queries of this database.
+     *
+     * @return The window size policy, or null if none was set.
+     */
+    public CursorWindowSizePolicy getCursorWindowSizePolicy() {
+        return mCursorWindowSizePolicy;
+    }
+
     /**
      * Sets the maximum size of the prepared-statement cache for this database.
      * (size of the cache = number of compiled-sql-statements stored in the cache).
      *<p>
-     * Maximum cache size can ONLY be increased from its current size (default = 10).
-     * If this method is called with smaller size than the current maximum value,
-     * then IllegalStateException is thrown.
+     * The cache of each open connection is resized right away, evicting its least
+     * recently used statements if it holds more than the new maximum.
      *<p>
      * This method is thread-safe.
      *
@@ -2140,6 +2444,378 @@ public final class SQLiteDatabase extends SQLiteClosable implements SupportSQLit
         }
     }
 
+    /**
+     * Sets the maximum bytes of native memory that the statements in the prepared-statement
+     * cache of each connection may use, as reported by SQLite for each statement. The least
+     * recently used statements are evicted to stay within both this limit and
+     * {@link #setMaxSqlCacheSize}, and a statement larger than the limit is not cached.
+     *<p>
+     * This method is thread-safe.
+     *
+     * @param cacheBytes the maximum bytes, or 0 to limit the cache by size only.
+     * @throws IllegalArgumentException if cacheBytes is negative.
+     */
+    public void setMaxSqlCacheBytes(int cacheBytes) {
+        if (cacheBytes < 0) {
+            throw new IllegalArgumentException("cacheBytes must not be negative.");
+        }
+
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+
+            final int oldMaxSqlCacheBytes = mConfigurationLocked.maxSqlCacheBytes;
+            mConfigurationLocked.maxSqlCacheBytes = cacheBytes;
+            try {
+                mConnectionPoolLocked.reconfigure(mConfigurationLocked);
+            } catch (RuntimeException ex) {
+                mConfigurationLocked.maxSqlCacheBytes = oldMaxSqlCacheBytes;
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Sets the bounds of the connection pool of this database, instead of the size
+     * shared by all databases of the process.
+     *<p>
+     * The maximum applies when write-ahead logging or read connection pooling is enabled;
+     * otherwise the pool has a single connection.  The minimum is the number of connections
+     * that closing idle connections leaves open, see {@link #setIdleConnectionTimeout}.
+     *<p>
+     * This method is thread-safe.
+     *
+     * @param minSize the minimum number of connections, including the primary connection.
+     * @param maxSize the maximum number of connections, including the primary connection,
+     * or 0 for the default.
+     * @throws IllegalArgumentException if minSize is not positive, maxSize is negative,
+     * or maxSize is smaller than minSize.
+     */
+    public void setConnectionPoolSize(int minSize, int maxSize) {
+        if (minSize < 1 || maxSize < 0 || (maxSize != 0 && maxSize < minSize)) {
+            throw new IllegalArgumentException("expected 1 <= minSize <= maxSize, or maxSize 0");
+        }
+
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+
+            final int oldMinSize = mConfigurationLocked.minConnectionPoolSize;
+            final int oldMaxSize = mConfigurationLocked.maxConnectionPoolSize;
+            mConfigurationLocked.minConnectionPoolSize = minSize;
+            mConfigurationLocked.maxConnectionPoolSize = maxSize;
+            try {
+                mConnectionPoolLocked.reconfigure(mConfigurationLocked);
+            } catch (RuntimeException ex) {
+                mConfigurationLocked.minConnectionPoolSize = oldMinSize;
+                mConfigurationLocked.maxConnectionPoolSize = oldMaxSize;
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Sets the time after which a non-primary connection that is not in use is closed,
+     * to release the memory of its page cache and prepared statements.  A background
+     * thread closes it once the timeout expires, whether or not the pool is used again.
+     * The connection pool keeps at least the minimum number of connections set by
+     * {@link #setConnectionPoolSize} open.
+     *<p>
+     * This method is thread-safe.
+     *
+     * @param idleConnectionTimeoutMillis the timeout in milliseconds, or 0 to keep idle
+     * connections open until the database is closed.
+     * @throws IllegalArgumentException if the timeout is negative.
+     */
+    public void setIdleConnectionTimeout(long idleConnectionTimeoutMillis) {
+        if (idleConnectionTimeoutMillis < 0) {
+            throw new IllegalArgumentException("idleConnectionTimeoutMillis must not be negative.");
+        }
+
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+
+            final long oldTimeout = mConfigurationLocked.idleConnectionTimeoutMillis;
+            mConfigurationLocked.idleConnectionTimeoutMillis = idleConnectionTimeoutMillis;
+            try {
+                mConnectionPoolLocked.reconfigure(mConfigurationLocked);
+            } catch (RuntimeException ex) {
+                mConfigurationLocked.idleConnectionTimeoutMillis = oldTimeout;
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Releases memory held by the connection pool of this database, for example from
+     * {@link android.content.ComponentCallbacks2#onTrimMemory}.  Closes the non-primary
+     * connections that are not in use, down to the minimum set by
+     * {@link #setConnectionPoolSize}, which releases their page caches and prepared
+     * statements, and asks SQLite to release the unused page cache memory of every
+     * connection that remains open and is not in use.
+     *<p>
+     * This method is thread-safe.
+     *
+     * @return the number of bytes released from the page caches of the connections that
+     * remain open.
+     */
+    public int shrink() {
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+
+            return mConnectionPoolLocked.shrink();
+        }
+    }
+
+    /**
+     * Sets the total size of the page caches of all connections of this database.  The
+     * connection pool divides it evenly between the connections that are open, and divides
+     * it again as connections are opened and closed, so that the memory of the decrypted
+     * page caches no longer grows with the size of the pool.
+     *<p>
+     * This method is thread-safe.
+     *
+     * @param budgetBytes the total size in bytes, or 0 to leave each connection with the
+     * default page cache size.
+     * @throws IllegalArgumentException if the budget is negative.
+     */
+    public void setPageCacheBudget(long budgetBytes) {
+        if (budgetBytes < 0) {
+            throw new IllegalArgumentException("budgetBytes must not be negative.");
+        }
+
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+
+            final long oldBudget = mConfigurationLocked.pageCacheBudgetBytes;
+            mConfigurationLocked.pageCacheBudgetBytes = budgetBytes;
+            try {
+                mConnectionPoolLocked.reconfigure(mConfigurationLocked);
+            } catch (RuntimeException ex) {
+                mConfigurationLocked.pageCacheBudgetBytes = oldBudget;
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Sets how long a thread waits for a database connection when all of them are in use,
+     * before it gives up.  Waiting threads are served by priority, and within a priority
+     * in the order of their deadlines.
+     *<p>
+     * This method is thread-safe.
+     *
+     * @param timeoutMillis the timeout in milliseconds, or 0 to wait as long as it takes.
+     * @throws IllegalArgumentException if the timeout is negative.
+     * @see android.database.sqlite.SQLiteDatabaseLockedException
+     */
+    public void setConnectionWaitTimeout(long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeoutMillis must not be negative.");
+        }
+
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+
+            final long oldTimeout = mConfigurationLocked.connectionWaitTimeoutMillis;
+            mConfigurationLocked.connectionWaitTimeoutMillis = timeoutMillis;
+            try {
+                mConnectionPoolLocked.reconfigure(mConfigurationLocked);
+            } catch (RuntimeException ex) {
+                mConfigurationLocked.connectionWaitTimeoutMillis = oldTimeout;
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Sets how long the calling thread waits for a database connection when all of them
+     * are in use, instead of the timeout set by {@link #setConnectionWaitTimeout}.  Each
+     * operation of the thread that needs a connection gets its own deadline from this
+     * timeout, so a thread with a short timeout, such as one that serves the user, is
+     * served before threads of the same priority that can wait longer.
+     *<p>
+     * This method is thread-safe, but only affects the calling thread.
+     *
+     * @param timeoutMillis the timeout in milliseconds, 0 to wait as long as it takes, or
+     * negative to go back to the timeout of the database.
+     * @see android.database.sqlite.SQLiteDatabaseLockedException
+     */
+    public void setThreadConnectionWaitTimeout(long timeoutMillis) {
+        getThreadSession().setConnectionWaitTimeout(timeoutMillis);
+    }
+
+    /**
+     * Returns the histograms of the times threads waited for a connection of this database
+     * because none was available, one for interactive requests and one for the others.
+     *<p>
+     * This method is thread-safe.
+     *
+     * @return the wait statistics of this database.
+     */
+    public List<ConnectionWaitStats> getConnectionWaitStats() {
+        ArrayList<ConnectionWaitStats> statsList = new ArrayList<ConnectionWaitStats>();
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+
+            mConnectionPoolLocked.collectConnectionWaitStats(statsList);
+        }
+        return statsList;
+    }
+
+    /**
+     * Returns an asynchronous view of this database, which runs queries on reader threads
+     * as many as the connection pool has connections, and writes in order on a single
+     * writer thread, and returns their results as futures.
+     *<p>
+     * This method is thread-safe.
+     *
+     * @return the asynchronous view of this database.
+     * @see SQLiteAsyncDatabase
+     */
+    public SQLiteAsyncDatabase async() {
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+
+            if (mAsyncDatabaseLocked == null) {
+                mAsyncDatabaseLocked = new SQLiteAsyncDatabase(this);
+            }
+            return mAsyncDatabaseLocked;
+        }
+    }
+
+    // Called by SQLiteQuery when the statement it left positioned is no longer needed.
+    void resetPositionedStatement(Object resumeKey) {
+        synchronized (mLock) {
+            if (mConnectionPoolLocked != null) {
+                mConnectionPoolLocked.resetPositionedStatement(resumeKey);
+            }
+        }
+    }
+
+    // Called by SQLiteAsyncDatabase to size its reader threads.
+    int getMaxConnectionPoolSize() {
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+
+            return mConnectionPoolLocked.getMaxConnectionPoolSize();
+        }
+    }
+
+    /**
+     * Enables group commit, which coalesces the writes made with {@link #insertGrouped},
+     * {@link #updateGrouped} and {@link #deleteGrouped} by any number of threads into
+     * shared transactions on the primary connection, so that they pay for one commit
+     * instead of one each.
+     *<p>
+     * A write waits up to <code>windowMillis</code> for others to join its batch, or less
+     * once <code>maxBatchSize</code> writes are waiting.  The batch then runs on a
+     * background thread in one immediate transaction, and the future of each write
+     * completes when that transaction commits.  A write that fails completes with its
+     * exception without affecting the others, unless it ends the transaction, such as with
+     * {@link #CONFLICT_ROLLBACK}, in which case the whole batch fails.  Writes made by a
+     * thread in a transaction are not grouped, and complete right away.
+     *<p>
+     * This method is thread-safe.
+     *
+     * @param windowMillis the longest time in milliseconds a write waits for others.
+     * @param maxBatchSize the most writes in a batch.
+     * @throws IllegalArgumentException if the window is negative or the batch size is
+     * not positive.
+     */
+    public void enableGroupCommit(long windowMillis, int maxBatchSize) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("windowMillis must not be negative.");
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1.");
+        }
+
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+
+            final SQLiteGroupCommit oldGroupCommit = mGroupCommitLocked;
+            if (oldGroupCommit != null) {
+                if (oldGroupCommit.getWindowMillis() == windowMillis
+                        && oldGroupCommit.getMaxBatchSize() == maxBatchSize) {
+                    return;
+                }
+                oldGroupCommit.shutdown();
+            }
+            mGroupCommitLocked = new SQLiteGroupCommit(this, windowMillis, maxBatchSize);
+        }
+    }
+
+    /**
+     * Disables group commit.  The writes waiting for a batch run without waiting for the
+     * rest of their window, and later writes each run in a transaction of their own.
+     *<p>
+     * This method is thread-safe.
+     *
+     * @see #enableGroupCommit(long, int)
+     */
+    public void disableGroupCommit() {
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+
+            if (mGroupCommitLocked != null) {
+                mGroupCommitLocked.shutdown();
+                mGroupCommitLocked = null;
+            }
+        }
+    }
+
+    /**
+     * Returns true if group commit is enabled.
+     *<p>
+     * This method is thread-safe.
+     *
+     * @return true if group commit is enabled.
+     * @see #enableGroupCommit(long, int)
+     */
+    public boolean isGroupCommitEnabled() {
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+
+            return mGroupCommitLocked != null;
+        }
+    }
+
+    /**
+     * Sets whether the connection pool may open read-only connections besides the primary
+     * connection when write-ahead logging is disabled, so that concurrent queries of a
+     * read-mostly database are not serialized through a single connection.
+     *<p>
+     * In rollback journal mode, readers and a writer still exclude each other while a
+     * transaction commits: every open query holds a SHARED lock on the database file, and
+     * the writer cannot commit until all of them are released.  A writer that waits
+     * longer than the busy timeout fails with
+     * {@link android.database.sqlite.SQLiteDatabaseLockedException}, so only enable this
+     * for databases that are rarely written, and close cursors promptly, or prefer
+     * {@link #enableWriteAheadLogging}, where readers never block the writer.  Has no
+     * effect on in-memory databases, whose connections would each see a different
+     * database.
+     *<p>
+     * This method is thread-safe.
+     *
+     * @param enabled true to pool read-only connections.
+     */
+    public void setReadConnectionPoolingEnabled(boolean enabled) {
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+
+            if (mConfigurationLocked.readConnectionPoolingEnabled == enabled) {
+                return;
+            }
+
+            mConfigurationLocked.readConnectionPoolingEnabled = enabled;
+            try {
+                mConnectionPoolLocked.reconfigure(mConfigurationLocked);
+            } catch (RuntimeException ex) {
+                mConfigurationLocked.readConnectionPoolingEnabled = !enabled;
+                throw ex;
+            }
+        }
+    }
+
     /**
      * Sets whether foreign key constraints are enabled for the database.
      * <p>
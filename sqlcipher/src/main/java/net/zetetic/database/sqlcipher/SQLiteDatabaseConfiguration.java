@@ -22,6 +22,7 @@ package net.zetetic.database.sqlcipher;
 
 import java.util.ArrayList;
 import java.util.Locale;
+import java.util.concurrent.Executor;
 import java.util.regex.Pattern;
 
 /**
@@ -73,6 +74,71 @@ public final class SQLiteDatabaseConfiguration {
      */
     public int maxSqlCacheSize;
 
+    /**
+     * The maximum bytes of native memory used by the statements in the prepared
+     * statement cache of each database connection, or 0 for no limit beyond
+     * {@link #maxSqlCacheSize}. Must be non-negative.
+     *
+     * Default is 0.
+     */
+    public int maxSqlCacheBytes;
+
+    /**
+     * The maximum number of connections in the pool, including the primary connection,
+     * or 0 for {@link SQLiteGlobal#getWALConnectionPoolSize()}.  Applies when write-ahead
+     * logging or {@link #readConnectionPoolingEnabled} is on; otherwise the pool has a
+     * single connection.  Must be non-negative.
+     *
+     * Default is 0.
+     */
+    public int maxConnectionPoolSize;
+
+    /**
+     * The number of connections, including the primary connection, that closing idle
+     * connections leaves open.  Must be positive.
+     *
+     * Default is 1.
+     */
+    public int minConnectionPoolSize;
+
+    /**
+     * The time in milliseconds after which a non-primary connection that is not in use
+     * is closed, or 0 to keep such connections open until the database is closed.
+     * Must be non-negative.
+     *
+     * Default is 0.
+     */
+    public long idleConnectionTimeoutMillis;
+
+    /**
+     * The time in milliseconds a thread waits for a connection when none is available,
+     * before it gives up with {@link android.database.sqlite.SQLiteDatabaseLockedException},
+     * or 0 to wait as long as it takes.  Must be non-negative.
+     *
+     * Default is 0.
+     */
+    public long connectionWaitTimeoutMillis;
+
+    /**
+     * True if the pool may open read-only connections besides the primary connection
+     * when write-ahead logging is off.  Readers then no longer wait for each other, but
+     * in rollback journal mode they still wait for a writer to commit, and it for them:
+     * the SHARED lock of a query in progress makes a commit fail with SQLITE_BUSY once
+     * the busy timeout expires.  Has no effect on in-memory databases.
+     *
+     * Default is false.
+     */
+    public boolean readConnectionPoolingEnabled;
+
+    /**
+     * The total size in bytes of the page caches of all connections in the pool, which the
+     * pool divides evenly between the connections that are open, or 0 to leave each
+     * connection with the default page cache size.  Must be non-negative.
+     *
+     * Default is 0.
+     */
+    public long pageCacheBudgetBytes;
+
     /**
      * The database locale.
      *
@@ -97,6 +163,20 @@ public final class SQLiteDatabaseConfiguration {
      */
     public SQLiteDatabaseHook databaseHook;
 
+    /**
+     * The SQL statements to prepare on each new database connection, so that they are
+     * in its prepared statement cache before they are first used.
+     */
+    public final ArrayList<String> warmUpStatements = new ArrayList<String>();
+
+    /**
+     * The executor that warms up the prepared statement caches, or null to warm them
+     * up on the thread that opens or reconfigures the connections.
+     *
+     * Default is null.
+     */
+    public Executor warmUpExecutor;
+
     /**
      * The custom functions to register.
      */
@@ -135,6 +215,7 @@ public final class SQLiteDatabaseConfiguration {
         this.databaseHook = databaseHook;
         // Set default values for optional parameters.
         maxSqlCacheSize = 25;
+        minConnectionPoolSize = 1;
         locale = Locale.getDefault();
     }
 
@@ -170,12 +251,22 @@ public final class SQLiteDatabaseConfiguration {
 
         openFlags = other.openFlags;
         maxSqlCacheSize = other.maxSqlCacheSize;
+        maxSqlCacheBytes = other.maxSqlCacheBytes;
+        maxConnectionPoolSize = other.maxConnectionPoolSize;
+        minConnectionPoolSize = other.minConnectionPoolSize;
+        idleConnectionTimeoutMillis = other.idleConnectionTimeoutMillis;
+        connectionWaitTimeoutMillis = other.connectionWaitTimeoutMillis;
+        readConnectionPoolingEnabled = other.readConnectionPoolingEnabled;
+        pageCacheBudgetBytes = other.pageCacheBudgetBytes;
         locale = other.locale;
         foreignKeyConstraintsEnabled = other.foreignKeyConstraintsEnabled;
         password = other.password;
         databaseHook = other.databaseHook;
         customFunctions.clear();
         customFunctions.addAll(other.customFunctions);
+        warmUpStatements.clear();
+        warmUpStatements.addAll(other.warmUpStatements);
+        warmUpExecutor = other.warmUpExecutor;
     }
 
     /**
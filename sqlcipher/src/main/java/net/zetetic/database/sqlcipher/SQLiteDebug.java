@@ -138,13 +138,112 @@ public final class SQLiteDebug {
         /** statement cache stats: hits/misses/cachesize */
         public String cache;
 
+        /** the number of statements found in the statement cache */
+        public int cacheHits;
+
+        /** the number of statements not found in the statement cache */
+        public int cacheMisses;
+
+        /** the number of statements evicted from the statement cache to make room */
+        public int cacheEvictions;
+
+        /** the number of statements in the statement cache */
+        public int cacheSize;
+
+        /** the bytes of native memory used by the statements in the statement cache */
+        public int cacheBytes;
+
+        /** the number of statements prepared when the statement cache was warmed up */
+        public int warmUpStatements;
+
+        /** the time it took to warm up the statement cache, in milliseconds */
+        public long warmUpMillis;
+
+        /** the bytes of memory used by the page cache, see SQLITE_DBSTATUS_CACHE_USED */
+        public int pageCacheBytes;
+
+        /** the size in bytes the page cache is limited to, or 0 for the default */
+        public long pageCacheLimitBytes;
+
         public DbStats(String dbName, long pageCount, long pageSize, int lookaside,
             int hits, int misses, int cachesize) {
+            this(dbName, pageCount, pageSize, lookaside, hits, misses, cachesize, 0, 0);
+        }
+
+        public DbStats(String dbName, long pageCount, long pageSize, int lookaside,
+            int hits, int misses, int cachesize, int evictions, int cacheBytes) {
             this.dbName = dbName;
             this.pageSize = pageSize / 1024;
             dbSize = (pageCount * pageSize) / 1024;
             this.lookaside = lookaside;
             this.cache = hits + "/" + misses + "/" + cachesize;
+            this.cacheHits = hits;
+            this.cacheMisses = misses;
+            this.cacheEvictions = evictions;
+            this.cacheSize = cachesize;
+            this.cacheBytes = cacheBytes;
+        }
+    }
+
+    /**
+     * contains a histogram of the times threads waited for a connection of a database
+     * because none was available, for requests of one priority
+     */
+    public static class ConnectionWaitStats {
+        /** name of the database */
+        public String dbName;
+
+        /** true for requests that are interactive, false for the others */
+        public boolean interactive;
+
+        /** the upper bounds in milliseconds of the buckets of {@link #waitCounts},
+         * except for the last bucket which has none
+         */
+        public long[] bucketUpperBoundsMillis;
+
+        /** the number of granted waits that fell into each bucket */
+        public long[] waitCounts;
+
+        /** the total time of all granted waits, in milliseconds */
+        public long totalWaitMillis;
+
+        /** the longest granted wait, in milliseconds */
+        public long maxWaitMillis;
+
+        /** the number of waits that gave up at the connection wait timeout */
+        public long timeouts;
+
+        /** the number of threads waiting right now */
+        public int waiting;
+
+        /**
+         * Returns the number of waits that were granted a connection.  Waits that timed
+         * out or were canceled are not included.
+         */
+        public long getWaitCount() {
+            long count = 0;
+            for (long bucketCount : waitCounts) {
+                count += bucketCount;
+            }
+            return count;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile of the wait times, in milliseconds:
+         * the upper bound of the bucket it falls into, or the longest wait for the last bucket.
+         *
+         * @param percentile the percentile, between 0 and 100.
+         */
+        public long getWaitPercentileMillis(double percentile) {
+            final long count = getWaitCount();
+            long remaining = (long) Math.ceil(count * percentile / 100);
+            for (int i = 0; i < bucketUpperBoundsMillis.length; i++) {
+                remaining -= waitCounts[i];
+                if (remaining <= 0) {
+                    return Math.min(bucketUpperBoundsMillis[i], maxWaitMillis);
+                }
+            }
+            return maxWaitMillis;
         }
     }
 
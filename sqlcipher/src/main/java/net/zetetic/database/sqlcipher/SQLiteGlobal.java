@@ -23,6 +23,8 @@ package net.zetetic.database.sqlcipher;
 import android.content.res.Resources;
 import android.os.StatFs;
 
+import net.zetetic.database.CursorWindow;
+
 /**
  * Provides access to SQLite functions that affect all database connection,
  * such as memory management.
@@ -51,12 +53,12 @@ public final class SQLiteGlobal {
 
     /**
      * Attempts to release memory by pruning the SQLite page cache and other
-     * internal data structures.
+     * internal data structures, and by freeing the buffers pooled for cursor windows.
      *
      * @return The number of bytes that were freed.
      */
     public static int releaseMemory() {
-        return nativeReleaseMemory();
+        return nativeReleaseMemory() + CursorWindow.trimBufferPool();
     }
 
     /**
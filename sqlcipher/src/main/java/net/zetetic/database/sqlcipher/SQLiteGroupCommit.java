@@ -0,0 +1,219 @@
+package net.zetetic.database.sqlcipher;
+
+import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces writes submitted by any number of threads into shared transactions,
+ * so that they pay for one commit instead of one each.
+ * <p>
+ * A write waits up to the window for other writes to join its batch, or less once the
+ * batch is full.  The batch then runs on a background thread in a single immediate
+ * transaction, and the future of each write completes when that transaction commits.
+ * A write that fails completes with its exception without affecting the others, unless
+ * the failure ends the transaction, in which case the writes that follow it are not run
+ * and the whole batch fails.
+ * </p><p>
+ * Each database that enables group commit runs its batches on a thread of its own, so
+ * that a slow batch of one database does not hold up the others.  The thread stops when
+ * group commit is disabled.  Each pending write holds a reference to the database, so
+ * closing the database waits for them to commit.
+ * </p><p>
+ * This class is thread-safe.
+ * </p>
+ */
+final class SQLiteGroupCommit {
+    private final Object mLock = new Object();
+    private final SQLiteDatabase mDatabase;
+    private final long mWindowMillis;
+    private final int mMaxBatchSize;
+
+    // The writes waiting for the next batch.
+    // INVARIANT: Guarded by mLock.
+    private ArrayList<GroupedWrite<?>> mPendingWrites = new ArrayList<GroupedWrite<?>>();
+
+    // The thread that runs the batches, started with the first write.
+    // INVARIANT: Guarded by mLock.
+    private Handler mHandler;
+
+    // True once group commit has been disabled, after which writes run on their own.
+    // INVARIANT: Guarded by mLock.
+    private boolean mShutdown;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    SQLiteGroupCommit(SQLiteDatabase database, long windowMillis, int maxBatchSize) {
+        mDatabase = database;
+        mWindowMillis = windowMillis;
+        mMaxBatchSize = maxBatchSize;
+    }
+
+    long getWindowMillis() {
+        return mWindowMillis;
+    }
+
+    int getMaxBatchSize() {
+        return mMaxBatchSize;
+    }
+
+    /**
+     * Adds a write to the next batch.
+     *
+     * @param write The write, which runs on the thread of the batch while it holds the
+     * transaction.
+     * @return The future of the write, which completes once the batch has committed.
+     *
+     * @throws IllegalStateException if the database is closed.
+     */
+    <T> Future<T> submit(Callable<T> write) {
+        final GroupedWrite<T> groupedWrite = new GroupedWrite<T>(write);
+        mDatabase.acquireReference(); // might throw
+        synchronized (mLock) {
+            if (!mShutdown) {
+                mPendingWrites.add(groupedWrite);
+                final int count = mPendingWrites.size();
+                final Handler handler = getHandlerLocked();
+                if (count >= mMaxBatchSize) {
+                    handler.removeCallbacks(mFlush);
+                    handler.post(mFlush);
+                } else if (count == 1) {
+                    handler.postDelayed(mFlush, mWindowMillis);
+                }
+                return groupedWrite;
+            }
+        }
+
+        // Group commit was disabled in the meantime.
+        mDatabase.releaseReference();
+        return runNow(write);
+    }
+
+    /**
+     * Runs the pending writes as soon as possible rather than at the end of the window,
+     * then stops the thread.  Called when group commit is disabled or the database is
+     * closed.
+     */
+    void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+            if (mHandler != null) {
+                mHandler.removeCallbacks(mFlush);
+                if (!mPendingWrites.isEmpty()) {
+                    mHandler.post(mFlush);
+                }
+                // The flush just posted still runs before the thread stops.
+                mHandler.getLooper().quitSafely();
+            }
+        }
+    }
+
+    /**
+     * Runs a write on the calling thread and returns its completed future.  Used when the
+     * write cannot be grouped.
+     */
+    static <T> Future<T> runNow(Callable<T> write) {
+        final FutureTask<T> task = new FutureTask<T>(write);
+        task.run();
+        return task;
+    }
+
+    private void flush() {
+        final ArrayList<GroupedWrite<?>> writes;
+        synchronized (mLock) {
+            mHandler.removeCallbacks(mFlush);
+            if (mPendingWrites.isEmpty()) {
+                return;
+            }
+            writes = mPendingWrites;
+            mPendingWrites = new ArrayList<GroupedWrite<?>>();
+        }
+
+        RuntimeException failure = null;
+        try {
+            mDatabase.beginTransactionNonExclusive();
+            try {
+                for (GroupedWrite<?> write : writes) {
+                    write.execute();
+                    if (write.mException != null
+                            && mDatabase.getThreadSession().hasTransactionEnded()) {
+                        // SQLite rolled the batch back, so the writes that ran are lost
+                        // and the ones left would run outside of any transaction.
+                        failure = new SQLiteException("A write of the batch ended its "
+                                + "transaction, so the batch was rolled back.",
+                                write.mException);
+                        break;
+                    }
+                }
+                if (failure == null) {
+                    mDatabase.setTransactionSuccessful();
+                }
+            } finally {
+                mDatabase.endTransaction();
+            }
+        } catch (RuntimeException ex) {
+            if (failure == null) {
+                failure = ex;
+            }
+        }
+
+        for (GroupedWrite<?> write : writes) {
+            write.finish(failure);
+            mDatabase.releaseReference();
+        }
+    }
+
+    private Handler getHandlerLocked() {
+        if (mHandler == null) {
+            HandlerThread thread = new HandlerThread("SQLiteGroupCommit",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mHandler = new Handler(thread.getLooper());
+        }
+        return mHandler;
+    }
+
+    // A write whose future completes when its batch commits rather than when it has run.
+    private static final class GroupedWrite<T> extends FutureTask<T> {
+        private final Callable<T> mWrite;
+        private T mResult;
+        private Exception mException;
+
+        GroupedWrite(Callable<T> write) {
+            super(write);
+            mWrite = write;
+        }
+
+        void execute() {
+            if (isCancelled()) {
+                return;
+            }
+            try {
+                mResult = mWrite.call();
+            } catch (Exception ex) {
+                mException = ex;
+            }
+        }
+
+        void finish(RuntimeException failure) {
+            if (mException != null) {
+                setException(mException);
+            } else if (failure != null) {
+                setException(failure);
+            } else {
+                set(mResult);
+            }
+        }
+    }
+}
@@ -26,8 +26,6 @@ import android.os.CancellationSignal;
 
 import androidx.sqlite.db.SupportSQLiteProgram;
 
-import java.util.Arrays;
-
 /**
  * A base class for compiled SQLite programs.
  * <p>
@@ -41,8 +39,9 @@ public abstract class SQLiteProgram extends SQLiteClosable implements SupportSQL
     private final String mSql;
     private final boolean mReadOnly;
     private final String[] mColumnNames;
+    private final ColumnIndexMap mColumnIndexMap;
     private final int mNumParameters;
-    private final Object[] mBindArgs;
+    private final SQLiteBindArgs mBindArgs;
 
     SQLiteProgram(SQLiteDatabase db, String sql, Object[] bindArgs,
             CancellationSignal cancellationSignalForPrepare) {
@@ -56,6 +55,7 @@ public abstract class SQLiteProgram extends SQLiteClosable implements SupportSQL
             case DatabaseUtils.STATEMENT_ABORT:
                 mReadOnly = false;
                 mColumnNames = EMPTY_STRING_ARRAY;
+                mColumnIndexMap = ColumnIndexMap.EMPTY;
                 mNumParameters = 0;
                 break;
 
@@ -67,6 +67,7 @@ public abstract class SQLiteProgram extends SQLiteClosable implements SupportSQL
                         cancellationSignalForPrepare, info);
                 mReadOnly = info.readOnly;
                 mColumnNames = info.columnNames;
+                mColumnIndexMap = info.columnIndexMap;
                 mNumParameters = info.numParameters;
                 break;
         }
@@ -78,12 +79,14 @@ public abstract class SQLiteProgram extends SQLiteClosable implements SupportSQL
         }
 
         if (mNumParameters != 0) {
-            mBindArgs = new Object[mNumParameters];
+            mBindArgs = new SQLiteBindArgs(mNumParameters);
             if (bindArgs != null) {
-                System.arraycopy(bindArgs, 0, mBindArgs, 0, bindArgs.length);
+                for (int i = 0; i < bindArgs.length; i++) {
+                    mBindArgs.bind(i, bindArgs[i]);
+                }
             }
         } else {
-            mBindArgs = null;
+            mBindArgs = SQLiteBindArgs.EMPTY;
         }
     }
 
@@ -95,7 +98,7 @@ public abstract class SQLiteProgram extends SQLiteClosable implements SupportSQL
         return mSql;
     }
 
-    final Object[] getBindArgs() {
+    final SQLiteBindArgs getBindArgs() {
         return mBindArgs;
     }
 
@@ -103,6 +106,10 @@ public abstract class SQLiteProgram extends SQLiteClosable implements SupportSQL
         return mColumnNames;
     }
 
+    final ColumnIndexMap getColumnIndexMap() {
+        return mColumnIndexMap;
+    }
+
     /** @hide */
     protected final SQLiteSession getSession() {
         return mDatabase.getThreadSession();
@@ -134,18 +141,18 @@ public abstract class SQLiteProgram extends SQLiteClosable implements SupportSQL
      * @param index The 1-based index to the parameter to bind null to
      */
     public void bindNull(int index) {
-        bind(index, null);
+        mBindArgs.bindNull(checkBindIndex(index));
     }
 
     /**
      * Bind a long value to this statement. The value remains bound until
      * {@link #clearBindings} is called.
-     *addToBindArgs
+     *
      * @param index The 1-based index to the parameter to bind
      * @param value The value to bind
      */
     public void bindLong(int index, long value) {
-        bind(index, value);
+        mBindArgs.bindLong(checkBindIndex(index), value);
     }
 
     /**
@@ -156,7 +163,7 @@ public abstract class SQLiteProgram extends SQLiteClosable implements SupportSQL
      * @param value The value to bind
      */
     public void bindDouble(int index, double value) {
-        bind(index, value);
+        mBindArgs.bindDouble(checkBindIndex(index), value);
     }
 
     /**
@@ -170,7 +177,7 @@ public abstract class SQLiteProgram extends SQLiteClosable implements SupportSQL
         if (value == null) {
             throw new IllegalArgumentException("the bind value at index " + index + " is null");
         }
-        bind(index, value);
+        mBindArgs.bindString(checkBindIndex(index), value);
     }
 
     /**
@@ -184,16 +191,14 @@ public abstract class SQLiteProgram extends SQLiteClosable implements SupportSQL
         if (value == null) {
             throw new IllegalArgumentException("the bind value at index " + index + " is null");
         }
-        bind(index, value);
+        mBindArgs.bindBlob(checkBindIndex(index), value);
     }
 
     /**
      * Clears all existing bindings. Unset bindings are treated as NULL.
      */
     public void clearBindings() {
-        if (mBindArgs != null) {
-            Arrays.fill(mBindArgs, null);
-        }
+        mBindArgs.clear();
     }
 
     /**
@@ -217,7 +222,7 @@ public abstract class SQLiteProgram extends SQLiteClosable implements SupportSQL
     public void bindAllArgs(Object... bindArgs){
         if (bindArgs != null) {
             for (int i = bindArgs.length; i != 0; i--) {
-                bind(i, bindArgs[i - 1]);
+                mBindArgs.bind(checkBindIndex(i), bindArgs[i - 1]);
             }
         }
     }
@@ -227,12 +232,13 @@ public abstract class SQLiteProgram extends SQLiteClosable implements SupportSQL
         clearBindings();
     }
 
-    private void bind(int index, Object value) {
+    // Returns the 0-based index of the argument at a 1-based index.
+    private int checkBindIndex(int index) {
         if (index < 1 || index > mNumParameters) {
             throw new IllegalArgumentException("Cannot bind argument at index "
                     + index + " because the index is out of range.  "
                     + "The statement has " + mNumParameters + " parameters.");
         }
-        mBindArgs[index - 1] = value;
+        return index - 1;
     }
 }
@@ -38,8 +38,18 @@ import net.zetetic.database.Logger;
 public final class SQLiteQuery extends SQLiteProgram {
     private static final String TAG = "SQLiteQuery";
 
+    // A window large enough for its header, as counting copies no rows into it.
+    private static final int COUNT_WINDOW_SIZE = 4096;
+
     private final CancellationSignal mCancellationSignal;
 
+    // Identifies the fills allowed to resume the statement left positioned by an earlier
+    // one.  Replaced whenever that statement must not be resumed anymore.
+    private Object mResumeKey = new Object();
+
+    // The row the last fill left the statement positioned on, or -1 if none.
+    private int mPositionedRow = -1;
+
     SQLiteQuery(SQLiteDatabase db, String query, CancellationSignal cancellationSignal) {
         super(db, query, null, cancellationSignal);
 
@@ -62,14 +72,75 @@ public final class SQLiteQuery extends SQLiteProgram {
      * @throws OperationCanceledException if the operation was canceled.
      */
     int fillWindow(CursorWindow window, int startPos, int requiredPos, boolean countAllRows) {
+        return fillWindow(window, startPos, requiredPos, countAllRows, false);
+    }
+
+    /**
+     * Reads rows into a buffer.
+     *
+     * @param window The window to fill into
+     * @param startPos The start position for filling the window.
+     * @param requiredPos The position of a row that MUST be in the window.
+     * If it won't fit, then the query should discard part of what it filled.
+     * @param countAllRows True to count all rows that the query would
+     * return regardless of whether they fit in the window.
+     * @param keepPositioned True to leave the statement on the first row that did not
+     * fit, so that filling the following rows does not step through the earlier ones again.
+     * A fill that starts at {@link #getPositionedRow()} continues from there.
+     * @return Number of rows that were enumerated.  Might not be all rows
+     * unless countAllRows is true.
+     *
+     * @throws SQLiteException if an error occurs.
+     * @throws OperationCanceledException if the operation was canceled.
+     */
+    int fillWindow(CursorWindow window, int startPos, int requiredPos, boolean countAllRows,
+            boolean keepPositioned) {
+        mPositionedRow = -1;
+        int numRows = executeForCursorWindow(window, startPos, requiredPos, countAllRows,
+                keepPositioned ? mResumeKey : null);
+        if (keepPositioned && !countAllRows
+                && numRows > window.getStartPosition() + window.getNumRows()) {
+            // The statement stepped onto the first row that did not fit, and stays there.
+            mPositionedRow = window.getStartPosition() + window.getNumRows();
+        }
+        return numRows;
+    }
+
+    /**
+     * Counts the rows that the query returns by stepping through all of them
+     * without copying any into a window.
+     * <p>
+     * The count runs on the connection of the calling thread's session and leaves the
+     * statement positioned by the last fill alone, so it may be called from a background
+     * thread while the owning cursor keeps using its own.
+     * </p>
+     *
+     * @return The number of rows that the query returns.
+     *
+     * @throws SQLiteException if an error occurs.
+     * @throws OperationCanceledException if the operation was canceled.
+     */
+    int countRows() {
+        CursorWindow window = new CursorWindow(getSql(), COUNT_WINDOW_SIZE);
+        try {
+            // Every row is before the start position, so none is copied
+            return executeForCursorWindow(window, Integer.MAX_VALUE, -1, true, null);
+        } finally {
+            window.close();
+        }
+    }
+
+    // Runs the query into the window without touching the positioned state, which only
+    // fillWindow() updates.
+    private int executeForCursorWindow(CursorWindow window, int startPos, int requiredPos,
+            boolean countAllRows, Object resumeKey) {
         acquireReference();
         try {
             window.acquireReference();
             try {
-                int numRows = getSession().executeForCursorWindow(getSql(), getBindArgs(),
-                        window, startPos, requiredPos, countAllRows, getConnectionFlags(),
-                        mCancellationSignal);
-                return numRows;
+                return getSession().executeForCursorWindow(getSql(), getBindArgs(),
+                        window, startPos, requiredPos, countAllRows, resumeKey,
+                        getConnectionFlags(), mCancellationSignal);
             } catch (SQLiteDatabaseCorruptException ex) {
                 onCorruption(ex);
                 throw ex;
@@ -84,6 +155,28 @@ public final class SQLiteQuery extends SQLiteProgram {
         }
     }
 
+    /**
+     * Returns the row that the last fill left the statement positioned on, or -1 if
+     * it left it reset.
+     */
+    int getPositionedRow() {
+        return mPositionedRow;
+    }
+
+    /**
+     * Makes sure that no later fill resumes the statement left positioned by an earlier
+     * one, and resets it so that it ends its read transaction.  Called when the arguments
+     * change or the cursor no longer needs the rows.
+     */
+    void releasePositionedStatement() {
+        if (mPositionedRow >= 0) {
+            final Object resumeKey = mResumeKey;
+            mResumeKey = new Object();
+            mPositionedRow = -1;
+            getDatabase().resetPositionedStatement(resumeKey);
+        }
+    }
+
     @Override
     public String toString() {
         return "SQLiteQuery: " + getSql();
@@ -171,6 +171,7 @@ public final class SQLiteSession {
     private SQLiteConnection mConnection;
     private int mConnectionFlags;
     private int mConnectionUseCount;
+    private long mConnectionWaitTimeoutMillis = -1;
     private Transaction mTransactionPool;
     private Transaction mTransactionStack;
 
@@ -255,6 +256,18 @@ public final class SQLiteSession {
         return mTransactionStack != null && mTransactionStack.mParent != null;
     }
 
+    /**
+     * Returns true if the session has a transaction in progress that SQLite has already
+     * rolled back, as it does on some errors such as {@link
+     * android.database.sqlite.SQLiteFullException} or a ROLLBACK conflict resolution.
+     * The statements that follow would then run outside of any transaction.
+     *
+     * @return True if the transaction of the session has ended early.
+     */
+    public boolean hasTransactionEnded() {
+        return mTransactionStack != null && mConnection != null && mConnection.isAutoCommit();
+    }
+
     /**
      * Returns true if the session has an active database connection.
      *
@@ -264,6 +277,17 @@ public final class SQLiteSession {
         return mConnection != null;
     }
 
+    /**
+     * Sets how long each connection acquisition of this session waits when all
+     * connections are in use, instead of the connection wait timeout of the database.
+     *
+     * @param timeoutMillis The timeout in milliseconds, 0 to wait as long as it takes,
+     * or negative to use the connection wait timeout of the database.
+     */
+    public void setConnectionWaitTimeout(long timeoutMillis) {
+        mConnectionWaitTimeoutMillis = timeoutMillis;
+    }
+
     /**
      * Begins a transaction.
      * <p>
@@ -321,15 +345,16 @@ public final class SQLiteSession {
                 // Execute SQL might throw a runtime exception.
                 switch (transactionMode) {
                     case TRANSACTION_MODE_IMMEDIATE:
-                        mConnection.execute("BEGIN IMMEDIATE;", null,
+                        mConnection.execute("BEGIN IMMEDIATE;", SQLiteBindArgs.EMPTY,
                                 cancellationSignal); // might throw
                         break;
                     case TRANSACTION_MODE_EXCLUSIVE:
-                        mConnection.execute("BEGIN EXCLUSIVE;", null,
+                        mConnection.execute("BEGIN EXCLUSIVE;", SQLiteBindArgs.EMPTY,
                                 cancellationSignal); // might throw
                         break;
                     default:
-                        mConnection.execute("BEGIN;", null, cancellationSignal); // might throw
+                        mConnection.execute("BEGIN;", SQLiteBindArgs.EMPTY,
+                                cancellationSignal); // might throw
                         break;
                 }
             }
@@ -340,7 +365,8 @@ public final class SQLiteSession {
                     transactionListener.onBegin(); // might throw
                 } catch (RuntimeException ex) {
                     if (mTransactionStack == null) {
-                        mConnection.execute("ROLLBACK;", null, cancellationSignal); // might throw
+                        mConnection.execute("ROLLBACK;", SQLiteBindArgs.EMPTY,
+                                cancellationSignal); // might throw
                     }
                     throw ex;
                 }
@@ -439,9 +465,11 @@ public final class SQLiteSession {
         } else {
             try {
                 if (successful) {
-                    mConnection.execute("COMMIT;", null, cancellationSignal); // might throw
+                    mConnection.execute("COMMIT;", SQLiteBindArgs.EMPTY,
+                            cancellationSignal); // might throw
                 } else {
-                    mConnection.execute("ROLLBACK;", null, cancellationSignal); // might throw
+                    mConnection.execute("ROLLBACK;", SQLiteBindArgs.EMPTY,
+                            cancellationSignal); // might throw
                 }
             } finally {
                 releaseConnection(); // might throw
@@ -611,6 +639,13 @@ public final class SQLiteSession {
      */
     public void execute(String sql, Object[] bindArgs, int connectionFlags,
             CancellationSignal cancellationSignal) {
+        execute(sql, SQLiteBindArgs.of(bindArgs), connectionFlags,
+                cancellationSignal);
+    }
+
+    // Called by SQLiteStatement with its arguments.
+    void execute(String sql, SQLiteBindArgs bindArgs, int connectionFlags,
+            CancellationSignal cancellationSignal) {
         if (sql == null) {
             throw new IllegalArgumentException("sql must not be null.");
         }
@@ -644,6 +679,13 @@ public final class SQLiteSession {
      */
     public long executeForLong(String sql, Object[] bindArgs, int connectionFlags,
             CancellationSignal cancellationSignal) {
+        return executeForLong(sql, SQLiteBindArgs.of(bindArgs), connectionFlags,
+                cancellationSignal);
+    }
+
+    // Called by SQLiteStatement with its arguments.
+    long executeForLong(String sql, SQLiteBindArgs bindArgs, int connectionFlags,
+            CancellationSignal cancellationSignal) {
         if (sql == null) {
             throw new IllegalArgumentException("sql must not be null.");
         }
@@ -677,6 +719,13 @@ public final class SQLiteSession {
      */
     public String executeForString(String sql, Object[] bindArgs, int connectionFlags,
             CancellationSignal cancellationSignal) {
+        return executeForString(sql, SQLiteBindArgs.of(bindArgs), connectionFlags,
+                cancellationSignal);
+    }
+
+    // Called by SQLiteStatement with its arguments.
+    String executeForString(String sql, SQLiteBindArgs bindArgs, int connectionFlags,
+            CancellationSignal cancellationSignal) {
         if (sql == null) {
             throw new IllegalArgumentException("sql must not be null.");
         }
@@ -712,6 +761,13 @@ public final class SQLiteSession {
      */
     public ParcelFileDescriptor executeForBlobFileDescriptor(String sql, Object[] bindArgs,
             int connectionFlags, CancellationSignal cancellationSignal) {
+        return executeForBlobFileDescriptor(sql, SQLiteBindArgs.of(bindArgs), connectionFlags,
+                cancellationSignal);
+    }
+
+    // Called by SQLiteStatement with its arguments.
+    ParcelFileDescriptor executeForBlobFileDescriptor(String sql, SQLiteBindArgs bindArgs,
+            int connectionFlags, CancellationSignal cancellationSignal) {
         if (sql == null) {
             throw new IllegalArgumentException("sql must not be null.");
         }
@@ -746,6 +802,13 @@ public final class SQLiteSession {
      */
     public int executeForChangedRowCount(String sql, Object[] bindArgs, int connectionFlags,
             CancellationSignal cancellationSignal) {
+        return executeForChangedRowCount(sql, SQLiteBindArgs.of(bindArgs), connectionFlags,
+                cancellationSignal);
+    }
+
+    // Called by SQLiteStatement with its arguments.
+    int executeForChangedRowCount(String sql, SQLiteBindArgs bindArgs, int connectionFlags,
+            CancellationSignal cancellationSignal) {
         if (sql == null) {
             throw new IllegalArgumentException("sql must not be null.");
         }
@@ -763,6 +826,102 @@ public final class SQLiteSession {
         }
     }
 
+    /**
+     * Executes a statement once for each row of arguments, and returns the total count
+     * of the number of rows that were changed.  Use for bulk INSERT, UPDATE or DELETE
+     * SQL statements.
+     * <p>
+     * The connection is acquired once for all rows.  If no transaction is in progress,
+     * the rows are executed in a transaction of their own, so that either all or none
+     * of them take effect.
+     * </p>
+     *
+     * @param sql The SQL statement to execute.
+     * @param rows The arguments to bind, one array per execution.
+     * @param connectionFlags The connection flags to use if a connection must be
+     * acquired by this operation.  Refer to {@link SQLiteConnectionPool}.
+     * @param cancellationSignal A signal to cancel the operation in progress, or null if none.
+     * @return The total number of rows that were changed.
+     *
+     * @throws SQLiteException if an error occurs, such as a syntax error
+     * or invalid number of bind arguments.
+     * @throws OperationCanceledException if the operation was canceled.
+     */
+    public int executeBatch(String sql, Object[][] rows, int connectionFlags,
+            CancellationSignal cancellationSignal) {
+        if (sql == null) {
+            throw new IllegalArgumentException("sql must not be null.");
+        }
+        if (rows == null) {
+            throw new IllegalArgumentException("rows must not be null.");
+        }
+
+        return executeBatch(sql, rows, null, connectionFlags, cancellationSignal);
+    }
+
+    /**
+     * Executes a statement once for each row of a batch of values stored by column, and
+     * returns the total count of the number of rows that were changed.  Use for bulk
+     * INSERT, UPDATE or DELETE SQL statements.
+     * <p>
+     * The connection is acquired once for all rows.  If no transaction is in progress,
+     * the rows are executed in a transaction of their own, so that either all or none
+     * of them take effect.
+     * </p>
+     *
+     * @param sql The SQL statement to execute.
+     * @param batch The values to bind, with one column per parameter of the statement.
+     * @param connectionFlags The connection flags to use if a connection must be
+     * acquired by this operation.  Refer to {@link SQLiteConnectionPool}.
+     * @param cancellationSignal A signal to cancel the operation in progress, or null if none.
+     * @return The total number of rows that were changed.
+     *
+     * @throws SQLiteException if an error occurs, such as a syntax error
+     * or invalid number of bind arguments.
+     * @throws OperationCanceledException if the operation was canceled.
+     */
+    public int executeBatch(String sql, ColumnBatch batch, int connectionFlags,
+            CancellationSignal cancellationSignal) {
+        if (sql == null) {
+            throw new IllegalArgumentException("sql must not be null.");
+        }
+        if (batch == null) {
+            throw new IllegalArgumentException("batch must not be null.");
+        }
+
+        return executeBatch(sql, null, batch, connectionFlags, cancellationSignal);
+    }
+
+    // Executes the rows of either kind of batch, whichever is not null, on one connection
+    // and in a transaction of their own if none is in progress.
+    private int executeBatch(String sql, Object[][] rows, ColumnBatch batch,
+            int connectionFlags, CancellationSignal cancellationSignal) {
+        final boolean ownTransaction = !hasTransaction();
+        if (ownTransaction) {
+            beginTransaction(TRANSACTION_MODE_IMMEDIATE, null, connectionFlags,
+                    cancellationSignal); // might throw
+        }
+        try {
+            acquireConnection(sql, connectionFlags, cancellationSignal); // might throw
+            try {
+                final int changedRows = rows != null
+                        ? mConnection.executeBatch(sql, rows, cancellationSignal)
+                        : mConnection.executeBatch(sql, batch,
+                                cancellationSignal); // might throw
+                if (ownTransaction) {
+                    setTransactionSuccessful();
+                }
+                return changedRows;
+            } finally {
+                releaseConnection(); // might throw
+            }
+        } finally {
+            if (ownTransaction) {
+                endTransaction(cancellationSignal); // might throw
+            }
+        }
+    }
+
     /**
      * Executes a statement that returns a count of the number of rows
      * that were changed.  Use for UPDATE or DELETE SQL statements. Does not
@@ -781,6 +940,13 @@ public final class SQLiteSession {
      */
     public void executeRaw(String sql, Object[] bindArgs, int connectionFlags,
                                          CancellationSignal cancellationSignal) {
+        executeRaw(sql, SQLiteBindArgs.of(bindArgs), connectionFlags,
+                cancellationSignal);
+    }
+
+    // Called by SQLiteStatement with its arguments.
+    void executeRaw(String sql, SQLiteBindArgs bindArgs, int connectionFlags,
+            CancellationSignal cancellationSignal) {
         if (sql == null) {
             throw new IllegalArgumentException("sql must not be null.");
         }
@@ -811,6 +977,13 @@ public final class SQLiteSession {
      */
     public long executeForLastInsertedRowId(String sql, Object[] bindArgs, int connectionFlags,
             CancellationSignal cancellationSignal) {
+        return executeForLastInsertedRowId(sql, SQLiteBindArgs.of(bindArgs), connectionFlags,
+                cancellationSignal);
+    }
+
+    // Called by SQLiteStatement with its arguments.
+    long executeForLastInsertedRowId(String sql, SQLiteBindArgs bindArgs, int connectionFlags,
+            CancellationSignal cancellationSignal) {
         if (sql == null) {
             throw new IllegalArgumentException("sql must not be null.");
         }
@@ -855,6 +1028,33 @@ public final class SQLiteSession {
     public int executeForCursorWindow(String sql, Object[] bindArgs,
                                       CursorWindow window, int startPos, int requiredPos, boolean countAllRows,
                                       int connectionFlags, CancellationSignal cancellationSignal) {
+        return executeForCursorWindow(sql, bindArgs, window, startPos, requiredPos,
+                countAllRows, null, connectionFlags, cancellationSignal);
+    }
+
+    /**
+     * Executes a statement and populates the specified {@link CursorWindow}
+     * with a range of results, optionally leaving the statement positioned so that
+     * a later call with the same <code>resumeKey</code> can continue from where this
+     * one stopped.  Refer to
+     * {@link SQLiteConnection#executeForCursorWindow(String, Object[], CursorWindow,
+     * int, int, boolean, Object, CancellationSignal)}.
+     *
+     * @param resumeKey Identifies the caller allowed to resume the statement, or null
+     * to always reset the statement.
+     */
+    public int executeForCursorWindow(String sql, Object[] bindArgs,
+                                      CursorWindow window, int startPos, int requiredPos, boolean countAllRows,
+                                      Object resumeKey, int connectionFlags,
+                                      CancellationSignal cancellationSignal) {
+        return executeForCursorWindow(sql, SQLiteBindArgs.of(bindArgs), window, startPos,
+                requiredPos, countAllRows, resumeKey, connectionFlags, cancellationSignal);
+    }
+
+    // Called by SQLiteQuery with its arguments.
+    int executeForCursorWindow(String sql, SQLiteBindArgs bindArgs,
+            CursorWindow window, int startPos, int requiredPos, boolean countAllRows,
+            Object resumeKey, int connectionFlags, CancellationSignal cancellationSignal) {
         if (sql == null) {
             throw new IllegalArgumentException("sql must not be null.");
         }
@@ -871,7 +1071,7 @@ public final class SQLiteSession {
         try {
             return mConnection.executeForCursorWindow(sql, bindArgs,
                     window, startPos, requiredPos, countAllRows,
-                    cancellationSignal); // might throw
+                    resumeKey, cancellationSignal); // might throw
         } finally {
             releaseConnection(); // might throw
         }
@@ -898,7 +1098,7 @@ public final class SQLiteSession {
      * or invalid number of bind arguments.
      * @throws OperationCanceledException if the operation was canceled.
      */
-    private boolean executeSpecial(String sql, Object[] bindArgs, int connectionFlags,
+    private boolean executeSpecial(String sql, SQLiteBindArgs bindArgs, int connectionFlags,
             CancellationSignal cancellationSignal) {
         if (cancellationSignal != null) {
             cancellationSignal.throwIfCanceled();
@@ -928,7 +1128,7 @@ public final class SQLiteSession {
         if (mConnection == null) {
             assert mConnectionUseCount == 0;
             mConnection = mConnectionPool.acquireConnection(sql, connectionFlags,
-                    cancellationSignal); // might throw
+                    mConnectionWaitTimeoutMillis, cancellationSignal); // might throw
             mConnectionFlags = connectionFlags;
         }
         mConnectionUseCount += 1;
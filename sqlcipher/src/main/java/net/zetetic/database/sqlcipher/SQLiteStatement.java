@@ -97,6 +97,56 @@ public final class SQLiteStatement extends SQLiteProgram implements SupportSQLit
         }
     }
 
+    /**
+     * Execute this SQL statement once for each row of bind arguments, for example to insert
+     * many rows with an INSERT statement.  The database connection is acquired once, and a
+     * single native call binds and executes all rows, which is much faster than calling
+     * {@link #executeInsert} in a loop.  The rows are executed in one transaction unless one
+     * is already in progress.  The arguments bound to this statement are ignored.
+     *
+     * @param rows the bind arguments, one array per execution, each with one value for each
+     * parameter of the statement.  A value may be null, a Boolean, a Number, a String or a
+     * byte[]; any other object is bound as its {@link Object#toString()}.
+     * @return the total number of rows affected by the executions.
+     * @throws android.database.SQLException If the SQL string is invalid for
+     *         some reason, or a row does not have as many values as the statement has
+     *         parameters
+     */
+    public int executeBatch(Object[][] rows) {
+        acquireReference();
+        try {
+            return getSession().executeBatch(getSql(), rows, getConnectionFlags(), null);
+        } catch (SQLiteDatabaseCorruptException ex) {
+            onCorruption(ex);
+            throw ex;
+        } finally {
+            releaseReference();
+        }
+    }
+
+    /**
+     * Execute this SQL statement once for each row of a batch of values stored by column.
+     * Like {@link #executeBatch(Object[][])}, but the values are bound straight from the
+     * primitive arrays of the batch without being boxed.
+     *
+     * @param batch the values, with one column for each parameter of the statement.
+     * @return the total number of rows affected by the executions.
+     * @throws android.database.SQLException If the SQL string is invalid for
+     *         some reason, or the batch does not have as many columns as the statement
+     *         has parameters
+     */
+    public int executeBatch(ColumnBatch batch) {
+        acquireReference();
+        try {
+            return getSession().executeBatch(getSql(), batch, getConnectionFlags(), null);
+        } catch (SQLiteDatabaseCorruptException ex) {
+            onCorruption(ex);
+            throw ex;
+        } finally {
+            releaseReference();
+        }
+    }
+
     /**
      * Execute this SQL statement and return the ID of the row inserted due to this call.
      * The SQL statement should be an INSERT for this to be a useful call.
@@ -40,4 +40,9 @@ public final class SQLiteStatementInfo {
      * True if the statement is read-only.
      */
     public boolean readOnly;
+
+    /**
+     * The map from column names to indices, shared by all users of the statement.
+     */
+    ColumnIndexMap columnIndexMap;
 }
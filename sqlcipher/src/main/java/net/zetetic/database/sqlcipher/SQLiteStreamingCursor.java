@@ -0,0 +1,212 @@
+package net.zetetic.database.sqlcipher;
+
+import android.os.CancellationSignal;
+
+import net.zetetic.database.AbstractWindowedCursor;
+import net.zetetic.database.CursorWindow;
+
+/**
+ * A forward-only Cursor over the results of a query that keeps its connection and
+ * prepared statement for as long as it has rows left to read.
+ * <p>
+ * Each window is filled by stepping the statement from where the previous window
+ * stopped, so reading N rows costs N steps regardless of the window size. The
+ * connection and statement are released as soon as the last row has been read, or
+ * when the cursor is closed.
+ * </p><p>
+ * Rows before the current window can not be revisited, and until the last row has
+ * been read {@link #getCount()} only accounts for the rows read so far plus the next
+ * one.
+ * </p><p>
+ * The cursor takes a connection of its own from the pool rather than sharing the one
+ * of its thread's session, so other operations, those of the creating thread included,
+ * may have to wait for a connection while it is open.  When the pool has a single
+ * connection, as it does without write-ahead logging unless read connection pooling is
+ * enabled, they wait until the cursor has read its last row or is closed.  For the same
+ * reason the cursor can not be opened by a thread that holds a connection, such as in a
+ * transaction.  The cursor may be closed on any thread.
+ * </p>
+ */
+public class SQLiteStreamingCursor extends AbstractWindowedCursor {
+    static final String TAG = "SQLiteStreamingCursor";
+
+    private final SQLiteDatabase mDatabase;
+    private final String mSql;
+    private final String[] mColumns;
+    private final ColumnIndexMap mColumnIndexMap;
+    private final CancellationSignal mCancellationSignal;
+
+    /** The pool, connection and statement held until all rows are read */
+    private final SQLiteConnectionPool mConnectionPool;
+    private SQLiteConnection mConnection;
+    private SQLiteConnection.PreparedStatement mStatement;
+
+    /** The row the statement is positioned on, -1 before the first fill */
+    private int mStepPos = -1;
+
+    /** The number of rows read so far */
+    private int mReadRows;
+
+    /** True once the statement has returned all rows */
+    private boolean mExhausted;
+
+    SQLiteStreamingCursor(SQLiteDatabase db, String sql, Object[] bindArgs,
+            CancellationSignal cancellationSignal) {
+        mDatabase = db;
+        mSql = sql;
+        mCancellationSignal = cancellationSignal;
+
+        db.acquireReference();
+        try {
+            if (db.getThreadSession().hasConnection()) {
+                // The pool could only give us a second connection, which would not see the
+                // changes of the transaction, or wait for the one this thread holds.
+                throw new IllegalStateException("Cannot open a streaming cursor while this "
+                        + "thread holds a connection of the database, such as in a "
+                        + "transaction.");
+            }
+            mConnectionPool = db.getConnectionPool();
+            mConnection = mConnectionPool.acquireConnection(sql,
+                    db.getThreadDefaultConnectionFlags(true /*readOnly*/), cancellationSignal);
+            try {
+                SQLiteStatementInfo info = new SQLiteStatementInfo();
+                mStatement = mConnection.acquireStreamingStatement(sql, bindArgs, info);
+                mColumns = info.columnNames;
+                mColumnIndexMap = info.columnIndexMap;
+            } catch (RuntimeException ex) {
+                mConnectionPool.releaseConnection(mConnection);
+                throw ex;
+            }
+        } catch (RuntimeException ex) {
+            db.releaseReference();
+            throw ex;
+        }
+    }
+
+    /**
+     * Get the database that this cursor is associated with.
+     * @return the SQLiteDatabase that this cursor is associated with.
+     */
+    public SQLiteDatabase getDatabase() {
+        return mDatabase;
+    }
+
+    /**
+     * Returns true once all rows of the query have been read, at which point the
+     * cursor no longer holds a connection and {@link #getCount()} is exact.
+     */
+    public boolean isExhausted() {
+        return mExhausted;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        if (mWindow != null && newPosition >= mWindow.getStartPosition()
+                && newPosition < mWindow.getStartPosition() + mWindow.getNumRows()) {
+            return true;
+        }
+        if (mWindow != null && newPosition < mWindow.getStartPosition()) {
+            // Forward only, the statement can not go back
+            return false;
+        }
+        fillWindow(newPosition);
+        return mWindow != null && newPosition >= mWindow.getStartPosition()
+                && newPosition < mWindow.getStartPosition() + mWindow.getNumRows();
+    }
+
+    @Override
+    public int getCount() {
+        if (mWindow == null && !mExhausted) {
+            fillWindow(0);
+        }
+        // The statement is positioned on a row that did not fit, so there is at least one more
+        return mExhausted ? mReadRows : mReadRows + 1;
+    }
+
+    private void fillWindow(int requiredPos) {
+        if (mExhausted || mConnection == null) {
+            return;
+        }
+        if (mWindow == null) {
+            int windowSize = CursorWindow.PREFERRED_CURSOR_WINDOW_SIZE;
+            mWindow = new CursorWindow(mSql, windowSize);
+            mWindow.setMaxWindowSizeBytes(windowSize);
+        }
+        try {
+            mStepPos = mConnection.executeStreamingForCursorWindow(mStatement, mWindow,
+                    requiredPos, mStepPos, mCancellationSignal);
+        } catch (RuntimeException ex) {
+            // The statement was reset and can not be resumed, so give everything back
+            closeWindow();
+            synchronized (this) {
+                releaseConnection();
+            }
+            throw ex;
+        }
+        mReadRows = mWindow.getStartPosition() + mWindow.getNumRows();
+        if (mStepPos < 0) {
+            mExhausted = true;
+            synchronized (this) {
+                releaseConnection();
+            }
+        }
+    }
+
+    // The connection comes straight from the pool, which is thread-safe, so this may run
+    // on whichever thread closes the cursor.
+    private void releaseConnection() {
+        if (mConnection == null) {
+            return;
+        }
+        final SQLiteConnection connection = mConnection;
+        mConnection = null;
+        try {
+            connection.releaseStreamingStatement(mStatement);
+        } finally {
+            mStatement = null;
+            try {
+                mConnectionPool.releaseConnection(connection);
+            } finally {
+                mDatabase.releaseReference();
+            }
+        }
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        return mColumnIndexMap.getColumnIndex(columnName);
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumns;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        synchronized (this) {
+            releaseConnection();
+        }
+    }
+
+    /**
+     * A streaming cursor can not run its query again.
+     *
+     * @return false
+     */
+    @Override
+    public boolean requery() {
+        return false;
+    }
+
+    /**
+     * A streaming cursor fills its own window, which can not be replaced.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void setWindow(CursorWindow window) {
+        throw new UnsupportedOperationException("A streaming cursor fills its own window");
+    }
+}
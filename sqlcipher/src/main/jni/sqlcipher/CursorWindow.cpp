@@ -24,36 +24,142 @@
 #include <cassert>
 #include <cstring>
 #include <cstdlib>
+#include <algorithm>
+#include <utility>
 
 namespace android {
 
-    CursorWindow::CursorWindow(const char* name, void* data, size_t size, bool readOnly) :
-            mData(data), mSize(size), mReadOnly(readOnly) {
+    std::mutex CursorWindowBufferPool::sLock;
+    std::vector<void*> CursorWindowBufferPool::sFreeBuffers[NUM_CLASSES];
+    CursorWindowBufferPool::Stats CursorWindowBufferPool::sStats = {
+            0, 0, 0, 0, 0, DEFAULT_LIMIT_BYTES };
+
+    size_t CursorWindowBufferPool::classIndex(size_t size) {
+        size_t index = 0;
+        for (size_t classSize = MIN_CLASS_SIZE; classSize < size; classSize <<= 1) {
+            index++;
+        }
+        return index;
+    }
+
+    void* CursorWindowBufferPool::acquire(size_t size, size_t* outCapacity) {
+        if (size > MAX_CLASS_SIZE) {
+            std::lock_guard<std::mutex> lock(sLock);
+            sStats.misses++;
+            *outCapacity = size;
+            return malloc(size);
+        }
+        size_t index = classIndex(size);
+        size_t capacity = MIN_CLASS_SIZE << index;
+        {
+            std::lock_guard<std::mutex> lock(sLock);
+            std::vector<void*>& buffers = sFreeBuffers[index];
+            if (!buffers.empty()) {
+                void* data = buffers.back();
+                buffers.pop_back();
+                sStats.pooledBytes -= capacity;
+                sStats.hits++;
+                *outCapacity = capacity;
+                return data;
+            }
+            sStats.misses++;
+        }
+        *outCapacity = capacity;
+        return malloc(capacity);
+    }
+
+    void CursorWindowBufferPool::release(void* data, size_t capacity) {
+        if (!data) {
+            return;
+        }
+        if (capacity >= MIN_CLASS_SIZE && capacity <= MAX_CLASS_SIZE
+                && (capacity & (capacity - 1)) == 0) {
+            std::lock_guard<std::mutex> lock(sLock);
+            std::vector<void*>& buffers = sFreeBuffers[classIndex(capacity)];
+            if (sStats.pooledBytes + capacity <= sStats.limitBytes
+                    && buffers.size() < MAX_BUFFERS_PER_CLASS) {
+                buffers.push_back(data);
+                sStats.pooledBytes += capacity;
+                sStats.recycled++;
+                return;
+            }
+            sStats.discarded++;
+        }
+        free(data);
+    }
+
+    size_t CursorWindowBufferPool::trimLocked(size_t limitBytes) {
+        size_t freed = 0;
+        // Free the largest buffers first
+        for (size_t index = NUM_CLASSES; index > 0 && sStats.pooledBytes > limitBytes; index--) {
+            std::vector<void*>& buffers = sFreeBuffers[index - 1];
+            size_t capacity = MIN_CLASS_SIZE << (index - 1);
+            while (!buffers.empty() && sStats.pooledBytes > limitBytes) {
+                free(buffers.back());
+                buffers.pop_back();
+                sStats.pooledBytes -= capacity;
+                freed += capacity;
+            }
+        }
+        return freed;
+    }
+
+    size_t CursorWindowBufferPool::trim() {
+        std::lock_guard<std::mutex> lock(sLock);
+        size_t freed = trimLocked(0);
+        if (freed) {
+            ALOGD("Trimmed %zu bytes from the CursorWindow buffer pool", freed);
+        }
+        return freed;
+    }
+
+    void CursorWindowBufferPool::setLimit(size_t limitBytes) {
+        std::lock_guard<std::mutex> lock(sLock);
+        sStats.limitBytes = limitBytes;
+        trimLocked(limitBytes);
+    }
+
+    void CursorWindowBufferPool::getStats(Stats* outStats) {
+        std::lock_guard<std::mutex> lock(sLock);
+        *outStats = sStats;
+    }
+
+    CursorWindow::CursorWindow(const char* name, void* data, size_t size, bool readOnly,
+                               bool columnar) :
+            mData(data), mSize(size), mCapacity(size), mMaxSize(0), mMaxRows(0), mGrowthFactor(0), mReadOnly(readOnly),
+            mColumnar(columnar) {
         mName = strdup(name);
         mHeader = static_cast<Header*>(mData);
     }
 
     CursorWindow::~CursorWindow() {
         free(mName);
-        free(mData);
+        CursorWindowBufferPool::release(mData, mCapacity);
     }
 
     status_t CursorWindow::create(const char* name, size_t size, CursorWindow** outWindow) {
+        return create(name, size, false, outWindow);
+    }
+
+    status_t CursorWindow::create(const char* name, size_t size, bool columnar,
+                                  CursorWindow** outWindow) {
         status_t result;
         size_t requestedSize = size;
-        void* data = malloc(requestedSize);
+        size_t capacity;
+        void* data = CursorWindowBufferPool::acquire(requestedSize, &capacity);
         if (!data) {
             return NO_MEMORY;
         }
-        auto* window = new CursorWindow(name, data, requestedSize, false);
+        auto* window = new CursorWindow(name, data, requestedSize, false, columnar);
+        window->mCapacity = capacity;
         result = window->clear();
         if (!result) {
             ALOGD("Created new CursorWindow: freeOffset=%d, "
-                   "numRows=%d, numColumns=%d, mSize=%zu, mData=%p",
+                   "numRows=%d, numColumns=%d, mSize=%zu, mData=%p, columnar=%d",
                    window->mHeader->freeOffset,
                    window->mHeader->numRows,
                    window->mHeader->numColumns,
-                   window->mSize, window->mData);
+                   window->mSize, window->mData, window->mColumnar);
             *outWindow = window;
             return OK;
         }
@@ -71,6 +177,8 @@ namespace android {
         mHeader->numColumns = 0;
         auto* firstChunk = static_cast<RowSlotChunk*>(offsetToPtr(mHeader->firstChunkOffset));
         firstChunk->nextChunkOffset = 0;
+        mChunkOffsets.clear();
+        mChunkOffsets.push_back(mHeader->firstChunkOffset);
         return OK;
     }
 
@@ -91,11 +199,17 @@ namespace android {
         if (mReadOnly) {
             return INVALID_OPERATION;
         }
+        if (mMaxRows && mHeader->numRows >= mMaxRows) {
+            return NO_MEMORY;
+        }
         // Fill in the row slot
         RowSlot* rowSlot = allocRowSlot();
         if (rowSlot == nullptr) {
             return NO_MEMORY;
         }
+        if (mColumnar) {
+            return allocColumnarRow(mHeader->numRows - 1);
+        }
         // Allocate the slots for the field directory
         size_t fieldDirSize = mHeader->numColumns * sizeof(FieldSlot);
         uint32_t fieldDirOffset = alloc(fieldDirSize, true /*aligned*/);
@@ -113,6 +227,31 @@ namespace android {
         return OK;
     }
 
+    status_t CursorWindow::allocColumnarRow(uint32_t row) {
+        // Rows of the same chunk share one column block, allocated with the first row
+        uint32_t chunkPos = row % ROW_SLOT_CHUNK_NUM_ROWS;
+        uint32_t blockOffset;
+        if (chunkPos == 0) {
+            blockOffset = alloc(mHeader->numColumns * COLUMN_STRIDE, true /*aligned*/);
+            if (!blockOffset) {
+                mHeader->numRows--;
+                ALOGD("The row failed, so back out the new row accounting "
+                      "from allocRowSlot %d", mHeader->numRows);
+                return NO_MEMORY;
+            }
+        } else {
+            blockOffset = getRowSlot(row - 1)->offset;
+        }
+
+        RowSlot* rowSlot = getRowSlot(row);
+        rowSlot->offset = blockOffset;
+        for (uint32_t column = 0; column < mHeader->numColumns; column++) {
+            getColumnTypes(rowSlot, column)[chunkPos] = FIELD_TYPE_NULL;
+            getColumnValues(rowSlot, column)[chunkPos].data.l = 0;
+        }
+        return OK;
+    }
+
     status_t CursorWindow::freeLastRow() {
         if (mReadOnly) {
             return INVALID_OPERATION;
@@ -123,26 +262,93 @@ namespace android {
         return OK;
     }
 
+    status_t CursorWindow::removeLeadingRows(uint32_t count) {
+        if (mReadOnly) {
+            return INVALID_OPERATION;
+        }
+        if (count > mHeader->numRows) {
+            return BAD_VALUE;
+        }
+        // Copy the rows that are kept into a fresh buffer and adopt it
+        CursorWindow* compacted;
+        status_t status = create(mName, mSize, mColumnar, &compacted);
+        if (status) {
+            return status;
+        }
+        uint32_t numColumns = mHeader->numColumns;
+        status = compacted->setNumColumns(numColumns);
+        for (uint32_t row = count; !status && row < mHeader->numRows; row++) {
+            uint32_t newRow = row - count;
+            status = compacted->allocRow();
+            for (uint32_t column = 0; !status && column < numColumns; column++) {
+                FieldSlot fieldSlot;
+                readFieldSlot(row, column, &fieldSlot);
+                if (fieldSlot.type == FIELD_TYPE_STRING || fieldSlot.type == FIELD_TYPE_BLOB) {
+                    status = compacted->putBlobOrString(newRow, column,
+                                                        offsetToPtr(fieldSlot.data.buffer.offset),
+                                                        fieldSlot.data.buffer.size, fieldSlot.type);
+                } else {
+                    status = compacted->writeFieldSlot(newRow, column, fieldSlot);
+                }
+            }
+        }
+        if (status) {
+            ALOGE("Failed to remove %d leading rows from CursorWindow, error=%d", count, status);
+            delete compacted;
+            return status;
+        }
+        ALOGD("Removed %d leading rows from CursorWindow, %d rows left",
+              count, compacted->mHeader->numRows);
+        std::swap(mData, compacted->mData);
+        std::swap(mSize, compacted->mSize);
+        std::swap(mCapacity, compacted->mCapacity);
+        std::swap(mHeader, compacted->mHeader);
+        mChunkOffsets.swap(compacted->mChunkOffsets);
+        delete compacted;
+        return OK;
+    }
+
     status_t CursorWindow::maybeInflate() {
         size_t initialSize = 16 * 1024;
-        size_t newSize = mSize <= initialSize
-                         ? 2048 * 1024
-                         : mSize * 2;
-        uint32_t freeOffset = mHeader->freeOffset;
+        size_t newSize;
+        if (mGrowthFactor > 1) {
+            // Grow by at least a page so that small windows do not creep
+            newSize = std::max(static_cast<size_t>(mSize * mGrowthFactor), mSize + 4096);
+        } else {
+            newSize = mSize <= initialSize
+                      ? 2048 * 1024
+                      : mSize * 2;
+        }
+        // Only the row being added is in the window, it must fit whatever the limit
+        if (mMaxSize && mHeader->numRows > 1) {
+            if (mSize >= mMaxSize) {
+                return NO_MEMORY;
+            }
+            if (newSize > mMaxSize) {
+                newSize = mMaxSize;
+            }
+        }
         ALOGI("Request to resize CursorWindow allocation: current window size %zu bytes, "
               "free space %zu bytes, new window size %zu bytes",
               mSize, freeSpace(), newSize);
-        if((mData = realloc(mData, newSize))){
+        if (newSize > mCapacity) {
+            // Everything in use lies below the free offset, so only that part is copied
+            size_t capacity;
+            void* data = CursorWindowBufferPool::acquire(newSize, &capacity);
+            if (!data) {
+                ALOGE("Failed to resize CursorWindow allocation");
+                return NO_MEMORY;
+            }
+            memcpy(data, mData, mHeader->freeOffset);
+            CursorWindowBufferPool::release(mData, mCapacity);
+            mData = data;
+            mCapacity = capacity;
             mHeader = static_cast<Header*>(mData);
-            mHeader->freeOffset = freeOffset;
-            mSize = newSize;
-            ALOGI("Resized CursorWindow allocation: current window size %zu bytes",
-                  newSize);
-            return OK;
-        } else {
-            ALOGE("Failed to resize CursorWindow allocation");
-            return NO_MEMORY;
         }
+        mSize = newSize;
+        ALOGI("Resized CursorWindow allocation: current window size %zu bytes",
+              newSize);
+        return OK;
     }
 
     uint32_t CursorWindow::alloc(size_t size, bool aligned) { // NOLINT(*-no-recursion)
@@ -170,41 +376,24 @@ namespace android {
     }
 
     CursorWindow::RowSlot* CursorWindow::getRowSlot(uint32_t row) {
-        uint32_t chunkPos = row;
-        auto* chunk = static_cast<RowSlotChunk*>(
-                offsetToPtr(mHeader->firstChunkOffset));
-        while (chunkPos >= ROW_SLOT_CHUNK_NUM_ROWS) {
-            chunk = static_cast<RowSlotChunk*>(offsetToPtr(chunk->nextChunkOffset));
-            chunkPos -= ROW_SLOT_CHUNK_NUM_ROWS;
-        }
-        return &chunk->slots[chunkPos];
+        return &getChunk(row / ROW_SLOT_CHUNK_NUM_ROWS)->slots[row % ROW_SLOT_CHUNK_NUM_ROWS];
     }
 
     CursorWindow::RowSlot* CursorWindow::allocRowSlot() {
-        uint32_t chunkPos = mHeader->numRows;
-        uint32_t chunkOffset = mHeader->firstChunkOffset;
-        auto* chunk = static_cast<RowSlotChunk*>(
-                offsetToPtr(mHeader->firstChunkOffset));
-        while (chunkPos > ROW_SLOT_CHUNK_NUM_ROWS) {
-            chunkOffset = chunk->nextChunkOffset;
-            chunk = static_cast<RowSlotChunk*>(offsetToPtr(chunk->nextChunkOffset));
-            chunkPos -= ROW_SLOT_CHUNK_NUM_ROWS;
-        }
-        if (chunkPos == ROW_SLOT_CHUNK_NUM_ROWS) {
-            if (!chunk->nextChunkOffset) {
-                uint32_t nextChunkOffset = alloc(sizeof(RowSlotChunk), true /*aligned*/);
-                chunk = static_cast<RowSlotChunk*>(offsetToPtr(chunkOffset));
-                chunk->nextChunkOffset = nextChunkOffset;
-                if (!chunk->nextChunkOffset) {
-                    return nullptr;
-                }
+        uint32_t chunkIndex = mHeader->numRows / ROW_SLOT_CHUNK_NUM_ROWS;
+        uint32_t chunkPos = mHeader->numRows % ROW_SLOT_CHUNK_NUM_ROWS;
+        if (chunkIndex == mChunkOffsets.size()) {
+            // Every chunk is full, link a new one at the end of the list
+            uint32_t nextChunkOffset = alloc(sizeof(RowSlotChunk), true /*aligned*/);
+            if (!nextChunkOffset) {
+                return nullptr;
             }
-            chunk = static_cast<RowSlotChunk*>(offsetToPtr(chunk->nextChunkOffset));
-            chunk->nextChunkOffset = 0;
-            chunkPos = 0;
+            getChunk(chunkIndex - 1)->nextChunkOffset = nextChunkOffset;
+            mChunkOffsets.push_back(nextChunkOffset);
+            getChunk(chunkIndex)->nextChunkOffset = 0;
         }
         mHeader->numRows += 1;
-        return &chunk->slots[chunkPos];
+        return &getChunk(chunkIndex)->slots[chunkPos];
     }
 
     CursorWindow::FieldSlot* CursorWindow::getFieldSlot(uint32_t row, uint32_t column) {
@@ -214,6 +403,10 @@ namespace android {
                   row, column, mHeader->numRows, mHeader->numColumns);
             return nullptr;
         }
+        if (mColumnar) {
+            ALOGE("Field slots can not be referenced in a columnar CursorWindow.");
+            return nullptr;
+        }
         RowSlot* rowSlot = getRowSlot(row);
         if (!rowSlot) {
             ALOGE("Failed to find rowSlot for row %d.", row);
@@ -223,6 +416,211 @@ namespace android {
         return &fieldDir[column];
     }
 
+    bool CursorWindow::readFieldSlot(uint32_t row, uint32_t column, FieldSlot* outFieldSlot) {
+        if (!mColumnar) {
+            FieldSlot* fieldSlot = getFieldSlot(row, column);
+            if (!fieldSlot) {
+                return false;
+            }
+            *outFieldSlot = *fieldSlot;
+            return true;
+        }
+        if (row >= mHeader->numRows || column >= mHeader->numColumns) {
+            ALOGE("Failed to read row %d, column %d from a CursorWindow which "
+                  "has %d rows, %d columns.",
+                  row, column, mHeader->numRows, mHeader->numColumns);
+            return false;
+        }
+        RowSlot* rowSlot = getRowSlot(row);
+        uint32_t chunkPos = row % ROW_SLOT_CHUNK_NUM_ROWS;
+        outFieldSlot->type = getColumnTypes(rowSlot, column)[chunkPos];
+        outFieldSlot->data.l = getColumnValues(rowSlot, column)[chunkPos].data.l;
+        return true;
+    }
+
+    status_t CursorWindow::writeFieldSlot(uint32_t row, uint32_t column,
+                                          const FieldSlot& fieldSlot) {
+        if (!mColumnar) {
+            FieldSlot* dest = getFieldSlot(row, column);
+            if (!dest) {
+                return BAD_VALUE;
+            }
+            *dest = fieldSlot;
+            return OK;
+        }
+        if (row >= mHeader->numRows || column >= mHeader->numColumns) {
+            ALOGE("Failed to write row %d, column %d to a CursorWindow which "
+                  "has %d rows, %d columns.",
+                  row, column, mHeader->numRows, mHeader->numColumns);
+            return BAD_VALUE;
+        }
+        RowSlot* rowSlot = getRowSlot(row);
+        uint32_t chunkPos = row % ROW_SLOT_CHUNK_NUM_ROWS;
+        getColumnTypes(rowSlot, column)[chunkPos] = fieldSlot.type;
+        getColumnValues(rowSlot, column)[chunkPos].data.l = fieldSlot.data.l;
+        return OK;
+    }
+
+    static inline void parseNumber(const char* value, int64_t* outValue) {
+        *outValue = strtoll(value, nullptr, 0);
+    }
+
+    static inline void parseNumber(const char* value, double* outValue) {
+        *outValue = strtod(value, nullptr);
+    }
+
+    template <typename T>
+    status_t CursorWindow::copyNumbers(uint32_t row, uint32_t column, uint32_t count,
+                                       T* outValues, uint32_t* outNumCopied) {
+        *outNumCopied = 0;
+        if (row >= mHeader->numRows || column >= mHeader->numColumns) {
+            ALOGE("Failed to read row %d, column %d from a CursorWindow which "
+                  "has %d rows, %d columns.",
+                  row, column, mHeader->numRows, mHeader->numColumns);
+            return BAD_VALUE;
+        }
+        uint32_t total = mHeader->numRows - row < count ? mHeader->numRows - row : count;
+
+        uint32_t chunkIndex = row / ROW_SLOT_CHUNK_NUM_ROWS;
+        uint32_t chunkPos = row % ROW_SLOT_CHUNK_NUM_ROWS;
+        RowSlotChunk* chunk = getChunk(chunkIndex);
+        uint32_t copied = 0;
+        while (copied < total) {
+            if (chunkPos == ROW_SLOT_CHUNK_NUM_ROWS) {
+                chunk = getChunk(++chunkIndex);
+                chunkPos = 0;
+            }
+            RowSlot* rowSlot = &chunk->slots[chunkPos];
+            // A column block covers the rest of the chunk, a field directory a single row
+            uint32_t end = chunkPos + 1;
+            if (mColumnar) {
+                end = chunkPos + (total - copied);
+                if (end > ROW_SLOT_CHUNK_NUM_ROWS) {
+                    end = ROW_SLOT_CHUNK_NUM_ROWS;
+                }
+            }
+            const uint8_t* types = mColumnar ? getColumnTypes(rowSlot, column) : nullptr;
+            const ColumnValue* values = mColumnar ? getColumnValues(rowSlot, column) : nullptr;
+            for (; chunkPos < end; chunkPos++, copied++) {
+                int32_t type;
+                FieldSlot fieldSlot;
+                if (mColumnar) {
+                    type = types[chunkPos];
+                    fieldSlot.data.l = values[chunkPos].data.l;
+                } else {
+                    fieldSlot = static_cast<FieldSlot*>(offsetToPtr(rowSlot->offset))[column];
+                    type = fieldSlot.type;
+                }
+                T value;
+                if (type == FIELD_TYPE_INTEGER) {
+                    value = T(fieldSlot.data.l);
+                } else if (type == FIELD_TYPE_FLOAT) {
+                    value = T(fieldSlot.data.d);
+                } else if (type == FIELD_TYPE_NULL) {
+                    value = 0;
+                } else if (type == FIELD_TYPE_STRING) {
+                    if (fieldSlot.data.buffer.size > 1) {
+                        parseNumber(static_cast<const char*>(
+                                offsetToPtr(fieldSlot.data.buffer.offset)), &value);
+                    } else {
+                        value = 0;
+                    }
+                } else {
+                    *outNumCopied = copied;
+                    return BAD_TYPE;
+                }
+                outValues[copied] = value;
+            }
+        }
+        *outNumCopied = copied;
+        return OK;
+    }
+
+    status_t CursorWindow::copyLongs(uint32_t row, uint32_t column, uint32_t count,
+                                     int64_t* outValues, uint32_t* outNumCopied) {
+        return copyNumbers(row, column, count, outValues, outNumCopied);
+    }
+
+    status_t CursorWindow::copyDoubles(uint32_t row, uint32_t column, uint32_t count,
+                                       double* outValues, uint32_t* outNumCopied) {
+        return copyNumbers(row, column, count, outValues, outNumCopied);
+    }
+
+    status_t CursorWindow::readRows(uint32_t row, uint32_t count, int32_t* outTypes,
+                                    int64_t* outLongs, double* outDoubles,
+                                    int32_t* outOffsets, int32_t* outLengths,
+                                    uint8_t* outData, size_t dataCapacity,
+                                    size_t* inOutDataUsed, uint32_t* outNumRows,
+                                    size_t* outRequiredData) {
+        *outNumRows = 0;
+        *outRequiredData = 0;
+        if (row > mHeader->numRows) {
+            ALOGE("Failed to read row %d from a CursorWindow which has %d rows.",
+                  row, mHeader->numRows);
+            return BAD_VALUE;
+        }
+        uint32_t numColumns = mHeader->numColumns;
+        uint32_t total = mHeader->numRows - row < count ? mHeader->numRows - row : count;
+        size_t dataUsed = *inOutDataUsed;
+        for (uint32_t i = 0; i < total; i++) {
+            // Make sure the bytes of the whole row fit before decoding any field of it
+            size_t rowBytes = 0;
+            for (uint32_t column = 0; column < numColumns; column++) {
+                FieldSlot fieldSlot;
+                readFieldSlot(row + i, column, &fieldSlot);
+                if (fieldSlot.type == FIELD_TYPE_STRING) {
+                    rowBytes += fieldSlot.data.buffer.size ? fieldSlot.data.buffer.size - 1 : 0;
+                } else if (fieldSlot.type == FIELD_TYPE_BLOB) {
+                    rowBytes += fieldSlot.data.buffer.size;
+                }
+            }
+            if (dataUsed + rowBytes > dataCapacity) {
+                *outRequiredData = rowBytes;
+                break;
+            }
+            size_t base = size_t(i) * numColumns;
+            for (uint32_t column = 0; column < numColumns; column++) {
+                FieldSlot fieldSlot;
+                readFieldSlot(row + i, column, &fieldSlot);
+                int32_t type = fieldSlot.type;
+                int64_t l = 0;
+                double d = 0;
+                int32_t offset = 0;
+                int32_t length = 0;
+                if (type == FIELD_TYPE_INTEGER) {
+                    l = fieldSlot.data.l;
+                    d = double(l);
+                } else if (type == FIELD_TYPE_FLOAT) {
+                    d = fieldSlot.data.d;
+                    l = int64_t(d);
+                } else if (type == FIELD_TYPE_STRING || type == FIELD_TYPE_BLOB) {
+                    const char* value = static_cast<const char*>(
+                            offsetToPtr(fieldSlot.data.buffer.offset));
+                    size_t size = fieldSlot.data.buffer.size;
+                    if (type == FIELD_TYPE_STRING) {
+                        if (size > 1) {
+                            l = strtoll(value, nullptr, 0);
+                            d = strtod(value, nullptr);
+                        }
+                        size = size ? size - 1 : 0;
+                    }
+                    memcpy(outData + dataUsed, value, size);
+                    offset = int32_t(dataUsed);
+                    length = int32_t(size);
+                    dataUsed += size;
+                }
+                outTypes[base + column] = type;
+                outLongs[base + column] = l;
+                outDoubles[base + column] = d;
+                outOffsets[base + column] = offset;
+                outLengths[base + column] = length;
+            }
+            *outNumRows = i + 1;
+        }
+        *inOutDataUsed = dataUsed;
+        return OK;
+    }
+
     status_t CursorWindow::putBlob(uint32_t row, uint32_t column, const void* value, size_t size) {
         return putBlobOrString(row, column, value, size, FIELD_TYPE_BLOB);
     }
@@ -242,54 +640,42 @@ namespace android {
             return NO_MEMORY;
         }
         memcpy(offsetToPtr(offset), value, size);
-        FieldSlot* fieldSlot = getFieldSlot(row, column);
-        if (!fieldSlot) {
-            return BAD_VALUE;
-        }
-        fieldSlot->type = type;
-        fieldSlot->data.buffer.offset = offset;
-        fieldSlot->data.buffer.size = size;
-        return OK;
+        FieldSlot fieldSlot;
+        fieldSlot.type = type;
+        fieldSlot.data.buffer.offset = offset;
+        fieldSlot.data.buffer.size = size;
+        return writeFieldSlot(row, column, fieldSlot);
     }
 
     status_t CursorWindow::putLong(uint32_t row, uint32_t column, int64_t value) {
         if (mReadOnly) {
             return INVALID_OPERATION;
         }
-        FieldSlot* fieldSlot = getFieldSlot(row, column);
-        if (!fieldSlot) {
-            return BAD_VALUE;
-        }
-        fieldSlot->type = FIELD_TYPE_INTEGER;
-        fieldSlot->data.l = value;
-        return OK;
+        FieldSlot fieldSlot;
+        fieldSlot.type = FIELD_TYPE_INTEGER;
+        fieldSlot.data.l = value;
+        return writeFieldSlot(row, column, fieldSlot);
     }
 
     status_t CursorWindow::putDouble(uint32_t row, uint32_t column, double value) {
         if (mReadOnly) {
             return INVALID_OPERATION;
         }
-        FieldSlot* fieldSlot = getFieldSlot(row, column);
-        if (!fieldSlot) {
-            return BAD_VALUE;
-        }
-        fieldSlot->type = FIELD_TYPE_FLOAT;
-        fieldSlot->data.d = value;
-        return OK;
+        FieldSlot fieldSlot;
+        fieldSlot.type = FIELD_TYPE_FLOAT;
+        fieldSlot.data.d = value;
+        return writeFieldSlot(row, column, fieldSlot);
     }
 
     status_t CursorWindow::putNull(uint32_t row, uint32_t column) {
         if (mReadOnly) {
             return INVALID_OPERATION;
         }
-        FieldSlot* fieldSlot = getFieldSlot(row, column);
-        if (!fieldSlot) {
-            return BAD_VALUE;
-        }
-        fieldSlot->type = FIELD_TYPE_NULL;
-        fieldSlot->data.buffer.offset = 0;
-        fieldSlot->data.buffer.size = 0;
-        return OK;
+        FieldSlot fieldSlot;
+        fieldSlot.type = FIELD_TYPE_NULL;
+        fieldSlot.data.buffer.offset = 0;
+        fieldSlot.data.buffer.size = 0;
+        return writeFieldSlot(row, column, fieldSlot);
     }
 
 } // namespace android
@@ -21,11 +21,64 @@
 #include "ALog-priv.h"
 #include <cstddef>
 #include <cstdint>
+#include <mutex>
+#include <vector>
 
 #include "Errors.h"
 
 namespace android {
 
+/**
+ * A bounded pool of the buffers backing cursor windows, so that short lived windows
+ * reuse memory instead of going back to the native heap for every query.
+ *
+ * Buffers come in power of two size classes from MIN_CLASS_SIZE to MAX_CLASS_SIZE.
+ * A released buffer is kept for reuse while the pool stays within its byte limit and
+ * the free list of its class is not full; otherwise, and for buffers larger than the
+ * largest class, it is freed.
+ */
+    class CursorWindowBufferPool {
+    public:
+        struct Stats {
+            uint64_t hits;
+            uint64_t misses;
+            uint64_t recycled;
+            uint64_t discarded;
+            size_t pooledBytes;
+            size_t limitBytes;
+        };
+
+        static const size_t MIN_CLASS_SIZE = 16 * 1024;
+        static const size_t MAX_CLASS_SIZE = 8 * 1024 * 1024;
+        static const size_t DEFAULT_LIMIT_BYTES = 4 * 1024 * 1024;
+
+        /**
+         * Returns a buffer of at least size bytes, or null if out of memory. The usable
+         * size of the buffer, which must be passed back to release, is returned in
+         * outCapacity.
+         */
+        static void* acquire(size_t size, size_t* outCapacity);
+        static void release(void* data, size_t capacity);
+
+        /** Frees all pooled buffers and returns the number of bytes freed. */
+        static size_t trim();
+
+        /** Sets the number of bytes the pool may hold, trimming it as needed; 0 disables it. */
+        static void setLimit(size_t limitBytes);
+        static void getStats(Stats* outStats);
+
+    private:
+        static const size_t MAX_BUFFERS_PER_CLASS = 8;
+        static const size_t NUM_CLASSES = 10;
+
+        static std::mutex sLock;
+        static std::vector<void*> sFreeBuffers[NUM_CLASSES];
+        static Stats sStats;
+
+        static size_t classIndex(size_t size);
+        static size_t trimLocked(size_t limitBytes);
+    };
+
 /**
  * This class stores a set of rows from a database in a buffer. The beginning of the
  * window has first chunk of RowSlots, which are offsets to the row directory, followed by
@@ -35,9 +88,18 @@ namespace android {
  * Note that the data types come from sqlite3.h.
  *
  * Strings are stored in UTF-8.
+ *
+ * The window also keeps a directory of the offsets of all chunks outside of the buffer,
+ * so a RowSlot is found by indexing the directory rather than walking the chunk list.
+ *
+ * A window may instead be created with a columnar layout. Each chunk of RowSlots then
+ * points at a single column block holding, for every column, a contiguous array of
+ * values for the rows of that chunk followed by an array of per-row type tags. The tags
+ * double as the null map of the column, and a run of INTEGER or FLOAT values can be
+ * copied out of the window without walking the field directory of each row.
  */
     class CursorWindow {
-        CursorWindow(const char* name, void* data, size_t size, bool readOnly);
+        CursorWindow(const char* name, void* data, size_t size, bool readOnly, bool columnar);
 
     public:
         /* Field types. */
@@ -68,12 +130,34 @@ namespace android {
         ~CursorWindow();
 
         static status_t create(const char* name, size_t size, CursorWindow** outCursorWindow);
+        static status_t create(const char* name, size_t size, bool columnar,
+                               CursorWindow** outCursorWindow);
 
         inline const char* name() { return mName; }
         inline size_t size() const { return mSize; }
         inline size_t freeSpace() { return mSize - mHeader->freeOffset; }
         inline uint32_t getNumRows() { return mHeader->numRows; }
         inline uint32_t getNumColumns() { return mHeader->numColumns; }
+        inline bool isColumnar() const { return mColumnar; }
+
+        /**
+         * Limits how far the window may grow when it runs out of space; 0 removes
+         * the limit. A window may always grow to hold at least one row.
+         */
+        inline void setMaxSize(size_t maxSize) { mMaxSize = maxSize; }
+
+        /**
+         * Limits the number of rows the window holds; 0 removes the limit. Adding a row
+         * past the limit fails as if the window were full.
+         */
+        inline void setMaxRows(uint32_t maxRows) { mMaxRows = maxRows; }
+
+        /**
+         * Sets the factor by which the window grows when it runs out of space. A factor
+         * of 0 restores the default growth from the initial size straight to 2MB, then
+         * doubling.
+         */
+        inline void setGrowthFactor(float growthFactor) { mGrowthFactor = growthFactor; }
 
         status_t clear();
         status_t setNumColumns(uint32_t numColumns);
@@ -84,6 +168,12 @@ namespace android {
          */
         status_t allocRow();
         status_t freeLastRow();
+
+        /**
+         * Removes the first count rows and compacts the remaining rows to the start of
+         * the window, so the caller can keep appending rows to a full window.
+         */
+        status_t removeLeadingRows(uint32_t count);
         status_t maybeInflate();
 
         status_t putBlob(uint32_t row, uint32_t column, const void* value, size_t size);
@@ -94,10 +184,44 @@ namespace android {
 
         /**
          * Gets the field slot at the specified row and column.
-         * Returns null if the requested row or column is not in the window.
+         * Returns null if the requested row or column is not in the window, or
+         * if the window uses the columnar layout; use readFieldSlot instead.
          */
         FieldSlot* getFieldSlot(uint32_t row, uint32_t column);
 
+        /**
+         * Copies the field slot at the specified row and column into outFieldSlot,
+         * regardless of the layout of the window.
+         * Returns false if the requested row or column is not in the window.
+         */
+        bool readFieldSlot(uint32_t row, uint32_t column, FieldSlot* outFieldSlot);
+
+        /**
+         * Copies up to count values of a column, starting at the specified row, as
+         * longs or doubles using the same conversions as the single field getters.
+         * The number of values copied is returned in outNumCopied; it is smaller than
+         * count when the window holds fewer rows. Returns BAD_TYPE when a BLOB is
+         * encountered, in which case outNumCopied is the index of the offending row.
+         */
+        status_t copyLongs(uint32_t row, uint32_t column, uint32_t count,
+                           int64_t* outValues, uint32_t* outNumCopied);
+        status_t copyDoubles(uint32_t row, uint32_t column, uint32_t count,
+                             double* outValues, uint32_t* outNumCopied);
+
+        /**
+         * Decodes up to count whole rows, starting at the specified row, into per-field
+         * arrays laid out row by row: the field type, its value as a long and as a double
+         * using the conversions of the single field getters, and the offset and length in
+         * outData of the bytes of a string (without its terminator) or blob.
+         * Decoding stops early at a row whose bytes do not fit in the dataCapacity bytes
+         * of outData past *inOutDataUsed; outRequiredData is then the size of those bytes,
+         * and 0 otherwise. The number of rows decoded is returned in outNumRows.
+         */
+        status_t readRows(uint32_t row, uint32_t count, int32_t* outTypes, int64_t* outLongs,
+                          double* outDoubles, int32_t* outOffsets, int32_t* outLengths,
+                          uint8_t* outData, size_t dataCapacity, size_t* inOutDataUsed,
+                          uint32_t* outNumRows, size_t* outRequiredData);
+
         static inline int32_t getFieldSlotType(FieldSlot* fieldSlot) {
             return fieldSlot->type;
         }
@@ -144,12 +268,36 @@ namespace android {
             uint32_t nextChunkOffset;
         };
 
+        /* A single value in a column block of a columnar window. */
+        struct ColumnValue {
+            union {
+                double d;
+                int64_t l;
+                struct {
+                    uint32_t offset;
+                    uint32_t size;
+                } buffer;
+            } data;
+        } __attribute((packed));
+
+        /* Bytes used by one column of a column block: the values, then the type tags. */
+        static const size_t COLUMN_STRIDE =
+                ROW_SLOT_CHUNK_NUM_ROWS * (sizeof(ColumnValue) + sizeof(uint8_t));
+
         char* mName;
         void* mData;
         size_t mSize;
+        size_t mCapacity;
+        size_t mMaxSize;
+        uint32_t mMaxRows;
+        float mGrowthFactor;
         bool mReadOnly;
+        bool mColumnar;
         Header* mHeader;
 
+        // Offsets of the RowSlotChunks in list order, indexed by row / ROW_SLOT_CHUNK_NUM_ROWS.
+        std::vector<uint32_t> mChunkOffsets;
+
         inline void* offsetToPtr(uint32_t offset) {
             return static_cast<uint8_t*>(mData) + offset;
         }
@@ -165,11 +313,33 @@ namespace android {
          */
         uint32_t alloc(size_t size, bool aligned = false);
 
+        inline RowSlotChunk* getChunk(uint32_t chunkIndex) {
+            return static_cast<RowSlotChunk*>(offsetToPtr(mChunkOffsets[chunkIndex]));
+        }
+
         RowSlot* getRowSlot(uint32_t row);
         RowSlot* allocRowSlot();
 
+        inline ColumnValue* getColumnValues(RowSlot* rowSlot, uint32_t column) {
+            return static_cast<ColumnValue*>(
+                    offsetToPtr(rowSlot->offset + column * COLUMN_STRIDE));
+        }
+
+        inline uint8_t* getColumnTypes(RowSlot* rowSlot, uint32_t column) {
+            return static_cast<uint8_t*>(
+                    offsetToPtr(rowSlot->offset + column * COLUMN_STRIDE
+                                + ROW_SLOT_CHUNK_NUM_ROWS * sizeof(ColumnValue)));
+        }
+
+        status_t allocColumnarRow(uint32_t row);
+        status_t writeFieldSlot(uint32_t row, uint32_t column, const FieldSlot& fieldSlot);
+
         status_t putBlobOrString(uint32_t row, uint32_t column,
                                  const void* value, size_t size, int32_t type);
+
+        template <typename T>
+        status_t copyNumbers(uint32_t row, uint32_t column, uint32_t count,
+                             T* outValues, uint32_t* outNumCopied);
     };
 
 } // namespace android
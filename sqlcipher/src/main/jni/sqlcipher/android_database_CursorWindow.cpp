@@ -23,6 +23,7 @@
 #include <jni.h>
 #include <cstdio>
 #include <cstdlib>
+#include <cstring>
 #include <unistd.h>
 
 #include "JNIHelp.h"
@@ -56,10 +57,11 @@ namespace android {
         jniThrowException(env, "java/lang/IllegalStateException", buf);
     }
 
-    static jlong nativeCreate(JNIEnv* env, jclass clazz, jstring nameObj, jint cursorWindowSize) {
+    static jlong nativeCreate(JNIEnv* env, jclass clazz, jstring nameObj, jint cursorWindowSize,
+                              jboolean columnar) {
         CursorWindow* window;
         const char* nameStr = env->GetStringUTFChars(nameObj, nullptr);
-        status_t status = CursorWindow::create(nameStr, cursorWindowSize, &window);
+        status_t status = CursorWindow::create(nameStr, cursorWindowSize, columnar, &window);
         env->ReleaseStringUTFChars(nameObj, nameStr);
 
         if (status || !window) {
@@ -94,6 +96,32 @@ namespace android {
         }
     }
 
+    static void nativeSetMaxSize(JNIEnv* env, jclass clazz, jlong windowPtr, jint maxSize) {
+        auto* window = reinterpret_cast<CursorWindow*>(windowPtr);
+        window->setMaxSize(maxSize > 0 ? maxSize : 0);
+    }
+
+    static void nativeSetMaxRows(JNIEnv* env, jclass clazz, jlong windowPtr, jint maxRows) {
+        auto* window = reinterpret_cast<CursorWindow*>(windowPtr);
+        window->setMaxRows(maxRows > 0 ? maxRows : 0);
+    }
+
+    static void nativeSetGrowthFactor(JNIEnv* env, jclass clazz, jlong windowPtr,
+                                      jfloat growthFactor) {
+        auto* window = reinterpret_cast<CursorWindow*>(windowPtr);
+        window->setGrowthFactor(growthFactor > 1 ? growthFactor : 0);
+    }
+
+    static jint nativeGetUsedBytes(JNIEnv* env, jclass clazz, jlong windowPtr) {
+        auto* window = reinterpret_cast<CursorWindow*>(windowPtr);
+        return static_cast<jint>(window->size() - window->freeSpace());
+    }
+
+    static jint nativeGetNumColumns(JNIEnv* env, jclass clazz, jlong windowPtr) {
+        auto* window = reinterpret_cast<CursorWindow*>(windowPtr);
+        return window->getNumColumns();
+    }
+
     static jint nativeGetNumRows(JNIEnv* env, jclass clazz, jlong windowPtr) {
         auto* window = reinterpret_cast<CursorWindow*>(windowPtr);
         return window->getNumRows();
@@ -125,25 +153,25 @@ namespace android {
                               jint row, jint column) {
         auto* window = reinterpret_cast<CursorWindow*>(windowPtr);
         ALOGD("returning column type affinity for %d,%d from %p", row, column, window);
-        CursorWindow::FieldSlot* fieldSlot = window->getFieldSlot(row, column);
-        if (!fieldSlot) {
+        CursorWindow::FieldSlot fieldSlot;
+        if (!window->readFieldSlot(row, column, &fieldSlot)) {
             return CursorWindow::FIELD_TYPE_NULL;
         }
-        return android::CursorWindow::getFieldSlotType(fieldSlot);
+        return android::CursorWindow::getFieldSlotType(&fieldSlot);
     }
 
     static jbyteArray nativeGetBlob(JNIEnv* env, jclass clazz, jlong windowPtr,
                                     jint row, jint column) {
         auto* window = reinterpret_cast<CursorWindow*>(windowPtr);
-        CursorWindow::FieldSlot* fieldSlot = window->getFieldSlot(row, column);
-        if (!fieldSlot) {
+        CursorWindow::FieldSlot fieldSlot;
+        if (!window->readFieldSlot(row, column, &fieldSlot)) {
             throwExceptionWithRowCol(env, row, column);
             return nullptr;
         }
-        int32_t type = android::CursorWindow::getFieldSlotType(fieldSlot);
+        int32_t type = android::CursorWindow::getFieldSlotType(&fieldSlot);
         if (type == CursorWindow::FIELD_TYPE_BLOB || type == CursorWindow::FIELD_TYPE_STRING) {
             size_t size;
-            const void* value = window->getFieldSlotValueBlob(fieldSlot, &size);
+            const void* value = window->getFieldSlotValueBlob(&fieldSlot, &size);
             jbyteArray byteArray = env->NewByteArray(size);
             if (!byteArray) {
                 env->ExceptionClear();
@@ -164,20 +192,88 @@ namespace android {
         return nullptr;
     }
 
+    // Finds the bytes of a STRING or BLOB field, without the terminator of a string.
+    // Returns false with outValue null for NULL, and false with an exception pending for
+    // any other type or a bad row or column.
+    static bool getFieldBytes(JNIEnv* env, CursorWindow* window, jint row, jint column,
+                              const void** outValue, size_t* outSize) {
+        *outValue = nullptr;
+        *outSize = 0;
+        CursorWindow::FieldSlot fieldSlot;
+        if (!window->readFieldSlot(row, column, &fieldSlot)) {
+            throwExceptionWithRowCol(env, row, column);
+            return false;
+        }
+        int32_t type = android::CursorWindow::getFieldSlotType(&fieldSlot);
+        if (type == CursorWindow::FIELD_TYPE_BLOB) {
+            *outValue = window->getFieldSlotValueBlob(&fieldSlot, outSize);
+            return true;
+        } else if (type == CursorWindow::FIELD_TYPE_STRING) {
+            size_t sizeIncludingNull;
+            *outValue = window->getFieldSlotValueString(&fieldSlot, &sizeIncludingNull);
+            *outSize = sizeIncludingNull > 0 ? sizeIncludingNull - 1 : 0;
+            return true;
+        } else if (type == CursorWindow::FIELD_TYPE_INTEGER) {
+            throw_sqlite3_exception(env, "INTEGER data in getFieldBytes ");
+        } else if (type == CursorWindow::FIELD_TYPE_FLOAT) {
+            throw_sqlite3_exception(env, "FLOAT data in getFieldBytes ");
+        } else if (type == CursorWindow::FIELD_TYPE_NULL) {
+            // do nothing
+        } else {
+            throwUnknownTypeException(env, type);
+        }
+        return false;
+    }
+
+    static jint nativeCopyBytesToBuffer(JNIEnv* env, jclass clazz, jlong windowPtr,
+                                        jint row, jint column, jobject bufferObj,
+                                        jint offset, jint length) {
+        auto* window = reinterpret_cast<CursorWindow*>(windowPtr);
+        const void* value;
+        size_t size;
+        if (!getFieldBytes(env, window, row, column, &value, &size)) {
+            return -1;
+        }
+        if (size <= static_cast<size_t>(length)) {
+            auto* buffer = static_cast<uint8_t*>(env->GetDirectBufferAddress(bufferObj));
+            if (!buffer) {
+                throw_sqlite3_exception(env, "Buffer is not a direct buffer");
+                return -1;
+            }
+            memcpy(buffer + offset, value, size);
+        }
+        return static_cast<jint>(size);
+    }
+
+    static jint nativeCopyBytes(JNIEnv* env, jclass clazz, jlong windowPtr,
+                                jint row, jint column, jbyteArray bufferObj,
+                                jint offset, jint length) {
+        auto* window = reinterpret_cast<CursorWindow*>(windowPtr);
+        const void* value;
+        size_t size;
+        if (!getFieldBytes(env, window, row, column, &value, &size)) {
+            return -1;
+        }
+        if (size <= static_cast<size_t>(length)) {
+            env->SetByteArrayRegion(bufferObj, offset, size, static_cast<const jbyte*>(value));
+        }
+        return static_cast<jint>(size);
+    }
+
     extern int utf8ToJavaCharArray(const char* d, jchar v[], jint byteCount);
 
     static jstring nativeGetString(JNIEnv* env, jclass clazz, jlong windowPtr,
                                    jint row, jint column) {
         auto* window = reinterpret_cast<CursorWindow*>(windowPtr);
-        CursorWindow::FieldSlot* fieldSlot = window->getFieldSlot(row, column);
-        if (!fieldSlot) {
+        CursorWindow::FieldSlot fieldSlot;
+        if (!window->readFieldSlot(row, column, &fieldSlot)) {
             throwExceptionWithRowCol(env, row, column);
             return nullptr;
         }
-        int32_t type = android::CursorWindow::getFieldSlotType(fieldSlot);
+        int32_t type = android::CursorWindow::getFieldSlotType(&fieldSlot);
         if (type == CursorWindow::FIELD_TYPE_STRING) {
             size_t sizeIncludingNull;
-            const char* value = window->getFieldSlotValueString(fieldSlot, &sizeIncludingNull);
+            const char* value = window->getFieldSlotValueString(&fieldSlot, &sizeIncludingNull);
             if (sizeIncludingNull <= 1) {
                 return gEmptyString;
             }
@@ -194,12 +290,12 @@ namespace android {
                 return env->NewString(chars, size);
             }
         } else if (type == CursorWindow::FIELD_TYPE_INTEGER) {
-            int64_t value = android::CursorWindow::getFieldSlotValueLong(fieldSlot);
+            int64_t value = android::CursorWindow::getFieldSlotValueLong(&fieldSlot);
             char buf[32];
             snprintf(buf, sizeof(buf), "%" PRId64, value);
             return env->NewStringUTF(buf);
         } else if (type == CursorWindow::FIELD_TYPE_FLOAT) {
-            double value = android::CursorWindow::getFieldSlotValueDouble(fieldSlot);
+            double value = android::CursorWindow::getFieldSlotValueDouble(&fieldSlot);
             char buf[32];
             snprintf(buf, sizeof(buf), "%g", value);
             return env->NewStringUTF(buf);
@@ -217,21 +313,21 @@ namespace android {
     static jlong nativeGetLong(JNIEnv* env, jclass clazz, jlong windowPtr,
                                jint row, jint column) {
         auto* window = reinterpret_cast<CursorWindow*>(windowPtr);
-        CursorWindow::FieldSlot* fieldSlot = window->getFieldSlot(row, column);
-        if (!fieldSlot) {
+        CursorWindow::FieldSlot fieldSlot;
+        if (!window->readFieldSlot(row, column, &fieldSlot)) {
             throwExceptionWithRowCol(env, row, column);
             return 0;
         }
 
-        int32_t type = android::CursorWindow::getFieldSlotType(fieldSlot);
+        int32_t type = android::CursorWindow::getFieldSlotType(&fieldSlot);
         if (type == CursorWindow::FIELD_TYPE_INTEGER) {
-            return android::CursorWindow::getFieldSlotValueLong(fieldSlot);
+            return android::CursorWindow::getFieldSlotValueLong(&fieldSlot);
         } else if (type == CursorWindow::FIELD_TYPE_STRING) {
             size_t sizeIncludingNull;
-            const char* value = window->getFieldSlotValueString(fieldSlot, &sizeIncludingNull);
+            const char* value = window->getFieldSlotValueString(&fieldSlot, &sizeIncludingNull);
             return sizeIncludingNull > 1 ? strtoll(value, NULL, 0) : 0L;
         } else if (type == CursorWindow::FIELD_TYPE_FLOAT) {
-            return jlong(android::CursorWindow::getFieldSlotValueDouble(fieldSlot));
+            return jlong(android::CursorWindow::getFieldSlotValueDouble(&fieldSlot));
         } else if (type == CursorWindow::FIELD_TYPE_NULL) {
             return 0;
         } else if (type == CursorWindow::FIELD_TYPE_BLOB) {
@@ -246,20 +342,20 @@ namespace android {
     static jdouble nativeGetDouble(JNIEnv* env, jclass clazz, jlong windowPtr,
                                    jint row, jint column) {
         auto* window = reinterpret_cast<CursorWindow*>(windowPtr);
-        CursorWindow::FieldSlot* fieldSlot = window->getFieldSlot(row, column);
-        if (!fieldSlot) {
+        CursorWindow::FieldSlot fieldSlot;
+        if (!window->readFieldSlot(row, column, &fieldSlot)) {
             throwExceptionWithRowCol(env, row, column);
             return 0.0;
         }
-        int32_t type = android::CursorWindow::getFieldSlotType(fieldSlot);
+        int32_t type = android::CursorWindow::getFieldSlotType(&fieldSlot);
         if (type == CursorWindow::FIELD_TYPE_FLOAT) {
-            return android::CursorWindow::getFieldSlotValueDouble(fieldSlot);
+            return android::CursorWindow::getFieldSlotValueDouble(&fieldSlot);
         } else if (type == CursorWindow::FIELD_TYPE_STRING) {
             size_t sizeIncludingNull;
-            const char* value = window->getFieldSlotValueString(fieldSlot, &sizeIncludingNull);
+            const char* value = window->getFieldSlotValueString(&fieldSlot, &sizeIncludingNull);
             return sizeIncludingNull > 1 ? strtod(value, NULL) : 0.0;
         } else if (type == CursorWindow::FIELD_TYPE_INTEGER) {
-            return jdouble(android::CursorWindow::getFieldSlotValueLong(fieldSlot));
+            return jdouble(android::CursorWindow::getFieldSlotValueLong(&fieldSlot));
         } else if (type == CursorWindow::FIELD_TYPE_NULL) {
             return 0.0;
         } else if (type == CursorWindow::FIELD_TYPE_BLOB) {
@@ -271,6 +367,92 @@ namespace android {
         }
     }
 
+    static jint nativeCopyLongs(JNIEnv* env, jclass clazz, jlong windowPtr,
+                                jint row, jint column, jlongArray valuesObj, jint offset, jint count) {
+        auto* window = reinterpret_cast<CursorWindow*>(windowPtr);
+        // The copy makes no JNI calls, so the array can be written in place
+        auto* values = static_cast<jlong*>(env->GetPrimitiveArrayCritical(valuesObj, nullptr));
+        if (!values) {
+            return 0;
+        }
+        uint32_t copied;
+        status_t status = window->copyLongs(row, column, count,
+                                            reinterpret_cast<int64_t*>(values + offset), &copied);
+        env->ReleasePrimitiveArrayCritical(valuesObj, values, 0);
+        if (status == BAD_TYPE) {
+            throw_sqlite3_exception(env, "Unable to convert BLOB to long");
+        } else if (status) {
+            throwExceptionWithRowCol(env, row, column);
+        }
+        return copied;
+    }
+
+    static jint nativeCopyDoubles(JNIEnv* env, jclass clazz, jlong windowPtr,
+                                  jint row, jint column, jdoubleArray valuesObj, jint offset, jint count) {
+        auto* window = reinterpret_cast<CursorWindow*>(windowPtr);
+        // The copy makes no JNI calls, so the array can be written in place
+        auto* values = static_cast<jdouble*>(env->GetPrimitiveArrayCritical(valuesObj, nullptr));
+        if (!values) {
+            return 0;
+        }
+        uint32_t copied;
+        status_t status = window->copyDoubles(row, column, count, values + offset, &copied);
+        env->ReleasePrimitiveArrayCritical(valuesObj, values, 0);
+        if (status == BAD_TYPE) {
+            throw_sqlite3_exception(env, "Unable to convert BLOB to double");
+        } else if (status) {
+            throwExceptionWithRowCol(env, row, column);
+        }
+        return copied;
+    }
+
+    static jint nativeReadRows(JNIEnv* env, jclass clazz, jlong windowPtr, jint row, jint count,
+                               jintArray typesObj, jlongArray longsObj, jdoubleArray doublesObj,
+                               jintArray offsetsObj, jintArray lengthsObj, jbyteArray dataObj,
+                               jint firstField, jintArray stateObj) {
+        auto* window = reinterpret_cast<CursorWindow*>(windowPtr);
+        // state holds the bytes of data in use on entry and exit, and on exit the bytes
+        // needed by the row that did not fit
+        jint state[2];
+        env->GetIntArrayRegion(stateObj, 0, 2, state);
+        size_t dataCapacity = env->GetArrayLength(dataObj);
+        size_t dataUsed = state[0];
+        uint32_t numRows = 0;
+        size_t requiredData = 0;
+
+        // The decoding makes no JNI calls, so the arrays can be written in place
+        auto* types = static_cast<jint*>(env->GetPrimitiveArrayCritical(typesObj, nullptr));
+        auto* longs = static_cast<jlong*>(env->GetPrimitiveArrayCritical(longsObj, nullptr));
+        auto* doubles = static_cast<jdouble*>(env->GetPrimitiveArrayCritical(doublesObj, nullptr));
+        auto* offsets = static_cast<jint*>(env->GetPrimitiveArrayCritical(offsetsObj, nullptr));
+        auto* lengths = static_cast<jint*>(env->GetPrimitiveArrayCritical(lengthsObj, nullptr));
+        auto* data = static_cast<jbyte*>(env->GetPrimitiveArrayCritical(dataObj, nullptr));
+        status_t status = NO_MEMORY;
+        if (types && longs && doubles && offsets && lengths && data) {
+            status = window->readRows(row, count, types + firstField,
+                                      reinterpret_cast<int64_t*>(longs + firstField),
+                                      doubles + firstField, offsets + firstField,
+                                      lengths + firstField, reinterpret_cast<uint8_t*>(data),
+                                      dataCapacity, &dataUsed, &numRows, &requiredData);
+        }
+        if (data) env->ReleasePrimitiveArrayCritical(dataObj, data, 0);
+        if (lengths) env->ReleasePrimitiveArrayCritical(lengthsObj, lengths, 0);
+        if (offsets) env->ReleasePrimitiveArrayCritical(offsetsObj, offsets, 0);
+        if (doubles) env->ReleasePrimitiveArrayCritical(doublesObj, doubles, 0);
+        if (longs) env->ReleasePrimitiveArrayCritical(longsObj, longs, 0);
+        if (types) env->ReleasePrimitiveArrayCritical(typesObj, types, 0);
+        if (status == NO_MEMORY) {
+            return 0;
+        } else if (status) {
+            throwExceptionWithRowCol(env, row, 0);
+            return 0;
+        }
+        state[0] = static_cast<jint>(dataUsed);
+        state[1] = static_cast<jint>(requiredData);
+        env->SetIntArrayRegion(stateObj, 0, 2, state);
+        return static_cast<jint>(numRows);
+    }
+
     static jboolean nativePutBlob(JNIEnv* env, jclass clazz, jlong windowPtr,
                                   jbyteArray valueObj, jint row, jint column) {
         auto* window = reinterpret_cast<CursorWindow*>(windowPtr);
@@ -341,10 +523,32 @@ namespace android {
         return true;
     }
 
+    static jint nativeTrimBufferPool(JNIEnv* env, jclass clazz) {
+        return static_cast<jint>(CursorWindowBufferPool::trim());
+    }
+
+    static void nativeSetBufferPoolLimit(JNIEnv* env, jclass clazz, jint limitBytes) {
+        CursorWindowBufferPool::setLimit(limitBytes > 0 ? limitBytes : 0);
+    }
+
+    static void nativeGetBufferPoolStats(JNIEnv* env, jclass clazz, jlongArray statsObj) {
+        CursorWindowBufferPool::Stats stats;
+        CursorWindowBufferPool::getStats(&stats);
+        jlong values[] = {
+                static_cast<jlong>(stats.hits),
+                static_cast<jlong>(stats.misses),
+                static_cast<jlong>(stats.recycled),
+                static_cast<jlong>(stats.discarded),
+                static_cast<jlong>(stats.pooledBytes),
+                static_cast<jlong>(stats.limitBytes),
+        };
+        env->SetLongArrayRegion(statsObj, 0, NELEM(values), values);
+    }
+
     static const JNINativeMethod sMethods[] =
             {
                     /* name, signature, funcPtr */
-                    { "nativeCreate", "(Ljava/lang/String;I)J",
+                    { "nativeCreate", "(Ljava/lang/String;IZ)J",
                             (void*)nativeCreate },
                     { "nativeDispose", "(J)V",
                             (void*)nativeDispose },
@@ -352,6 +556,16 @@ namespace android {
                             (void*)nativeGetName },
                     { "nativeClear", "(J)V",
                             (void*)nativeClear },
+                    { "nativeSetMaxSize", "(JI)V",
+                            (void*)nativeSetMaxSize },
+                    { "nativeSetMaxRows", "(JI)V",
+                            (void*)nativeSetMaxRows },
+                    { "nativeSetGrowthFactor", "(JF)V",
+                            (void*)nativeSetGrowthFactor },
+                    { "nativeGetUsedBytes", "(J)I",
+                            (void*)nativeGetUsedBytes },
+                    { "nativeGetNumColumns", "(J)I",
+                            (void*)nativeGetNumColumns },
                     { "nativeGetNumRows", "(J)I",
                             (void*)nativeGetNumRows },
                     { "nativeSetNumColumns", "(JI)Z",
@@ -364,12 +578,22 @@ namespace android {
                             (void*)nativeGetType },
                     { "nativeGetBlob", "(JII)[B",
                             (void*)nativeGetBlob },
+                    { "nativeCopyBytesToBuffer", "(JIILjava/nio/ByteBuffer;II)I",
+                            (void*)nativeCopyBytesToBuffer },
+                    { "nativeCopyBytes", "(JII[BII)I",
+                            (void*)nativeCopyBytes },
                     { "nativeGetString", "(JII)Ljava/lang/String;",
                             (void*)nativeGetString },
                     { "nativeGetLong", "(JII)J",
                             (void*)nativeGetLong },
                     { "nativeGetDouble", "(JII)D",
                             (void*)nativeGetDouble },
+                    { "nativeCopyLongs", "(JII[JII)I",
+                            (void*)nativeCopyLongs },
+                    { "nativeReadRows", "(JII[I[J[D[I[I[BI[I)I",
+                            (void*)nativeReadRows },
+                    { "nativeCopyDoubles", "(JII[DII)I",
+                            (void*)nativeCopyDoubles },
                     { "nativePutBlob", "(J[BII)Z",
                             (void*)nativePutBlob },
                     { "nativePutString", "(JLjava/lang/String;II)Z",
@@ -380,6 +604,12 @@ namespace android {
                             (void*)nativePutDouble },
                     { "nativePutNull", "(JII)Z",
                             (void*)nativePutNull },
+                    { "nativeTrimBufferPool", "()I",
+                            (void*)nativeTrimBufferPool },
+                    { "nativeSetBufferPoolLimit", "(I)V",
+                            (void*)nativeSetBufferPoolLimit },
+                    { "nativeGetBufferPoolStats", "([J)V",
+                            (void*)nativeGetBufferPoolStats },
             };
 
     int register_android_database_CursorWindow(JNIEnv* env)
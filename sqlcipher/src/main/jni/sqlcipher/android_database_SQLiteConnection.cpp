@@ -35,6 +35,7 @@
 #include "android_database_SQLiteCommon.h"
 #include "CursorWindow.h"
 #include <string>
+#include <vector>
 
 // Set to 1 to use UTF16 storage for localized indexes.
 #define UTF16_STORAGE 0
@@ -349,8 +350,86 @@ static void nativeRegisterLocalizedCollators(JNIEnv* env, jclass clazz, jlong co
   /* Localized collators are not supported. */
 }
 
+// Statement types, must be kept in sync with the STATEMENT_* constants of DatabaseUtils.
+enum {
+    STATEMENT_SELECT = 1,
+    STATEMENT_UPDATE = 2,
+    STATEMENT_ATTACH = 3,
+    STATEMENT_BEGIN = 4,
+    STATEMENT_COMMIT = 5,
+    STATEMENT_ABORT = 6,
+    STATEMENT_PRAGMA = 7,
+    STATEMENT_DDL = 8,
+    STATEMENT_UNPREPARED = 9,
+    STATEMENT_OTHER = 99,
+};
+
+// Indices of the values written by nativePrepareStatement,
+// must be kept in sync with SQLiteConnection.
+enum {
+    STATEMENT_INFO_NUM_PARAMETERS = 0,
+    STATEMENT_INFO_READ_ONLY = 1,
+    STATEMENT_INFO_COLUMN_COUNT = 2,
+    STATEMENT_INFO_TYPE = 3,
+    STATEMENT_INFO_MEMORY_USED = 4,
+    STATEMENT_INFO_SIZE = 5,
+};
+
+static inline bool prefixIs(const jchar* p, char a, char b, char c) {
+    return (p[0] & ~0x20) == a && (p[1] & ~0x20) == b && (p[2] & ~0x20) == c;
+}
+
+// Classifies a statement by the first three letters of its SQL as
+// DatabaseUtils.getSqlStatementType does.  Of the statements it would not
+// recognize, only EXPLAIN and the read-only WITH and VALUES statements that
+// return rows are reported as queries.  Anything else, including SAVEPOINT and
+// RELEASE, which SQLite considers read-only, is STATEMENT_OTHER.
+static int getStatementType(const jchar* sql, jsize length, sqlite3_stmt* statement) {
+    jsize start = 0;
+    while (start < length && sql[start] <= ' ') {
+        start++;
+    }
+    while (length > start && sql[length - 1] <= ' ') {
+        length--;
+    }
+    if (length - start < 3) {
+        return STATEMENT_OTHER;
+    }
+    const jchar* p = sql + start;
+    if (prefixIs(p, 'S', 'E', 'L')) {
+        return STATEMENT_SELECT;
+    } else if (prefixIs(p, 'I', 'N', 'S') || prefixIs(p, 'U', 'P', 'D')
+            || prefixIs(p, 'R', 'E', 'P') || prefixIs(p, 'D', 'E', 'L')) {
+        return STATEMENT_UPDATE;
+    } else if (prefixIs(p, 'A', 'T', 'T')) {
+        return STATEMENT_ATTACH;
+    } else if (prefixIs(p, 'C', 'O', 'M') || prefixIs(p, 'E', 'N', 'D')) {
+        return STATEMENT_COMMIT;
+    } else if (prefixIs(p, 'R', 'O', 'L')) {
+        return STATEMENT_ABORT;
+    } else if (prefixIs(p, 'B', 'E', 'G')) {
+        return STATEMENT_BEGIN;
+    } else if (prefixIs(p, 'P', 'R', 'A')) {
+        return STATEMENT_PRAGMA;
+    } else if (prefixIs(p, 'C', 'R', 'E') || prefixIs(p, 'D', 'R', 'O')
+            || prefixIs(p, 'A', 'L', 'T')) {
+        return STATEMENT_DDL;
+    } else if (prefixIs(p, 'A', 'N', 'A') || prefixIs(p, 'D', 'E', 'T')) {
+        return STATEMENT_UNPREPARED;
+    } else if (statement == NULL) {
+        return STATEMENT_OTHER;
+    } else if (prefixIs(p, 'E', 'X', 'P')) {
+        return sqlite3_stmt_isexplain(statement) ? STATEMENT_SELECT : STATEMENT_OTHER;
+    } else if (prefixIs(p, 'W', 'I', 'T') || prefixIs(p, 'V', 'A', 'L')) {
+        // WITH may also start an INSERT, UPDATE or DELETE.
+        return sqlite3_stmt_readonly(statement) && sqlite3_column_count(statement) > 0
+                ? STATEMENT_SELECT : STATEMENT_OTHER;
+    }
+    return STATEMENT_OTHER;
+}
+
 static jlong nativePrepareStatement(JNIEnv* env, jclass clazz, jlong connectionPtr,
-        jstring sqlString) {
+        jstring sqlString, jintArray infoArray) {
     auto* connection = reinterpret_cast<SQLiteConnection*>(connectionPtr);
 
     jsize sqlLength = env->GetStringLength(sqlString);
@@ -358,6 +437,10 @@ static jlong nativePrepareStatement(JNIEnv* env, jclass clazz, jlong connectionP
     sqlite3_stmt* statement;
     int err = sqlite3_prepare16_v2(connection->db,
             sql, sqlLength * sizeof(jchar), &statement, NULL);
+    jint info[STATEMENT_INFO_SIZE];
+    if (err == SQLITE_OK) {
+        info[STATEMENT_INFO_TYPE] = getStatementType(sql, sqlLength, statement);
+    }
     env->ReleaseStringChars(sqlString, sql);
 
     if (err != SQLITE_OK) {
@@ -376,6 +459,14 @@ static jlong nativePrepareStatement(JNIEnv* env, jclass clazz, jlong connectionP
         return 0;
     }
 
+    info[STATEMENT_INFO_NUM_PARAMETERS] = sqlite3_bind_parameter_count(statement);
+    info[STATEMENT_INFO_READ_ONLY] = sqlite3_stmt_readonly(statement) != 0;
+    info[STATEMENT_INFO_COLUMN_COUNT] = sqlite3_column_count(statement);
+    // The statement is null if the SQL holds no statement, only comments or white space.
+    info[STATEMENT_INFO_MEMORY_USED] = statement != NULL
+            ? sqlite3_stmt_status(statement, SQLITE_STMTSTATUS_MEMUSED, 0) : 0;
+    env->SetIntArrayRegion(infoArray, 0, STATEMENT_INFO_SIZE, info);
+
     ALOGV("Prepared statement %p on connection %p", statement, connection->db);
     return reinterpret_cast<jlong>(statement);
 }
@@ -392,16 +483,16 @@ static void nativeFinalizeStatement(JNIEnv* env, jclass clazz, jlong connectionP
     sqlite3_finalize(statement);
 }
 
-static jint nativeGetParameterCount(JNIEnv* env, jclass clazz, jlong connectionPtr,
+static jint nativeGetStatementMemoryUsed(JNIEnv* env, jclass clazz, jlong connectionPtr,
         jlong statementPtr) {
     auto* statement = reinterpret_cast<sqlite3_stmt*>(statementPtr);
-    return sqlite3_bind_parameter_count(statement);
+    return sqlite3_stmt_status(statement, SQLITE_STMTSTATUS_MEMUSED, 0);
 }
 
-static jboolean nativeIsReadOnly(JNIEnv* env, jclass clazz, jlong connectionPtr,
+static jint nativeGetReprepareCount(JNIEnv* env, jclass clazz, jlong connectionPtr,
         jlong statementPtr) {
     auto* statement = reinterpret_cast<sqlite3_stmt*>(statementPtr);
-    return sqlite3_stmt_readonly(statement) != 0;
+    return sqlite3_stmt_status(statement, SQLITE_STMTSTATUS_REPREPARE, 0);
 }
 
 static jint nativeGetColumnCount(JNIEnv* env, jclass clazz, jlong connectionPtr,
@@ -535,6 +626,311 @@ static jint nativeExecuteForChangedRowCount(JNIEnv* env, jclass clazz,
     return err == SQLITE_DONE ? sqlite3_changes(connection->db) : -1;
 }
 
+// The type tags of the values of nativeBindAll and nativeExecuteBatch, the same as
+// Cursor.FIELD_TYPE_*.
+enum {
+    BIND_TYPE_NULL = 0,
+    BIND_TYPE_INTEGER = 1,
+    BIND_TYPE_FLOAT = 2,
+    BIND_TYPE_STRING = 3,
+    BIND_TYPE_BLOB = 4,
+};
+
+// The values of nativeExecuteBatch and how many of each type have been bound so far.
+struct BatchValues {
+    const jbyte* types;
+    const jlong* longs;
+    const jdouble* doubles;
+    jobjectArray objects;
+    int nextType;
+    int nextLong;
+    int nextDouble;
+    int nextObject;
+};
+
+// Binds a String element of an object array, or NULL if the element is null.
+static int bindStringElement(JNIEnv* env, sqlite3_stmt* statement, int index,
+        jobjectArray objects, int element) {
+    auto valueString = static_cast<jstring>(env->GetObjectArrayElement(objects, element));
+    if (valueString == NULL) {
+        return sqlite3_bind_null(statement, index);
+    }
+    jsize valueLength = env->GetStringLength(valueString);
+    const jchar* value = env->GetStringChars(valueString, NULL);
+    if (value == NULL) {
+        return SQLITE_NOMEM; // OutOfMemoryError pending
+    }
+    int err = sqlite3_bind_text16(statement, index, value, valueLength * sizeof(jchar),
+            SQLITE_TRANSIENT);
+    env->ReleaseStringChars(valueString, value);
+    env->DeleteLocalRef(valueString);
+    return err;
+}
+
+// Binds a byte[] element of an object array, or NULL if the element is null.
+static int bindBlobElement(JNIEnv* env, sqlite3_stmt* statement, int index,
+        jobjectArray objects, int element) {
+    auto valueArray = static_cast<jbyteArray>(env->GetObjectArrayElement(objects, element));
+    if (valueArray == NULL) {
+        return sqlite3_bind_null(statement, index);
+    }
+    jsize valueLength = env->GetArrayLength(valueArray);
+    jbyte* value = static_cast<jbyte*>(env->GetByteArrayElements(valueArray, NULL));
+    if (value == NULL) {
+        return SQLITE_NOMEM; // OutOfMemoryError pending
+    }
+    int err = sqlite3_bind_blob(statement, index, value, valueLength, SQLITE_TRANSIENT);
+    env->ReleaseByteArrayElements(valueArray, value, JNI_ABORT);
+    env->DeleteLocalRef(valueArray);
+    return err;
+}
+
+static void nativeBindAll(JNIEnv* env, jclass clazz, jlong connectionPtr,
+        jlong statementPtr, jlongArray longsArray, jdoubleArray doublesArray,
+        jobjectArray objectsArray, jbyteArray typesArray) {
+    auto* connection = reinterpret_cast<SQLiteConnection*>(connectionPtr);
+    auto* statement = reinterpret_cast<sqlite3_stmt*>(statementPtr);
+    const int count = sqlite3_bind_parameter_count(statement);
+
+    jbyte* types = env->GetByteArrayElements(typesArray, NULL);
+    jlong* longs = env->GetLongArrayElements(longsArray, NULL);
+    jdouble* doubles = env->GetDoubleArrayElements(doublesArray, NULL);
+
+    int err = SQLITE_OK;
+    if (types == NULL || longs == NULL || doubles == NULL) {
+        err = SQLITE_NOMEM; // OutOfMemoryError pending
+    }
+    for (int i = 0; i < count && err == SQLITE_OK; i++) {
+        switch (types[i]) {
+            case BIND_TYPE_NULL:
+                err = sqlite3_bind_null(statement, i + 1);
+                break;
+            case BIND_TYPE_INTEGER:
+                err = sqlite3_bind_int64(statement, i + 1, longs[i]);
+                break;
+            case BIND_TYPE_FLOAT:
+                err = sqlite3_bind_double(statement, i + 1, doubles[i]);
+                break;
+            case BIND_TYPE_BLOB:
+                err = bindBlobElement(env, statement, i + 1, objectsArray, i);
+                break;
+            default:
+                err = bindStringElement(env, statement, i + 1, objectsArray, i);
+                break;
+        }
+    }
+
+    if (types != NULL) {
+        env->ReleaseByteArrayElements(typesArray, types, JNI_ABORT);
+    }
+    if (longs != NULL) {
+        env->ReleaseLongArrayElements(longsArray, longs, JNI_ABORT);
+    }
+    if (doubles != NULL) {
+        env->ReleaseDoubleArrayElements(doublesArray, doubles, JNI_ABORT);
+    }
+
+    if (err != SQLITE_OK && !env->ExceptionCheck()) {
+        throw_sqlite3_exception(env, connection->db, NULL);
+    }
+}
+
+static int bindBatchRow(JNIEnv* env, sqlite3_stmt* statement, int count, BatchValues* values) {
+    int err = SQLITE_OK;
+    for (int index = 1; index <= count && err == SQLITE_OK; index++) {
+        switch (values->types[values->nextType++]) {
+            case BIND_TYPE_NULL:
+                err = sqlite3_bind_null(statement, index);
+                break;
+            case BIND_TYPE_INTEGER:
+                err = sqlite3_bind_int64(statement, index, values->longs[values->nextLong++]);
+                break;
+            case BIND_TYPE_FLOAT:
+                err = sqlite3_bind_double(statement, index, values->doubles[values->nextDouble++]);
+                break;
+            case BIND_TYPE_BLOB:
+                err = bindBlobElement(env, statement, index, values->objects,
+                        values->nextObject++);
+                break;
+            default:
+                err = bindStringElement(env, statement, index, values->objects,
+                        values->nextObject++);
+                break;
+        }
+    }
+    return err;
+}
+
+// Throws the exception for the error that stopped a batch, if any, or returns the number
+// of rows the batch changed.
+static jint finishBatch(JNIEnv* env, SQLiteConnection* connection, int err, jint changes) {
+    if (env->ExceptionCheck()) {
+        return -1;
+    }
+    if (err == SQLITE_ROW) {
+        throw_sqlite3_exception(env,
+                "Queries can be performed using SQLiteDatabase query or rawQuery methods only.");
+        return -1;
+    }
+    if (err != SQLITE_OK) {
+        throw_sqlite3_exception(env, connection->db);
+        return -1;
+    }
+    return changes;
+}
+
+static jint nativeExecuteBatch(JNIEnv* env, jclass clazz, jlong connectionPtr,
+        jlong statementPtr, jint rowCount, jbyteArray typesArray, jlongArray longsArray,
+        jdoubleArray doublesArray, jobjectArray objectsArray) {
+    auto* connection = reinterpret_cast<SQLiteConnection*>(connectionPtr);
+    auto* statement = reinterpret_cast<sqlite3_stmt*>(statementPtr);
+    const int count = sqlite3_bind_parameter_count(statement);
+
+    BatchValues values = {};
+    values.types = env->GetByteArrayElements(typesArray, NULL);
+    values.longs = env->GetLongArrayElements(longsArray, NULL);
+    values.doubles = env->GetDoubleArrayElements(doublesArray, NULL);
+    values.objects = objectsArray;
+
+    jint changes = 0;
+    int err = SQLITE_OK;
+    if (values.types == NULL || values.longs == NULL || values.doubles == NULL) {
+        err = SQLITE_NOMEM; // OutOfMemoryError pending
+    }
+    for (int row = 0; row < rowCount && err == SQLITE_OK; row++) {
+        err = bindBatchRow(env, statement, count, &values);
+        if (err != SQLITE_OK) {
+            break;
+        }
+        err = sqlite3_step(statement);
+        if (err != SQLITE_DONE) {
+            break;
+        }
+        changes += sqlite3_changes(connection->db);
+        err = sqlite3_reset(statement);
+    }
+
+    if (values.types != NULL) {
+        env->ReleaseByteArrayElements(typesArray, const_cast<jbyte*>(values.types), JNI_ABORT);
+    }
+    if (values.longs != NULL) {
+        env->ReleaseLongArrayElements(longsArray, const_cast<jlong*>(values.longs), JNI_ABORT);
+    }
+    if (values.doubles != NULL) {
+        env->ReleaseDoubleArrayElements(doublesArray, const_cast<jdouble*>(values.doubles),
+                JNI_ABORT);
+    }
+
+    return finishBatch(env, connection, err, changes);
+}
+
+// A column of nativeExecuteColumnBatch, with the elements of its primitive arrays.
+struct BatchColumn {
+    int type;
+    jobject values;
+    void* elements;
+    jlongArray nullBitsArray;
+    jlong* nullBits;
+    jsize nullWords;
+};
+
+static jint nativeExecuteColumnBatch(JNIEnv* env, jclass clazz, jlong connectionPtr,
+        jlong statementPtr, jint rowCount, jbyteArray typesArray, jobjectArray columnsArray,
+        jobjectArray nullBitsArray) {
+    auto* connection = reinterpret_cast<SQLiteConnection*>(connectionPtr);
+    auto* statement = reinterpret_cast<sqlite3_stmt*>(statementPtr);
+    const jsize count = env->GetArrayLength(typesArray);
+
+    int err = SQLITE_OK;
+    std::vector<BatchColumn> columns(count);
+    jbyte* types = env->GetByteArrayElements(typesArray, NULL);
+    if (types == NULL) {
+        err = SQLITE_NOMEM; // OutOfMemoryError pending
+    }
+    for (jsize i = 0; i < count && err == SQLITE_OK; i++) {
+        BatchColumn& column = columns[i];
+        column.type = types[i];
+        column.values = env->GetObjectArrayElement(columnsArray, i);
+        if (column.type == BIND_TYPE_INTEGER) {
+            column.elements = env->GetLongArrayElements(
+                    static_cast<jlongArray>(column.values), NULL);
+        } else if (column.type == BIND_TYPE_FLOAT) {
+            column.elements = env->GetDoubleArrayElements(
+                    static_cast<jdoubleArray>(column.values), NULL);
+        }
+        column.nullBitsArray = static_cast<jlongArray>(
+                env->GetObjectArrayElement(nullBitsArray, i));
+        if (column.nullBitsArray != NULL) {
+            column.nullWords = env->GetArrayLength(column.nullBitsArray);
+            column.nullBits = env->GetLongArrayElements(column.nullBitsArray, NULL);
+        }
+        if (env->ExceptionCheck()) {
+            err = SQLITE_NOMEM; // OutOfMemoryError pending
+        }
+    }
+
+    jint changes = 0;
+    for (int row = 0; row < rowCount && err == SQLITE_OK; row++) {
+        const int word = row >> 6;
+        const jlong bit = jlong(1) << (row & 63);
+        for (jsize i = 0; i < count && err == SQLITE_OK; i++) {
+            const BatchColumn& column = columns[i];
+            const int index = i + 1;
+            if (column.nullBits != NULL && word < column.nullWords
+                    && (column.nullBits[word] & bit) != 0) {
+                err = sqlite3_bind_null(statement, index);
+                continue;
+            }
+            switch (column.type) {
+                case BIND_TYPE_INTEGER:
+                    err = sqlite3_bind_int64(statement, index,
+                            static_cast<jlong*>(column.elements)[row]);
+                    break;
+                case BIND_TYPE_FLOAT:
+                    err = sqlite3_bind_double(statement, index,
+                            static_cast<jdouble*>(column.elements)[row]);
+                    break;
+                case BIND_TYPE_BLOB:
+                    err = bindBlobElement(env, statement, index,
+                            static_cast<jobjectArray>(column.values), row);
+                    break;
+                default:
+                    err = bindStringElement(env, statement, index,
+                            static_cast<jobjectArray>(column.values), row);
+                    break;
+            }
+        }
+        if (err != SQLITE_OK) {
+            break;
+        }
+        err = sqlite3_step(statement);
+        if (err != SQLITE_DONE) {
+            break;
+        }
+        changes += sqlite3_changes(connection->db);
+        err = sqlite3_reset(statement);
+    }
+
+    for (jsize i = 0; i < count; i++) {
+        BatchColumn& column = columns[i];
+        if (column.elements != NULL && column.type == BIND_TYPE_INTEGER) {
+            env->ReleaseLongArrayElements(static_cast<jlongArray>(column.values),
+                    static_cast<jlong*>(column.elements), JNI_ABORT);
+        } else if (column.elements != NULL && column.type == BIND_TYPE_FLOAT) {
+            env->ReleaseDoubleArrayElements(static_cast<jdoubleArray>(column.values),
+                    static_cast<jdouble*>(column.elements), JNI_ABORT);
+        }
+        if (column.nullBits != NULL) {
+            env->ReleaseLongArrayElements(column.nullBitsArray, column.nullBits, JNI_ABORT);
+        }
+    }
+    if (types != NULL) {
+        env->ReleaseByteArrayElements(typesArray, types, JNI_ABORT);
+    }
+
+    return finishBatch(env, connection, err, changes);
+}
+
 static jlong nativeExecuteForLastInsertedRowId(JNIEnv* env, jclass clazz,
         jlong connectionPtr, jlong statementPtr) {
     auto* connection = reinterpret_cast<SQLiteConnection*>(connectionPtr);
@@ -706,7 +1102,9 @@ static jlong nativeExecuteForCursorWindow(
         jlong windowPtr,
         jint startPos,
         jint requiredPos,
-        jboolean countAllRows){
+        jboolean countAllRows,
+        jint stepPos,
+        jboolean keepPositioned){
     auto* connection = reinterpret_cast<SQLiteConnection*>(connectionPtr);
     auto* statement = reinterpret_cast<sqlite3_stmt*>(statementPtr);
     auto* window = reinterpret_cast<CursorWindow*>(windowPtr);
@@ -726,8 +1124,18 @@ static jlong nativeExecuteForCursorWindow(
     int addedRows = 0;
     bool windowFull = false;
     bool gotException = false;
+    // A previous call may have left the statement on row stepPos without copying it.
+    // Resume from there rather than stepping from row 0.  The caller passes a stepPos
+    // only when it is not past startPos, and otherwise resets and binds the statement.
+    bool pendingRow = false;
+    if (stepPos >= 0) {
+        ALOGD("Resuming statement %p at row %d", statement, stepPos);
+        totalRows = stepPos;
+        pendingRow = true;
+    }
     while (!gotException && (!windowFull || countAllRows)) {
-        int err = sqlite3_step(statement);
+        int err = pendingRow ? SQLITE_ROW : sqlite3_step(statement);
+        pendingRow = false;
         if (err == SQLITE_ROW) {
             ALOGD("Stepped statement %p to row %d", statement, totalRows);
             retryCount = 0;
@@ -741,13 +1149,17 @@ static jlong nativeExecuteForCursorWindow(
             CopyRowResult cpr = copyRow(env, window, statement, numColumns, startPos, addedRows);
             if (cpr == CPR_FULL && addedRows && startPos + addedRows <= requiredPos) {
                 // We filled the window before we got to the one row that we really wanted.
-                // Clear the window and start filling it again from here.
-                // TODO: Would be nicer if we could progressively replace earlier rows.
-                window->clear();
-                window->setNumColumns(numColumns);
-                startPos += addedRows;
-                addedRows = 0;
-                cpr = copyRow(env, window, statement, numColumns, startPos, addedRows);
+                // Evict the leading half of the window and keep filling from here, so the
+                // window slides forward and still holds the rows just before requiredPos.
+                while (cpr == CPR_FULL && addedRows) {
+                    int evictedRows = (addedRows + 1) / 2;
+                    if (window->removeLeadingRows(evictedRows)) {
+                        break;
+                    }
+                    startPos += evictedRows;
+                    addedRows -= evictedRows;
+                    cpr = copyRow(env, window, statement, numColumns, startPos, addedRows);
+                }
                 if(cpr == CPR_FULL){
                     throw_sqlite3_exception(env, "Row too big to fit in CursorWindow");
                 }
@@ -782,13 +1194,23 @@ static jlong nativeExecuteForCursorWindow(
         }
     }
 
-    ALOGD("Resetting statement %p after fetching %d rows and adding %d rows"
-          "to the window in %zu bytes",
-          statement, totalRows, addedRows, window->size() - window->freeSpace());
-    sqlite3_reset(statement);
+    // When the window filled up, the statement is on the first row that did not fit.
+    // Leave it there on request so the next call for the following rows can resume.
+    if (keepPositioned && windowFull && !countAllRows && !gotException
+            && !env->ExceptionCheck()) {
+        ALOGD("Keeping statement %p on row %d after adding %d rows "
+              "to the window in %zu bytes",
+              statement, totalRows - 1, addedRows, window->size() - window->freeSpace());
+    } else {
+        ALOGD("Resetting statement %p after fetching %d rows and adding %d rows"
+              "to the window in %zu bytes",
+              statement, totalRows, addedRows, window->size() - window->freeSpace());
+        sqlite3_reset(statement);
+    }
 
-    // Report the total number of rows on request.
-    if (startPos > totalRows) {
+    // Report the total number of rows on request.  A negative requiredPos asks only
+    // for the count, with startPos past every row.
+    if (startPos > totalRows && requiredPos >= 0) {
         ALOGE("startPos %d > actual rows %d", startPos, totalRows);
     }
     jlong result = jlong(startPos) << 32 | jlong(totalRows);
@@ -803,6 +1225,30 @@ static jint nativeGetDbLookaside(JNIEnv* env, jobject clazz, jlong connectionPtr
     return cur;
 }
 
+static jint nativeGetDbCacheUsed(JNIEnv* env, jobject clazz, jlong connectionPtr) {
+    auto* connection = reinterpret_cast<SQLiteConnection*>(connectionPtr);
+    int cur = -1;
+    int unused;
+    sqlite3_db_status(connection->db, SQLITE_DBSTATUS_CACHE_USED, &cur, &unused, 0);
+    return cur;
+}
+
+static jint nativeReleaseMemory(JNIEnv* env, jobject clazz, jlong connectionPtr) {
+    auto* connection = reinterpret_cast<SQLiteConnection*>(connectionPtr);
+    int before = 0;
+    int after = 0;
+    int unused;
+    sqlite3_db_status(connection->db, SQLITE_DBSTATUS_CACHE_USED, &before, &unused, 0);
+    sqlite3_db_release_memory(connection->db);
+    sqlite3_db_status(connection->db, SQLITE_DBSTATUS_CACHE_USED, &after, &unused, 0);
+    return before > after ? before - after : 0;
+}
+
+static jboolean nativeIsAutoCommit(JNIEnv* env, jobject clazz, jlong connectionPtr) {
+    auto* connection = reinterpret_cast<SQLiteConnection*>(connectionPtr);
+    return sqlite3_get_autocommit(connection->db) != 0;
+}
+
 static void nativeCancel(JNIEnv* env, jobject clazz, jlong connectionPtr) {
     auto* connection = reinterpret_cast<SQLiteConnection*>(connectionPtr);
     connection->canceled = true;
@@ -844,14 +1290,14 @@ static JNINativeMethod sMethods[] =
             (void*)nativeRegisterCustomFunction },
     { "nativeRegisterLocalizedCollators", "(JLjava/lang/String;)V",
             (void*)nativeRegisterLocalizedCollators },
-    { "nativePrepareStatement", "(JLjava/lang/String;)J",
+    { "nativePrepareStatement", "(JLjava/lang/String;[I)J",
             (void*)nativePrepareStatement },
     { "nativeFinalizeStatement", "(JJ)V",
             (void*)nativeFinalizeStatement },
-    { "nativeGetParameterCount", "(JJ)I",
-            (void*)nativeGetParameterCount },
-    { "nativeIsReadOnly", "(JJ)Z",
-            (void*)nativeIsReadOnly },
+    { "nativeGetStatementMemoryUsed", "(JJ)I",
+            (void*)nativeGetStatementMemoryUsed },
+    { "nativeGetReprepareCount", "(JJ)I",
+            (void*)nativeGetReprepareCount },
     { "nativeGetColumnCount", "(JJ)I",
             (void*)nativeGetColumnCount },
     { "nativeGetColumnName", "(JJI)Ljava/lang/String;",
@@ -866,6 +1312,8 @@ static JNINativeMethod sMethods[] =
             (void*)nativeBindString },
     { "nativeBindBlob", "(JJI[B)V",
             (void*)nativeBindBlob },
+    { "nativeBindAll", "(JJ[J[D[Ljava/lang/Object;[B)V",
+            (void*)nativeBindAll },
     { "nativeResetStatementAndClearBindings", "(JJ)V",
             (void*)nativeResetStatementAndClearBindings },
     { "nativeExecuteRaw", "(JJ)V",
@@ -880,12 +1328,22 @@ static JNINativeMethod sMethods[] =
             (void*)nativeExecuteForBlobFileDescriptor },
     { "nativeExecuteForChangedRowCount", "(JJ)I",
             (void*)nativeExecuteForChangedRowCount },
+    { "nativeExecuteBatch", "(JJI[B[J[D[Ljava/lang/Object;)I",
+            (void*)nativeExecuteBatch },
+    { "nativeExecuteColumnBatch", "(JJI[B[Ljava/lang/Object;[Ljava/lang/Object;)I",
+            (void*)nativeExecuteColumnBatch },
     { "nativeExecuteForLastInsertedRowId", "(JJ)J",
             (void*)nativeExecuteForLastInsertedRowId },
-    { "nativeExecuteForCursorWindow", "(JJJIIZ)J",
+    { "nativeExecuteForCursorWindow", "(JJJIIZIZ)J",
             (void*)nativeExecuteForCursorWindow },
     { "nativeGetDbLookaside", "(J)I",
             (void*)nativeGetDbLookaside },
+    { "nativeGetDbCacheUsed", "(J)I",
+            (void*)nativeGetDbCacheUsed },
+    { "nativeReleaseMemory", "(J)I",
+            (void*)nativeReleaseMemory },
+    { "nativeIsAutoCommit", "(J)Z",
+            (void*)nativeIsAutoCommit },
     { "nativeCancel", "(J)V",
             (void*)nativeCancel },
     { "nativeResetCancel", "(JZ)V",